@@ -1,9 +1,19 @@
 package com.jenmaarai.llanfair;
 
 import com.jenmaarai.llanfair.conf.Property;
-import com.jenmaarai.llanfair.control.Input;
+import com.jenmaarai.llanfair.control.AttemptJournal;
+import com.jenmaarai.llanfair.control.HistoryRecorder;
+import com.jenmaarai.llanfair.control.HotkeyListener;
+import com.jenmaarai.llanfair.control.Metrics;
+import com.jenmaarai.llanfair.control.PersistenceService;
+import com.jenmaarai.llanfair.control.SplitEvent;
+import com.jenmaarai.llanfair.control.SplitEventBus;
 import com.jenmaarai.llanfair.control.Splitter;
+import com.jenmaarai.llanfair.model.AtomicFile;
+import com.jenmaarai.llanfair.model.AttemptHistory;
 import com.jenmaarai.llanfair.model.Run;
+import com.jenmaarai.llanfair.model.RunLibrary;
+import com.jenmaarai.llanfair.model.Statistics;
 import com.jenmaarai.llanfair.view.BlockView;
 import com.jenmaarai.sidekick.locale.Localizer;
 import java.awt.event.WindowAdapter;
@@ -11,15 +21,16 @@ import java.awt.event.WindowEvent;
 import java.io.IOException;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import javax.swing.JFrame;
 import javax.swing.SwingUtilities;
 import org.jnativehook.GlobalScreen;
 import org.jnativehook.NativeHookException;
-import org.jnativehook.SwingDispatchService;
-import org.jnativehook.keyboard.NativeKeyEvent;
-import org.jnativehook.keyboard.NativeKeyListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,7 +48,48 @@ public class Llanfair extends JFrame {
     */
    public static final int ERROR_NATIVE_HOOK = 2;
    
+   /**
+    * File storing the settings of the application.
+    */
+   private static final Path SETTINGS = Paths.get("settings", "llanfair.xml");
+   
+   /**
+    * Period, in seconds, at which the clock is checked for wall clock jumps.
+    */
+   private static final long DRIFT_PERIOD = 10L;
+   
    private Splitter splitter = new Splitter();
+   private AttemptHistory history = null;
+   private AttemptJournal journal = null;
+   private PersistenceService persistence = null;
+   private PersistenceService.Document runDocument = null;
+   private RunLibrary library = null;
+   private Path runPath = null;
+   
+   /**
+    * Whether the run was imported from XML or LiveSplit and has yet to be
+    * saved in the binary format.
+    */
+   private boolean runImported = false;
+   
+   /**
+    * Whether the file of the run exists but could not be read. The run is
+    * then never saved, nor are its attempts recorded, so that the file can
+    * be fixed and read again on the next start.
+    */
+   private boolean runUnreadable = false;
+   
+   /**
+    * Executor performing the file operations of the application and the
+    * periodic checks of the clock.
+    */
+   private final ScheduledExecutorService io 
+           = Executors.newSingleThreadScheduledExecutor(
+           (task) -> {
+              Thread thread = new Thread(task, "llanfair-io");
+              thread.setDaemon(true);
+              return thread;
+           });
    
    /**
     * Application building begins when a new Llanfair instance is invoked.
@@ -48,22 +100,87 @@ public class Llanfair extends JFrame {
       Localizer.initialize("lang", false);
       
       configure();
-      setNativeHook();
-      setShutdownHook();
+      openLibrary();
+      splitter.setRun(loadRun());
+      
+      // Durable consumers first, so that no attempt can escape them
+      openPersistence();
+      if (!runUnreadable) {
+         openJournal();
+         openHistory();
+      }
+      
       createView();
+      setShutdownHook();
       resolve();
-      
-      splitter.setRun(Run.readFile(Paths.get("alttp.xml")));
+      io.scheduleAtFixedRate(
+              splitter.getClock()::checkDrift, DRIFT_PERIOD, DRIFT_PERIOD,
+              TimeUnit.SECONDS);
+      setNativeHook();
    }
    
    /**
     * Main entry point of the application.
     * Takes care of command line arguments and launches the application itself.
+    * With {@code --stats [history]}, prints the statistics of an attempt 
+    * history instead, without opening any window. The history defaults to
+    * that of the last run opened.
     */
    public static void main(String[] args) {
+      if (args.length > 0 && args[0].equals("--stats")) {
+         Path path;
+         if (args.length > 1) {
+            path = Paths.get(args[1]);
+         } else {
+            loadSettings();
+            path = RunLibrary.sibling(
+                    Paths.get(Property.lastRun.<String>get()), 
+                    RunLibrary.HISTORY);
+         }
+         printStatistics(path);
+         return;
+      }
       SwingUtilities.invokeLater(() -> new Llanfair());
    }
    
+   /**
+    * Prints the per-segment statistics of an attempt history, in seconds.
+    */
+   private static void printStatistics(Path path) {
+      Statistics statistics = new Statistics();
+      try (AttemptHistory history = AttemptHistory.open(path)) {
+         statistics.rebuild(history);
+      } catch (IOException x) {
+         LOG.error("Cannot read attempt history ({})", x.getMessage());
+         return;
+      }
+      System.out.printf(
+              "%d attempts, %d completed%n", statistics.getAttemptCount(), 
+              statistics.getCompletedCount());
+      System.out.printf(
+              "%4s %6s %10s %10s %10s %10s %10s %6s %6s%n", "#", "n", "mean", 
+              "stddev", "p10", "p50", "p90", "gold", "reset");
+      for (int i = 0; i < statistics.getSegmentCount(); i++) {
+         System.out.printf(
+                 "%4d %6d %10.3f %10.3f %10.3f %10.3f %10.3f %5.1f%% %5.1f%%%n",
+                 i + 1, statistics.getSampleCount(i), 
+                 seconds(statistics.getMean(i)), 
+                 seconds(statistics.getStandardDeviation(i)), 
+                 seconds(statistics.getQuantile(i, 0.1)), 
+                 seconds(statistics.getMedian(i)), 
+                 seconds(statistics.getQuantile(i, 0.9)), 
+                 statistics.getGoldRate(i) * 100.0, 
+                 statistics.getResetRate(i) * 100.0);
+      }
+   }
+   
+   /**
+    * Converts nanoseconds to seconds, undefined times becoming NaN.
+    */
+   private static double seconds(long nanos) {
+      return nanos == Run.UNDEFINED ? Double.NaN : nanos / 1e9;
+   }
+   
    /**
     * Configures the application.
     * Creates default directory structure, initializes properties and loads
@@ -82,45 +199,224 @@ public class Llanfair extends JFrame {
          Localizer.error(this, "errorDirectoryCreate", x.getMessage());
          System.exit(ERROR_DIRECTORY_CREATE);
       }
+      loadSettings();
+   }
+   
+   /**
+    * Initializes the properties and loads the settings, which are then saved
+    * to the same file. Settings that cannot be read are not saved, so that
+    * their file can be fixed.
+    */
+   private static void loadSettings() {
       Property.initialize();
+      if (!Files.exists(SETTINGS)) {
+         Property.setPath(SETTINGS, false);
+      } else if (!Property.load(SETTINGS.toString(), false)) {
+         LOG.error("Cannot read settings '{}', they will not be saved", 
+                   SETTINGS);
+      }
    }
    
    /**
     * Registers native hook for global hotkeys.
+    * Key events are delivered on the dispatch thread of the native hook so
+    * that they can be timestamped before being queued on the EDT.
     */
    private void setNativeHook() {
       Level logLevel = Level.WARNING;
       java.util.logging.Logger.getLogger("org.jnativehook").setLevel(logLevel);
       try {
          GlobalScreen.registerNativeHook();
-         GlobalScreen.setEventDispatcher(new SwingDispatchService());
       } catch (NativeHookException x) {
          LOG.error("Cannot register native hook, cause: {}", x.getMessage());
          Localizer.error(this, "errorNativeHook", x.getMessage());
          System.exit(ERROR_NATIVE_HOOK);
       }
-      
-      GlobalScreen.addNativeKeyListener(new NativeKeyListener() {
-         @Override
-         public void nativeKeyPressed(NativeKeyEvent event) {
-            Splitter.State state = splitter.getState();
-            if (Property.keySplit.<Input>get().equals(event)) {
-               if (state == Splitter.State.READY) {
-                  splitter.start();
-               } else if (state == Splitter.State.RUNNING) {
-                  splitter.split();
-               } 
-            } else if (Property.keyReset.<Input>get().equals(event)) {
-               if (state != Splitter.State.READY) {
-                  splitter.reset(false);
-               }
-            }
+      GlobalScreen.addNativeKeyListener(new HotkeyListener(splitter));
+   }
+   
+   /**
+    * Opens the run library and starts indexing it in the background. Runs
+    * are still loaded by path if the library cannot be opened.
+    */
+   private void openLibrary() {
+      String directory = Property.libraryDirectory.get();
+      try {
+         library = RunLibrary.open(Paths.get(directory));
+         library.start();
+      } catch (IOException x) {
+         LOG.error("Cannot open run library ({})", x.getMessage());
+      }
+   }
+   
+   /**
+    * Loads the last run opened, importing it from XML or from LiveSplit if
+    * it has never been saved in the binary format. Runs found in the library
+    * are loaded through it, so that their metadata is not read again.
+    * Returns null if there is no such run or if it cannot be read, in which
+    * case the error is reported to the user.
+    */
+   private Run loadRun() {
+      Path last = Paths.get(Property.lastRun.<String>get());
+      runPath = RunLibrary.sibling(last, "run");
+      Path xml = RunLibrary.sibling(last, "xml");
+      Path lss = RunLibrary.sibling(last, "lss");
+      Path source;
+      Run run;
+      if (Files.exists(runPath)) {
+         RunLibrary.Entry entry 
+                 = library == null ? null : library.getEntry(runPath);
+         source = runPath;
+         run = entry == null ? Run.load(runPath) : library.load(entry);
+      } else if (Files.exists(xml)) {
+         source = xml;
+         run = Run.readFile(xml);
+      } else if (Files.exists(lss)) {
+         source = lss;
+         run = importLiveSplit(lss);
+      } else {
+         return null;
+      }
+      if (run == null) {
+         LOG.error("Cannot read run '{}', it will not be saved", source);
+         Localizer.error(this, "errorRunRead", source);
+         runUnreadable = true;
+      } else {
+         runImported = source != runPath;
+         // The run is opened from its binary file from now on
+         if (!runPath.toString().equals(Property.lastRun.get())) {
+            Property.lastRun.set(runPath.toString());
+         }
+      }
+      return run;
+   }
+   
+   /**
+    * Imports a run from LiveSplit, along with its attempts if the run has no
+    * history yet. The history is removed again if the run cannot be
+    * imported, so that its attempts are imported along with it next time.
+    */
+   private Run importLiveSplit(Path lss) {
+      Path path = RunLibrary.sibling(runPath, RunLibrary.HISTORY);
+      if (Files.exists(path)) {
+         return Run.importLiveSplit(lss, null);
+      }
+      Run run;
+      try (AttemptHistory imported = AttemptHistory.open(path)) {
+         run = Run.importLiveSplit(lss, imported);
+      } catch (IOException x) {
+         LOG.error("Cannot import attempt history ({})", x.getMessage());
+         return Run.importLiveSplit(lss, null);
+      }
+      if (run == null) {
+         try {
+            Files.deleteIfExists(path);
+         } catch (IOException x) {
+            LOG.warn("Cannot remove attempt history ({})", x.getMessage());
+         }
+      }
+      return run;
+   }
+   
+   /**
+    * Opens the journal of the current run, replays the attempts it holds and
+    * starts journaling new attempts. Attempts replayed after a crash are
+    * saved right away. Attempts are not journaled if the journal cannot be
+    * opened.
+    */
+   private void openJournal() {
+      try {
+         journal = AttemptJournal.open(
+                 RunLibrary.sibling(runPath, "journal"), io);
+         if (journal.replay(splitter) > 0) {
+            runDocument.markDirty();
          }
-         @Override public void nativeKeyReleased(NativeKeyEvent e) {}
-         @Override public void nativeKeyTyped(NativeKeyEvent e) {}
+         splitter.getEventBus().subscribe(
+                 "journal", journal, io, 1024, 
+                 SplitEventBus.Overflow.GROW);
+      } catch (IOException x) {
+         LOG.error("Cannot open attempt journal ({})", x.getMessage());
+      }
+   }
+   
+   /**
+    * Starts saving the run, the settings and the theme in the background
+    * whenever they change. Once the run has been saved, the attempts it holds
+    * are dropped from the journal. A run that was imported is saved right
+    * away, while a run that could not be read is never saved.
+    */
+   private void openPersistence() {
+      persistence = new PersistenceService(io, 1000L, 10000L);
+      runDocument = persistence.register("run", () -> {
+         if (runUnreadable) {
+            return null;
+         }
+         long committed = splitter.getLastCommit();
+         byte[] content = splitter.getRun().encode();
+         if (content == null) {
+            return null;
+         }
+         return () -> {
+            AtomicFile.write(runPath, (out) -> out.write(content));
+            if (journal != null) {
+               journal.checkpoint(committed);
+            }
+         };
+      });
+      if (runImported) {
+         runDocument.markDirty();
+      }
+      splitter.getEventBus().subscribe(
+              "persistence", (event) -> {
+                 if (event.getType() == SplitEvent.Type.RUN_UPDATE) {
+                    runDocument.markDirty();
+                 }
+              }, io, 256, SplitEventBus.Overflow.GROW);
+      PersistenceService.Document settings 
+              = persistence.register("settings", () -> export(false));
+      PersistenceService.Document theme 
+              = persistence.register("theme", () -> export(true));
+      Property.addChangeListener((event) -> {
+         settings.markDirty();
+         theme.markDirty();
       });
    }
    
+   /**
+    * Returns a snapshot of the unsaved changes of the theme if theme is true,
+    * or of the settings otherwise, or null if there are none or they have no
+    * file.
+    */
+   private static PersistenceService.Snapshot export(boolean theme) {
+      Path path = Property.getPath(theme);
+      byte[] content = path == null ? null : Property.export(theme);
+      if (content == null) {
+         return null;
+      }
+      return () -> AtomicFile.write(path, (out) -> out.write(content));
+   }
+   
+   /**
+    * Opens the history of the current run and starts recording attempts in it.
+    * Statistics are rebuilt from the history on the I/O thread, before any 
+    * new attempt is ingested. Attempts are not recorded if the history cannot
+    * be opened.
+    */
+   private void openHistory() {
+      try {
+         history = AttemptHistory.open(
+                 RunLibrary.sibling(runPath, RunLibrary.HISTORY));
+         AttemptHistory opened = history;
+         Statistics statistics = splitter.getStatistics();
+         io.execute(() -> statistics.rebuild(opened));
+         splitter.getEventBus().subscribe(
+                 "history", new HistoryRecorder(splitter, history, statistics), 
+                 io, 256, SplitEventBus.Overflow.GROW);
+      } catch (IOException x) {
+         LOG.error("Cannot open attempt history ({})", x.getMessage());
+      }
+   }
+   
    /**
     * Defines the behavior of the application when the user tries to exit.
     */
@@ -138,14 +434,61 @@ public class Llanfair extends JFrame {
                   LOG.warn("Failed to clean native hook ({})", y.getMessage());
                }
             }
-            splitter.getRun().writeFile(Paths.get("alttp.xml"));
-            Property.save(false);
-            Property.save(true);
+            persistence.flush();
+            closeFiles();
+            LOG.info("Latency {}", Metrics.HOOK_TO_SPLIT);
+            LOG.info("Latency {}", Metrics.SPLIT_TO_PIXELS);
+            LOG.info("Latency {}", Metrics.CLOCK_DRIFT);
+            LOG.info(
+                    "Latency {}, {} failed", Metrics.PERSISTENCE, 
+                    persistence.getFailures());
+            for (SplitEventBus.Subscription subscription 
+                    : splitter.getEventBus().getSubscriptions()) {
+               LOG.info(
+                       "Latency {}, {} dropped", subscription.getLatency(), 
+                       subscription.getDropped());
+            }
             LOG.info("...Application closed");
          }
       });
    }
    
+   /**
+    * Waits for pending file operations and closes the history, the journal
+    * and the library.
+    */
+   private void closeFiles() {
+      io.shutdown();
+      try {
+         if (!io.awaitTermination(5L, TimeUnit.SECONDS)) {
+            LOG.warn("Pending file operations did not terminate");
+         }
+      } catch (InterruptedException x) {
+         Thread.currentThread().interrupt();
+      }
+      if (history != null) {
+         try {
+            history.close();
+         } catch (IOException x) {
+            LOG.warn("Failed to close history ({})", x.getMessage());
+         }
+      }
+      if (journal != null) {
+         try {
+            journal.close();
+         } catch (IOException x) {
+            LOG.warn("Failed to close journal ({})", x.getMessage());
+         }
+      }
+      if (library != null) {
+         try {
+            library.close();
+         } catch (IOException x) {
+            LOG.warn("Failed to close library ({})", x.getMessage());
+         }
+      }
+   }
+   
    /**
     * Creates and places the UI element of this application.
     */
@@ -1,19 +1,26 @@
 package com.jenmaarai.llanfair.conf;
 
 import com.jenmaarai.llanfair.control.Input;
+import com.jenmaarai.llanfair.model.AtomicFile;
 import com.jenmaarai.llanfair.view.BlockLayout;
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.XStreamException;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.regex.Pattern;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.EventListenerList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,6 +36,10 @@ import org.slf4j.LoggerFactory;
  * {@link #define(String, Object)} to register the properties along with
  * their default values and can then use {@link #get(String)} and
  * {@link #set(String, Object)} to manipulate them.
+ *
+ * <p>Keys can be namespaced by a common prefix, such as {@code timer} or
+ * {@code block.timer.}, and the properties sharing a prefix can be read at
+ * once with {@link #getGroup(String)}.
  */
 public class Configuration implements Serializable {
    
@@ -49,6 +60,8 @@ public class Configuration implements Serializable {
    private boolean unsaved;
    private SortedMap<String, Object> values;
    private SortedMap<String, Object> defaults;
+   private transient EventListenerList listeners = new EventListenerList();
+   private transient Map<String, SortedMap<String, Object>> groups = null;
    
    /**
     * Creates an empty configuration.
@@ -102,6 +115,25 @@ public class Configuration implements Serializable {
       return path;
    }
 
+   /**
+    * Registers a change listener with this configuration. The listener is
+    * notified whenever this configuration gets unsaved changes.
+    */
+   public void addChangeListener(ChangeListener listener) {
+      if (listener == null) {
+         LOG.error("Null change listener");
+         throw new IllegalArgumentException("null listener");
+      }
+      listeners.add(ChangeListener.class, listener);
+   }
+
+   /**
+    * Unregisters a change listener from this configuration.
+    */
+   public void removeChangeListener(ChangeListener listener) {
+      listeners.remove(ChangeListener.class, listener);
+   }
+
    /**
     * Returns true if no properties have been defined for this configuration.
     */
@@ -135,6 +167,7 @@ public class Configuration implements Serializable {
       }
       values.put(key, value);
       defaults.put(key, value);
+      invalidate();
    }
 
    /**
@@ -149,7 +182,8 @@ public class Configuration implements Serializable {
       }
       values.remove(key);
       defaults.remove(key);
-      unsaved = true;
+      invalidate();
+      changed();
    }
 
    /**
@@ -177,6 +211,9 @@ public class Configuration implements Serializable {
     * properties whose key matches the specified regular expression. The caller
     * may specify the expected unique type of the returned value if he knows
     * exactly what will be returned or simply use {@code Object}.
+    *
+    * <p>Only the keys starting with the literal prefix of the expression, if
+    * any, are tested against it.
     */
    @SuppressWarnings("unchecked")
    public <T> SortedMap<String, T> getAll(Pattern regex) {
@@ -184,13 +221,39 @@ public class Configuration implements Serializable {
          LOG.error("Regular expression is null");
          throw new IllegalArgumentException("null regex");
       }
+      String prefix = regex.flags() == 0 ? literalPrefix(regex.pattern()) : "";
       SortedMap<String, T> subMap = new TreeMap<>();
-      values.keySet().stream()
+      range(values, prefix).keySet().stream()
             .filter(k -> regex.matcher(k).matches())
             .forEach(k -> subMap.put(k, (T) values.get(k)));
       return subMap;
    }
 
+   /**
+    * Returns an immutable map of the values of all properties whose key
+    * starts with the given prefix, which may be empty. Views are cached 
+    * until a property is defined, modified or loaded, so that repeated 
+    * lookups of a group cost a hash lookup and do not allocate; the first
+    * lookup only goes through the keys of the group.
+    */
+   @SuppressWarnings("unchecked")
+   public <T> SortedMap<String, T> getGroup(String prefix) {
+      if (prefix == null) {
+         LOG.error("Null group prefix");
+         throw new IllegalArgumentException("null prefix");
+      }
+      if (groups == null) {
+         groups = new HashMap<>();
+      }
+      SortedMap<String, Object> group = groups.get(prefix);
+      if (group == null) {
+         group = Collections.unmodifiableSortedMap(
+                 new TreeMap<>(range(values, prefix)));
+         groups.put(prefix, group);
+      }
+      return (SortedMap<String, T>) group;
+   }
+
    /**
     * Assigns a new value to a property. Using this method will never create a
     * property. The caller must define the property before hand by calling
@@ -206,7 +269,8 @@ public class Configuration implements Serializable {
          throw new IllegalArgumentException("property has not been defined");
       }
       values.put(key, value);
-      unsaved = true;
+      invalidate();
+      changed();
    }
 
    /**
@@ -215,7 +279,8 @@ public class Configuration implements Serializable {
     */
    public void reset() {
       defaults.keySet().stream().forEach(k -> values.put(k, defaults.get(k)));
-      unsaved = true;
+      invalidate();
+      changed();
    }
 
    /**
@@ -263,7 +328,11 @@ public class Configuration implements Serializable {
                   unsaved = true;
                });
          values = inputMap;
+         invalidate();
          setPath(path);
+         if (unsaved) {
+            changed();
+         }
       } catch (IOException x) {
          LOG.error("'{}' cannot be read ({})", path, x.getMessage());
          throw x;
@@ -280,9 +349,9 @@ public class Configuration implements Serializable {
     * remain and the configuration file is in the same state than the current
     * configuration instance.
     * 
-    * <p>In the event of an {@code IOException} being raised while overwriting
-    * a configuration file, the exact state of the file cannot be ascertained 
-    * and it is best assumed that the file has been corrupted.
+    * <p>The file is replaced atomically; if an {@code IOException} is raised
+    * while writing it, the configuration file is left as it was and the
+    * changes remain unsaved.
     *
     * @throws IOException if the stream cannot be opened or written
     * @throws IllegalArgumentException if no path has been defined
@@ -293,17 +362,90 @@ public class Configuration implements Serializable {
             LOG.error("No path has been defined for the configuration");
             throw new IllegalArgumentException("no defined path");
          }
-         try (BufferedWriter writer = Files.newBufferedWriter(path)) {
-            writer.write(XSTREAM.toXML(values));
-            unsaved = false;
+         byte[] content = export();
+         try {
+            AtomicFile.write(path, (out) -> out.write(content));
          } catch (IOException x) {
             LOG.error("'{}' cannot be written ({})", path, x.getMessage());
+            unsaved = true;
             throw x;
-         } catch (XStreamException x) {
-            LOG.error("Cannot marshall to XML ({})", x.getMessage());
-            throw new IllegalArgumentException("marshalling failed");
          }
       }
    }
 
+   /**
+    * Returns the XML content of this configuration and considers it saved,
+    * or returns null if it has no unsaved changes. Allows the content to be
+    * written to the file of the configuration on another thread.
+    *
+    * @throws IllegalArgumentException if the content cannot be marshalled
+    */
+   public byte[] export() {
+      if (!unsaved) {
+         return null;
+      }
+      try {
+         byte[] content 
+                 = XSTREAM.toXML(values).getBytes(StandardCharsets.UTF_8);
+         unsaved = false;
+         return content;
+      } catch (XStreamException x) {
+         LOG.error("Cannot marshall to XML ({})", x.getMessage());
+         throw new IllegalArgumentException("marshalling failed");
+      }
+   }
+
+   /**
+    * Discards the cached group views after the values have changed.
+    */
+   private void invalidate() {
+      if (groups != null) {
+         groups.clear();
+      }
+   }
+
+   /**
+    * Returns the part of a map whose keys start with the given prefix.
+    */
+   private static SortedMap<String, Object> range(
+           SortedMap<String, Object> map, String prefix) {
+      if (prefix.isEmpty()) {
+         return map;
+      }
+      return map.subMap(prefix, prefix + Character.MAX_VALUE);
+   }
+
+   /**
+    * Returns the literal text that any string matching the given regular
+    * expression must start with, possibly empty.
+    */
+   private static String literalPrefix(String regex) {
+      if (regex.indexOf('|') >= 0) {
+         return "";
+      }
+      int length = 0;
+      while (length < regex.length()
+              && "\\[](){}.*+?^$|".indexOf(regex.charAt(length)) < 0) {
+         length++;
+      }
+      // A quantifier may make the last literal character optional
+      if (length < regex.length() && length > 0
+              && "?*{".indexOf(regex.charAt(length)) >= 0) {
+         length--;
+      }
+      return regex.substring(0, length);
+   }
+
+   /**
+    * Records unsaved changes and notifies every change listener.
+    */
+   private void changed() {
+      unsaved = true;
+      ChangeEvent event = new ChangeEvent(this);
+      for (ChangeListener listener 
+              : listeners.getListeners(ChangeListener.class)) {
+         listener.stateChanged(event);
+      }
+   }
+
 }
@@ -1,12 +1,17 @@
 package com.jenmaarai.llanfair.conf;
 
 import com.jenmaarai.llanfair.control.Input;
+import com.jenmaarai.llanfair.model.Comparison;
 import com.jenmaarai.llanfair.view.BlockLayout;
+import java.awt.Color;
 import java.awt.Font;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Objects;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,6 +22,11 @@ public enum Property {
     */
    alwaysOnTop(false, false),
    
+   /**
+    * Target frame rate of the animated blocks, or 0 to follow the display.
+    */
+   renderFps(0, false),
+   
    /**
     * Key stroke used to split the run, defaults to the spacebar.
     */
@@ -27,6 +37,49 @@ public enum Property {
     */
    keyReset(new Input(19), false),
    
+   /**
+    * Key stroke used to undo the last split, unbound by default.
+    */
+   keyUndo(new Input(0), false),
+   
+   /**
+    * Key stroke used to skip the current split, unbound by default.
+    */
+   keySkip(new Input(0), false),
+   
+   /**
+    * Key stroke used to pause or resume the run, unbound by default.
+    */
+   keyPause(new Input(0), false),
+   
+   /**
+    * Key stroke used to switch to the next comparison, unbound by default.
+    */
+   keyComparison(new Input(0), false),
+   
+   /**
+    * Key stroke used to disable or enable the other hotkeys, unbound by 
+    * default.
+    */
+   keyToggle(new Input(0), false),
+   
+   /**
+    * Comparison that the current attempt is compared against.
+    */
+   comparison(Comparison.PERSONAL_BEST, false),
+   
+   /**
+    * Run file opened when the application starts. The run is saved next to
+    * it in the binary format, along with its history and journal, and this
+    * property then points to the binary file.
+    */
+   lastRun("alttp.run", false),
+   
+   /**
+    * Directory tree of run files indexed by the run library.
+    */
+   libraryDirectory("runs", false),
+   
    /**
     * Complete layout of the application.
     */
@@ -40,13 +93,23 @@ public enum Property {
    /**
     * Background color for the Timer block.
     */
-   timerColorBackground(null, true),
+   timerColorBackground(Color.class, null, true),
    
    /**
     * Main font for the Timer block.
     */
    timerMainFont(Font.decode("Arial 36"), true),
    
+   /**
+    * Number of decimal digits displayed by the Timer block, from 0 to 3.
+    */
+   timerPrecision(2, true),
+   
+   /**
+    * Whether the Timer block omits hours and minutes when they are zero.
+    */
+   timerCompact(true, true),
+   
    /**
     * Screen coordinate of the application top left corner, along the x axis.
     */
@@ -59,12 +122,49 @@ public enum Property {
    
    private static final Logger LOG = LoggerFactory.getLogger(Property.class);
    
-   private static final Map<Boolean, Configuration> STORES = new HashMap<>();
+   private static final Property[] VALUES = values();
+   
+   /**
+    * Current value of every property, indexed by ordinal. A published array
+    * is never modified: updates publish a modified copy instead, so that a
+    * property is read with a single array load from any thread.
+    */
+   private static volatile Object[] snapshot = null;
+   
+   private static Configuration settings = null;
+   private static Configuration theme = null;
    
+   private static volatile int revision = 0;
+   
+   /**
+    * Listeners subscribed to each property, indexed by ordinal. Arrays are
+    * replaced rather than modified, so that they can be dispatched to while
+    * listeners subscribe or unsubscribe.
+    */
+   private static final PropertyListener[][] listeners 
+           = new PropertyListener[VALUES.length][];
+   
+   /**
+    * Properties changed since the last dispatch, indexed by ordinal, and 
+    * whether a dispatch is queued on the event dispatch thread.
+    */
+   private static final boolean[] changed = new boolean[VALUES.length];
+   private static boolean dispatchQueued = false;
+   
+   static {
+      Arrays.fill(listeners, new PropertyListener[0]);
+   }
+   
+   private final Class<?> type;
    private final Object defaultValue;
    private final boolean isTheme;
    
    private Property(Object defaultValue, boolean isTheme) {
+      this(defaultValue.getClass(), defaultValue, isTheme);
+   }
+   
+   private Property(Class<?> type, Object defaultValue, boolean isTheme) {
+      this.type = type;
       this.defaultValue = defaultValue;
       this.isTheme = isTheme;
    }
@@ -74,14 +174,27 @@ public enum Property {
     * invoked as soon as possible during the application startup to make sure
     * that properties are accessible.
     */
-   public static void initialize() {
-      STORES.put(true, new Configuration());
-      STORES.put(false, new Configuration());
+   public static synchronized void initialize() {
+      settings = new Configuration();
+      theme = new Configuration();
       
-      for (Property property : values()) {
-         STORES.get(property.isTheme)
+      Object[] values = new Object[VALUES.length];
+      for (Property property : VALUES) {
+         store(property.isTheme)
                .define(property.name(), property.defaultValue);
+         values[property.ordinal()] = property.defaultValue;
+         markChanged(property);
       }
+      snapshot = values;
+      revision++;
+   }
+   
+   /**
+    * Returns a number that changes whenever the value of any property may
+    * have changed. Allows callers to cache values derived from properties.
+    */
+   public static int getRevision() {
+      return revision;
    }
    
    /**
@@ -94,17 +207,13 @@ public enum Property {
     * theme, otherwise it will be loaded as a set of settings.
     */
    public static boolean load(String file, boolean theme) {
-      Configuration configuration = STORES.get(theme);
-      if (configuration == null) {
-         LOG.error("Configuration has not been initialized");
-         throw new IllegalStateException("configuration not initialized");
-      }
       try {
-         configuration.load(Paths.get(file));
-         return true;
+         store(theme).load(Paths.get(file));
       } catch (IOException | IllegalArgumentException x) {
          return false;
       }
+      refresh(theme);
+      return true;
    }
    
    /**
@@ -117,19 +226,214 @@ public enum Property {
     * settings otherwise.
     */
    public static boolean save(boolean theme) {
-      Configuration configuration = STORES.get(theme);
-      if (configuration == null) {
-         LOG.error("Configuration has not been initialized");
-         throw new IllegalStateException("configuration not initialized");
-      }
       try {
-         configuration.save();
+         store(theme).save();
          return true;
       } catch (IOException | IllegalArgumentException x) {
          return false;
       }
    }
    
+   /**
+    * Returns the file of the current theme if theme is true, or of the 
+    * current set of settings otherwise, or null if there is none.
+    */
+   public static Path getPath(boolean theme) {
+      return store(theme).getPath();
+   }
+   
+   /**
+    * Defines the file where the current theme is saved if theme is true, or
+    * the current set of settings otherwise. The file does not have to exist.
+    */
+   public static void setPath(Path path, boolean theme) {
+      store(theme).setPath(path);
+   }
+   
+   /**
+    * Returns the XML content of the current theme if theme is true, or of
+    * the current set of settings otherwise, and considers it saved. Returns
+    * null if it has no unsaved changes.
+    * 
+    * @see Configuration#export()
+    */
+   public static byte[] export(boolean theme) {
+      return store(theme).export();
+   }
+   
+   /**
+    * Registers a listener notified whenever the theme or the settings get
+    * unsaved changes.
+    */
+   public static void addChangeListener(ChangeListener listener) {
+      store(true).addChangeListener(listener);
+      store(false).addChangeListener(listener);
+   }
+   
+   /**
+    * Subscribes a listener to the given properties. The listener is invoked
+    * on the event dispatch thread, once for each of these properties whose
+    * value has changed since the last dispatch: all the changes made during
+    * a cycle of the event dispatch thread, like loading a theme, are 
+    * delivered together in the next one. Subscribing a listener twice to a
+    * property has no effect.
+    */
+   public static void addPropertyListener(
+           PropertyListener listener, Property... properties) {
+      if (listener == null || properties == null) {
+         LOG.error("Null property listener or properties");
+         throw new IllegalArgumentException("null listener or properties");
+      }
+      synchronized (listeners) {
+         for (Property property : properties) {
+            PropertyListener[] array = listeners[property.ordinal()];
+            if (!Arrays.asList(array).contains(listener)) {
+               array = Arrays.copyOf(array, array.length + 1);
+               array[array.length - 1] = listener;
+               listeners[property.ordinal()] = array;
+            }
+         }
+      }
+   }
+   
+   /**
+    * Subscribes a listener to every property of the given group.
+    * 
+    * @see #getGroup()
+    */
+   public static void addPropertyListener(
+           PropertyListener listener, String group) {
+      addPropertyListener(listener, group(group));
+   }
+   
+   /**
+    * Unsubscribes a listener from every property it was subscribed to.
+    */
+   public static void removePropertyListener(PropertyListener listener) {
+      synchronized (listeners) {
+         for (int i = 0; i < listeners.length; i++) {
+            if (Arrays.asList(listeners[i]).contains(listener)) {
+               listeners[i] = Arrays.stream(listeners[i])
+                                    .filter((l) -> l != listener)
+                                    .toArray(PropertyListener[]::new);
+            }
+         }
+      }
+   }
+   
+   /**
+    * Returns the properties of the given group.
+    * 
+    * @see #getGroup()
+    */
+   public static Property[] group(String group) {
+      return Arrays.stream(VALUES)
+                   .filter((p) -> p.getGroup().equals(group))
+                   .toArray(Property[]::new);
+   }
+   
+   /**
+    * Returns the configuration storing the theme if theme is true, or the
+    * settings otherwise.
+    */
+   private static Configuration store(boolean theme) {
+      Configuration configuration = theme ? Property.theme : settings;
+      if (configuration == null) {
+         LOG.error("Configuration has not been initialized");
+         throw new IllegalStateException("configuration not initialized");
+      }
+      return configuration;
+   }
+   
+   /**
+    * Publishes the values of the theme properties if theme is true, or of
+    * the settings otherwise, as loaded in their configuration. Values of the
+    * wrong type are replaced by the default value of their property.
+    */
+   private static synchronized void refresh(boolean theme) {
+      Configuration configuration = store(theme);
+      Object[] values = snapshot.clone();
+      for (Property property : VALUES) {
+         if (property.isTheme != theme) {
+            continue;
+         }
+         Object value = configuration.get(property.name());
+         if (!property.accepts(value)) {
+            LOG.warn(
+                    "Invalid value for property '{}', using default", 
+                    property.name());
+            value = property.defaultValue;
+         }
+         if (!Objects.equals(value, values[property.ordinal()])) {
+            values[property.ordinal()] = value;
+            markChanged(property);
+         }
+      }
+      snapshot = values;
+      revision++;
+   }
+   
+   /**
+    * Records that the value of a property has changed and queues a dispatch
+    * on the event dispatch thread if none is pending.
+    */
+   private static void markChanged(Property property) {
+      synchronized (changed) {
+         changed[property.ordinal()] = true;
+         if (!dispatchQueued) {
+            dispatchQueued = true;
+            SwingUtilities.invokeLater(Property::dispatch);
+         }
+      }
+   }
+   
+   /**
+    * Notifies the listeners of every property changed since the last
+    * dispatch. Must be invoked on the event dispatch thread.
+    */
+   private static void dispatch() {
+      boolean[] batch;
+      synchronized (changed) {
+         batch = changed.clone();
+         Arrays.fill(changed, false);
+         dispatchQueued = false;
+      }
+      for (Property property : VALUES) {
+         if (!batch[property.ordinal()]) {
+            continue;
+         }
+         PropertyListener[] targets;
+         synchronized (listeners) {
+            targets = listeners[property.ordinal()];
+         }
+         for (PropertyListener listener : targets) {
+            listener.propertyUpdated(property);
+         }
+      }
+   }
+   
+   /**
+    * Returns the group of this property, which is the prefix of its name up
+    * to the first capital letter, like {@code timer} for the properties of
+    * the Timer block.
+    */
+   public String getGroup() {
+      String name = name();
+      for (int i = 0; i < name.length(); i++) {
+         if (Character.isUpperCase(name.charAt(i))) {
+            return name.substring(0, i);
+         }
+      }
+      return name;
+   }
+   
+   /**
+    * Returns the type of the values of this property.
+    */
+   public Class<?> getType() {
+      return type;
+   }
+   
    /**
     * Retrieves the current value of this property. 
     * This method will cast the property value to the specified type without 
@@ -137,25 +441,55 @@ public enum Property {
     * to make it easier for the caller to handle the settings and we assume 
     * that the caller knows the expected return type.
     */
+   @SuppressWarnings("unchecked")
    public <T> T get() {
-      Configuration configuration = STORES.get(isTheme);
-      if (configuration == null) {
+      Object[] values = snapshot;
+      if (values == null) {
          throw new IllegalStateException("configuration not initialized");
       }
-      return configuration.get(name());
+      return (T) values[ordinal()];
+   }
+   
+   /**
+    * Retrieves the current value of this property as the given type, which
+    * must be the type of this property or one of its supertypes. Unlike 
+    * {@link #get()}, a wrong type is reported here rather than where the
+    * value is used.
+    */
+   public <T> T get(Class<T> type) {
+      if (type == null || !type.isAssignableFrom(this.type)) {
+         LOG.error("Property '{}' is not of type {}", name(), type);
+         throw new IllegalArgumentException("invalid property type");
+      }
+      return type.cast(get());
    }
    
    /**
-    * Sets the current value of this property. 
+    * Sets the current value of this property and notifies its listeners in
+    * the next cycle of the event dispatch thread.
     * Throws an exception if the new value is not of an appropriate type for 
     * this property.
     */
    public void set(Object value) {
-      Configuration configuration = STORES.get(isTheme);
-      if (configuration == null) {
-         throw new IllegalArgumentException("configuration not initialized");
+      if (!accepts(value)) {
+         LOG.error("Invalid value {} for property '{}'", value, name());
+         throw new IllegalArgumentException("invalid property value");
+      }
+      synchronized (Property.class) {
+         store(isTheme).set(name(), value);
+         Object[] values = snapshot.clone();
+         values[ordinal()] = value;
+         snapshot = values;
+         revision++;
       }
-      configuration.set(name(), value);
+      markChanged(this);
+   }
+   
+   /**
+    * Indicates whether the given value can be assigned to this property.
+    */
+   private boolean accepts(Object value) {
+      return value == null || type.isInstance(value);
    }
 
 }
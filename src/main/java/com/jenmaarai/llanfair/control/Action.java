@@ -0,0 +1,55 @@
+package com.jenmaarai.llanfair.control;
+
+import com.jenmaarai.llanfair.conf.Property;
+
+public enum Action {
+   
+   /**
+    * Starts the run, or moves it to the next segment if running.
+    */
+   SPLIT(Property.keySplit),
+   
+   /**
+    * Resets the current attempt.
+    */
+   RESET(Property.keyReset),
+   
+   /**
+    * Cancels the last split of the current attempt.
+    */
+   UNDO_SPLIT(Property.keyUndo),
+   
+   /**
+    * Moves the run to the next segment without recording a split time.
+    */
+   SKIP_SPLIT(Property.keySkip),
+   
+   /**
+    * Pauses the current attempt, or resumes it if paused.
+    */
+   PAUSE(Property.keyPause),
+   
+   /**
+    * Switches to the next comparison.
+    */
+   SWITCH_COMPARISON(Property.keyComparison),
+   
+   /**
+    * Disables every other hotkey, or enables them back if disabled.
+    */
+   TOGGLE_HOTKEYS(Property.keyToggle);
+   
+   private final Property key;
+   
+   private Action(Property key) {
+      this.key = key;
+   }
+   
+   /**
+    * Returns the property holding the input bound to this action.
+    */
+   public Property getKey() {
+      return key;
+   }
+   
+}
@@ -0,0 +1,361 @@
+package com.jenmaarai.llanfair.control;
+
+import com.jenmaarai.llanfair.model.AtomicFile;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A write-ahead journal of the attempts made since the run was last saved.
+ * Every start, split, skip, undo and reset is appended as a small record, so
+ * that the attempts of a session can be replayed on the run after a crash.
+ * This handler is meant to be subscribed to the event bus of the splitter
+ * with the executor given when opening the journal, so that writing never
+ * delays the timing. Records are forced to the disk once per batch of events
+ * rather than once per event.
+ *
+ * <p>The file starts with an 8 bytes header followed by fixed-size records,
+ * all big-endian. Each record is made of its type (byte), the publication
+ * timestamp of its event (long), a segment index (int), a value (long) and
+ * the CRC32 of the preceding fields (int). The value is the split time in
+ * nanoseconds for splits and one for resets saving best segments. Records
+ * following an invalid record, left by a crash while appending, are
+ * discarded.
+ *
+ * <p>Once the run has been saved, {@link #checkpoint(long)} drops the
+ * attempts it contains, keeping only the attempt in progress.
+ */
+public class AttemptJournal implements SplitEventHandler, AutoCloseable {
+   
+   private static final Logger LOG
+           = LoggerFactory.getLogger(AttemptJournal.class);
+   
+   private static final int MAGIC = 0x4C4C414A;
+   private static final short VERSION = 1;
+   private static final int HEADER_SIZE = 8;
+   private static final int RECORD_SIZE = 25;
+   private static final int CHECKED_SIZE = RECORD_SIZE - 4;
+   
+   private static final byte START = 1;
+   private static final byte SPLIT = 2;
+   private static final byte SKIP  = 3;
+   private static final byte UNDO  = 4;
+   private static final byte DONE  = 5;
+   private static final byte RESET = 6;
+   
+   private final Path path;
+   private final Executor executor;
+   private final List<ByteBuffer> recovered;
+   private final List<ByteBuffer> records = new ArrayList<>();
+   private final CRC32 crc = new CRC32();
+   private FileChannel channel;
+   private long end;
+   private boolean syncPending = false;
+   
+   private AttemptJournal(
+           Path path, Executor executor, FileChannel channel,
+           List<ByteBuffer> recovered) {
+      this.path = path;
+      this.executor = executor;
+      this.channel = channel;
+      this.recovered = recovered;
+      this.end = HEADER_SIZE + (long) recovered.size() * RECORD_SIZE;
+   }
+   
+   /**
+    * Opens the journal stored in the given file, creating it if needed.
+    * Writes are performed on the given executor, which must run its tasks
+    * one at a time.
+    *
+    * @throws IOException if the file cannot be opened or is not a journal
+    */
+   public static AttemptJournal open(Path path, Executor executor)
+           throws IOException {
+      if (path == null || executor == null) {
+         LOG.error("Null journal path or executor");
+         throw new IllegalArgumentException("null path or executor");
+      }
+      FileChannel channel = FileChannel.open(
+              path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+              StandardOpenOption.WRITE);
+      try {
+         List<ByteBuffer> recovered = read(channel);
+         AttemptJournal journal
+                 = new AttemptJournal(path, executor, channel, recovered);
+         channel.truncate(journal.end);
+         return journal;
+      } catch (IOException x) {
+         channel.close();
+         throw x;
+      }
+   }
+   
+   /**
+    * Returns the path of the file storing this journal.
+    */
+   public Path getPath() {
+      return path;
+   }
+   
+   /**
+    * Saves in the run of the given splitter the attempts found in this
+    * journal when it was opened, as they would have been saved when reset.
+    * An attempt that was over but not reset yet is saved as if it had been.
+    * Returns the number of attempts replayed. Must be invoked on the event
+    * dispatch thread, before the journal is subscribed to the splitter.
+    */
+   public int replay(Splitter splitter) {
+      long[] splits = new long[16];
+      int count = 0;
+      boolean active = false;
+      boolean over = false;
+      int replayed = 0;
+      for (ByteBuffer record : recovered) {
+         byte type = record.get(0);
+         int segment = record.getInt(9);
+         long value = record.getLong(13);
+         if (type == START) {
+            active = true;
+            over = false;
+            count = 0;
+         } else if (!active) {
+            continue;
+         } else if (type == RESET) {
+            splitter.recover(
+                    Arrays.copyOf(splits, count), over, value != 0L);
+            replayed++;
+            active = false;
+         } else if (type == UNDO) {
+            count = Math.min(count, segment);
+            over = false;
+         } else if (segment >= 0 && segment <= count) {
+            if (segment == splits.length) {
+               splits = Arrays.copyOf(splits, splits.length * 2);
+            }
+            splits[segment] = type == SKIP ? Splitter.SKIPPED : value;
+            count = segment + 1;
+            over = type == DONE;
+         }
+      }
+      if (active && over) {
+         splitter.recover(Arrays.copyOf(splits, count), true, false);
+         replayed++;
+      } else if (active) {
+         LOG.warn("Discarding attempt interrupted after {} splits", count);
+      }
+      if (replayed > 0) {
+         LOG.info("Replayed {} attempts from '{}'", replayed, path);
+      }
+      return replayed;
+   }
+   
+   /**
+    * Drops the records of the attempts reset up to the given publication
+    * timestamp, and every record found when the journal was opened, once
+    * the run holding their times has been saved. Must be invoked on the
+    * executor of the journal.
+    *
+    * @see Splitter#getLastCommit()
+    */
+   public void checkpoint(long committed) {
+      int kept = 0;
+      for (int i = 0; i < records.size(); i++) {
+         ByteBuffer record = records.get(i);
+         if (record.get(0) == RESET && record.getLong(1) <= committed) {
+            kept = i + 1;
+         }
+      }
+      records.subList(0, kept).clear();
+      recovered.clear();
+      try {
+         // Closed first, as an open file cannot be replaced on Windows
+         channel.close();
+         AtomicFile.write(path, (out) -> {
+            out.write(header().array());
+            for (ByteBuffer record : records) {
+               out.write(record.array());
+            }
+         });
+      } catch (IOException x) {
+         LOG.error("Cannot compact journal '{}' ({})", path, x.getMessage());
+      } finally {
+         reopen();
+      }
+   }
+   
+   @Override public void handle(SplitEvent event) {
+      Splitter.Snapshot previous = event.getPrevious();
+      Splitter.Snapshot snapshot = event.getSnapshot();
+      switch (event.getType()) {
+         case START:
+            append(event, START, 0, 0L);
+            break;
+         case SPLIT:
+         case DONE:
+            int segment = previous.getCurrentSegment();
+            append(event,
+                   event.getType() == SplitEvent.Type.DONE ? DONE : SPLIT,
+                   segment, snapshot.getSplitNanos(segment));
+            break;
+         case SKIP:
+            append(event, SKIP, previous.getCurrentSegment(), 0L);
+            break;
+         case UNDO:
+            append(event, UNDO, snapshot.getCurrentSegment(), 0L);
+            break;
+         case RESET:
+            append(event, RESET, 0, event.isSaving() ? 1L : 0L);
+            break;
+         default:
+            break;
+      }
+   }
+   
+   @Override public void close() throws IOException {
+      channel.close();
+   }
+   
+   /**
+    * Appends a record to the journal and schedules a sync, unless one is
+    * already pending, so that all the events drained in the same batch are
+    * forced to the disk at once.
+    */
+   private void append(SplitEvent event, byte type, int segment, long value) {
+      ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+      record.put(type)
+            .putLong(event.getPublished())
+            .putInt(segment)
+            .putLong(value);
+      crc.reset();
+      crc.update(record.array(), 0, CHECKED_SIZE);
+      record.putInt((int) crc.getValue());
+      records.add(record);
+      try {
+         write(record);
+      } catch (IOException x) {
+         LOG.error("Cannot append to journal '{}' ({})", path, x.getMessage());
+         return;
+      }
+      if (!syncPending) {
+         syncPending = true;
+         try {
+            executor.execute(this::sync);
+         } catch (RejectedExecutionException x) {
+            sync();
+         }
+      }
+   }
+   
+   /**
+    * Forces the records appended so far to the disk.
+    */
+   private void sync() {
+      syncPending = false;
+      try {
+         channel.force(false);
+      } catch (IOException x) {
+         LOG.error("Cannot sync journal '{}' ({})", path, x.getMessage());
+      }
+   }
+   
+   /**
+    * Opens the file of the journal again, compacted or not, after it has
+    * been closed to be compacted. Appending opens it again if this fails.
+    */
+   private void reopen() {
+      try {
+         channel = FileChannel.open(
+                 path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+         end = channel.size();
+      } catch (IOException x) {
+         LOG.error("Cannot reopen journal '{}' ({})", path, x.getMessage());
+      }
+   }
+   
+   /**
+    * Writes a record at the end of the journal, opening the journal again
+    * if a compaction left it closed.
+    */
+   private void write(ByteBuffer record) throws IOException {
+      if (!channel.isOpen()) {
+         reopen();
+      }
+      ByteBuffer buffer = record.duplicate();
+      buffer.flip();
+      long position = end;
+      while (buffer.hasRemaining()) {
+         position += channel.write(buffer, position);
+      }
+      end = position;
+   }
+   
+   /**
+    * Reads the valid records of a journal, writing the header of the journal
+    * if it is empty.
+    */
+   private static List<ByteBuffer> read(FileChannel channel)
+           throws IOException {
+      List<ByteBuffer> records = new ArrayList<>();
+      if (channel.size() < HEADER_SIZE) {
+         channel.truncate(0L);
+         ByteBuffer header = header();
+         while (header.hasRemaining()) {
+            channel.write(header, HEADER_SIZE - header.remaining());
+         }
+         return records;
+      }
+      ByteBuffer content = ByteBuffer.allocate((int) Math.min(
+              channel.size(), Integer.MAX_VALUE));
+      while (content.hasRemaining()) {
+         if (channel.read(content, content.position()) < 0) {
+            break;
+         }
+      }
+      content.flip();
+      if (content.getInt() != MAGIC) {
+         LOG.error("Not a journal file");
+         throw new IOException("not a journal file");
+      }
+      short version = content.getShort();
+      if (version != VERSION) {
+         LOG.error("Unsupported journal version {}", version);
+         throw new IOException("unsupported journal version");
+      }
+      content.position(HEADER_SIZE);
+      CRC32 crc = new CRC32();
+      while (content.remaining() >= RECORD_SIZE) {
+         ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+         content.get(record.array());
+         crc.reset();
+         crc.update(record.array(), 0, CHECKED_SIZE);
+         if (record.getInt(CHECKED_SIZE) != (int) crc.getValue()) {
+            LOG.warn("Discarding corrupt journal records");
+            break;
+         }
+         record.position(RECORD_SIZE);
+         records.add(record);
+      }
+      return records;
+   }
+   
+   /**
+    * Returns the header of a journal, ready to be written.
+    */
+   private static ByteBuffer header() {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC).putShort(VERSION).putShort((short) 0);
+      header.flip();
+      return header;
+   }
+   
+}
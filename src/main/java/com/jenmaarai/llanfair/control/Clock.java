@@ -1,14 +1,113 @@
 package com.jenmaarai.llanfair.control;
 
-import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Internal clock of the splitter. Elapsed times are measured using the
+ * monotonic counter of a {@link ClockSource} while the wall clock is only
+ * sampled once to anchor the counter, so that timestamps can still be
+ * displayed as dates.
+ * 
+ * <p>The clock can also detect when the wall clock drifts away from the
+ * monotonic counter, which usually means it has been adjusted by NTP or by
+ * the user. Such jumps are logged and the anchor is moved, but elapsed times
+ * are never affected by them.
+ */
 public class Clock {
-
+   
+   private static final Logger LOG = LoggerFactory.getLogger(Clock.class);
+   
+   /**
+    * Drift, in milliseconds, above which the wall clock is considered to have
+    * jumped and the anchor is reset.
+    */
+   public static final long JUMP_THRESHOLD = 100L;
+   
+   private final ClockSource source;
+   
+   private long anchorNanos;
+   private long anchorMillis;
+   
+   /**
+    * Creates a clock backed by the default monotonic source.
+    */
+   public Clock() {
+      this(new MonotonicClock());
+   }
+   
+   /**
+    * Creates a clock backed by the given source.
+    */
+   public Clock(ClockSource source) {
+      if (source == null) {
+         LOG.error("Null clock source");
+         throw new IllegalArgumentException("null source");
+      }
+      this.source = source;
+      anchor();
+   }
+   
+   /**
+    * Returns the source backing this clock.
+    */
+   public ClockSource getSource() {
+      return source;
+   }
+   
+   /**
+    * Returns the current internal clock time in nanoseconds.
+    * Only differences between two returned values are meaningful.
+    */
+   public long nanos() {
+      return source.nanos();
+   }
+   
    /**
     * Returns the current internal clock time in milliseconds since the epoch.
+    * This time follows the monotonic counter and will thus not reflect any
+    * adjustment made to the wall clock since the last anchoring.
+    */
+   public long now() {
+      return toEpochMillis(source.nanos());
+   }
+   
+   /**
+    * Converts a timestamp of this clock into milliseconds since the epoch.
+    */
+   public synchronized long toEpochMillis(long nanos) {
+      return anchorMillis + TimeUnit.NANOSECONDS.toMillis(nanos - anchorNanos);
+   }
+   
+   /**
+    * Compares the wall clock against the monotonic counter and returns the
+    * drift in milliseconds, positive if the wall clock is ahead. If the drift
+    * exceeds {@link #JUMP_THRESHOLD}, the jump is logged and the clock is
+    * anchored again. The drift is recorded in {@link Metrics#CLOCK_DRIFT}.
+    * Meant to be invoked periodically, away from the input path, since it
+    * reads the wall clock.
+    */
+   public synchronized long checkDrift() {
+      long nanos = source.nanos();
+      long drift = source.epochMillis() - toEpochMillis(nanos);
+      Metrics.CLOCK_DRIFT.record(
+              TimeUnit.MILLISECONDS.toNanos(Math.abs(drift)));
+      if (Math.abs(drift) > JUMP_THRESHOLD) {
+         LOG.warn("Wall clock jumped by {} ms, anchoring clock again", drift);
+         anchor();
+      } else {
+         LOG.debug("Wall clock drift {} ms", drift);
+      }
+      return drift;
+   }
+   
+   /**
+    * Samples the wall clock and the monotonic counter as a reference pair.
     */
-   public static long now() {
-      return Instant.now().toEpochMilli();
+   private synchronized void anchor() {
+      anchorNanos  = source.nanos();
+      anchorMillis = source.epochMillis();
    }
    
 }
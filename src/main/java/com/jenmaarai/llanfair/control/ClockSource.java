@@ -0,0 +1,24 @@
+package com.jenmaarai.llanfair.control;
+
+/**
+ * A source of time for the splitter. Implementations provide a monotonic
+ * nanosecond counter used to measure elapsed time, along with the wall clock
+ * time used to anchor these measurements for display purposes.
+ */
+public interface ClockSource {
+   
+   /**
+    * Returns the current value of the monotonic counter, in nanoseconds.
+    * The origin of this counter is arbitrary, only differences between two
+    * values are meaningful. Successive calls never return decreasing values.
+    */
+   long nanos();
+   
+   /**
+    * Returns the current wall clock time in milliseconds since the epoch.
+    * This time may jump backward or forward and must never be used to
+    * measure elapsed time.
+    */
+   long epochMillis();
+   
+}
@@ -0,0 +1,62 @@
+package com.jenmaarai.llanfair.control;
+
+import com.jenmaarai.llanfair.model.AttemptHistory;
+import com.jenmaarai.llanfair.model.Statistics;
+import java.io.IOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends every attempt to an {@link AttemptHistory} as soon as it is reset,
+ * and ingests it in the {@link Statistics} of the history. This handler is
+ * meant to be subscribed to the event bus of the splitter with an executor
+ * dedicated to I/O, so that writing the history never delays the timing.
+ */
+public class HistoryRecorder implements SplitEventHandler {
+   
+   private static final Logger LOG 
+           = LoggerFactory.getLogger(HistoryRecorder.class);
+   
+   private final Splitter splitter;
+   private final AttemptHistory history;
+   private final Statistics statistics;
+   
+   public HistoryRecorder(
+           Splitter splitter, AttemptHistory history, Statistics statistics) {
+      if (splitter == null || history == null || statistics == null) {
+         LOG.error("Null splitter, history or statistics");
+         throw new IllegalArgumentException("null splitter or history");
+      }
+      this.splitter = splitter;
+      this.history = history;
+      this.statistics = statistics;
+   }
+
+   @Override public void handle(SplitEvent event) {
+      if (event.getType() != SplitEvent.Type.RESET) {
+         return;
+      }
+      Splitter.Snapshot attempt = event.getPrevious();
+      long[] splits = new long[attempt.getCurrentSegment()];
+      for (int i = 0; i < splits.length; i++) {
+         splits[i] = attempt.getSplitNanos(i);
+      }
+      AttemptHistory.Outcome outcome = attempt.getState() == Splitter.State.OVER
+              ? AttemptHistory.Outcome.COMPLETED 
+              : AttemptHistory.Outcome.RESET;
+      long started = splitter.getClock().toEpochMillis(attempt.getStarted());
+      long duration = attempt.getElapsedNanos(event.getTimestamp());
+      int segmentCount = attempt.getSegmentCount();
+      statistics.ingest(outcome, segmentCount, splits, splits.length);
+      try {
+         history.append(
+                 started, duration, segmentCount, outcome, splits, 
+                 splits.length);
+      } catch (IOException x) {
+         LOG.error(
+                 "Cannot append attempt to '{}' ({})", 
+                 history.getPath(), x.getMessage());
+      }
+   }
+   
+}
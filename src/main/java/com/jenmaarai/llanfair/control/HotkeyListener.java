@@ -0,0 +1,142 @@
+package com.jenmaarai.llanfair.control;
+
+import com.jenmaarai.llanfair.conf.Property;
+import com.jenmaarai.llanfair.model.Comparison;
+import javax.swing.SwingUtilities;
+import org.jnativehook.keyboard.NativeKeyEvent;
+import org.jnativehook.keyboard.NativeKeyListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Translates global key strokes into splitter actions.
+ * Key events are timestamped as soon as they are delivered by the native hook,
+ * on its own thread, and this timestamp is used as the time of the action. The
+ * splitter is driven directly from that thread and notifies the interface 
+ * asynchronously, so that a busy interface may delay the display of a split 
+ * but never its recording.
+ * 
+ * <p>Key strokes are matched against a {@link HotkeyTable}, so that the many
+ * keys typed while playing that are bound to nothing are discarded in 
+ * constant time without allocating anything. While hotkeys are disabled,
+ * only the {@code TOGGLE_HOTKEYS} action remains available.
+ */
+public class HotkeyListener implements NativeKeyListener {
+   
+   private static final Logger LOG 
+           = LoggerFactory.getLogger(HotkeyListener.class);
+   
+   private final Splitter splitter;
+   private final HotkeyTable table = new HotkeyTable();
+   private volatile boolean enabled = true;
+   
+   public HotkeyListener(Splitter splitter) {
+      if (splitter == null) {
+         LOG.error("Null splitter instance");
+         throw new IllegalArgumentException("null splitter");
+      }
+      this.splitter = splitter;
+   }
+
+   /**
+    * Indicates whether hotkeys other than {@code TOGGLE_HOTKEYS} are enabled.
+    */
+   public boolean isEnabled() {
+      return enabled;
+   }
+
+   /**
+    * Enables or disables every hotkey but {@code TOGGLE_HOTKEYS}.
+    */
+   public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+   }
+
+   @Override public void nativeKeyPressed(NativeKeyEvent event) {
+      long timestamp = splitter.getClock().nanos();
+      Action action = table.lookup(event.getKeyCode(), event.getModifiers());
+      if (action == null || (!enabled && action != Action.TOGGLE_HOTKEYS)) {
+         return;
+      }
+      if (action == Action.TOGGLE_HOTKEYS) {
+         enabled = !enabled;
+         LOG.info("Hotkeys {}", enabled ? "enabled" : "disabled");
+      } else if (action == Action.SWITCH_COMPARISON) {
+         SwingUtilities.invokeLater(() -> {
+            Comparison comparison = Property.comparison.get();
+            Property.comparison.set(comparison.next());
+         });
+      } else {
+         try {
+            perform(action, timestamp);
+         } catch (IllegalStateException x) {
+            // The splitter has been driven concurrently, action is obsolete
+            LOG.debug("Action {} ignored, {}", action, x.getMessage());
+         }
+      }
+   }
+   
+   @Override public void nativeKeyReleased(NativeKeyEvent event) {}
+   
+   @Override public void nativeKeyTyped(NativeKeyEvent event) {}
+   
+   /**
+    * Performs a splitter action if the splitter is in a state that allows it.
+    * The state is read from a single snapshot, never from the run, which is
+    * not safe to read outside of the event dispatch thread.
+    */
+   private void perform(Action action, long timestamp) {
+      Splitter.Snapshot snapshot = splitter.getSnapshot();
+      Splitter.State state = snapshot.getState();
+      switch (action) {
+         case SPLIT:
+            if (state == Splitter.State.READY) {
+               splitter.start(timestamp);
+            } else if (state == Splitter.State.RUNNING) {
+               splitter.split(timestamp);
+            } else {
+               return;
+            }
+            break;
+            
+         case RESET:
+            if (state == Splitter.State.READY) {
+               return;
+            }
+            splitter.reset(false, timestamp);
+            break;
+            
+         case UNDO_SPLIT:
+            if (state != Splitter.State.RUNNING && state != Splitter.State.OVER
+                    || snapshot.getCurrentSegment() == 0) {
+               return;
+            }
+            splitter.undoSplit(timestamp);
+            break;
+            
+         case SKIP_SPLIT:
+            if (state != Splitter.State.RUNNING 
+                    || snapshot.getCurrentSegment() 
+                       == snapshot.getSegmentCount() - 1) {
+               return;
+            }
+            splitter.skipSplit(timestamp);
+            break;
+            
+         case PAUSE:
+            if (state == Splitter.State.RUNNING) {
+               splitter.pause(timestamp);
+            } else if (state == Splitter.State.PAUSED) {
+               splitter.resume(timestamp);
+            } else {
+               return;
+            }
+            break;
+            
+         default:
+            return;
+      }
+      Metrics.HOOK_TO_SPLIT.record(splitter.getClock().nanos() - timestamp);
+   }
+   
+}
@@ -0,0 +1,131 @@
+package com.jenmaarai.llanfair.control;
+
+import com.jenmaarai.llanfair.conf.Property;
+import com.jenmaarai.llanfair.conf.PropertyListener;
+import java.util.Arrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lookup table from key strokes to actions, compiled from the key properties.
+ * Each key stroke is identified by a single {@code long} made of its modifier
+ * mask and key code, and stored in an open addressing hash table, so that a
+ * lookup takes constant time and never allocates. The table is compiled again
+ * on the next lookup once a key property has been modified, as notified on
+ * the event dispatch thread, so that other properties never invalidate it.
+ * 
+ * <p>If several actions are bound to the same input, the first one declared
+ * in {@link Action} wins. Undefined inputs are never bound.
+ */
+public class HotkeyTable {
+   
+   private static final Logger LOG = LoggerFactory.getLogger(HotkeyTable.class);
+   
+   private static final Action[] ACTIONS = Action.values();
+   private static final long EMPTY = -1L;
+   private static final int UNDEFINED = 0;
+   
+   private volatile Compiled compiled = null;
+   
+   /**
+    * Incremented on the event dispatch thread whenever a key property
+    * changes.
+    */
+   private volatile int revision = 0;
+   private final PropertyListener keyListener = (property) -> revision++;
+   
+   /**
+    * Creates a table following the values of the key properties.
+    */
+   public HotkeyTable() {
+      Property.addPropertyListener(keyListener, "key");
+   }
+   
+   /**
+    * Returns the action bound to the given key stroke, or null if none.
+    */
+   public Action lookup(int keyCode, int keyMask) {
+      Compiled table = compiled;
+      if (table == null || table.revision != revision) {
+         table = compile();
+      }
+      long key = key(keyCode, keyMask);
+      int slot = hash(key) & table.mask;
+      while (table.keys[slot] != EMPTY) {
+         if (table.keys[slot] == key) {
+            return ACTIONS[table.actions[slot]];
+         }
+         slot = (slot + 1) & table.mask;
+      }
+      return null;
+   }
+   
+   /**
+    * Compiles the table from the current values of the key properties.
+    */
+   private synchronized Compiled compile() {
+      // Read before the values, so that a change made meanwhile is not missed
+      int current = revision;
+      if (compiled != null && compiled.revision == current) {
+         return compiled;
+      }
+      // Keeping the load factor under one half
+      int capacity = Integer.highestOneBit(ACTIONS.length * 2) * 2;
+      Compiled table = new Compiled(current, capacity);
+      for (Action action : ACTIONS) {
+         Input input = action.getKey().get();
+         if (input == null || input.getKeyCode() == UNDEFINED) {
+            continue;
+         }
+         long key = key(input.getKeyCode(), input.getKeyMask());
+         int slot = hash(key) & table.mask;
+         while (table.keys[slot] != EMPTY && table.keys[slot] != key) {
+            slot = (slot + 1) & table.mask;
+         }
+         if (table.keys[slot] == key) {
+            LOG.warn("Input {} bound to several actions", input);
+            continue;
+         }
+         table.keys[slot] = key;
+         table.actions[slot] = (byte) action.ordinal();
+      }
+      compiled = table;
+      return table;
+   }
+   
+   /**
+    * Packs a key stroke in a single long.
+    */
+   private static long key(int keyCode, int keyMask) {
+      return ((long) keyMask << 32) | (keyCode & 0xFFFFFFFFL);
+   }
+   
+   /**
+    * Spreads the bits of a key stroke to index the table.
+    */
+   private static int hash(long key) {
+      return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+   }
+   
+   /**
+    * An immutable compiled table, tagged with the revision of the key
+    * properties it has been compiled from.
+    */
+   private static class Compiled {
+      
+      private final int revision;
+      private final int mask;
+      private final long[] keys;
+      private final byte[] actions;
+      
+      private Compiled(int revision, int capacity) {
+         this.revision = revision;
+         this.mask = capacity - 1;
+         this.keys = new long[capacity];
+         this.actions = new byte[capacity];
+         Arrays.fill(keys, EMPTY);
+      }
+      
+   }
+   
+}
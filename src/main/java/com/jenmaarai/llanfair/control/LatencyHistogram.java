@@ -0,0 +1,125 @@
+package com.jenmaarai.llanfair.control;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe histogram of latencies measured in nanoseconds.
+ * Values are counted in logarithmic buckets, four per power of two, which 
+ * bounds the relative error of the reported percentiles to 25% while using a
+ * fixed amount of memory. Recording a value never allocates nor locks.
+ */
+public class LatencyHistogram {
+   
+   private static final int BUCKETS = 248;
+   
+   private final String name;
+   private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+   private final AtomicLong count = new AtomicLong();
+   private final AtomicLong max = new AtomicLong();
+   
+   /**
+    * Creates an empty histogram identified by the given name.
+    */
+   public LatencyHistogram(String name) {
+      this.name = name;
+   }
+
+   /**
+    * Returns the name of this histogram.
+    */
+   public String getName() {
+      return name;
+   }
+   
+   /**
+    * Records a latency. Negative values are counted as zero.
+    */
+   public void record(long nanos) {
+      long value = Math.max(nanos, 0L);
+      counts.incrementAndGet(bucket(value));
+      count.incrementAndGet();
+      max.accumulateAndGet(value, Math::max);
+   }
+   
+   /**
+    * Returns the number of recorded latencies.
+    */
+   public long getCount() {
+      return count.get();
+   }
+   
+   /**
+    * Returns the highest recorded latency, or zero if there is none.
+    */
+   public long getMax() {
+      return max.get();
+   }
+   
+   /**
+    * Returns an upper bound of the given percentile, between 0 and 1, of the 
+    * recorded latencies. Returns zero if no latency has been recorded.
+    */
+   public long getPercentile(double percentile) {
+      long total = count.get();
+      if (total == 0L) {
+         return 0L;
+      }
+      long rank = Math.max(1L, (long) Math.ceil(percentile * total));
+      long seen = 0L;
+      for (int i = 0; i < BUCKETS; i++) {
+         seen += counts.get(i);
+         if (seen >= rank) {
+            long upper = (i + 1 < BUCKETS) 
+                       ? lowerBound(i + 1) - 1L : Long.MAX_VALUE;
+            return Math.min(upper, max.get());
+         }
+      }
+      return max.get();
+   }
+   
+   /**
+    * Forgets every recorded latency.
+    */
+   public void clear() {
+      for (int i = 0; i < BUCKETS; i++) {
+         counts.set(i, 0L);
+      }
+      count.set(0L);
+      max.set(0L);
+   }
+   
+   /**
+    * Returns a summary of this histogram with latencies in milliseconds.
+    */
+   @Override public String toString() {
+      return String.format(
+              "%s: n=%d, p50=%.3fms, p99=%.3fms, max=%.3fms", name, 
+              getCount(), getPercentile(0.5) / 1e6, 
+              getPercentile(0.99) / 1e6, getMax() / 1e6);
+   }
+   
+   /**
+    * Returns the index of the bucket counting the given positive value.
+    */
+   private static int bucket(long value) {
+      if (value < 4L) {
+         return (int) value;
+      }
+      int exponent = 63 - Long.numberOfLeadingZeros(value);
+      int fraction = (int) ((value >>> (exponent - 2)) & 3L);
+      return 4 * (exponent - 1) + fraction;
+   }
+   
+   /**
+    * Returns the lowest value counted by the bucket of given index.
+    */
+   private static long lowerBound(int bucket) {
+      if (bucket < 4) {
+         return bucket;
+      }
+      int exponent = bucket / 4 + 1;
+      return (4L + bucket % 4) << (exponent - 2);
+   }
+   
+}
@@ -0,0 +1,71 @@
+package com.jenmaarai.llanfair.control;
+
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A virtual clock source whose time only moves when told to.
+ * Mostly useful to drive the splitter deterministically, for instance when
+ * testing or replaying recorded attempts. The wall clock time is derived from
+ * the counter and an epoch origin so both stay consistent, unless the wall
+ * clock is made to jump.
+ */
+public class ManualClock implements ClockSource {
+   
+   private static final Logger LOG = LoggerFactory.getLogger(ManualClock.class);
+   
+   private volatile long origin;
+   private volatile long nanos = 0L;
+   
+   /**
+    * Creates a manual clock starting at the epoch.
+    */
+   public ManualClock() {
+      this(0L);
+   }
+   
+   /**
+    * Creates a manual clock whose wall clock time starts at the given number
+    * of milliseconds since the epoch.
+    */
+   public ManualClock(long origin) {
+      this.origin = origin;
+   }
+
+   @Override public long nanos() {
+      return nanos;
+   }
+
+   @Override public long epochMillis() {
+      return origin + TimeUnit.NANOSECONDS.toMillis(nanos);
+   }
+   
+   /**
+    * Moves the clock forward by the given number of nanoseconds.
+    */
+   public synchronized void advance(long delta) {
+      if (delta < 0L) {
+         LOG.error("Negative clock advance {}", delta);
+         throw new IllegalArgumentException("negative advance");
+      }
+      nanos += delta;
+   }
+   
+   /**
+    * Moves the clock forward by the given duration.
+    */
+   public void advance(long duration, TimeUnit unit) {
+      advance(unit.toNanos(duration));
+   }
+   
+   /**
+    * Moves the wall clock time by the given number of milliseconds, forward
+    * or backward, without moving the monotonic counter, as an adjustment of
+    * the system clock would.
+    */
+   public synchronized void jump(long millis) {
+      origin += millis;
+   }
+   
+}
@@ -0,0 +1,38 @@
+package com.jenmaarai.llanfair.control;
+
+/**
+ * Latency measurements of the input pipeline and of the file writes.
+ * Timestamps are taken from the clock of the splitter.
+ */
+public class Metrics {
+   
+   /**
+    * Latency between the reception of a hotkey by the native hook and the
+    * moment the splitter has processed the corresponding action.
+    */
+   public static final LatencyHistogram HOOK_TO_SPLIT 
+         = new LatencyHistogram("hook to split");
+   
+   /**
+    * Latency between the timestamp of a split and the moment the view has
+    * been painted to reflect it.
+    */
+   public static final LatencyHistogram SPLIT_TO_PIXELS
+         = new LatencyHistogram("split to pixels");
+   
+   /**
+    * Duration of the writes of the documents saved in the background.
+    */
+   public static final LatencyHistogram PERSISTENCE
+         = new LatencyHistogram("persistence write");
+   
+   /**
+    * Absolute drift between the wall clock and the monotonic counter of the
+    * clock of the splitter, as sampled by {@link Clock#checkDrift()}.
+    */
+   public static final LatencyHistogram CLOCK_DRIFT
+         = new LatencyHistogram("clock drift");
+   
+   private Metrics() {}
+   
+}
@@ -0,0 +1,17 @@
+package com.jenmaarai.llanfair.control;
+
+/**
+ * Default clock source, backed by {@link System#nanoTime()}.
+ * The counter is immune to wall clock adjustments such as NTP steps.
+ */
+public class MonotonicClock implements ClockSource {
+
+   @Override public long nanos() {
+      return System.nanoTime();
+   }
+
+   @Override public long epochMillis() {
+      return System.currentTimeMillis();
+   }
+   
+}
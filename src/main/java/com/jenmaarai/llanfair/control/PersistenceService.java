@@ -0,0 +1,270 @@
+package com.jenmaarai.llanfair.control;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.SwingUtilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves documents in the background once they have stopped changing. A
+ * document marked dirty is saved after a quiet period without any change,
+ * or at the latest after a maximum delay, along with every other dirty
+ * document. The content of the documents is snapshotted on the event
+ * dispatch thread, where they are modified, then written on the I/O thread,
+ * so that the user interface never waits on the disk.
+ *
+ * <p>A document that cannot be written is retried at the next save. Write
+ * latencies are recorded in {@link Metrics#PERSISTENCE}.
+ */
+public class PersistenceService {
+   
+   private static final Logger LOG
+           = LoggerFactory.getLogger(PersistenceService.class);
+   
+   private final ScheduledExecutorService io;
+   private final long quietNanos;
+   private final long maxDelayNanos;
+   private final List<Document> documents = new ArrayList<>();
+   private final AtomicLong failures = new AtomicLong();
+   private final Executor ui = SwingUtilities::invokeLater;
+   
+   private ScheduledFuture<?> timer = null;
+   private long firstDirty;
+   private long lastDirty;
+   
+   /**
+    * Creates a service writing on the given executor, which must run its
+    * tasks one at a time. Dirty documents are saved once they have not
+    * changed for the given quiet period, in milliseconds, or after the given
+    * maximum delay.
+    */
+   public PersistenceService(
+           ScheduledExecutorService io, long quietMillis, long maxDelayMillis) {
+      if (io == null) {
+         LOG.error("Null executor");
+         throw new IllegalArgumentException("null executor");
+      }
+      if (quietMillis < 0L || maxDelayMillis < quietMillis) {
+         LOG.error("Invalid delays {}ms, {}ms", quietMillis, maxDelayMillis);
+         throw new IllegalArgumentException("invalid delays");
+      }
+      this.io = io;
+      this.quietNanos = TimeUnit.MILLISECONDS.toNanos(quietMillis);
+      this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+   }
+   
+   /**
+    * Registers a document whose content is snapshotted by the given source.
+    * The document is only saved once marked dirty.
+    */
+   public synchronized Document register(String name, Source source) {
+      if (name == null || source == null) {
+         LOG.error("Null document name or source");
+         throw new IllegalArgumentException("null name or source");
+      }
+      Document document = new Document(name, source);
+      documents.add(document);
+      return document;
+   }
+   
+   /**
+    * Returns the number of writes that have failed.
+    */
+   public long getFailures() {
+      return failures.get();
+   }
+   
+   /**
+    * Immediately snapshots every dirty document and queues their writes,
+    * cancelling the pending save if any. Invoked on the event dispatch
+    * thread, typically before the application exits.
+    */
+   public void flush() {
+      synchronized (this) {
+         if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+         }
+      }
+      snapshot();
+   }
+   
+   /**
+    * Marks a document dirty and schedules a save if none is pending.
+    */
+   private synchronized void markDirty(Document document) {
+      long now = System.nanoTime();
+      document.dirty = true;
+      lastDirty = now;
+      if (timer == null) {
+         firstDirty = now;
+         schedule(quietNanos);
+      }
+   }
+   
+   /**
+    * Schedules the expiration of the quiet period after the given delay.
+    */
+   private void schedule(long delayNanos) {
+      try {
+         timer = io.schedule(this::expire, delayNanos, TimeUnit.NANOSECONDS);
+      } catch (RejectedExecutionException x) {
+         LOG.warn("Persistence stopped, save discarded");
+      }
+   }
+   
+   /**
+    * Snapshots the dirty documents if they have not changed for the quiet
+    * period or the maximum delay is reached, or waits some more otherwise.
+    * Invoked on the I/O thread.
+    */
+   private synchronized void expire() {
+      long now = System.nanoTime();
+      long deadline = Math.min(
+              lastDirty + quietNanos, firstDirty + maxDelayNanos);
+      if (deadline - now > 0L) {
+         schedule(deadline - now);
+         return;
+      }
+      timer = null;
+      ui.execute(this::snapshot);
+   }
+   
+   /**
+    * Takes a snapshot of every dirty document and queues their writes.
+    * Invoked on the event dispatch thread.
+    */
+   private void snapshot() {
+      List<Document> dirty = new ArrayList<>();
+      synchronized (this) {
+         for (Document document : documents) {
+            if (document.dirty) {
+               document.dirty = false;
+               dirty.add(document);
+            }
+         }
+      }
+      if (dirty.isEmpty()) {
+         return;
+      }
+      Map<Document, Snapshot> batch = new LinkedHashMap<>();
+      for (Document document : dirty) {
+         try {
+            batch.put(document, document.source.take());
+         } catch (IOException | RuntimeException x) {
+            failures.incrementAndGet();
+            LOG.error(
+                    "Cannot snapshot {}, {}:{}", document.name,
+                    x.getClass().getSimpleName(), x.getMessage());
+         }
+      }
+      try {
+         io.execute(() -> write(batch));
+      } catch (RejectedExecutionException x) {
+         LOG.warn("Persistence stopped, {} documents not saved", batch.size());
+      }
+   }
+   
+   /**
+    * Writes a batch of snapshots, retrying any previously failed snapshot of
+    * a document that has no new one. Invoked on the I/O thread.
+    */
+   private void write(Map<Document, Snapshot> batch) {
+      for (Map.Entry<Document, Snapshot> entry : batch.entrySet()) {
+         Document document = entry.getKey();
+         Snapshot snapshot = entry.getValue() != null
+                           ? entry.getValue() : document.failed;
+         if (snapshot == null) {
+            continue;
+         }
+         long start = System.nanoTime();
+         try {
+            snapshot.write();
+            Metrics.PERSISTENCE.record(System.nanoTime() - start);
+            document.failed = null;
+         } catch (IOException | RuntimeException x) {
+            failures.incrementAndGet();
+            document.failed = snapshot;
+            LOG.error(
+                    "Cannot save {}, {}:{}", document.name,
+                    x.getClass().getSimpleName(), x.getMessage());
+            markDirty(document);
+         }
+      }
+   }
+   
+   /**
+    * Takes a snapshot of the content of a document.
+    */
+   @FunctionalInterface
+   public interface Source {
+      
+      /**
+       * Returns a snapshot of the current content of the document, or null
+       * if it has nothing to save. Invoked on the event dispatch thread.
+       *
+       * @throws IOException if the content cannot be snapshotted
+       */
+      Snapshot take() throws IOException;
+   
+   }
+   
+   /**
+    * The content of a document at a given instant.
+    */
+   @FunctionalInterface
+   public interface Snapshot {
+      
+      /**
+       * Writes this content to the file of the document. Invoked on the I/O
+       * thread.
+       *
+       * @throws IOException if the content cannot be written
+       */
+      void write() throws IOException;
+   
+   }
+   
+   /**
+    * A document registered with the service.
+    */
+   public final class Document {
+      
+      private final String name;
+      private final Source source;
+      private boolean dirty = false;
+      private Snapshot failed = null;
+      
+      private Document(String name, Source source) {
+         this.name = name;
+         this.source = source;
+      }
+      
+      /**
+       * Returns the name of this document.
+       */
+      public String getName() {
+         return name;
+      }
+      
+      /**
+       * Notifies the service that this document has changed and should be
+       * saved. Can be invoked from any thread.
+       */
+      public void markDirty() {
+         PersistenceService.this.markDirty(this);
+      }
+   
+   }
+   
+}
@@ -0,0 +1,130 @@
+package com.jenmaarai.llanfair.control;
+
+import com.jenmaarai.llanfair.model.RunChangeEvent;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable event published by the splitter on its {@link SplitEventBus}.
+ * Each event carries the snapshots of the splitter before and after the
+ * transition it describes, along with the clock timestamp of the action that
+ * caused it, so that subscribers never need to query the splitter itself.
+ */
+public final class SplitEvent {
+   
+   private final Type type;
+   private final long timestamp;
+   private final long published;
+   private final Splitter.Snapshot previous;
+   private final Splitter.Snapshot snapshot;
+   private final boolean saving;
+   private final RunChangeEvent change;
+   
+   SplitEvent(
+           Type type, long timestamp, long published, 
+           Splitter.Snapshot previous, Splitter.Snapshot snapshot, 
+           boolean saving) {
+      this(type, timestamp, published, previous, snapshot, saving, null);
+   }
+   
+   SplitEvent(
+           Type type, long timestamp, long published, 
+           Splitter.Snapshot previous, Splitter.Snapshot snapshot, 
+           boolean saving, RunChangeEvent change) {
+      this.type = type;
+      this.timestamp = timestamp;
+      this.published = published;
+      this.previous = previous;
+      this.snapshot = snapshot;
+      this.saving = saving;
+      this.change = change;
+   }
+
+   /**
+    * Returns the type of this event.
+    */
+   public Type getType() {
+      return type;
+   }
+
+   /**
+    * Returns the clock timestamp of the action that caused this event.
+    */
+   public long getTimestamp() {
+      return timestamp;
+   }
+
+   /**
+    * Returns the sequence number of the transition described by this event,
+    * which is the sequence number of the snapshot following it.
+    *
+    * @see Splitter.Snapshot#getSequence()
+    */
+   public long getSequence() {
+      return snapshot.getSequence();
+   }
+
+   /**
+    * Returns the clock timestamp at which this event has been published.
+    */
+   public long getPublished() {
+      return published;
+   }
+
+   /**
+    * Returns the state of the splitter before this event.
+    */
+   public Splitter.Snapshot getPrevious() {
+      return previous;
+   }
+
+   /**
+    * Returns the state of the splitter after this event.
+    */
+   public Splitter.Snapshot getSnapshot() {
+      return snapshot;
+   }
+
+   /**
+    * Indicates whether the best segments of a reset attempt should be saved
+    * even though the attempt is incomplete. Only meaningful for resets.
+    */
+   public boolean isSaving() {
+      return saving;
+   }
+   
+   /**
+    * Returns the changes made to the run for a run update, or null if the
+    * whole run has changed or if this event is not a run update.
+    */
+   public RunChangeEvent getChange() {
+      return change;
+   }
+   
+   public enum Type {
+      
+      START((listener, event) -> listener.onStart()),
+      SPLIT((listener, event) -> listener.onSplit()),
+      SKIP((listener, event) -> listener.onSkip()),
+      UNDO((listener, event) -> listener.onUndo()),
+      PAUSE((listener, event) -> listener.onPause()),
+      RESUME((listener, event) -> listener.onResume()),
+      DONE((listener, event) -> listener.onDone()),
+      RESET((listener, event) -> listener.onReset()),
+      RUN_UPDATE((listener, event) -> listener.onRunUpdate(event.change));
+      
+      private final BiConsumer<SplitListener, SplitEvent> callback;
+      
+      private Type(BiConsumer<SplitListener, SplitEvent> callback) {
+         this.callback = callback;
+      }
+      
+      /**
+       * Invokes the callback of the listener matching this type of event.
+       */
+      public void dispatch(SplitListener listener, SplitEvent event) {
+         callback.accept(listener, event);
+      }
+      
+   }
+   
+}
@@ -0,0 +1,284 @@
+package com.jenmaarai.llanfair.control;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers the events of a splitter to subscribers on their own executors.
+ * Each subscription owns a bounded ring buffer in which published events are
+ * stored before being drained by a task submitted to its executor, so that
+ * publishing an event only costs a few array stores and never waits for a
+ * subscriber. When the buffer of a slow subscriber is full, its overflow
+ * policy decides whether the buffer grows or which event is dropped;
+ * publishers are never blocked by a subscriber.
+ * 
+ * <p>Events are delivered to each subscriber in the order of their sequence
+ * numbers, one at a time. Two threads may commit transitions in one order
+ * and publish them in the other: an event published ahead of its turn is 
+ * held until the events preceding it have been published. The latency 
+ * between the publication of an event and its delivery is measured for each
+ * subscription.
+ */
+public class SplitEventBus {
+   
+   private static final Logger LOG
+           = LoggerFactory.getLogger(SplitEventBus.class);
+   
+   private final Clock clock;
+   private volatile Subscription[] subscriptions = new Subscription[0];
+   
+   /**
+    * Events published ahead of their turn, by sequence number, and the
+    * sequence number of the next event to deliver.
+    */
+   private final Map<Long, SplitEvent> early = new HashMap<>();
+   private long expected;
+   
+   /**
+    * Creates a bus measuring delivery latencies with the given clock.
+    */
+   public SplitEventBus(Clock clock) {
+      this(clock, 1L);
+   }
+   
+   /**
+    * Creates a bus whose first event to deliver has the given sequence
+    * number, which is the first transition of a new splitter by default.
+    */
+   SplitEventBus(Clock clock, long first) {
+      if (clock == null) {
+         LOG.error("Null clock");
+         throw new IllegalArgumentException("null clock");
+      }
+      this.clock = clock;
+      this.expected = first;
+   }
+   
+   /**
+    * Registers a new subscriber. Events will be delivered to the handler 
+    * using the given executor, which should run tasks in submission order, 
+    * and at most {@code capacity} events will be buffered for it unless its
+    * overflow policy is {@link Overflow#GROW}.
+    */
+   public synchronized Subscription subscribe(
+           String name, SplitEventHandler handler, Executor executor, 
+           int capacity, Overflow overflow) {
+      if (handler == null || executor == null || overflow == null) {
+         LOG.error("Null handler, executor or overflow policy");
+         throw new IllegalArgumentException("null subscription parameter");
+      }
+      if (capacity < 1) {
+         LOG.error("Invalid subscription capacity {}", capacity);
+         throw new IllegalArgumentException("invalid capacity");
+      }
+      Subscription subscription = new Subscription(
+              name, handler, executor, capacity, overflow);
+      Subscription[] array 
+            = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+      array[subscriptions.length] = subscription;
+      subscriptions = array;
+      return subscription;
+   }
+   
+   /**
+    * Returns the current subscriptions of this bus.
+    */
+   public List<Subscription> getSubscriptions() {
+      return Arrays.asList(subscriptions.clone());
+   }
+   
+   /**
+    * Publishes an event to every subscriber, along with the events that
+    * were waiting for it.
+    */
+   public void publish(SplitEvent event) {
+      synchronized (early) {
+         if (event.getSequence() != expected) {
+            early.put(event.getSequence(), event);
+            return;
+         }
+         while (event != null) {
+            for (Subscription subscription : subscriptions) {
+               subscription.offer(event);
+            }
+            expected++;
+            event = early.isEmpty() ? null : early.remove(expected);
+         }
+      }
+   }
+   
+   /**
+    * Removes a subscription, pending events will not be delivered.
+    */
+   private synchronized void unsubscribe(Subscription subscription) {
+      subscriptions = Arrays.stream(subscriptions)
+                            .filter((s) -> s != subscription)
+                            .toArray(Subscription[]::new);
+   }
+   
+   /**
+    * What to do with a new event when the buffer of a subscriber is full.
+    */
+   public enum Overflow {
+      
+      /**
+       * Doubles the buffer so that no event is ever dropped. Meant for the
+       * subscribers which must see every transition, like the split
+       * listeners or the journal.
+       */
+      GROW,
+      
+      /**
+       * Discards the new event.
+       */
+      DROP_NEWEST,
+      
+      /**
+       * Discards the oldest buffered event to make room for the new one.
+       */
+      DROP_OLDEST;
+      
+   }
+   
+   /**
+    * A subscriber of the bus along with its buffer of pending events.
+    */
+   public final class Subscription {
+      
+      private final String name;
+      private final SplitEventHandler handler;
+      private final Executor executor;
+      private final Overflow overflow;
+      private final LatencyHistogram latency;
+      private final Runnable drainTask = this::drain;
+      
+      private SplitEvent[] ring;
+      private long head = 0L;
+      private long tail = 0L;
+      private long dropped = 0L;
+      private boolean scheduled = false;
+      private volatile boolean cancelled = false;
+      
+      private Subscription(
+              String name, SplitEventHandler handler, Executor executor, 
+              int capacity, Overflow overflow) {
+         this.name = name;
+         this.handler = handler;
+         this.executor = executor;
+         this.overflow = overflow;
+         this.latency = new LatencyHistogram(name + " delivery");
+         this.ring = new SplitEvent[capacity];
+      }
+
+      /**
+       * Returns the name of this subscription.
+       */
+      public String getName() {
+         return name;
+      }
+
+      /**
+       * Returns the latencies between publication and delivery of events.
+       */
+      public LatencyHistogram getLatency() {
+         return latency;
+      }
+      
+      /**
+       * Returns the number of events dropped because of overflows.
+       */
+      public synchronized long getDropped() {
+         return dropped;
+      }
+      
+      /**
+       * Stops the delivery of events to this subscriber.
+       */
+      public void cancel() {
+         cancelled = true;
+         unsubscribe(this);
+      }
+      
+      /**
+       * Buffers an event and schedules its delivery if needed.
+       */
+      private void offer(SplitEvent event) {
+         synchronized (this) {
+            if (tail - head == ring.length && overflow == Overflow.GROW) {
+               grow();
+            } else if (tail - head == ring.length) {
+               dropped++;
+               if (overflow == Overflow.DROP_NEWEST) {
+                  LOG.warn("Subscriber '{}' overflowed, event dropped", name);
+                  return;
+               }
+               LOG.warn("Subscriber '{}' overflowed, oldest dropped", name);
+               ring[(int) (head++ % ring.length)] = null;
+            }
+            ring[(int) (tail++ % ring.length)] = event;
+            if (scheduled) {
+               return;
+            }
+            scheduled = true;
+         }
+         try {
+            executor.execute(drainTask);
+         } catch (RejectedExecutionException x) {
+            LOG.error("Subscriber '{}' rejected delivery", name);
+            synchronized (this) {
+               scheduled = false;
+            }
+         }
+      }
+      
+      /**
+       * Doubles the capacity of the buffer, keeping the buffered events.
+       * Must be invoked while holding the lock of the subscription.
+       */
+      private void grow() {
+         int size = (int) (tail - head);
+         SplitEvent[] array = new SplitEvent[ring.length * 2];
+         for (int i = 0; i < size; i++) {
+            array[i] = ring[(int) ((head + i) % ring.length)];
+         }
+         LOG.warn("Subscriber '{}' lagging, buffer grown", name);
+         ring = array;
+         head = 0L;
+         tail = size;
+      }
+      
+      /**
+       * Delivers every buffered event to the handler.
+       */
+      private void drain() {
+         while (!cancelled) {
+            SplitEvent event;
+            synchronized (this) {
+               if (head == tail) {
+                  scheduled = false;
+                  return;
+               }
+               int index = (int) (head++ % ring.length);
+               event = ring[index];
+               ring[index] = null;
+            }
+            latency.record(clock.nanos() - event.getPublished());
+            try {
+               handler.handle(event);
+            } catch (RuntimeException x) {
+               LOG.error(
+                       "Subscriber '{}' failed handling {}, {}:{}", name, 
+                       event.getType(), x.getClass(), x.getMessage());
+            }
+         }
+      }
+      
+   }
+   
+}
@@ -0,0 +1,12 @@
+package com.jenmaarai.llanfair.control;
+
+@FunctionalInterface
+public interface SplitEventHandler {
+   
+   /**
+    * Callback invoked for each event delivered to a subscription of the
+    * split event bus, on the executor of that subscription.
+    */
+   void handle(SplitEvent event);
+   
+}
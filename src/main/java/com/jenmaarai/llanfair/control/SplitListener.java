@@ -1,9 +1,21 @@
 package com.jenmaarai.llanfair.control;
 
+import com.jenmaarai.llanfair.model.RunChangeEvent;
+
 import java.util.EventListener;
 
 public interface SplitListener extends EventListener {
    
+   /**
+    * Callback invoked for every event of the splitter, before any other.
+    * Invokes the callback matching the type of the event by default, and
+    * can be overridden by listeners needing the event itself, such as its
+    * timestamp.
+    */
+   default void onEvent(SplitEvent event) {
+      event.getType().dispatch(this, event);
+   }
+   
    /**
     * Callback invoked when a new attempt starts.
     */
@@ -15,6 +27,26 @@ public interface SplitListener extends EventListener {
     */
    void onSplit();
    
+   /**
+    * Callback invoked when a split is skipped during an attempt.
+    */
+   void onSkip();
+   
+   /**
+    * Callback invoked when the last split or skip of an attempt is undone.
+    */
+   void onUndo();
+   
+   /**
+    * Callback invoked when the attempt is paused.
+    */
+   void onPause();
+   
+   /**
+    * Callback invoked when the attempt is resumed after a pause.
+    */
+   void onResume();
+   
    /**
     * Callback invoked when the attempt is reset.
     */
@@ -27,7 +59,9 @@ public interface SplitListener extends EventListener {
    
    /**
     * Callback invoked when the run structure or info changes.
+    * The given event describes every change made by a single edit of the 
+    * run, or is null if the whole run has changed.
     */
-   void onRunUpdate();
+   void onRunUpdate(RunChangeEvent change);
    
 }
@@ -1,53 +1,194 @@
 package com.jenmaarai.llanfair.control;
 
+import com.jenmaarai.llanfair.model.Comparison;
+import com.jenmaarai.llanfair.model.ComparisonEngine;
 import com.jenmaarai.llanfair.model.Run;
+import com.jenmaarai.llanfair.model.RunChangeEvent;
+import com.jenmaarai.llanfair.model.Section;
+import com.jenmaarai.llanfair.model.Statistics;
 import com.jenmaarai.sidekick.time.Time;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.function.Consumer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.EventListenerList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * The splitter times attempts of a run. The whole state of the current attempt
+ * is held in an immutable {@link Snapshot} which is replaced atomically by
+ * each transition, using a compare-and-set loop, so that the splitter can be
+ * driven from several threads without locks and without losing any split.
+ * Readers, like the view, should grab a snapshot once and work on it rather
+ * than calling several accessors of the splitter, which may each observe a
+ * different state.
+ *
+ * <p>Each transition is published as a {@link SplitEvent} on the event bus
+ * of the splitter, so that a slow subscriber never delays the timing.
+ * Events are delivered in the order of the transitions they describe, even
+ * if two threads publish them in the opposite order. Split listeners are
+ * notified on the event dispatch thread, after the times of a reset attempt
+ * have been saved in the run. Since the run is only modified on the event
+ * dispatch thread, the splitter can itself be driven from any thread.
+ */
 public class Splitter {
    
    private static final Logger LOG = LoggerFactory.getLogger(Splitter.class);
-
-   private Run run;
-   private List<Time> times = new ArrayList<>();
    
-   private long start = 0L;
-   private State state = State.READY;
+   /**
+    * Split time of the segments skipped during the current attempt.
+    */
+   public static final long SKIPPED = -1L;
+   
+   private static final long[] NO_SPLITS = new long[0];
+   
+   /**
+    * Initial number of events buffered for the split listeners, which are
+    * never dropped.
+    */
+   private static final int LISTENER_CAPACITY = 1024;
+   
+   private final Clock clock;
+   private final SplitEventBus bus;
+   private final AtomicReference<Snapshot> snapshot;
+   private final Statistics statistics = new Statistics();
+   private final ComparisonEngine comparisons 
+           = new ComparisonEngine(statistics);
+   
+   private volatile Run run;
+   private final ChangeListener runListener 
+           = (event) -> fireRunUpdate((RunChangeEvent) event);
+   
+   private volatile long lastCommit = Long.MIN_VALUE;
    
    private EventListenerList listeners = new EventListenerList();
    
+   /**
+    * Creates a splitter timed by the default monotonic clock.
+    */
    public Splitter() {
+      this(new MonotonicClock());
+   }
+   
+   /**
+    * Creates a splitter timed by the given clock source.
+    */
+   public Splitter(ClockSource source) {
+      clock = new Clock(source);
+      bus = new SplitEventBus(clock);
+      snapshot = new AtomicReference<>(
+              new Snapshot(State.READY, 0L, 0L, 0L, NO_SPLITS, 0, 0L, 0L));
+      bus.subscribe(
+              "listeners", this::dispatch, SwingUtilities::invokeLater, 
+              LISTENER_CAPACITY, SplitEventBus.Overflow.GROW);
       setRun(null);
    }
-
+   
+   /**
+    * Returns the clock used by this splitter to timestamp splits.
+    */
+   public Clock getClock() {
+      return clock;
+   }
+   
+   /**
+    * Returns the bus on which the events of this splitter are published.
+    */
+   public SplitEventBus getEventBus() {
+      return bus;
+   }
+   
+   /**
+    * Returns the statistics of the attempts made with this splitter.
+    */
+   public Statistics getStatistics() {
+      return statistics;
+   }
+   
+   /**
+    * Returns the engine providing the comparisons of the current run.
+    */
+   public ComparisonEngine getComparisons() {
+      return comparisons;
+   }
+   
+   /**
+    * Returns the difference between the last split of the current attempt
+    * and the same split of the given comparison, in nanoseconds, or
+    * {@link Run#UNDEFINED} if there is no such split or it is undefined.
+    */
+   public long getDelta(Comparison comparison) {
+      Snapshot current = snapshot.get();
+      int segment = current.getCurrentSegment() - 1;
+      if (segment < 0 || current.getSplitNanos(segment) == SKIPPED) {
+         return Run.UNDEFINED;
+      }
+      return comparisons.getDelta(
+              run, comparison, segment, current.getSplitNanos(segment));
+   }
+   
+   /**
+    * Returns the difference between the time spent in a section during the
+    * current attempt and in the same section of the given comparison, in
+    * nanoseconds, or {@link Run#UNDEFINED} if the section has not been split
+    * yet or either time is undefined. This method runs in constant time
+    * whatever the size of the section.
+    */
+   public long getSectionDelta(Comparison comparison, Section section) {
+      if (section == null) {
+         LOG.error("Null section");
+         throw new IllegalArgumentException("null section");
+      }
+      Snapshot current = snapshot.get();
+      if (section.getLast() >= current.getCurrentSegment()) {
+         return Run.UNDEFINED;
+      }
+      long split = current.getSplitNanos(section.getLast());
+      long previous = section.getFirst() == 0
+                    ? 0L : current.getSplitNanos(section.getFirst() - 1);
+      if (split == SKIPPED || previous == SKIPPED) {
+         return Run.UNDEFINED;
+      }
+      return comparisons.getSectionDelta(
+              run, comparison, section, split - previous);
+   }
+   
    /**
     * Returns the run being used by this splitter.
     */
    public Run getRun() {
       return run;
    }
-
+   
    /**
     * Sets the run that this splitter should use.
     * If run is null, uses a new single-segment run.
     */
    public final void setRun(Run run) {
+      if (this.run != null) {
+         this.run.removeChangeListener(runListener);
+      }
       this.run = (run == null) ? new Run() : run;
-      this.run.addChangeListener(
-              (e) -> fireSplitEvent(SplitListener::onRunUpdate));
-      fireSplitEvent(SplitListener::onRunUpdate);
+      this.run.addChangeListener(runListener);
+      fireRunUpdate(null);
+   }
+   
+   /**
+    * Returns the current state of the current attempt.
+    */
+   public Snapshot getSnapshot() {
+      return snapshot.get();
    }
    
    /**
     * Returns the current state of the splitter.
     */
    public State getState() {
-      return state;
+      return snapshot.get().getState();
    }
    
    /**
@@ -55,24 +196,51 @@ public class Splitter {
     * The returned value only makes sense if the splitter is {@code RUNNING}.
     */
    public int getCurrentSegment() {
-      return times.size();
+      return snapshot.get().getCurrentSegment();
    }
    
    /**
     * Returns the elapsed time since the splitter was started.
-    * Splitter must be in {@code RUNNING} state.
+    * Splitter must be in {@code RUNNING} or {@code PAUSED} state.
     */
    public Time getElapsed() {
-      if (state != State.RUNNING) {
-         LOG.error("Splitter not running, current state {}", state);
+      return new Time(TimeUnit.NANOSECONDS.toMillis(getElapsedNanos()));
+   }
+   
+   /**
+    * Returns the elapsed time since the splitter was started in nanoseconds,
+    * excluding the time spent paused. Splitter must be in {@code RUNNING} or
+    * {@code PAUSED} state.
+    */
+   public long getElapsedNanos() {
+      Snapshot current = snapshot.get();
+      if (current.state != State.RUNNING && current.state != State.PAUSED) {
+         LOG.error("Splitter not running, current state {}", current.state);
          throw new IllegalStateException("splitter not running");
       }
-      return new Time(Clock.now() - start);
+      return current.getElapsedNanos(clock.nanos());
+   }
+   
+   /**
+    * Returns the split time of a segment of the current attempt, in
+    * nanoseconds since the start, or {@link #SKIPPED} if the segment has been
+    * skipped. The segment must have been split already.
+    */
+   public long getSplitNanos(int segmentId) {
+      return snapshot.get().getSplitNanos(segmentId);
+   }
+   
+   /**
+    * Returns the clock timestamp of the last start, split or reset.
+    */
+   public long getLastEventNanos() {
+      return snapshot.get().getLastEvent();
    }
    
    /**
     * Registers a new split listener.
-    * It will be notified of the various actions made by the splitter.
+    * It will be notified of the various actions made by the splitter on the
+    * event dispatch thread.
     */
    public void addSplitListener(SplitListener listener) {
       if (listener == null) {
@@ -98,77 +266,337 @@ public class Splitter {
     * Splitter must be in {@code READY} state to be started.
     */
    public void start() {
-      if (state != State.READY) {
-         LOG.error("Splitter not ready, current state {}", state);
-         throw new IllegalStateException("splitter not ready");
-      }
-      start = Clock.now();
-      state = State.RUNNING;
-      fireSplitEvent(SplitListener::onStart);
+      start(clock.nanos());
+   }
+   
+   /**
+    * Starts a new run at the given timestamp of the splitter clock.
+    * Splitter must be in {@code READY} state to be started.
+    */
+   public void start(long timestamp) {
+      Snapshot current;
+      Snapshot next;
+      do {
+         current = snapshot.get();
+         if (current.state != State.READY) {
+            LOG.error("Splitter not ready, current state {}", current.state);
+            throw new IllegalStateException("splitter not ready");
+         }
+      } while (!snapshot.compareAndSet(current, next = current.next(
+              State.RUNNING, timestamp, 0L, timestamp, NO_SPLITS)));
+      
+      fireSplitEvent(SplitEvent.Type.START, timestamp, current, next);
    }
    
    /**
     * Moves the run to the next segment.
     * If the run was at its last segment, the run will stop afterwards and the
-    * splitter will be in {@code OVER} state. Splitter must be in 
+    * splitter will be in {@code OVER} state. Splitter must be in
     * {@code RUNNING} state for the user to split.
     */
    public void split() {
-      if (state != State.RUNNING) {
-         LOG.error("Splitter not running, current state {}", state);
-         throw new IllegalStateException("splitter not running");
-      }
-      times.add(new Time(Clock.now() - start));
+      split(clock.nanos());
+   }
+   
+   /**
+    * Moves the run to the next segment at the given timestamp of the splitter
+    * clock. The timestamp cannot precede the previous split.
+    *
+    * @see #split()
+    */
+   public void split(long timestamp) {
+      Snapshot current;
+      Snapshot next;
+      do {
+         current = snapshot.get();
+         if (current.state != State.RUNNING) {
+            LOG.error("Splitter not running, current state {}", current.state);
+            throw new IllegalStateException("splitter not running");
+         }
+         if (timestamp < current.lastEvent) {
+            LOG.error("Split timestamp {} precedes last event", timestamp);
+            throw new IllegalArgumentException("split timestamp too low");
+         }
+         long[] splits = append(current.splits, timestamp - current.start);
+         State state = (splits.length == current.segments)
+                     ? State.OVER : State.RUNNING;
+         next = current.next(state, current.start, 0L, timestamp, splits);
+      } while (!snapshot.compareAndSet(current, next));
       
-      if (times.size() == run.getSegmentCount()) {
-         state = State.OVER;
-         fireSplitEvent(SplitListener::onDone);
-      } else {
-         fireSplitEvent(SplitListener::onSplit);
-      }
+      fireSplitEvent(
+              next.state == State.OVER 
+                    ? SplitEvent.Type.DONE : SplitEvent.Type.SPLIT, 
+              timestamp, current, next);
+   }
+   
+   /**
+    * Moves the run to the next segment without recording a split time.
+    * The last segment cannot be skipped. Splitter must be in {@code RUNNING}
+    * state to skip a split.
+    */
+   public void skipSplit() {
+      skipSplit(clock.nanos());
+   }
+   
+   /**
+    * Skips the current segment at the given timestamp of the splitter clock.
+    * The timestamp only dates the event, no split time being recorded.
+    *
+    * @see #skipSplit()
+    */
+   public void skipSplit(long timestamp) {
+      Snapshot current;
+      Snapshot next;
+      do {
+         current = snapshot.get();
+         if (current.state != State.RUNNING) {
+            LOG.error("Splitter not running, current state {}", current.state);
+            throw new IllegalStateException("splitter not running");
+         }
+         if (current.splits.length == current.segments - 1) {
+            LOG.error("Cannot skip the last segment");
+            throw new IllegalStateException("last segment");
+         }
+      } while (!snapshot.compareAndSet(current, next = current.next(
+              State.RUNNING, current.start, 0L, current.lastEvent,
+              append(current.splits, SKIPPED))));
+      
+      fireSplitEvent(SplitEvent.Type.SKIP, timestamp, current, next);
+   }
+   
+   /**
+    * Cancels the last split or skip of the current attempt, moving the run
+    * back to the previous segment. If the run was over, the splitter will be
+    * {@code RUNNING} again. Splitter must be in {@code RUNNING} or
+    * {@code OVER} state, and the current attempt must have been split once.
+    */
+   public void undoSplit() {
+      undoSplit(clock.nanos());
+   }
+   
+   /**
+    * Cancels the last split or skip at the given timestamp of the splitter
+    * clock. The timestamp only dates the event.
+    *
+    * @see #undoSplit()
+    */
+   public void undoSplit(long timestamp) {
+      Snapshot current;
+      Snapshot next;
+      do {
+         current = snapshot.get();
+         if (current.state != State.RUNNING && current.state != State.OVER) {
+            LOG.error(
+                    "Splitter not running nor over, current state {}",
+                    current.state);
+            throw new IllegalStateException("splitter not running nor over");
+         }
+         if (current.splits.length == 0) {
+            LOG.error("No split to undo");
+            throw new IllegalStateException("no split to undo");
+         }
+      } while (!snapshot.compareAndSet(current, next = current.next(
+              State.RUNNING, current.start, 0L, current.lastEvent,
+              Arrays.copyOf(current.splits, current.splits.length - 1))));
+      
+      fireSplitEvent(SplitEvent.Type.UNDO, timestamp, current, next);
+   }
+   
+   /**
+    * Pauses the current attempt at the given timestamp of the splitter clock.
+    * The time spent paused is not counted in the elapsed time of the attempt.
+    * Splitter must be in {@code RUNNING} state to be paused, and the
+    * timestamp cannot precede the previous split.
+    */
+   public void pause(long timestamp) {
+      Snapshot current;
+      Snapshot next;
+      do {
+         current = snapshot.get();
+         if (current.state != State.RUNNING) {
+            LOG.error("Splitter not running, current state {}", current.state);
+            throw new IllegalStateException("splitter not running");
+         }
+         if (timestamp < current.lastEvent) {
+            LOG.error("Pause timestamp {} precedes last event", timestamp);
+            throw new IllegalArgumentException("pause timestamp too low");
+         }
+      } while (!snapshot.compareAndSet(current, next = current.next(
+              State.PAUSED, current.start, timestamp, timestamp,
+              current.splits)));
+      
+      fireSplitEvent(SplitEvent.Type.PAUSE, timestamp, current, next);
+   }
+   
+   /**
+    * Resumes the current attempt at the given timestamp of the splitter
+    * clock. Splitter must be in {@code PAUSED} state to be resumed.
+    */
+   public void resume(long timestamp) {
+      Snapshot current;
+      Snapshot next;
+      do {
+         current = snapshot.get();
+         if (current.state != State.PAUSED) {
+            LOG.error("Splitter not paused, current state {}", current.state);
+            throw new IllegalStateException("splitter not paused");
+         }
+         if (timestamp < current.pausedAt) {
+            LOG.error("Resume timestamp {} precedes pause", timestamp);
+            throw new IllegalArgumentException("resume timestamp too low");
+         }
+      } while (!snapshot.compareAndSet(current, next = current.next(
+              State.RUNNING, current.start + timestamp - current.pausedAt,
+              0L, timestamp, current.splits)));
+      
+      fireSplitEvent(SplitEvent.Type.RESUME, timestamp, current, next);
    }
    
    /**
     * Resets the splitter after or during a run.
     * If the splitter is in {@code OVER} state, the complete run will be saved
     * if it is better, which includes saving the new best segments if the
-    * current attempt contains any. 
-    * 
-    * <p>If {@code save} is true, the new best segment times will be saved if 
-    * the current attempt contains any, even if the attempt is incomplete and 
+    * current attempt contains any.
+    *
+    * <p>If {@code save} is true, the new best segment times will be saved if
+    * the current attempt contains any, even if the attempt is incomplete and
     * will itself be discarded.
-    * 
-    * <p>After this call, the splitter will be in {@code READY} state. The 
-    * splitter must be in {@code OVER} or {@code RUNNING state} to be reset.
+    *
+    * <p>After this call, the splitter will be in {@code READY} state. The
+    * splitter must not be in {@code READY} state to be reset.
     */
    public void reset(boolean save) {
-      if (state == State.READY) {
-         LOG.error("Splitter is ready no sense in resetting");
-         throw new IllegalStateException("splitter is ready");
+      reset(save, clock.nanos());
+   }
+   
+   /**
+    * Resets the splitter at the given timestamp of the splitter clock.
+    *
+    * @see #reset(boolean)
+    */
+   public void reset(boolean save, long timestamp) {
+      Snapshot current;
+      Snapshot next;
+      do {
+         current = snapshot.get();
+         if (current.state == State.READY) {
+            LOG.error("Splitter is ready no sense in resetting");
+            throw new IllegalStateException("splitter is ready");
+         }
+      } while (!snapshot.compareAndSet(current, next = current.next(
+              State.READY, 0L, 0L, timestamp, NO_SPLITS)));
+      
+      bus.publish(new SplitEvent(
+              SplitEvent.Type.RESET, timestamp, clock.nanos(), 
+              current, next, save));
+   }
+   
+   /**
+    * Returns the publication timestamp of the last reset whose times have
+    * been saved in the run, or {@code Long.MIN_VALUE} if there is none.
+    */
+   public long getLastCommit() {
+      return lastCommit;
+   }
+   
+   /**
+    * Saves the times of an attempt recovered from a journal in the run, as
+    * if it had just been reset. Attempts that do not fit the run are ignored.
+    * Must be invoked on the event dispatch thread.
+    * 
+    * @see AttemptJournal
+    */
+   void recover(long[] splits, boolean over, boolean save) {
+      int count = run.getSegmentCount();
+      if (splits.length > count || (over && splits.length != count)) {
+         LOG.warn(
+                 "Ignoring recovered attempt of {} splits for {} segments", 
+                 splits.length, count);
+         return;
       }
-      if (state == State.OVER) {
+      commit(splits, over, save);
+   }
+   
+   /**
+    * Saves the times of a reset attempt in the run.
+    * Must be invoked on the event dispatch thread.
+    *
+    * @see #reset(boolean)
+    */
+   private void commit(long[] splits, boolean over, boolean save) {
+      List<Time> times = new ArrayList<>(splits.length);
+      for (long split : splits) {
+         times.add(split == SKIPPED
+                 ? null : new Time(TimeUnit.NANOSECONDS.toMillis(split)));
+      }
+      if (over) {
          Time thisAttempt  = times.get(times.size() - 1);
          Time personalBest = run.getTime();
-         if (thisAttempt.compareTo(personalBest) < 0) {
+         if (personalBest == null || thisAttempt.compareTo(personalBest) < 0) {
             run.setSplitTimes(times);
          }
       } else if (save) {
-         for (int i = 0; i < times.size(); i++) {
-            run.lookForBestSegment(i, times.get(i));
-         }
+         run.edit((edit) -> {
+            for (int i = 0; i < times.size(); i++) {
+               edit.lookForBestSegment(i, times.get(i));
+            }
+         });
       }
-      state = State.READY;
-      times.clear();
-      fireSplitEvent(SplitListener::onReset);
    }
    
    /**
-    * Fires a split event to every split listeners.
+    * Returns a copy of the array with the given value appended.
     */
-   private void fireSplitEvent(Consumer<SplitListener> operator) {
+   private static long[] append(long[] array, long value) {
+      long[] copy = Arrays.copyOf(array, array.length + 1);
+      copy[array.length] = value;
+      return copy;
+   }
+   
+   /**
+    * Publishes a split event on the bus of this splitter.
+    */
+   private void fireSplitEvent(
+           SplitEvent.Type type, long timestamp, 
+           Snapshot previous, Snapshot next) {
+      bus.publish(new SplitEvent(
+              type, timestamp, clock.nanos(), previous, next, false));
+   }
+   
+   /**
+    * Records the number of segments of the run in the snapshot, then
+    * publishes a run update event on the bus of this splitter, describing
+    * the given changes or null if the whole run has changed. Must be invoked
+    * on the event dispatch thread, like any modification of the run.
+    */
+   private void fireRunUpdate(RunChangeEvent change) {
+      int segments = run.getSegmentCount();
+      Snapshot current;
+      Snapshot next;
+      do {
+         current = snapshot.get();
+         next = current.withSegmentCount(segments);
+      } while (!snapshot.compareAndSet(current, next));
+      
+      long now = clock.nanos();
+      bus.publish(new SplitEvent(
+              SplitEvent.Type.RUN_UPDATE, now, now, current, next, false,
+              change));
+   }
+   
+   /**
+    * Saves the attempt if the event is a reset, then notifies every split
+    * listeners. Invoked on the event dispatch thread.
+    */
+   private void dispatch(SplitEvent event) {
+      if (event.getType() == SplitEvent.Type.RESET) {
+         Snapshot attempt = event.getPrevious();
+         commit(attempt.splits, attempt.state == State.OVER, event.isSaving());
+         lastCommit = event.getPublished();
+      }
       SplitListener[] array = listeners.getListeners(SplitListener.class);
       for (SplitListener listener : array) {
-         operator.accept(listener);
+         listener.onEvent(event);
       }
    }
    
@@ -185,10 +613,152 @@ public class Splitter {
       RUNNING,
       
       /**
-       * In this state the current run is over.
+       * In this state the current run is paused and its time is frozen.
        */
-      OVER;              
+      PAUSED,
       
+      /**
+       * In this state the current run is over.
+       */
+      OVER;
+   
    }
    
+   /**
+    * An immutable view of the state of the splitter at a given instant.
+    * Snapshots can be freely shared between threads.
+    */
+   public static final class Snapshot {
+      
+      private final State state;
+      private final long start;
+      private final long pausedAt;
+      private final long lastEvent;
+      private final long[] splits;
+      private final int segments;
+      private final long sequence;
+      private final long started;
+      
+      private Snapshot(
+              State state, long start, long pausedAt, long lastEvent,
+              long[] splits, int segments, long sequence, long started) {
+         this.state = state;
+         this.started = started;
+         this.start = start;
+         this.pausedAt = pausedAt;
+         this.lastEvent = lastEvent;
+         this.splits = splits;
+         this.segments = segments;
+         this.sequence = sequence;
+      }
+      
+      /**
+       * Returns the snapshot following this one after a transition. Leaving
+       * the {@code READY} state starts an attempt at {@code start}.
+       */
+      private Snapshot next(
+              State state, long start, long pausedAt, long lastEvent,
+              long[] splits) {
+         long attemptStart = this.state == State.READY ? start : started;
+         return new Snapshot(
+                 state, start, pausedAt, lastEvent, splits, segments,
+                 sequence + 1L, state == State.READY ? 0L : attemptStart);
+      }
+      
+      /**
+       * Returns the snapshot following this one after the number of segments
+       * of the run has changed.
+       */
+      private Snapshot withSegmentCount(int segments) {
+         return new Snapshot(
+                 state, start, pausedAt, lastEvent, splits, segments,
+                 sequence + 1L, started);
+      }
+      
+      /**
+       * Returns the position of this snapshot in the sequence of states of
+       * the splitter. Each transition increments it by one, which lets the
+       * event bus deliver events in the order of their transitions.
+       */
+      public long getSequence() {
+         return sequence;
+      }
+      
+      /**
+       * Returns the state of the splitter.
+       */
+      public State getState() {
+         return state;
+      }
+      
+      /**
+       * Returns the clock timestamp at which the attempt actually started.
+       */
+      public long getStarted() {
+         return started;
+      }
+      
+      /**
+       * Returns the clock timestamp at which the attempt would have started
+       * had it never been paused.
+       */
+      public long getStart() {
+         return start;
+      }
+      
+      /**
+       * Returns the clock timestamp of the last start, split or reset.
+       */
+      public long getLastEvent() {
+         return lastEvent;
+      }
+      
+      /**
+       * Returns the number of segments of the run, as of the last time the
+       * run was set or edited. Allows the splitter to be driven from any
+       * thread without reading the run, which is only safe on the event
+       * dispatch thread.
+       */
+      public int getSegmentCount() {
+         return segments;
+      }
+      
+      /**
+       * Returns the index of the current segment, which is also the number
+       * of segments already split or skipped.
+       */
+      public int getCurrentSegment() {
+         return splits.length;
+      }
+      
+      /**
+       * Returns the split time of a segment of the attempt, in nanoseconds
+       * since the start, or {@link #SKIPPED} if the segment has been skipped.
+       * The segment must have been split already.
+       */
+      public long getSplitNanos(int segmentId) {
+         if (segmentId < 0 || segmentId >= splits.length) {
+            LOG.error("Segment {} not split yet", segmentId);
+            throw new IllegalArgumentException("segment not split");
+         }
+         return splits[segmentId];
+      }
+      
+      /**
+       * Returns the elapsed time of the attempt at the given timestamp of
+       * the splitter clock, excluding the time spent paused. Returns the time
+       * of the last split if the attempt is over, or zero if it has not
+       * started.
+       */
+      public long getElapsedNanos(long now) {
+         switch (state) {
+            case RUNNING: return now - start;
+            case PAUSED:  return pausedAt - start;
+            case OVER:    return splits[splits.length - 1];
+            default:      return 0L;
+         }
+      }
+   
+   }
+
 }
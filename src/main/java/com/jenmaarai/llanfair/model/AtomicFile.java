@@ -0,0 +1,98 @@
+package com.jenmaarai.llanfair.model;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replaces the content of a file atomically. The new content is written to a
+ * temporary file next to the target, forced to the disk, then renamed over
+ * the target. The directory is then forced as well so that the rename
+ * itself survives a crash. A crash at any point leaves either the previous
+ * or the new content but never a truncated file, on file systems where
+ * directories can be forced; elsewhere, such as on Windows, the rename may
+ * still be lost and the previous content kept.
+ */
+public final class AtomicFile {
+   
+   private static final Logger LOG = LoggerFactory.getLogger(AtomicFile.class);
+   
+   private static final String SUFFIX = ".tmp";
+   
+   private AtomicFile() {}
+   
+   /**
+    * Replaces the content of the given file with the given content.
+    * The file is left untouched if the content cannot be written.
+    *
+    * @throws IOException if the file cannot be written
+    */
+   public static void write(Path path, Content content) throws IOException {
+      if (path == null || content == null) {
+         LOG.error("Null path or content");
+         throw new IllegalArgumentException("null path or content");
+      }
+      Path temp = path.resolveSibling(path.getFileName() + SUFFIX);
+      try (FileChannel channel = FileChannel.open(
+              temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING)) {
+         OutputStream out = new BufferedOutputStream(
+                 Channels.newOutputStream(channel));
+         content.writeTo(out);
+         out.flush();
+         channel.force(true);
+      } catch (IOException | RuntimeException x) {
+         Files.deleteIfExists(temp);
+         throw x;
+      }
+      try {
+         Files.move(
+                 temp, path, StandardCopyOption.ATOMIC_MOVE,
+                 StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException x) {
+         LOG.warn("Atomic move not supported for '{}'", path);
+         Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+      }
+      sync(path.toAbsolutePath().getParent());
+   }
+   
+   /**
+    * Forces the entries of the given directory to the disk, if the platform
+    * allows directories to be opened.
+    */
+   private static void sync(Path directory) {
+      if (directory == null) {
+         return;
+      }
+      try (FileChannel channel 
+              = FileChannel.open(directory, StandardOpenOption.READ)) {
+         channel.force(true);
+      } catch (IOException x) {
+         LOG.debug("Cannot sync directory '{}' ({})", 
+                   directory, x.getMessage());
+      }
+   }
+   
+   /**
+    * Produces the new content of a file.
+    */
+   @FunctionalInterface
+   public interface Content {
+      
+      /**
+       * Writes the content to the given stream, which must not be closed.
+       */
+      void writeTo(OutputStream out) throws IOException;
+   
+   }
+   
+}
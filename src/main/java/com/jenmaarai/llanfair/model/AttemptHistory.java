@@ -0,0 +1,426 @@
+package com.jenmaarai.llanfair.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only log of every attempt made on a run, stored in a compact 
+ * binary file. Attempts are appended as they end and are never modified.
+ * Reading is done through a memory mapping of the file, so that any split of
+ * any attempt can be accessed directly without loading the history on the 
+ * heap; only the offset of each attempt is kept in memory.
+ * 
+ * <p>The file starts with an 8 bytes header followed by the records of the
+ * attempts, all big-endian. Each record is made of its length (int), the 
+ * start of the attempt in milliseconds since the epoch (long), its duration 
+ * in nanoseconds (long), the number of segments of the run (int), the number
+ * of splits recorded (int), its outcome (byte) and then the split times in
+ * nanoseconds since the start (long each), with {@link #SKIPPED} for skipped
+ * segments. An incomplete last record, left by a crash while appending, is 
+ * discarded when the history is opened.
+ */
+public class AttemptHistory implements AutoCloseable {
+   
+   private static final Logger LOG 
+           = LoggerFactory.getLogger(AttemptHistory.class);
+   
+   /**
+    * Split time of the segments skipped during an attempt.
+    */
+   public static final long SKIPPED = -1L;
+   
+   private static final int MAGIC = 0x4C4C4148;
+   private static final short VERSION = 1;
+   private static final int HEADER_SIZE = 8;
+   
+   private static final int STARTED = 4;
+   private static final int DURATION = 12;
+   private static final int SEGMENTS = 20;
+   private static final int SPLIT_COUNT = 24;
+   private static final int OUTCOME = 28;
+   private static final int SPLITS = 29;
+   
+   private static final int SCAN_WINDOW = 64 * 1024;
+   
+   private final Path path;
+   private final FileChannel channel;
+   private long[] offsets = new long[64];
+   private int size = 0;
+   private long end;
+   private MappedByteBuffer mapping = null;
+   
+   private AttemptHistory(Path path, FileChannel channel) {
+      this.path = path;
+      this.channel = channel;
+   }
+   
+   /**
+    * Opens the history stored in the given file, creating it if needed.
+    * 
+    * @throws IOException if the file cannot be opened or is not a history
+    */
+   public static AttemptHistory open(Path path) throws IOException {
+      if (path == null) {
+         LOG.error("Null history path");
+         throw new IllegalArgumentException("null path");
+      }
+      FileChannel channel = FileChannel.open(
+              path, StandardOpenOption.CREATE, StandardOpenOption.READ, 
+              StandardOpenOption.WRITE);
+      AttemptHistory history = new AttemptHistory(path, channel);
+      try {
+         history.initialize();
+      } catch (IOException x) {
+         channel.close();
+         throw x;
+      }
+      return history;
+   }
+
+   /**
+    * Returns the number of complete attempts in the history stored in the
+    * given file, without modifying it, so that it can be counted while
+    * another instance appends to it.
+    *
+    * @throws IOException if the file cannot be read or is not a history
+    */
+   public static int count(Path path) throws IOException {
+      if (path == null) {
+         LOG.error("Null history path");
+         throw new IllegalArgumentException("null path");
+      }
+      try (FileChannel channel
+              = FileChannel.open(path, StandardOpenOption.READ)) {
+         long length = channel.size();
+         ByteBuffer buffer = channel.map(
+                 FileChannel.MapMode.READ_ONLY, 0L, length);
+         if (length < HEADER_SIZE || buffer.getInt(0) != MAGIC 
+                 || buffer.getShort(4) != VERSION) {
+            throw new IOException("not an attempt history");
+         }
+         int count = 0;
+         long position = HEADER_SIZE;
+         while (position + 4 <= length) {
+            int recordLength = buffer.getInt((int) position);
+            if (recordLength < SPLITS - 4 
+                    || position + 4 + recordLength > length) {
+               break;
+            }
+            count++;
+            position += 4 + recordLength;
+         }
+         return count;
+      }
+   }
+   
+   /**
+    * Returns the path of the file storing this history.
+    */
+   public Path getPath() {
+      return path;
+   }
+   
+   /**
+    * Returns the number of attempts in this history.
+    */
+   public synchronized int size() {
+      return size;
+   }
+   
+   /**
+    * Appends an attempt at the end of the history.
+    * Only the first {@code splitCount} split times are recorded.
+    * 
+    * @throws IOException if the attempt cannot be written
+    */
+   public synchronized void append(
+           long started, long duration, int segmentCount, Outcome outcome, 
+           long[] splits, int splitCount) throws IOException {
+      if (outcome == null || splits == null) {
+         LOG.error("Null attempt outcome or splits");
+         throw new IllegalArgumentException("null outcome or splits");
+      }
+      if (splitCount < 0 || splitCount > splits.length) {
+         LOG.error("Invalid split count {}", splitCount);
+         throw new IllegalArgumentException("invalid split count");
+      }
+      ByteBuffer record = ByteBuffer.allocate(SPLITS + splitCount * 8);
+      record.putInt(record.capacity() - 4)
+            .putLong(started)
+            .putLong(duration)
+            .putInt(segmentCount)
+            .putInt(splitCount)
+            .put((byte) outcome.ordinal());
+      for (int i = 0; i < splitCount; i++) {
+         record.putLong(splits[i]);
+      }
+      record.flip();
+      long position = end;
+      while (record.hasRemaining()) {
+         position += channel.write(record, position);
+      }
+      addOffset(end);
+      end = position;
+   }
+   
+   /**
+    * Returns the start of an attempt in milliseconds since the epoch.
+    */
+   public synchronized long getStarted(int attempt) {
+      return read(attempt).getLong(offset(attempt) + STARTED);
+   }
+   
+   /**
+    * Returns the duration of an attempt in nanoseconds.
+    */
+   public synchronized long getDuration(int attempt) {
+      return read(attempt).getLong(offset(attempt) + DURATION);
+   }
+   
+   /**
+    * Returns the number of segments that the run had during an attempt.
+    */
+   public synchronized int getSegmentCount(int attempt) {
+      return read(attempt).getInt(offset(attempt) + SEGMENTS);
+   }
+   
+   /**
+    * Returns the number of splits recorded during an attempt, which is also
+    * the index of the segment in which it was reset if it was.
+    */
+   public synchronized int getSplitCount(int attempt) {
+      return read(attempt).getInt(offset(attempt) + SPLIT_COUNT);
+   }
+   
+   /**
+    * Returns the outcome of an attempt.
+    */
+   public synchronized Outcome getOutcome(int attempt) {
+      return Outcome.VALUES[read(attempt).get(offset(attempt) + OUTCOME)];
+   }
+   
+   /**
+    * Returns the split time of a segment during an attempt, in nanoseconds 
+    * since its start, or {@link #SKIPPED} if the segment was skipped. The 
+    * segment must have been split during the attempt.
+    */
+   public synchronized long getSplit(int attempt, int segment) {
+      ByteBuffer buffer = read(attempt);
+      int offset = offset(attempt);
+      if (segment < 0 || segment >= buffer.getInt(offset + SPLIT_COUNT)) {
+         LOG.error("Segment {} not split in attempt {}", segment, attempt);
+         throw new IllegalArgumentException("segment not split");
+      }
+      return buffer.getLong(offset + SPLITS + segment * 8);
+   }
+   
+   /**
+    * Returns a read-only view of the attempts currently in this history.
+    * Unlike the accessors of the history itself, the snapshot does not lock
+    * and can be read from several threads at once, which suits the parallel
+    * scans of the whole history. Attempts appended later are not visible.
+    */
+   public synchronized Snapshot snapshot() {
+      return new Snapshot(size == 0 ? null : read(size - 1), offsets, size);
+   }
+   
+   /**
+    * Closes the file backing this history.
+    */
+   @Override public synchronized void close() throws IOException {
+      mapping = null;
+      channel.close();
+   }
+   
+   /**
+    * Checks the header of the file, or writes it if the file is empty, then
+    * finds the offset of every attempt. The file is scanned with plain reads
+    * and truncated before it is ever mapped, since a mapped file cannot be
+    * truncated on every platform.
+    */
+   private void initialize() throws IOException {
+      long length = channel.size();
+      if (length == 0L) {
+         ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+         header.putInt(MAGIC).putShort(VERSION).putShort((short) 0).flip();
+         channel.write(header, 0L);
+         end = HEADER_SIZE;
+         return;
+      }
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      channel.read(header, 0L);
+      header.flip();
+      if (length < HEADER_SIZE || header.getInt(0) != MAGIC) {
+         LOG.error("'{}' is not an attempt history", path);
+         throw new IOException("not an attempt history");
+      }
+      short version = header.getShort(4);
+      if (version != VERSION) {
+         LOG.error("Unsupported history version {} in '{}'", version, path);
+         throw new IOException("unsupported history version");
+      }
+      ByteBuffer window = ByteBuffer.allocate(SCAN_WINDOW);
+      long windowStart = length;
+      long position = HEADER_SIZE;
+      while (position + 4 <= length) {
+         if (position + 4 > windowStart + window.limit()
+                 || position < windowStart) {
+            windowStart = position;
+            window.clear();
+            int read;
+            do {
+               read = channel.read(window, windowStart + window.position());
+            } while (read > 0 && window.hasRemaining());
+            window.flip();
+         }
+         int recordLength = window.getInt((int) (position - windowStart));
+         if (recordLength < SPLITS - 4 
+                 || position + 4 + recordLength > length) {
+            break;
+         }
+         addOffset(position);
+         position += 4 + recordLength;
+      }
+      if (position != length) {
+         LOG.warn(
+                 "Discarding {} bytes of incomplete attempt in '{}'", 
+                 length - position, path);
+         channel.truncate(position);
+      }
+      end = position;
+   }
+   
+   /**
+    * Returns a mapping of the file containing the given attempt. The file is
+    * only mapped again when the attempt lies past the current mapping, so
+    * that appending attempts does not remap it.
+    */
+   private ByteBuffer read(int attempt) {
+      if (attempt < 0 || attempt >= size) {
+         LOG.error("Invalid attempt {}", attempt);
+         throw new IllegalArgumentException("invalid attempt");
+      }
+      long recordEnd = attempt + 1 < size ? offsets[attempt + 1] : end;
+      if (mapping == null || mapping.capacity() < recordEnd) {
+         try {
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0L, end);
+         } catch (IOException x) {
+            LOG.error("Cannot map '{}' ({})", path, x.getMessage());
+            throw new IllegalStateException("cannot map history");
+         }
+      }
+      return mapping;
+   }
+   
+   /**
+    * Returns the offset of an attempt within the file. Since mappings are
+    * indexed by integers, histories are limited to 2 GiB.
+    */
+   private int offset(int attempt) {
+      return (int) offsets[attempt];
+   }
+   
+   /**
+    * Registers the offset of a new attempt.
+    */
+   private void addOffset(long offset) {
+      if (size == offsets.length) {
+         offsets = Arrays.copyOf(offsets, size * 2);
+      }
+      offsets[size++] = offset;
+   }
+   
+   /**
+    * An immutable view of the first attempts of a history.
+    */
+   public static final class Snapshot {
+      
+      private final ByteBuffer buffer;
+      private final long[] offsets;
+      private final int size;
+      
+      private Snapshot(ByteBuffer buffer, long[] offsets, int size) {
+         this.buffer = buffer;
+         this.offsets = offsets;
+         this.size = size;
+      }
+      
+      /**
+       * Returns the number of attempts in this snapshot.
+       */
+      public int size() {
+         return size;
+      }
+      
+      /**
+       * Returns the number of segments that the run had during an attempt.
+       */
+      public int getSegmentCount(int attempt) {
+         return buffer.getInt(offset(attempt) + SEGMENTS);
+      }
+      
+      /**
+       * Returns the number of splits recorded during an attempt.
+       */
+      public int getSplitCount(int attempt) {
+         return buffer.getInt(offset(attempt) + SPLIT_COUNT);
+      }
+      
+      /**
+       * Returns the outcome of an attempt.
+       */
+      public Outcome getOutcome(int attempt) {
+         return Outcome.VALUES[buffer.get(offset(attempt) + OUTCOME)];
+      }
+      
+      /**
+       * Returns the split time of a segment during an attempt, in 
+       * nanoseconds since its start, or {@link #SKIPPED}. The segment must 
+       * have been split during the attempt.
+       */
+      public long getSplit(int attempt, int segment) {
+         int offset = offset(attempt);
+         if (segment < 0 || segment >= buffer.getInt(offset + SPLIT_COUNT)) {
+            LOG.error("Segment {} not split in attempt {}", segment, attempt);
+            throw new IllegalArgumentException("segment not split");
+         }
+         return buffer.getLong(offset + SPLITS + segment * 8);
+      }
+      
+      /**
+       * Returns the offset of an attempt within the file.
+       */
+      private int offset(int attempt) {
+         if (attempt < 0 || attempt >= size) {
+            LOG.error("Invalid attempt {}", attempt);
+            throw new IllegalArgumentException("invalid attempt");
+         }
+         return (int) offsets[attempt];
+      }
+      
+   }
+   
+   public enum Outcome {
+      
+      /**
+       * The attempt was reset before reaching the end of the run.
+       */
+      RESET,
+      
+      /**
+       * The attempt reached the end of the run.
+       */
+      COMPLETED;
+      
+      private static final Outcome[] VALUES = values();
+      
+   }
+   
+}
@@ -0,0 +1,45 @@
+package com.jenmaarai.llanfair.model;
+
+public enum Comparison {
+   
+   /**
+    * Compares against the split times of the personal best.
+    */
+   PERSONAL_BEST,
+   
+   /**
+    * Compares against the sum of the best segment times.
+    */
+   BEST_SEGMENTS,
+   
+   /**
+    * Compares against the sum of the mean segment times of every attempt.
+    */
+   AVERAGE,
+   
+   /**
+    * Compares against the sum of the median segment times of every attempt.
+    */
+   MEDIAN,
+   
+   /**
+    * Compares against the time of the personal best, distributed over the
+    * segments in proportion to their median times.
+    */
+   BALANCED_PB,
+   
+   /**
+    * Compares against the split times of the latest attempt.
+    */
+   LATEST_RUN;
+   
+   private static final Comparison[] VALUES = values();
+   
+   /**
+    * Returns the comparison following this one, cycling back to the first.
+    */
+   public Comparison next() {
+      return VALUES[(ordinal() + 1) % VALUES.length];
+   }
+   
+}
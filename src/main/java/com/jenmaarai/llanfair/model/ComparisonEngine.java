@@ -0,0 +1,246 @@
+package com.jenmaarai.llanfair.model;
+
+import javax.swing.event.ChangeListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Materializes the split times of every {@link Comparison} of a run into
+ * primitive columns, in nanoseconds, so that the delta of the current split
+ * against any comparison is a single array lookup. The columns are computed
+ * all at once and kept until the times or segments of the run, or the
+ * statistics of its history, change, which makes switching comparisons free
+ * during an attempt. Other edits of the run, such as renaming its game, keep
+ * the columns.
+ */
+public class ComparisonEngine {
+   
+   private static final Logger LOG
+           = LoggerFactory.getLogger(ComparisonEngine.class);
+   
+   private static final long NANOS_PER_MILLI = 1000000L;
+   private static final Comparison[] COMPARISONS = Comparison.values();
+   
+   private final Statistics statistics;
+   private final long[][] columns = new long[COMPARISONS.length][];
+   private final ChangeListener runListener 
+           = (event) -> runChanged((RunChangeEvent) event);
+   private Run run = null;
+   private boolean stale = true;
+   private long statisticsVersion = -1L;
+   
+   /**
+    * Creates an engine drawing the statistical comparisons from the given
+    * statistics.
+    */
+   public ComparisonEngine(Statistics statistics) {
+      if (statistics == null) {
+         LOG.error("Null statistics");
+         throw new IllegalArgumentException("null statistics");
+      }
+      this.statistics = statistics;
+   }
+   
+   /**
+    * Returns the split time of a segment of the run according to the given
+    * comparison, in nanoseconds, or {@link Run#UNDEFINED}.
+    */
+   public synchronized long getSplit(
+           Run run, Comparison comparison, int segmentId) {
+      if (comparison == null) {
+         LOG.error("Null comparison");
+         throw new IllegalArgumentException("null comparison");
+      }
+      long[] column = columns(run)[comparison.ordinal()];
+      if (segmentId < 0 || segmentId >= column.length) {
+         LOG.error("Invalid segment id '{}'", segmentId);
+         throw new IllegalArgumentException("invalid segment id");
+      }
+      return column[segmentId];
+   }
+   
+   /**
+    * Returns the difference between a split time, in nanoseconds, and the
+    * split time of the same segment according to the given comparison, or
+    * {@link Run#UNDEFINED} if the latter is undefined.
+    */
+   public long getDelta(
+           Run run, Comparison comparison, int segmentId, long split) {
+      long reference = getSplit(run, comparison, segmentId);
+      return reference == Run.UNDEFINED ? Run.UNDEFINED : split - reference;
+   }
+   
+   /**
+    * Returns the time spent in a section of the run according to the given
+    * comparison, in nanoseconds, or {@link Run#UNDEFINED}. As the columns
+    * hold split times, this is a difference of two lookups whatever the size
+    * of the section.
+    */
+   public synchronized long getSectionTime(
+           Run run, Comparison comparison, Section section) {
+      if (section == null) {
+         LOG.error("Null section");
+         throw new IllegalArgumentException("null section");
+      }
+      long split = getSplit(run, comparison, section.getLast());
+      if (section.getFirst() == 0 || split == Run.UNDEFINED) {
+         return split;
+      }
+      long previous = getSplit(run, comparison, section.getFirst() - 1);
+      return previous == Run.UNDEFINED ? Run.UNDEFINED : split - previous;
+   }
+
+   /**
+    * Returns the difference between the time spent in a section, in
+    * nanoseconds, and the time spent in the same section according to the
+    * given comparison, or {@link Run#UNDEFINED} if the latter is undefined.
+    */
+   public long getSectionDelta(
+           Run run, Comparison comparison, Section section, long time) {
+      long reference = getSectionTime(run, comparison, section);
+      return reference == Run.UNDEFINED ? Run.UNDEFINED : time - reference;
+   }
+
+   /**
+    * Returns the columns of the given run, computing them again if its times
+    * or segments, or the statistics, have changed since they were last
+    * computed. The engine listens to the changes of the last run given.
+    */
+   private long[][] columns(Run run) {
+      if (run == null) {
+         LOG.error("Null run");
+         throw new IllegalArgumentException("null run");
+      }
+      if (run != this.run) {
+         if (this.run != null) {
+            this.run.removeChangeListener(runListener);
+         }
+         run.addChangeListener(runListener);
+         this.run = run;
+         stale = true;
+      }
+      long version = statistics.getVersion();
+      if (stale || version != statisticsVersion
+              || columns[0].length != run.getSegmentCount()) {
+         stale = false;
+         statisticsVersion = version;
+         for (Comparison comparison : COMPARISONS) {
+            columns[comparison.ordinal()] = compute(run, comparison);
+         }
+      }
+      return columns;
+   }
+   
+   /**
+    * Marks the columns as stale if the split or best times of the run have
+    * changed.
+    */
+   private synchronized void runChanged(RunChangeEvent event) {
+      if (event.hasChanged(RunChangeEvent.Field.SPLIT_TIMES)
+              || event.hasChanged(RunChangeEvent.Field.SEGMENT_BESTS)) {
+         stale = true;
+      }
+   }
+   
+   /**
+    * Computes the split times of every segment of a run for a comparison.
+    */
+   private long[] compute(Run run, Comparison comparison) {
+      int count = run.getSegmentCount();
+      long[] column = new long[count];
+      switch (comparison) {
+         case PERSONAL_BEST:
+            for (int i = 0; i < count; i++) {
+               column[i] = nanos(run.getSplitMillis(i));
+            }
+            break;
+         case BEST_SEGMENTS:
+            for (int i = 0; i < count; i++) {
+               column[i] = nanos(run.getSegmentBestMillis(i));
+            }
+            accumulate(column);
+            break;
+         case AVERAGE:
+            for (int i = 0; i < count; i++) {
+               column[i] = statistics.getMean(i);
+            }
+            accumulate(column);
+            break;
+         case MEDIAN:
+            for (int i = 0; i < count; i++) {
+               column[i] = statistics.getMedian(i);
+            }
+            accumulate(column);
+            break;
+         case BALANCED_PB:
+            balance(run, column);
+            break;
+         case LATEST_RUN:
+            for (int i = 0; i < count; i++) {
+               column[i] = statistics.getLatestSplit(i);
+            }
+            break;
+         default:
+            LOG.error("Unknown comparison {}", comparison);
+            throw new IllegalStateException("unknown comparison");
+      }
+      return column;
+   }
+   
+   /**
+    * Distributes the time of the personal best over the segments of a run in
+    * proportion to their median times. Segments without a median are
+    * weighted by their best time, or by their personal best time. The split
+    * times of the personal best are used as is if no weight is available.
+    */
+   private void balance(Run run, long[] column) {
+      int count = column.length;
+      long total = nanos(run.getSplitMillis(count - 1));
+      for (int i = 0; i < count; i++) {
+         long weight = statistics.getMedian(i);
+         if (weight == Run.UNDEFINED) {
+            weight = nanos(run.getSegmentBestMillis(i));
+         }
+         if (weight == Run.UNDEFINED) {
+            weight = nanos(run.getSegmentMillis(i));
+         }
+         column[i] = weight;
+      }
+      accumulate(column);
+      long sum = column[count - 1];
+      if (total == Run.UNDEFINED || sum == Run.UNDEFINED || sum <= 0L) {
+         for (int i = 0; i < count; i++) {
+            column[i] = nanos(run.getSplitMillis(i));
+         }
+         return;
+      }
+      double ratio = (double) total / sum;
+      for (int i = 0; i < count; i++) {
+         column[i] = Math.round(column[i] * ratio);
+      }
+   }
+   
+   /**
+    * Turns segment times into split times, in place. Every split following
+    * an undefined segment time is undefined.
+    */
+   private static void accumulate(long[] column) {
+      long sum = 0L;
+      for (int i = 0; i < column.length; i++) {
+         if (sum == Run.UNDEFINED || column[i] == Run.UNDEFINED) {
+            sum = Run.UNDEFINED;
+         } else {
+            sum += column[i];
+         }
+         column[i] = sum;
+      }
+   }
+   
+   /**
+    * Converts milliseconds to nanoseconds, keeping undefined times as is.
+    */
+   private static long nanos(long millis) {
+      return millis == Run.UNDEFINED ? Run.UNDEFINED : millis * NANOS_PER_MILLI;
+   }
+   
+}
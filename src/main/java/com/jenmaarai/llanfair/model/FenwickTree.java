@@ -0,0 +1,74 @@
+package com.jenmaarai.llanfair.model;
+
+/**
+ * Binary indexed tree over a fixed number of long values.
+ * Both point updates and prefix sums run in logarithmic time without
+ * allocating anything.
+ */
+final class FenwickTree {
+   
+   private final long[] tree;
+   private final long[] values;
+   
+   /**
+    * Creates a tree of the given size with every value set to zero.
+    */
+   FenwickTree(int size) {
+      tree   = new long[size + 1];
+      values = new long[size];
+   }
+   
+   /**
+    * Returns the number of values in this tree.
+    */
+   int size() {
+      return values.length;
+   }
+   
+   /**
+    * Returns the value at the given index.
+    */
+   long get(int index) {
+      return values[index];
+   }
+   
+   /**
+    * Sets the value at the given index.
+    */
+   void set(int index, long value) {
+      long delta = value - values[index];
+      if (delta == 0L) {
+         return;
+      }
+      values[index] = value;
+      for (int i = index + 1; i < tree.length; i += i & -i) {
+         tree[i] += delta;
+      }
+   }
+   
+   /**
+    * Returns the sum of the values strictly before the given index.
+    */
+   long prefix(int index) {
+      long sum = 0L;
+      for (int i = index; i > 0; i -= i & -i) {
+         sum += tree[i];
+      }
+      return sum;
+   }
+   
+   /**
+    * Returns the sum of the values in the range [from, to[.
+    */
+   long range(int from, int to) {
+      return prefix(to) - prefix(from);
+   }
+   
+   /**
+    * Returns the sum of every value in this tree.
+    */
+   long total() {
+      return prefix(values.length);
+   }
+   
+}
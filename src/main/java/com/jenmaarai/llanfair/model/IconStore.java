@@ -0,0 +1,245 @@
+package com.jenmaarai.llanfair.model;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Shares the icons of every run loaded by the application. Encoded icons are
+ * interned by content, so that identical icons are only held once however
+ * many segments or runs use them. Decoded images, at their natural size or
+ * scaled to the size at which they are painted, are kept in a cache bounded
+ * by their total number of pixels, evicting the least recently painted first;
+ * an evicted image is simply decoded again when next painted. Cached images
+ * only hold their icon weakly, and are dropped once it is no longer used.
+ */
+final class IconStore {
+   
+   /**
+    * Upper bound of the number of decoded pixels kept in memory, that is 16
+    * MiB of 32 bits pixels.
+    */
+   static final long MAX_PIXELS = 1L << 22;
+   
+   private static final Map<Key, Reference> ICONS = new HashMap<>();
+   private static final ReferenceQueue<LazyIcon> COLLECTED
+           = new ReferenceQueue<>();
+   private static final ReferenceQueue<LazyIcon> UNPAINTED
+           = new ReferenceQueue<>();
+   private static final LinkedHashMap<Variant, BufferedImage> IMAGES
+           = new LinkedHashMap<>(64, 0.75f, true);
+   private static long pixels = 0L;
+   
+   private IconStore() {}
+   
+   /**
+    * Returns the icon of given dimensions encoded by the given image, sharing
+    * the icon already loaded with the same content if any.
+    */
+   static synchronized LazyIcon intern(byte[] data, int width, int height) {
+      expunge();
+      Key key = new Key(data, width, height);
+      Reference reference = ICONS.get(key);
+      LazyIcon icon = reference == null ? null : reference.get();
+      if (icon == null) {
+         icon = new LazyIcon(data, width, height);
+         ICONS.put(key, new Reference(icon, key));
+      }
+      return icon;
+   }
+   
+   /**
+    * Returns the image of an icon decoded and scaled to the given dimensions,
+    * or null if it cannot be decoded. Images are decoded outside of the lock
+    * of the store, so that painting never waits on another decode.
+    */
+   static BufferedImage image(LazyIcon icon, int width, int height) {
+      Variant variant = new Variant(icon, width, height, null);
+      synchronized (IconStore.class) {
+         BufferedImage image = IMAGES.get(variant);
+         if (image != null) {
+            return image;
+         }
+      }
+      BufferedImage image;
+      if (width == icon.getIconWidth() && height == icon.getIconHeight()) {
+         image = icon.decode();
+         if (image != null && (image.getWidth() != width
+                 || image.getHeight() != height)) {
+            image = scale(image, width, height);
+         }
+      } else {
+         BufferedImage original = image(
+                 icon, icon.getIconWidth(), icon.getIconHeight());
+         image = original == null ? null : scale(original, width, height);
+      }
+      if (image != null) {
+         cache(new Variant(icon, width, height, UNPAINTED), image);
+      }
+      return image;
+   }
+   
+   /**
+    * Returns the number of decoded pixels currently cached.
+    */
+   static synchronized long getDecodedPixels() {
+      expunge();
+      return pixels;
+   }
+   
+   /**
+    * Caches a decoded image, evicting the least recently used images until
+    * the cache fits its bound. An image larger than the bound is not cached.
+    */
+   private static synchronized void cache(
+           Variant variant, BufferedImage image) {
+      expunge();
+      long size = (long) image.getWidth() * image.getHeight();
+      if (size > MAX_PIXELS || IMAGES.containsKey(variant)) {
+         return;
+      }
+      IMAGES.put(variant, image);
+      pixels += size;
+      Iterator<BufferedImage> eldest = IMAGES.values().iterator();
+      while (pixels > MAX_PIXELS) {
+         BufferedImage evicted = eldest.next();
+         pixels -= (long) evicted.getWidth() * evicted.getHeight();
+         eldest.remove();
+      }
+   }
+   
+   /**
+    * Returns an image scaled to the given dimensions.
+    */
+   private static BufferedImage scale(
+           BufferedImage original, int width, int height) {
+      BufferedImage scaled = new BufferedImage(
+              width, height, BufferedImage.TYPE_INT_ARGB);
+      Graphics2D g = scaled.createGraphics();
+      try {
+         g.setRenderingHint(
+                 RenderingHints.KEY_INTERPOLATION,
+                 RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+         g.setRenderingHint(
+                 RenderingHints.KEY_RENDERING,
+                 RenderingHints.VALUE_RENDER_QUALITY);
+         g.drawImage(original, 0, 0, width, height, null);
+      } finally {
+         g.dispose();
+      }
+      return scaled;
+   }
+   
+   /**
+    * Forgets the icons that are no longer used, and their images.
+    */
+   private static void expunge() {
+      Reference reference;
+      while ((reference = (Reference) COLLECTED.poll()) != null) {
+         if (ICONS.get(reference.key) == reference) {
+            ICONS.remove(reference.key);
+         }
+      }
+      Variant variant;
+      while ((variant = (Variant) UNPAINTED.poll()) != null) {
+         BufferedImage image = IMAGES.remove(variant);
+         if (image != null) {
+            pixels -= (long) image.getWidth() * image.getHeight();
+         }
+      }
+   }
+   
+   /**
+    * The content of an encoded icon, compared byte per byte.
+    */
+   private static final class Key {
+      
+      private final byte[] data;
+      private final int width;
+      private final int height;
+      private final int hash;
+      
+      Key(byte[] data, int width, int height) {
+         this.data = data;
+         this.width = width;
+         this.height = height;
+         this.hash = (Arrays.hashCode(data) * 31 + width) * 31 + height;
+      }
+      
+      @Override public int hashCode() {
+         return hash;
+      }
+      
+      @Override public boolean equals(Object other) {
+         if (!(other instanceof Key)) {
+            return false;
+         }
+         Key key = (Key) other;
+         return hash == key.hash && width == key.width
+                 && height == key.height && Arrays.equals(data, key.data);
+      }
+   
+   }
+   
+   /**
+    * A weak reference to an interned icon, remembering its key.
+    */
+   private static final class Reference extends WeakReference<LazyIcon> {
+      
+      private final Key key;
+      
+      Reference(LazyIcon icon, Key key) {
+         super(icon, COLLECTED);
+         this.key = key;
+      }
+   
+   }
+   
+   /**
+    * An icon at given dimensions, held weakly so that caching its image does
+    * not keep it interned. Once its icon is collected, a variant only equals
+    * itself, which is enough to evict its image.
+    */
+   private static final class Variant extends WeakReference<LazyIcon> {
+      
+      private final int width;
+      private final int height;
+      private final int hash;
+      
+      Variant(
+              LazyIcon icon, int width, int height,
+              ReferenceQueue<LazyIcon> queue) {
+         super(icon, queue);
+         this.width = width;
+         this.height = height;
+         this.hash = (System.identityHashCode(icon) * 31 + width) * 31
+                   + height;
+      }
+      
+      @Override public int hashCode() {
+         return hash;
+      }
+      
+      @Override public boolean equals(Object other) {
+         if (other == this) {
+            return true;
+         }
+         if (!(other instanceof Variant)) {
+            return false;
+         }
+         Variant variant = (Variant) other;
+         LazyIcon icon = get();
+         return icon != null && icon == variant.get()
+                 && width == variant.width && height == variant.height;
+      }
+   
+   }
+   
+}
@@ -0,0 +1,173 @@
+package com.jenmaarai.llanfair.model;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import javax.imageio.ImageIO;
+import javax.swing.Icon;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An icon kept encoded until it is first painted. Its dimensions are known
+ * without decoding it, so that layouts can be computed as soon as a run is
+ * loaded. Icons are interned and decoded by the {@link IconStore}, which may
+ * drop the decoded image of an icon that has not been painted for a while.
+ * An icon that cannot be decoded paints nothing.
+ */
+final class LazyIcon implements Icon, Serializable {
+   
+   private static final Logger LOG = LoggerFactory.getLogger(LazyIcon.class);
+   
+   private final byte[] data;
+   private final int width;
+   private final int height;
+   private transient volatile boolean failed = false;
+   
+   /**
+    * Creates an icon of given dimensions from its encoded image. Icons are
+    * created through {@link IconStore#intern(byte[], int, int)}.
+    */
+   LazyIcon(byte[] data, int width, int height) {
+      this.data = data;
+      this.width = width;
+      this.height = height;
+   }
+   
+   /**
+    * Returns the given icon encoded as PNG, or itself if it already is.
+    * Returns null if the icon is empty.
+    * 
+    * @throws IOException if the icon cannot be encoded
+    */
+   static LazyIcon encode(Icon icon) throws IOException {
+      if (icon instanceof LazyIcon) {
+         return (LazyIcon) icon;
+      }
+      int width  = icon.getIconWidth();
+      int height = icon.getIconHeight();
+      if (width <= 0 || height <= 0) {
+         LOG.warn("Skipping empty icon");
+         return null;
+      }
+      BufferedImage image = new BufferedImage(
+              width, height, BufferedImage.TYPE_INT_ARGB);
+      Graphics2D g = image.createGraphics();
+      try {
+         icon.paintIcon(null, g, 0, 0);
+      } finally {
+         g.dispose();
+      }
+      ByteArrayOutputStream data = new ByteArrayOutputStream();
+      ImageIO.write(image, "png", data);
+      return IconStore.intern(data.toByteArray(), width, height);
+   }
+   
+   /**
+    * Returns the encoded image of this icon, which must not be modified.
+    */
+   byte[] getData() {
+      return data;
+   }
+   
+   /**
+    * Returns this icon scaled to fit in a square of given size, keeping its
+    * aspect ratio, or itself if it already fits exactly. The scaled image is
+    * computed once and cached by the store.
+    */
+   Icon scaled(int size) {
+      if (size <= 0) {
+         LOG.error("Invalid icon size {}", size);
+         throw new IllegalArgumentException("invalid icon size");
+      }
+      int max = Math.max(width, height);
+      if (max == size) {
+         return this;
+      }
+      int w = Math.max(1, (int) ((long) width  * size / max));
+      int h = Math.max(1, (int) ((long) height * size / max));
+      return new Scaled(w, h);
+   }
+   
+   /**
+    * Decodes the image of this icon, returning null if it cannot be decoded.
+    */
+   BufferedImage decode() {
+      BufferedImage image = null;
+      try {
+         image = ImageIO.read(new ByteArrayInputStream(data));
+      } catch (IOException x) {
+         LOG.warn("Cannot decode icon ({})", x.getMessage());
+      }
+      return image;
+   }
+   
+   @Override public int getIconWidth() {
+      return width;
+   }
+   
+   @Override public int getIconHeight() {
+      return height;
+   }
+   
+   @Override public void paintIcon(Component c, Graphics g, int left, int top) {
+      paint(c, g, left, top, width, height);
+   }
+   
+   /**
+    * Shares deserialized icons with the icons already loaded.
+    */
+   private Object readResolve() {
+      return IconStore.intern(data, width, height);
+   }
+   
+   /**
+    * Paints the image of this icon at given dimensions.
+    */
+   private void paint(
+           Component c, Graphics g, int left, int top, int w, int h) {
+      if (failed) {
+         return;
+      }
+      BufferedImage image = IconStore.image(this, w, h);
+      if (image == null) {
+         failed = true;
+      } else {
+         g.drawImage(image, left, top, c);
+      }
+   }
+   
+   /**
+    * A view of this icon at other dimensions.
+    */
+   private final class Scaled implements Icon {
+      
+      private final int w;
+      private final int h;
+      
+      Scaled(int w, int h) {
+         this.w = w;
+         this.h = h;
+      }
+      
+      @Override public int getIconWidth() {
+         return w;
+      }
+      
+      @Override public int getIconHeight() {
+         return h;
+      }
+      
+      @Override public void paintIcon(
+              Component c, Graphics g, int left, int top) {
+         paint(c, g, left, top, w, h);
+      }
+   
+   }
+   
+}
@@ -0,0 +1,1051 @@
+package com.jenmaarai.llanfair.model;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import javax.imageio.ImageIO;
+import javax.swing.Icon;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Imports and exports runs in the format of LiveSplit ({@code .lss}), along
+ * with their attempt history.
+ *
+ * <p>Files are streamed and bounded like {@link RunXml}. The personal best
+ * and best segments of each segment become the time columns of the run,
+ * including game times if any. Attempts and the segment times recorded for
+ * each of them are kept as primitive arrays until the whole file is read,
+ * then appended to the {@link AttemptHistory} as split times. Icons are kept
+ * as base64 text while reading and decoded in parallel at the end. LiveSplit
+ * stores them as {@code System.Drawing.Bitmap} objects serialized by .NET,
+ * which wrap the encoded image; only the image is kept, without being
+ * decoded if it is a PNG.
+ */
+final class LiveSplitFormat {
+   
+   private static final Logger LOG
+           = LoggerFactory.getLogger(LiveSplitFormat.class);
+   
+   private static final int MAX_SEGMENTS = 1 << 16;
+   private static final int MAX_ATTEMPTS = 1 << 20;
+   private static final int MAX_HISTORY = 1 << 23;
+   private static final int MAX_TEXT = 1 << 16;
+   private static final int MAX_ICON_DATA = 1 << 22;
+   
+   private static final String VERSION = "1.7.0";
+   private static final String PERSONAL_BEST = "Personal Best";
+   
+   /**
+    * Segment time of the segments skipped during an attempt.
+    */
+   private static final long SKIPPED = Long.MIN_VALUE + 1L;
+   
+   /**
+    * Name of the last segment of a section, giving the name of the section.
+    */
+   private static final Pattern SECTION
+           = Pattern.compile("\\{(.*?)\\}\\s*(.*)", Pattern.DOTALL);
+   
+   private static final long NANOS_PER_TICK = 100L;
+   private static final long TICKS_PER_MILLI = 10000L;
+   private static final long TICKS_PER_SECOND = 10000000L;
+   
+   private static final DateTimeFormatter DATE
+           = DateTimeFormatter.ofPattern("MM/dd/yyyy HH:mm:ss", Locale.ROOT);
+   
+   private static final byte[] PNG
+           = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+   
+   private LiveSplitFormat() {}
+   
+   /**
+    * Reads a run from the given LiveSplit file, appending its attempts to
+    * the given history unless it is null.
+    *
+    * @throws IOException if the file cannot be read or is not a valid run
+    */
+   static Run read(Path path, AttemptHistory history) throws IOException {
+      Reader reader = parse(path);
+      if (history != null) {
+         reader.appendAttempts(history);
+      }
+      return reader.toRun();
+   }
+   
+   /**
+    * Reads a run from the given LiveSplit file without its attempts, passing
+    * the number of attempts it holds to the given consumer.
+    *
+    * @throws IOException if the file cannot be read or is not a valid run
+    */
+   static Run read(Path path, IntConsumer attempts) throws IOException {
+      Reader reader = parse(path);
+      attempts.accept(reader.attemptCount);
+      return reader.toRun();
+   }
+   
+   /**
+    * Parses the given LiveSplit file.
+    */
+   private static Reader parse(Path path) throws IOException {
+      try (InputStream in
+              = new BufferedInputStream(Files.newInputStream(path))) {
+         XMLStreamReader xml = RunXml.INPUT.createXMLStreamReader(in);
+         try {
+            Reader reader = new Reader(xml);
+            reader.readRun();
+            return reader;
+         } finally {
+            xml.close();
+         }
+      } catch (XMLStreamException | IllegalArgumentException x) {
+         LOG.error("Malformed LiveSplit run '{}' ({})", path, x.getMessage());
+         throw new IOException("malformed LiveSplit run", x);
+      }
+   }
+   
+   /**
+    * Writes a run to the given LiveSplit file, replacing it atomically, with
+    * the attempts of the given history unless it is null.
+    *
+    * @throws IOException if the file cannot be written
+    */
+   static void write(Run run, AttemptHistory history, Path path)
+           throws IOException {
+      AtomicFile.write(path, (out) -> {
+         try {
+            XMLStreamWriter xml
+                    = RunXml.OUTPUT.createXMLStreamWriter(out, "UTF-8");
+            try {
+               new Writer(xml).writeRun(run, history);
+            } finally {
+               xml.close();
+            }
+         } catch (XMLStreamException x) {
+            LOG.error(
+                    "Cannot write LiveSplit run '{}' ({})", path,
+                    x.getMessage());
+            throw new IOException("cannot write LiveSplit run", x);
+         }
+      });
+   }
+   
+   /**
+    * Parses a LiveSplit time, {@code [-][d.]hh:mm:ss[.fffffff]}, into ticks
+    * of 100 nanoseconds. Returns {@link Run#UNDEFINED} for an empty text.
+    */
+   static long parseTicks(String text) throws XMLStreamException {
+      String time = text.trim();
+      if (time.isEmpty()) {
+         return Run.UNDEFINED;
+      }
+      boolean negative = time.charAt(0) == '-';
+      int first = time.indexOf(':');
+      int second = time.indexOf(':', first + 1);
+      if (first < 0 || second < 0) {
+         throw new XMLStreamException("invalid time " + text);
+      }
+      try {
+         String hours = time.substring(negative ? 1 : 0, first);
+         long days = 0L;
+         int dot = hours.indexOf('.');
+         if (dot >= 0) {
+            days = Long.parseLong(hours.substring(0, dot));
+            hours = hours.substring(dot + 1);
+         }
+         long minutes = Long.parseLong(time.substring(first + 1, second));
+         String seconds = time.substring(second + 1);
+         long fraction = 0L;
+         dot = seconds.indexOf('.');
+         if (dot >= 0) {
+            String digits = (seconds.substring(dot + 1) + "0000000")
+                    .substring(0, 7);
+            fraction = Long.parseLong(digits);
+            seconds = seconds.substring(0, dot);
+         }
+         long total = ((days * 24L + Long.parseLong(hours)) * 60L + minutes)
+                    * 60L + Long.parseLong(seconds);
+         long ticks = total * TICKS_PER_SECOND + fraction;
+         return negative ? -ticks : ticks;
+      } catch (NumberFormatException x) {
+         throw new XMLStreamException("invalid time " + text);
+      }
+   }
+   
+   /**
+    * Formats ticks of 100 nanoseconds as a LiveSplit time.
+    */
+   static String formatTicks(long ticks) {
+      StringBuilder text = new StringBuilder(20);
+      if (ticks < 0L) {
+         text.append('-');
+         ticks = -ticks;
+      }
+      long seconds = ticks / TICKS_PER_SECOND;
+      long hours = seconds / 3600L;
+      if (hours >= 24L) {
+         text.append(hours / 24L).append('.');
+         hours %= 24L;
+      }
+      pad(text, hours, 2).append(':');
+      pad(text, seconds / 60L % 60L, 2).append(':');
+      pad(text, seconds % 60L, 2).append('.');
+      pad(text, ticks % TICKS_PER_SECOND, 7);
+      return text.toString();
+   }
+   
+   /**
+    * Appends a number padded with zeros to the given number of digits.
+    */
+   private static StringBuilder pad(
+           StringBuilder text, long value, int digits) {
+      String number = Long.toString(value);
+      for (int i = number.length(); i < digits; i++) {
+         text.append('0');
+      }
+      return text.append(number);
+   }
+   
+   /**
+    * Converts ticks to milliseconds, keeping undefined times as is.
+    */
+   private static long millis(long ticks) {
+      return ticks == Run.UNDEFINED ? Run.UNDEFINED : ticks / TICKS_PER_MILLI;
+   }
+   
+   /**
+    * Decodes an icon serialized by LiveSplit, returning null if it holds no
+    * image. The image is extracted from the byte array of the serialized
+    * object, or taken as is if the data is not a serialized object.
+    */
+   static Icon decodeIcon(String base64) {
+      byte[] data;
+      try {
+         data = Base64.getMimeDecoder().decode(base64);
+      } catch (IllegalArgumentException x) {
+         LOG.warn("Skipping icon with invalid base64 ({})", x.getMessage());
+         return null;
+      }
+      if (data.length == 0) {
+         return null;
+      }
+      byte[] image = unwrap(data);
+      if (startsWith(image, PNG) && image.length >= 24) {
+         ByteBuffer header = ByteBuffer.wrap(image);
+         int width  = header.getInt(16);
+         int height = header.getInt(20);
+         if (width > 0 && height > 0) {
+            return IconStore.intern(image, width, height);
+         }
+      }
+      try {
+         BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(image));
+         if (decoded != null) {
+            return IconStore.intern(
+                    image, decoded.getWidth(), decoded.getHeight());
+         }
+      } catch (IOException x) {
+         LOG.warn("Skipping undecodable icon ({})", x.getMessage());
+         return null;
+      }
+      LOG.warn("Skipping icon of unknown format");
+      return null;
+   }
+   
+   /**
+    * Returns the content of the byte array serialized by .NET at the end of
+    * the given data, followed only by the end of the serialization, or the
+    * data itself if there is no such array.
+    */
+   private static byte[] unwrap(byte[] data) {
+      ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+      for (int i = 0; i + 10 < data.length; i++) {
+         if (data[i] == Nrbf.BYTE_ARRAY && data[i + 9] == Nrbf.BYTE) {
+            int length = buffer.getInt(i + 5);
+            if (length > 0 && i + 10L + length == data.length - 1L
+                    && data[data.length - 1] == Nrbf.END) {
+               return Arrays.copyOfRange(data, i + 10, i + 10 + length);
+            }
+         }
+      }
+      return data;
+   }
+   
+   /**
+    * Indicates whether the data starts with the given prefix.
+    */
+   private static boolean startsWith(byte[] data, byte[] prefix) {
+      if (data.length < prefix.length) {
+         return false;
+      }
+      for (int i = 0; i < prefix.length; i++) {
+         if (data[i] != prefix[i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+   
+   /**
+    * Serializes an encoded image as a {@code System.Drawing.Bitmap} the way
+    * .NET does, so that LiveSplit can read it.
+    */
+   static byte[] wrap(byte[] image) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(image.length + 256);
+      out.write(Nrbf.HEADER);
+      Nrbf.integers(out, 1, -1, 1, 0);
+      out.write(Nrbf.LIBRARY);
+      Nrbf.integers(out, 2);
+      Nrbf.string(out, Nrbf.DRAWING);
+      out.write(Nrbf.CLASS);
+      Nrbf.integers(out, 1);
+      Nrbf.string(out, "System.Drawing.Bitmap");
+      Nrbf.integers(out, 1);
+      Nrbf.string(out, "Data");
+      out.write(Nrbf.PRIMITIVE_ARRAY);
+      out.write(Nrbf.BYTE);
+      Nrbf.integers(out, 2);
+      out.write(Nrbf.REFERENCE);
+      Nrbf.integers(out, 3);
+      out.write(Nrbf.BYTE_ARRAY);
+      Nrbf.integers(out, 3, image.length);
+      out.write(Nrbf.BYTE);
+      out.write(image, 0, image.length);
+      out.write(Nrbf.END);
+      return out.toByteArray();
+   }
+   
+   /**
+    * Records of the .NET binary serialization format used for icons.
+    */
+   private static final class Nrbf {
+      
+      static final byte HEADER = 0x00;
+      static final byte CLASS = 0x05;
+      static final byte REFERENCE = 0x09;
+      static final byte LIBRARY = 0x0C;
+      static final byte END = 0x0B;
+      static final byte BYTE_ARRAY = 0x0F;
+      static final byte PRIMITIVE_ARRAY = 0x07;
+      static final byte BYTE = 0x02;
+      
+      static final String DRAWING = "System.Drawing, Version=4.0.0.0, "
+              + "Culture=neutral, PublicKeyToken=b03f5f7f11d50a3a";
+      
+      private Nrbf() {}
+      
+      /**
+       * Writes integers in little-endian order.
+       */
+      static void integers(ByteArrayOutputStream out, int... values) {
+         for (int value : values) {
+            for (int shift = 0; shift < 32; shift += 8) {
+               out.write(value >>> shift);
+            }
+         }
+      }
+      
+      /**
+       * Writes a string prefixed by its length in bytes, encoded seven bits
+       * at a time.
+       */
+      static void string(ByteArrayOutputStream out, String value) {
+         byte[] data = value.getBytes(StandardCharsets.UTF_8);
+         int length = data.length;
+         while (length >= 0x80) {
+            out.write((length & 0x7F) | 0x80);
+            length >>>= 7;
+         }
+         out.write(length);
+         out.write(data, 0, data.length);
+      }
+   
+   }
+   
+   /**
+    * Reads a LiveSplit run from a stream positioned at its start.
+    */
+   private static final class Reader {
+      
+      private final XMLStreamReader xml;
+      private final List<Segment> segments = new ArrayList<>();
+      private final List<String> icons = new ArrayList<>();
+      private TimeColumn splits = new TimeColumn(16);
+      private TimeColumn bests = new TimeColumn(16);
+      private TimeColumn gameSplits = new TimeColumn(16);
+      private TimeColumn gameBests = new TimeColumn(16);
+      private boolean gameTime = false;
+      private final Run run = new Run();
+      
+      private final Map<Integer, Integer> attemptIds = new HashMap<>();
+      private long[] started = new long[16];
+      private long[] ended = new long[16];
+      private long[] durations = new long[16];
+      private int attemptCount = 0;
+      private final List<long[]> history = new ArrayList<>();
+      private boolean historyDropped = false;
+      
+      Reader(XMLStreamReader xml) {
+         this.xml = xml;
+      }
+      
+      /**
+       * Reads the whole run.
+       */
+      void readRun() throws XMLStreamException {
+         xml.nextTag();
+         xml.require(XMLStreamConstants.START_ELEMENT, null, "Run");
+         while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (xml.getLocalName()) {
+               case "GameName":       run.setGame(text()); break;
+               case "CategoryName":   run.setCategory(text()); break;
+               case "Metadata":       readMetadata(); break;
+               case "AttemptHistory": readAttempts(); break;
+               case "Segments":       readSegments(); break;
+               default:               RunXml.skip(xml); break;
+            }
+         }
+         if (segments.isEmpty()) {
+            throw new XMLStreamException("no segment");
+         }
+      }
+      
+      /**
+       * Returns the run read, with its icons decoded in parallel.
+       */
+      Run toRun() {
+         int count = segments.size();
+         Icon[] decoded = new Icon[count];
+         IntStream.range(0, count).parallel().forEach((i) -> {
+            String icon = icons.get(i);
+            if (icon != null && !icon.trim().isEmpty()) {
+               decoded[i] = decodeIcon(icon);
+            }
+         });
+         Map<String, Icon> shared = new HashMap<>();
+         for (int i = 0; i < count; i++) {
+            Icon icon = decoded[i];
+            if (icon != null) {
+               segments.get(i).setIcon(
+                       shared.computeIfAbsent(icons.get(i), (k) -> icon));
+            }
+         }
+         splits.resize(count);
+         bests.resize(count);
+         gameSplits.resize(count);
+         gameBests.resize(count);
+         run.setContent(
+                 segments, splits, bests, gameTime ? gameSplits : null,
+                 gameTime ? gameBests : null);
+         run.setSections(readSections());
+         return run;
+      }
+      
+      /**
+       * Groups the segments in sections following the naming convention of
+       * LiveSplit subsplits, removing it from their names: the segments of a
+       * section start with a dash, except its last one, which may give the
+       * name of the section within braces.
+       */
+      private List<Section> readSections() {
+         List<Section> sections = new ArrayList<>();
+         int first = 0;
+         boolean grouped = false;
+         for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            String name = segment.getName() == null ? "" : segment.getName();
+            if (name.startsWith("-")) {
+               segment.setName(name.substring(1));
+               grouped = true;
+               continue;
+            }
+            Matcher matcher = SECTION.matcher(name);
+            if (matcher.matches()) {
+               name = matcher.group(1);
+               segment.setName(matcher.group(2));
+               grouped = true;
+            }
+            if (grouped) {
+               sections.add(new Section(name, first, i + 1));
+            }
+            first = i + 1;
+            grouped = false;
+         }
+         if (grouped) {
+            sections.add(new Section("", first, segments.size()));
+         }
+         return sections;
+      }
+      
+      /**
+       * Appends the attempts read to the given history, as split times. An
+       * attempt is completed if it has a final time and every segment has a
+       * time, the last one included.
+       */
+      void appendAttempts(AttemptHistory target) throws IOException {
+         if (historyDropped) {
+            return;
+         }
+         int count = segments.size();
+         long[] splitTimes = new long[count];
+         for (int a = 0; a < attemptCount; a++) {
+            int splitCount = 0;
+            long elapsed = 0L;
+            for (int s = 0; s < count; s++) {
+               long[] times = history.get(s);
+               long time = a < times.length ? times[a] : Run.UNDEFINED;
+               if (time == Run.UNDEFINED) {
+                  break;
+               }
+               if (time == SKIPPED) {
+                  splitTimes[splitCount++] = AttemptHistory.SKIPPED;
+               } else {
+                  elapsed += time * NANOS_PER_TICK;
+                  splitTimes[splitCount++] = elapsed;
+               }
+            }
+            boolean completed = durations[a] != Run.UNDEFINED
+                    && splitCount == count
+                    && splitTimes[count - 1] != AttemptHistory.SKIPPED;
+            long duration;
+            if (durations[a] != Run.UNDEFINED) {
+               duration = durations[a] * NANOS_PER_TICK;
+            } else if (started[a] != Run.UNDEFINED
+                    && ended[a] != Run.UNDEFINED) {
+               duration = (ended[a] - started[a]) * 1000000L;
+            } else {
+               duration = elapsed;
+            }
+            target.append(
+                    started[a] == Run.UNDEFINED ? 0L : started[a], duration,
+                    count, completed ? AttemptHistory.Outcome.COMPLETED
+                                     : AttemptHistory.Outcome.RESET,
+                    splitTimes, splitCount);
+         }
+         LOG.info("Imported {} attempts", attemptCount);
+      }
+      
+      /**
+       * Reads the platform and region of the run.
+       */
+      private void readMetadata() throws XMLStreamException {
+         while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (xml.getLocalName()) {
+               case "Platform":
+                  run.setEmulated(Boolean.parseBoolean(
+                          xml.getAttributeValue(null, "usesEmulator")));
+                  run.setPlatform(text());
+                  break;
+               case "Region":
+                  run.setRegion(text());
+                  break;
+               default:
+                  RunXml.skip(xml);
+                  break;
+            }
+         }
+      }
+      
+      /**
+       * Reads the attempts of the history, with their final time if they
+       * have one.
+       */
+      private void readAttempts() throws XMLStreamException {
+         while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if (!xml.getLocalName().equals("Attempt")) {
+               RunXml.skip(xml);
+               continue;
+            }
+            if (attemptCount == MAX_ATTEMPTS) {
+               throw new XMLStreamException("too many attempts");
+            }
+            if (attemptCount == started.length) {
+               started = Arrays.copyOf(started, attemptCount * 2);
+               ended = Arrays.copyOf(ended, attemptCount * 2);
+               durations = Arrays.copyOf(durations, attemptCount * 2);
+            }
+            int index = attemptCount++;
+            attemptIds.put(id(), index);
+            started[index] = date(xml.getAttributeValue(null, "started"));
+            ended[index] = date(xml.getAttributeValue(null, "ended"));
+            durations[index] = Run.UNDEFINED;
+            while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+               if (xml.getLocalName().equals("RealTime")) {
+                  durations[index] = parseTicks(text());
+               } else {
+                  RunXml.skip(xml);
+               }
+            }
+         }
+      }
+      
+      /**
+       * Reads every segment of the run, one at a time.
+       */
+      private void readSegments() throws XMLStreamException {
+         while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if (!xml.getLocalName().equals("Segment")) {
+               RunXml.skip(xml);
+               continue;
+            }
+            int index = segments.size();
+            if (index == MAX_SEGMENTS) {
+               throw new XMLStreamException("too many segments");
+            }
+            if (index == splits.size()) {
+               splits.resize(index * 2);
+               bests.resize(index * 2);
+               gameSplits.resize(index * 2);
+               gameBests.resize(index * 2);
+            }
+            segments.add(readSegment(index));
+         }
+      }
+      
+      /**
+       * Reads a segment along with its times.
+       */
+      private Segment readSegment(int index) throws XMLStreamException {
+         Segment segment = new Segment();
+         String icon = null;
+         long[] times = null;
+         while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (xml.getLocalName()) {
+               case "Name":
+                  segment.setName(text());
+                  break;
+               case "Icon":
+                  icon = RunXml.text(xml, MAX_ICON_DATA);
+                  break;
+               case "SplitTimes":
+                  readSplitTimes(index);
+                  break;
+               case "BestSegmentTime":
+                  readTimes(bests, gameBests, index);
+                  break;
+               case "SegmentHistory":
+                  times = readSegmentHistory();
+                  break;
+               default:
+                  RunXml.skip(xml);
+                  break;
+            }
+         }
+         icons.add(icon);
+         if (!historyDropped) {
+            if ((long) (index + 1) * attemptCount > MAX_HISTORY) {
+               LOG.warn("Attempt history too large, not imported");
+               historyDropped = true;
+               history.clear();
+            } else {
+               history.add(times != null ? times : history(attemptCount));
+            }
+         }
+         return segment;
+      }
+      
+      /**
+       * Reads the split times of a segment, keeping its personal best.
+       */
+      private void readSplitTimes(int index) throws XMLStreamException {
+         while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if (xml.getLocalName().equals("SplitTime") && PERSONAL_BEST
+                    .equals(xml.getAttributeValue(null, "name"))) {
+               readTimes(splits, gameSplits, index);
+            } else {
+               RunXml.skip(xml);
+            }
+         }
+      }
+      
+      /**
+       * Reads the real and game times of an element into the given columns.
+       */
+      private void readTimes(TimeColumn real, TimeColumn game, int index)
+              throws XMLStreamException {
+         while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (xml.getLocalName()) {
+               case "RealTime":
+                  set(real, index, millis(parseTicks(text())));
+                  break;
+               case "GameTime":
+                  long time = millis(parseTicks(text()));
+                  gameTime |= time != Run.UNDEFINED;
+                  set(game, index, time);
+                  break;
+               default:
+                  RunXml.skip(xml);
+                  break;
+            }
+         }
+      }
+      
+      /**
+       * Reads the segment time of each attempt having reached a segment, in
+       * ticks, or {@link #SKIPPED} if the segment was skipped. Times of
+       * unknown attempts are ignored.
+       */
+      private long[] readSegmentHistory() throws XMLStreamException {
+         long[] times = history(attemptCount);
+         while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if (!xml.getLocalName().equals("Time")) {
+               RunXml.skip(xml);
+               continue;
+            }
+            Integer index = attemptIds.get(id());
+            long time = SKIPPED;
+            while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+               if (xml.getLocalName().equals("RealTime")) {
+                  long ticks = parseTicks(text());
+                  time = ticks == Run.UNDEFINED ? SKIPPED : ticks;
+               } else {
+                  RunXml.skip(xml);
+               }
+            }
+            if (index != null && !historyDropped) {
+               times[index] = time;
+            }
+         }
+         return historyDropped ? null : times;
+      }
+      
+      /**
+       * Returns the segment times of attempts none of which reached the
+       * segment.
+       */
+      private long[] history(int count) {
+         if (historyDropped) {
+            return null;
+         }
+         long[] times = new long[count];
+         Arrays.fill(times, Run.UNDEFINED);
+         return times;
+      }
+      
+      /**
+       * Reads the id attribute of the current element.
+       */
+      private int id() throws XMLStreamException {
+         String id = xml.getAttributeValue(null, "id");
+         try {
+            return Integer.parseInt(id == null ? "" : id.trim());
+         } catch (NumberFormatException x) {
+            throw new XMLStreamException("invalid id " + id);
+         }
+      }
+      
+      /**
+       * Parses a date written by LiveSplit, in UTC, into milliseconds since
+       * the epoch, or {@link Run#UNDEFINED} if it is absent or invalid.
+       */
+      private static long date(String text) {
+         if (text == null || text.isEmpty()) {
+            return Run.UNDEFINED;
+         }
+         try {
+            return LocalDateTime.parse(text, DATE)
+                                .toInstant(ZoneOffset.UTC).toEpochMilli();
+         } catch (DateTimeParseException x) {
+            LOG.warn("Ignoring invalid date {}", text);
+            return Run.UNDEFINED;
+         }
+      }
+      
+      /**
+       * Sets a time of a column, leaving it undefined if the time is.
+       */
+      private static void set(TimeColumn column, int index, long time) {
+         if (time != Run.UNDEFINED) {
+            column.set(index, time);
+         }
+      }
+      
+      /**
+       * Reads the text of the current element.
+       */
+      private String text() throws XMLStreamException {
+         return RunXml.text(xml, MAX_TEXT);
+      }
+   
+   }
+   
+   /**
+    * Writes a run as LiveSplit does.
+    */
+   private static final class Writer {
+      
+      private final XMLStreamWriter xml;
+      private final Map<Icon, String> icons = new IdentityHashMap<>();
+      private int depth = 0;
+      
+      Writer(XMLStreamWriter xml) {
+         this.xml = xml;
+      }
+      
+      /**
+       * Writes the whole run and the attempts of the given history.
+       */
+      void writeRun(Run run, AttemptHistory history)
+              throws XMLStreamException {
+         xml.writeStartDocument("UTF-8", "1.0");
+         open("Run");
+         xml.writeAttribute("version", VERSION);
+         empty("GameIcon");
+         element("GameName", run.getGame());
+         element("CategoryName", run.getCategory());
+         open("Metadata");
+         empty("Run");
+         xml.writeAttribute("id", "");
+         indent();
+         xml.writeStartElement("Platform");
+         xml.writeAttribute(
+                 "usesEmulator", run.isEmulated() ? "True" : "False");
+         if (run.getPlatform() != null) {
+            xml.writeCharacters(run.getPlatform());
+         }
+         xml.writeEndElement();
+         element("Region", run.getRegion());
+         empty("Variables");
+         close();
+         element("Offset", "00:00:00");
+         
+         AttemptHistory.Snapshot attempts = history == null
+                 ? null : history.snapshot();
+         int attemptCount = attempts == null ? 0 : attempts.size();
+         element("AttemptCount", String.valueOf(attemptCount));
+         open("AttemptHistory");
+         for (int a = 0; a < attemptCount; a++) {
+            writeAttempt(history, attempts, a);
+         }
+         close();
+         
+         long[] previous = new long[attemptCount];
+         Section[] sections = new Section[run.getSegmentCount()];
+         for (Section section : run.getSections()) {
+            Arrays.fill(
+                    sections, section.getFirst(), section.getLast() + 1,
+                    section);
+         }
+         open("Segments");
+         for (int i = 0; i < run.getSegmentCount(); i++) {
+            Segment segment = run.getSegment(i);
+            open("Segment");
+            element("Name", name(segment, i, sections[i]));
+            writeIcon(segment.getIcon());
+            open("SplitTimes");
+            open("SplitTime");
+            xml.writeAttribute("name", PERSONAL_BEST);
+            time("RealTime", run.getSplitMillis(i));
+            time("GameTime", run.getGameSplitMillis(i));
+            close();
+            close();
+            open("BestSegmentTime");
+            time("RealTime", run.getSegmentBestMillis(i));
+            time("GameTime", run.getGameSegmentBestMillis(i));
+            close();
+            open("SegmentHistory");
+            for (int a = 0; a < attemptCount; a++) {
+               writeSegmentTime(attempts, a, i, previous);
+            }
+            close();
+            close();
+         }
+         close();
+         empty("AutoSplitterSettings");
+         close();
+         xml.writeCharacters("\n");
+         xml.writeEndDocument();
+         xml.flush();
+      }
+      
+      /**
+       * Returns the name of a segment following the naming convention of
+       * LiveSplit subsplits for the given top-level section, if any. Nested
+       * sections cannot be represented and are ignored.
+       */
+      private static String name(Segment segment, int index, Section section) {
+         String name = segment.getName() == null ? "" : segment.getName();
+         if (section == null) {
+            return name;
+         }
+         return index < section.getLast() 
+              ? "-" + name : "{" + section.getName() + "}" + name;
+      }
+      
+      /**
+       * Writes an attempt, with its final time if it was completed.
+       */
+      private void writeAttempt(
+              AttemptHistory history, AttemptHistory.Snapshot attempts,
+              int attempt) throws XMLStreamException {
+         long start = history.getStarted(attempt);
+         long duration = history.getDuration(attempt);
+         boolean completed = attempts.getOutcome(attempt)
+                 == AttemptHistory.Outcome.COMPLETED;
+         if (completed) {
+            open("Attempt");
+         } else {
+            empty("Attempt");
+         }
+         xml.writeAttribute("id", String.valueOf(attempt + 1));
+         xml.writeAttribute("started", date(start));
+         xml.writeAttribute("isStartedSynced", "True");
+         xml.writeAttribute("ended", date(start + duration / 1000000L));
+         xml.writeAttribute("isEndedSynced", "True");
+         if (completed) {
+            element("RealTime", formatTicks(duration / NANOS_PER_TICK));
+            close();
+         }
+      }
+      
+      /**
+       * Writes the time of a segment in an attempt, if it has reached the
+       * segment, keeping track of its last split.
+       */
+      private void writeSegmentTime(
+              AttemptHistory.Snapshot attempts, int attempt, int segment,
+              long[] previous) throws XMLStreamException {
+         if (segment >= attempts.getSplitCount(attempt)) {
+            return;
+         }
+         long split = attempts.getSplit(attempt, segment);
+         if (split == AttemptHistory.SKIPPED) {
+            empty("Time");
+            xml.writeAttribute("id", String.valueOf(attempt + 1));
+            return;
+         }
+         open("Time");
+         xml.writeAttribute("id", String.valueOf(attempt + 1));
+         element("RealTime", formatTicks(
+                 (split - previous[attempt]) / NANOS_PER_TICK));
+         close();
+         previous[attempt] = split;
+      }
+      
+      /**
+       * Writes an icon serialized as LiveSplit does, sharing the encoding of
+       * icons used by several segments.
+       */
+      private void writeIcon(Icon icon) throws XMLStreamException {
+         String data = icon == null ? null : icons.get(icon);
+         if (icon != null && data == null) {
+            try {
+               LazyIcon encoded = LazyIcon.encode(icon);
+               data = encoded == null ? "" : Base64.getEncoder()
+                       .encodeToString(wrap(encoded.getData()));
+            } catch (IOException x) {
+               LOG.warn("Cannot encode icon ({})", x.getMessage());
+               data = "";
+            }
+            icons.put(icon, data);
+         }
+         if (data == null || data.isEmpty()) {
+            empty("Icon");
+            return;
+         }
+         indent();
+         xml.writeStartElement("Icon");
+         xml.writeCData(data);
+         xml.writeEndElement();
+      }
+      
+      /**
+       * Writes an element holding a time in milliseconds, if it is defined.
+       */
+      private void time(String name, long millis) throws XMLStreamException {
+         if (millis != Run.UNDEFINED) {
+            element(name, formatTicks(millis * TICKS_PER_MILLI));
+         }
+      }
+      
+      /**
+       * Formats milliseconds since the epoch as a LiveSplit date.
+       */
+      private static String date(long millis) {
+         return LocalDateTime.ofInstant(
+                 Instant.ofEpochMilli(millis), ZoneOffset.UTC).format(DATE);
+      }
+      
+      /**
+       * Writes an element containing only the given text, empty if null.
+       */
+      private void element(String name, String text)
+              throws XMLStreamException {
+         indent();
+         xml.writeStartElement(name);
+         if (text != null) {
+            xml.writeCharacters(text);
+         }
+         xml.writeEndElement();
+      }
+      
+      /**
+       * Writes an empty element, whose attributes may follow.
+       */
+      private void empty(String name) throws XMLStreamException {
+         indent();
+         xml.writeEmptyElement(name);
+      }
+      
+      /**
+       * Starts an element that will contain other elements, whose
+       * attributes may follow.
+       */
+      private void open(String name) throws XMLStreamException {
+         indent();
+         xml.writeStartElement(name);
+         depth++;
+      }
+      
+      /**
+       * Ends the last element started with {@link #open}.
+       */
+      private void close() throws XMLStreamException {
+         depth--;
+         indent();
+         xml.writeEndElement();
+      }
+      
+      /**
+       * Starts a new line indented by the current depth.
+       */
+      private void indent() throws XMLStreamException {
+         xml.writeCharacters("\n");
+         for (int i = 0; i < depth; i++) {
+            xml.writeCharacters("  ");
+         }
+      }
+   
+   }
+   
+}
@@ -0,0 +1,102 @@
+package com.jenmaarai.llanfair.model;
+
+/**
+ * A mergeable sketch estimating the quantiles of positive durations in
+ * nanoseconds. Values are counted in logarithmic buckets, thirty-two per
+ * power of two between about one millisecond and nineteen hours, which
+ * bounds the relative error of the estimates to about 2% with a fixed
+ * amount of memory. Sketches are not thread-safe.
+ */
+final class QuantileSketch {
+   
+   private static final int PRECISION = 5;
+   private static final int MIN_EXPONENT = 20;
+   private static final int MAX_EXPONENT = 46;
+   private static final int BUCKETS
+           = ((MAX_EXPONENT - MIN_EXPONENT) << PRECISION) + 2;
+   
+   private final int[] counts = new int[BUCKETS];
+   private long count = 0L;
+   private long min = Long.MAX_VALUE;
+   private long max = Long.MIN_VALUE;
+   
+   /**
+    * Returns the number of values counted by this sketch.
+    */
+   long getCount() {
+      return count;
+   }
+   
+   /**
+    * Counts a new value. Negative values are counted as zero.
+    */
+   void add(long value) {
+      long positive = Math.max(value, 0L);
+      counts[bucket(positive)]++;
+      count++;
+      min = Math.min(min, positive);
+      max = Math.max(max, positive);
+   }
+   
+   /**
+    * Counts every value of the given sketch in this one.
+    */
+   void merge(QuantileSketch other) {
+      for (int i = 0; i < BUCKETS; i++) {
+         counts[i] += other.counts[i];
+      }
+      count += other.count;
+      min = Math.min(min, other.min);
+      max = Math.max(max, other.max);
+   }
+   
+   /**
+    * Returns an estimate of the given quantile, between 0 and 1, of the
+    * counted values, or {@link Run#UNDEFINED} if there is none.
+    */
+   long getQuantile(double quantile) {
+      if (count == 0L) {
+         return Run.UNDEFINED;
+      }
+      long rank = Math.max(1L, (long) Math.ceil(quantile * count));
+      long seen = 0L;
+      for (int i = 0; i < BUCKETS; i++) {
+         seen += counts[i];
+         if (seen >= rank) {
+            long estimate = i + 1 < BUCKETS
+                    ? (lowerBound(i) + lowerBound(i + 1)) / 2L : max;
+            return Math.max(min, Math.min(max, estimate));
+         }
+      }
+      return max;
+   }
+   
+   /**
+    * Returns the index of the bucket counting the given positive value.
+    */
+   private static int bucket(long value) {
+      int exponent = 63 - Long.numberOfLeadingZeros(value);
+      if (exponent < MIN_EXPONENT) {
+         return 0;
+      }
+      if (exponent >= MAX_EXPONENT) {
+         return BUCKETS - 1;
+      }
+      int fraction = (int) ((value >>> (exponent - PRECISION))
+                   & ((1 << PRECISION) - 1));
+      return ((exponent - MIN_EXPONENT) << PRECISION) + fraction + 1;
+   }
+   
+   /**
+    * Returns the lowest value counted by the bucket of given index.
+    */
+   private static long lowerBound(int bucket) {
+      if (bucket == 0) {
+         return 0L;
+      }
+      int exponent = ((bucket - 1) >> PRECISION) + MIN_EXPONENT;
+      long fraction = (bucket - 1) & ((1 << PRECISION) - 1);
+      return ((1L << PRECISION) + fraction) << (exponent - PRECISION);
+   }
+   
+}
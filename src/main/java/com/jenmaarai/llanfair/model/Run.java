@@ -1,17 +1,16 @@
 package com.jenmaarai.llanfair.model;
 
 import com.jenmaarai.sidekick.time.Time;
-import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.XStreamException;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.Serializable;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
-import javax.swing.event.ChangeEvent;
+import java.util.Set;
+import java.util.function.Consumer;
 import javax.swing.event.ChangeListener;
 import javax.swing.event.EventListenerList;
 import org.slf4j.Logger;
@@ -24,16 +23,17 @@ public class Run implements Serializable {
     * This value should be updated whenever changes made to this class break 
     * backward compatibility.
     */
-   public static final long CURRENT_VERSION = 20161104L;
+   public static final long CURRENT_VERSION = 20261018L;
    
    /**
-    * XStream XML parser, customized to improve legibility of output.
+    * Version of the runs storing their times within each segment.
     */
-   private static final XStream XSTREAM = new XStream();
-   static {
-      XSTREAM.alias("run", Run.class);
-      XSTREAM.alias("segment", Segment.class);
-   }
+   static final long SEGMENT_TIMES_VERSION = 20161104L;
+   
+   /**
+    * Value returned by the primitive accessors for undefined times.
+    */
+   public static final long UNDEFINED = Long.MIN_VALUE;
    
    private static final Logger LOG = LoggerFactory.getLogger(Run.class);
    
@@ -44,16 +44,28 @@ public class Run implements Serializable {
    private String region = null;
    private boolean emulated = false;
    private List<Segment> segments = new ArrayList<>();
+   private TimeColumn splits = new TimeColumn(1);
+   private TimeColumn bests = new TimeColumn(1);
+   private TimeColumn gameSplits = null;
+   private TimeColumn gameBests = null;
+   private List<Section> sections = new ArrayList<>();
    
    private long version = CURRENT_VERSION;
    private transient EventListenerList listeners = new EventListenerList();
+   private transient FenwickTree bestSums = null;
+   private transient FenwickTree bestGaps = null;
+   private transient Section[] innermost = null;
+   private transient volatile long revision = 0L;
+   private transient int depth = 0;
+   private transient Set<RunChangeEvent.Field> changedFields = null;
+   private transient BitSet changedSegments = null;
    
    /**
     * Creates an empty run containing a single segment.
     */
    public Run() {
-      buildTransientObjects();
       segments.add(new Segment());
+      buildTransientObjects();
    }
    
    /**
@@ -67,6 +79,51 @@ public class Run implements Serializable {
       }
       listeners.add(ChangeListener.class, listener);
    }
+   
+   /**
+    * Unregisters a change listener from this run.
+    */
+   public void removeChangeListener(ChangeListener listener) {
+      listeners.remove(ChangeListener.class, listener);
+   }
+   
+   /**
+    * Applies a batch of changes to this run atomically. The given edit 
+    * receives this run and may call any of its setters. Listeners are 
+    * notified once, after the whole edit, by a single {@link RunChangeEvent}
+    * describing every change. If the edit throws an exception, every change
+    * it made is reverted, no event is fired and the exception is rethrown.
+    * Edits made within an edit are part of the enclosing one.
+    */
+   public void edit(Consumer<Run> edit) {
+      if (edit == null) {
+         LOG.error("Null edit");
+         throw new IllegalArgumentException("null edit");
+      }
+      if (depth > 0) {
+         edit.accept(this);
+         return;
+      }
+      Backup backup = new Backup();
+      begin();
+      try {
+         edit.accept(this);
+      } catch (RuntimeException x) {
+         backup.restore();
+         changedFields.clear();
+         throw x;
+      } finally {
+         end();
+      }
+   }
+   
+   /**
+    * Returns a counter incremented whenever this run changes, so that values
+    * derived from it can be cached.
+    */
+   public long getRevision() {
+      return revision;
+   }
 
    /**
     * Returns the complete name of the game being runned.
@@ -80,7 +137,21 @@ public class Run implements Serializable {
     */
    public void setGame(String game) {
       this.game = game;
-      fireChangeEvent();
+      changed(RunChangeEvent.Field.GAME, -1);
+   }
+
+   /**
+    * Returns the abbreviation of the name of the game.
+    */
+   String getAbbreviation() {
+      return abbreviation;
+   }
+   
+   /**
+    * Defines the abbreviation of the name of the game.
+    */
+   void setAbbreviation(String abbreviation) {
+      this.abbreviation = abbreviation;
    }
 
    /**
@@ -95,7 +166,7 @@ public class Run implements Serializable {
     */
    public void setCategory(String category) {
       this.category = category;
-      fireChangeEvent();
+      changed(RunChangeEvent.Field.CATEGORY, -1);
    }
 
    /**
@@ -110,7 +181,7 @@ public class Run implements Serializable {
     */
    public void setPlatform(String platform) {
       this.platform = platform;
-      fireChangeEvent();
+      changed(RunChangeEvent.Field.PLATFORM, -1);
    }
    
    /**
@@ -125,7 +196,7 @@ public class Run implements Serializable {
     */
    public void setRegion(String region) {
       this.region = region;
-      fireChangeEvent();
+      changed(RunChangeEvent.Field.REGION, -1);
    }
    
    /**
@@ -140,7 +211,7 @@ public class Run implements Serializable {
     */
    public void setEmulated(boolean emulated) {
       this.emulated = emulated;
-      fireChangeEvent();
+      changed(RunChangeEvent.Field.EMULATED, -1);
    }
    
    /**
@@ -165,11 +236,18 @@ public class Run implements Serializable {
     * The returned time will be based on real time (as opposed to game time).
     */
    public Time getSplitTime(int segmentId) {
-      if (segmentId < 0 || segmentId >= getSegmentCount()) {
-         LOG.error("Invalid segment id '{}'", segmentId);
-         throw new IllegalArgumentException("invalid segment id");
-      }
-      return segments.get(segmentId).getTime();
+      checkSegmentId(segmentId);
+      return splits.getTime(segmentId);
+   }
+   
+   /**
+    * Returns the split time of a specific segment in milliseconds, or 
+    * {@link #UNDEFINED}. Unlike {@link #getSplitTime(int)}, this method does
+    * not allocate anything.
+    */
+   public long getSplitMillis(int segmentId) {
+      checkSegmentId(segmentId);
+      return splits.get(segmentId);
    }
    
    /**
@@ -179,12 +257,18 @@ public class Run implements Serializable {
     * The returned time will be based on real time (as opposed to game time).
     */
    public Time getSegmentTime(int segmentId) {
-      if (segmentId < 0 || segmentId >= getSegmentCount()) {
-         LOG.error("Invalid segment id '{}'", segmentId);
-         throw new IllegalArgumentException("invalid segment id");
-      }
-      Time previous = segmentId == 0 ? Time.ZERO : getSplitTime(segmentId - 1);
-      return Time.difference(segments.get(segmentId).getTime(), previous);
+      long segment = getSegmentMillis(segmentId);
+      return segment == UNDEFINED ? null : new Time(segment);
+   }
+   
+   /**
+    * Returns the segment time of a specific segment in milliseconds, or 
+    * {@link #UNDEFINED}. Unlike {@link #getSegmentTime(int)}, this method 
+    * does not allocate anything.
+    */
+   public long getSegmentMillis(int segmentId) {
+      checkSegmentId(segmentId);
+      return difference(splits.get(segmentId), previousSplit(segmentId));
    }
    
    /**
@@ -193,48 +277,222 @@ public class Run implements Serializable {
     * The returned time will be based on real time (as opposed to game time).
     */
    public Time getSegmentBest(int segmentId) {
-      if (segmentId < 0 || segmentId >= getSegmentCount()) {
-         LOG.error("Invalid segment id '{}'", segmentId);
-         throw new IllegalArgumentException("invalid segment id");
-      }
-      return segments.get(segmentId).getBest();
+      checkSegmentId(segmentId);
+      return bests.getTime(segmentId);
+   }
+   
+   /**
+    * Returns the best recorded segment time of a specific segment in 
+    * milliseconds, or {@link #UNDEFINED}. Unlike 
+    * {@link #getSegmentBest(int)}, this method does not allocate anything.
+    */
+   public long getSegmentBestMillis(int segmentId) {
+      checkSegmentId(segmentId);
+      return bests.get(segmentId);
    }
    
    /**
     * Returns the sum of best segment times for this run.
-    * This time can be null if the run has not yet been completed once.
+    * Undefined best segment times are ignored.
     * The returned time will be based on real time (as opposed to game time).
     */
    public Time getSumOfBest() {
-      Time time = new Time(0L);
-      segments.stream().forEach((segment) -> time.add(segment.getBest()));
-      return time;
+      return new Time(getSumOfBestMillis());
+   }
+   
+   /**
+    * Returns the sum of best segment times in milliseconds, ignoring the
+    * undefined ones. This method runs in logarithmic time and does not 
+    * allocate anything.
+    */
+   public long getSumOfBestMillis() {
+      return bestSums.total();
+   }
+   
+   /**
+    * Returns the best possible time of this run in milliseconds, given that
+    * the segment {@code segmentId} started at {@code elapsed}. This is the
+    * given time plus the best times of the remaining segments, or 
+    * {@link #UNDEFINED} if any of them has no best time yet.
+    */
+   public long getBestPossibleMillis(int segmentId, long elapsed) {
+      if (segmentId == getSegmentCount()) {
+         return elapsed;
+      }
+      checkSegmentId(segmentId);
+      if (bestGaps.range(segmentId, getSegmentCount()) > 0L) {
+         return UNDEFINED;
+      }
+      return elapsed + bestSums.range(segmentId, getSegmentCount());
+   }
+   
+   /**
+    * Returns the possible time save of a specific segment in milliseconds,
+    * that is the difference between its segment time and its best time, or
+    * {@link #UNDEFINED} if either is undefined.
+    */
+   public long getPossibleTimeSaveMillis(int segmentId) {
+      return difference(getSegmentMillis(segmentId), bests.get(segmentId));
+   }
+   
+   /**
+    * Returns the possible time save of this whole run in milliseconds, that
+    * is the difference between its time and its sum of best, or 
+    * {@link #UNDEFINED} if any best segment time is undefined.
+    */
+   public long getPossibleTimeSaveMillis() {
+      if (bestGaps.total() > 0L) {
+         return UNDEFINED;
+      }
+      return difference(splits.get(getSegmentCount() - 1), bestSums.total());
+   }
+   
+   /**
+    * Returns the sections grouping the segments of this run, can be empty.
+    */
+   public List<Section> getSections() {
+      return sections;
+   }
+   
+   /**
+    * Defines the sections grouping the segments of this run. The sections
+    * must be sorted, must not overlap and must only contain segments of this
+    * run. Segments do not have to belong to a section.
+    */
+   public void setSections(List<Section> sections) {
+      if (sections == null) {
+         LOG.error("Null sections");
+         throw new IllegalArgumentException("null sections");
+      }
+      Section.check(sections, 0, getSegmentCount());
+      this.sections = Collections.unmodifiableList(new ArrayList<>(sections));
+      buildSections();
+      changed(RunChangeEvent.Field.SECTIONS, -1);
+   }
+   
+   /**
+    * Returns the innermost section containing a specific segment, or null
+    * if it does not belong to any section. This method runs in constant
+    * time.
+    */
+   public Section getSection(int segmentId) {
+      checkSegmentId(segmentId);
+      return innermost[segmentId];
+   }
+   
+   /**
+    * Returns the split time of a section in milliseconds, that is the split
+    * time of its last segment, or {@link #UNDEFINED}. This method runs in
+    * constant time.
+    */
+   public long getSectionSplitMillis(Section section) {
+      checkSection(section);
+      return splits.get(section.getLast());
+   }
+   
+   /**
+    * Returns the time spent in a section in milliseconds, or 
+    * {@link #UNDEFINED} if the split before it or its own split is 
+    * undefined. This method runs in constant time.
+    */
+   public long getSectionMillis(Section section) {
+      checkSection(section);
+      return difference(
+              splits.get(section.getLast()), previousSplit(section.getFirst()));
+   }
+   
+   /**
+    * Returns the sum of the best segment times of a section in milliseconds,
+    * or {@link #UNDEFINED} if any of them is undefined. This method runs in
+    * logarithmic time.
+    */
+   public long getSectionBestMillis(Section section) {
+      checkSection(section);
+      int end = section.getLast() + 1;
+      if (bestGaps.range(section.getFirst(), end) > 0L) {
+         return UNDEFINED;
+      }
+      return bestSums.range(section.getFirst(), end);
+   }
+   
+   /**
+    * Returns the possible time save of a section in milliseconds, that is 
+    * the difference between its time and the sum of its best segment times,
+    * or {@link #UNDEFINED} if either is undefined. This method runs in
+    * logarithmic time.
+    */
+   public long getSectionTimeSaveMillis(Section section) {
+      return difference(
+              getSectionMillis(section), getSectionBestMillis(section));
+   }
+   
+   /**
+    * Indicates whether this run records game times.
+    */
+   public boolean hasGameTime() {
+      return gameSplits != null;
+   }
+   
+   /**
+    * Returns the game time split of a specific segment in milliseconds, or
+    * {@link #UNDEFINED} if undefined or if the run has no game times.
+    */
+   public long getGameSplitMillis(int segmentId) {
+      checkSegmentId(segmentId);
+      return gameSplits == null ? UNDEFINED : gameSplits.get(segmentId);
+   }
+   
+   /**
+    * Returns the best game time of a specific segment in milliseconds, or
+    * {@link #UNDEFINED} if undefined or if the run has no game times.
+    */
+   public long getGameSegmentBestMillis(int segmentId) {
+      checkSegmentId(segmentId);
+      return gameBests == null ? UNDEFINED : gameBests.get(segmentId);
+   }
+   
+   /**
+    * Sets the game time split of a specific segment in milliseconds, or
+    * {@link #UNDEFINED}. Game time columns are created upon the first call.
+    */
+   public void setGameSplitMillis(int segmentId, long split) {
+      checkSegmentId(segmentId);
+      createGameTimeColumns();
+      gameSplits.set(segmentId, split);
+      changed(RunChangeEvent.Field.GAME_TIMES, segmentId);
+   }
+   
+   /**
+    * Sets the best game time of a specific segment in milliseconds, or
+    * {@link #UNDEFINED}. Game time columns are created upon the first call.
+    */
+   public void setGameSegmentBestMillis(int segmentId, long best) {
+      checkSegmentId(segmentId);
+      createGameTimeColumns();
+      gameBests.set(segmentId, best);
+      changed(RunChangeEvent.Field.GAME_TIMES, segmentId);
    }
    
    /**
     * Sets the new split time for a specific segment.
     * Caller must ensure that the split time is coherent for said segment in
     * this particular run. In other words, the split time of segment n should
-    * be strictly superior to the split time of segment n-1 if defined, or 0.
-    * However, the split time can also be null (undefined) unless this is the
-    * split time of the last segment of the run.
+    * be strictly superior to the last defined split time before segment n, 
+    * or 0. However, the split time can also be null (undefined) unless this 
+    * is the split time of the last segment of the run.
     */
    public void setSplitTime(int segmentId, Time split) {
-      if (segmentId < 0 || segmentId >= getSegmentCount()) {
-         LOG.error("Invalid segment id '{}'", segmentId);
-         throw new IllegalArgumentException("invalid segment id");
-      }
-      if (split == null && segmentId == getSegmentCount() - 1) {
-         LOG.error("Last segment of the run cannot be set to null");
-         throw new IllegalArgumentException("null last segment split time");
-      }
-      Time previous = segmentId == 0 ? Time.ZERO : getSplitTime(segmentId - 1);
-      if (split != null && split.compareTo(previous) <= 0) {
-         LOG.error("Split time too low for segment {}: {}", segmentId, split);
-         throw new IllegalArgumentException("split time too low for segment");
+      checkSegmentId(segmentId);
+      long value = split == null ? UNDEFINED : split.getMilliseconds();
+      checkSplit(segmentId, value, lastSplitBefore(segmentId));
+      begin();
+      try {
+         splits.set(segmentId, value);
+         changed(RunChangeEvent.Field.SPLIT_TIMES, segmentId);
+         lookForBestSegment(segmentId, split);
+      } finally {
+         end();
       }
-      segments.get(segmentId).setTime(split);
-      lookForBestSegment(segmentId, split);
    }
    
    /**
@@ -242,9 +500,10 @@ public class Run implements Serializable {
     * Caller must ensure that the size of the provided list is equal to the
     * number of segments in this run. Each time must also be coherent for
     * the structure of this run. In other words, the split time of segment n 
-    * should be strictly superior to the split time of segment n-1 if defined, 
-    * or 0. However, any split time can also be null (undefined) except for the
-    * split time of the last segment of the run.
+    * should be strictly superior to the last defined split time before 
+    * segment n, or 0. However, any split time can also be null (undefined) 
+    * except for the split time of the last segment of the run. If any time
+    * is incoherent, the run is left untouched.
     */
    public void setSplitTimes(List<Time> times) {
       if (times == null) {
@@ -257,14 +516,25 @@ public class Run implements Serializable {
                  times.size(), getSegmentCount());
          throw new IllegalArgumentException("list size mismatch");
       }
-      List<Segment> backup = new ArrayList<>(segments);
+      long[] values = new long[times.size()];
+      long previous = 0L;
+      for (int i = 0; i < values.length; i++) {
+         Time time = times.get(i);
+         values[i] = time == null ? UNDEFINED : time.getMilliseconds();
+         checkSplit(i, values[i], previous);
+         if (values[i] != UNDEFINED) {
+            previous = values[i];
+         }
+      }
+      begin();
       try {
-         for (int i = 0; i < getSegmentCount(); i++) {
-            setSplitTime(i, times.get(i));
+         for (int i = 0; i < values.length; i++) {
+            splits.set(i, values[i]);
+            changed(RunChangeEvent.Field.SPLIT_TIMES, i);
+            lookForBestSegment(i, times.get(i));
          }
-      } catch (IllegalArgumentException x) { 
-         segments = backup;
-         throw x;
+      } finally {
+         end();
       }
    }
    
@@ -274,15 +544,15 @@ public class Run implements Serializable {
     * a new best time that is null or superior to the current segment time.
     */
    public void setSegmentBest(int segmentId, Time time) {
-      if (segmentId < 0 || segmentId >= getSegmentCount()) {
-         LOG.error("Invalid segment id '{}'", segmentId);
-         throw new IllegalArgumentException("invalid segment id");
-      }
-      Time segment = getSegmentTime(segmentId);
-      if (time == null || time.compareTo(segment) > 0) {
-         time = segment;
+      checkSegmentId(segmentId);
+      long best = time == null ? UNDEFINED : time.getMilliseconds();
+      long segment = getSegmentMillis(segmentId);
+      if (segment != UNDEFINED && (best == UNDEFINED || best > segment)) {
+         best = segment;
       }
-      segments.get(segmentId).setBest(time);
+      bests.set(segmentId, best);
+      changed(RunChangeEvent.Field.SEGMENT_BESTS, segmentId);
+      updateBestSums(segmentId);
    }
    
    /**
@@ -292,21 +562,74 @@ public class Run implements Serializable {
     * The given split time itself is discarded.
     */
    public void lookForBestSegment(int segmentId, Time split) {
-      if (segmentId < 0 || segmentId >= getSegmentCount()) {
-         LOG.error("Invalid segment id '{}'", segmentId);
-         throw new IllegalArgumentException("invalid segment id");
-      }
-      Time previous = segmentId == 0 ? Time.ZERO : getSplitTime(segmentId - 1);
-      Time segment  = Time.difference(split, previous);
-      Time best     = getSegmentBest(segmentId);
+      checkSegmentId(segmentId);
+      long value   = split == null ? UNDEFINED : split.getMilliseconds();
+      long segment = difference(value, previousSplit(segmentId));
+      long best    = bests.get(segmentId);
       
-      if (segment != null && segment.compareTo(best) < 0) {
-         setSegmentBest(segmentId, segment);
+      if (segment != UNDEFINED && (best == UNDEFINED || segment < best)) {
+         setSegmentBest(segmentId, new Time(segment));
       }
    }
    
    /**
-    * Writes this run to the given file.
+    * Saves this run to the given file in the binary run format.
+    * If the file does not exist, it is created. If it exists, it is 
+    * overwritten without warning. Returns true if the run was saved without
+    * any problem.
+    */
+   public boolean save(Path path) {
+      if (path == null) {
+         LOG.error("No path defined for current run");
+         throw new IllegalArgumentException("null path");
+      }
+      try {
+         RunFormat.write(this, path);
+      } catch (IOException x) {
+         LOG.error("Error writing file '{}', {}:{}", 
+                  path, x.getClass().getSimpleName(), x.getMessage());
+         return false;
+      }
+      return true;
+   }
+   
+   /**
+    * Returns this run encoded in the binary run format, as saved by
+    * {@link #save(Path)}, so that it can be written on another thread.
+    * Returns null if the run cannot be encoded.
+    */
+   public byte[] encode() {
+      try {
+         return RunFormat.encode(this);
+      } catch (IOException x) {
+         LOG.error("Error encoding run, {}:{}", 
+                  x.getClass().getSimpleName(), x.getMessage());
+      }
+      return null;
+   }
+   
+   /**
+    * Loads a run saved in the binary run format from the given file.
+    * Metadata and times are read immediately, but icons are only decoded
+    * when first painted. Returns null if the file cannot be read or does not
+    * contain a run.
+    */
+   public static Run load(Path path) {
+      if (path == null) {
+         LOG.error("No path defined for current run");
+         throw new IllegalArgumentException("null path");
+      }
+      try {
+         return RunFormat.read(path);
+      } catch (IOException x) {
+         LOG.error("Error reading file '{}', {}:{}", 
+                  path, x.getClass().getSimpleName(), x.getMessage());
+      }
+      return null;
+   }
+   
+   /**
+    * Exports this run to the given file as XML.
     * If the file does not exist, it is created. If it exists, it is 
     * overwritten without warning. Returns true if serialization was completed
     * without any problem.
@@ -316,23 +639,18 @@ public class Run implements Serializable {
          LOG.error("No path defined for current run");
          throw new IllegalArgumentException("null path");
       }
-      try (BufferedWriter writer = Files.newBufferedWriter(path)) {
-         String xmlOutput = XSTREAM.toXML(this);
-         writer.write(xmlOutput);
+      try {
+         RunXml.write(this, path);
       } catch (IOException x) {
          LOG.error("Error writing file '{}', {}:{}", 
                   path, x.getClass().getSimpleName(), x.getMessage());
          return false;
-      } catch (XStreamException x) {
-         LOG.error("Error serializing run to xml, {}:{}", 
-                  x.getClass().getSimpleName(), x.getMessage());
-         return false;
       }
       return true;
    }
    
    /**
-    * Deserializes and returns a run read from the given file.
+    * Imports and returns a run read from the given XML file.
     * Returns null if the file cannot be read or does not exist.
     */
    public static Run readFile(Path path) {
@@ -340,53 +658,357 @@ public class Run implements Serializable {
          LOG.error("No path defined for current run");
          throw new IllegalArgumentException("null path");
       }
-      try (BufferedReader reader = Files.newBufferedReader(path)) {
-         return (Run) XSTREAM.fromXML(reader);
+      try {
+         return RunXml.read(path);
       } catch (IOException x) {
          LOG.error("Error reading file '{}', {}:{}", 
                   path, x.getClass().getSimpleName(), x.getMessage());
-      } catch (XStreamException x) {
-         LOG.error("Error deserializing xml, {}:{}", 
-                  x.getClass().getSimpleName(), x.getMessage());
-      } catch (ClassCastException x) {
-         LOG.error("Xml does not contain a valid run");
       }
       return null;
    }
    
+   /**
+    * Imports and returns a run read from the given LiveSplit file. Its
+    * attempts are appended to the given history, unless it is null. Returns
+    * null if the file cannot be read or does not contain a run.
+    */
+   public static Run importLiveSplit(Path path, AttemptHistory history) {
+      if (path == null) {
+         LOG.error("No path defined for current run");
+         throw new IllegalArgumentException("null path");
+      }
+      try {
+         return LiveSplitFormat.read(path, history);
+      } catch (IOException x) {
+         LOG.error("Error reading file '{}', {}:{}", 
+                  path, x.getClass().getSimpleName(), x.getMessage());
+      }
+      return null;
+   }
+   
+   /**
+    * Exports this run to the given LiveSplit file, along with the attempts of
+    * the given history unless it is null. If the file exists, it is 
+    * overwritten without warning. Returns true if the run was exported
+    * without any problem.
+    */
+   public boolean exportLiveSplit(Path path, AttemptHistory history) {
+      if (path == null) {
+         LOG.error("No path defined for current run");
+         throw new IllegalArgumentException("null path");
+      }
+      try {
+         LiveSplitFormat.write(this, history, path);
+      } catch (IOException x) {
+         LOG.error("Error writing file '{}', {}:{}", 
+                  path, x.getClass().getSimpleName(), x.getMessage());
+         return false;
+      }
+      return true;
+   }
+   
    /**
     * Method invoked after deserializing an instance of this class.
     * Checks versioning of deserialized objects and tries to conform older 
     * versions to the current version if possible.
     * 
-    * <p>Since there is at the moment only one version of this class, this
-    * method will simply return a new default run if it detects a mismatch
-    * in the run version.
+    * <p>Runs storing their times within each segment are migrated to time
+    * columns. This method will return a new default run if it detects any
+    * other mismatch in the run version.
     */
    private Object readResolve() {
+      if (version == SEGMENT_TIMES_VERSION) {
+         LOG.info("Migrating run from version {}", version);
+         splits = new TimeColumn(segments.size());
+         bests  = new TimeColumn(segments.size());
+         for (int i = 0; i < segments.size(); i++) {
+            splits.setTime(i, segments.get(i).getLegacyTime());
+            bests.setTime(i, segments.get(i).getLegacyBest());
+            segments.get(i).clearLegacyTimes();
+         }
+         version = CURRENT_VERSION;
+      }
       if (version != CURRENT_VERSION) {
          LOG.error("Run version obsolete {}", version);
          return new Run();
       }
+      if (splits == null || splits.size() != segments.size() 
+              || bests == null || bests.size() != segments.size()) {
+         LOG.error("Run time columns do not match its segments");
+         return new Run();
+      }
       buildTransientObjects();
       return this;
    }
    
+   /**
+    * Returns a specific segment of this run.
+    */
+   Segment getSegment(int segmentId) {
+      checkSegmentId(segmentId);
+      return segments.get(segmentId);
+   }
+   
+   TimeColumn getSplitColumn() {
+      return splits;
+   }
+   
+   TimeColumn getBestColumn() {
+      return bests;
+   }
+   
+   TimeColumn getGameSplitColumn() {
+      return gameSplits;
+   }
+   
+   TimeColumn getGameBestColumn() {
+      return gameBests;
+   }
+   
+   /**
+    * Replaces the segments and times of this run. Every column must have as
+    * many times as there are segments, the game time columns can be null.
+    */
+   void setContent(
+           List<Segment> segments, TimeColumn splits, TimeColumn bests, 
+           TimeColumn gameSplits, TimeColumn gameBests) {
+      this.segments = segments;
+      this.splits = splits;
+      this.bests = bests;
+      this.gameSplits = gameSplits;
+      this.gameBests = gameBests;
+      if (!fits(this.sections, segments.size())) {
+         this.sections = new ArrayList<>();
+      }
+      revision++;
+      buildBestSums();
+      buildSections();
+   }
+   
+   /**
+    * Throws an exception if the segment id is out of bounds.
+    */
+   private void checkSegmentId(int segmentId) {
+      if (segmentId < 0 || segmentId >= getSegmentCount()) {
+         LOG.error("Invalid segment id '{}'", segmentId);
+         throw new IllegalArgumentException("invalid segment id");
+      }
+   }
+   
+   /**
+    * Throws an exception if the section is not one of the sections of this
+    * run or of their children.
+    */
+   private void checkSection(Section section) {
+      if (section == null || section.getLast() >= getSegmentCount()
+              || !isSection(sections, section)) {
+         LOG.error("Invalid section '{}'", section);
+         throw new IllegalArgumentException("invalid section");
+      }
+   }
+   
+   /**
+    * Indicates whether a section is one of the given sections or of their
+    * children, looking only down the sections that contain it.
+    */
+   private static boolean isSection(List<Section> sections, Section section) {
+      for (Section candidate : sections) {
+         if (candidate == section) {
+            return true;
+         }
+         if (candidate.contains(section.getFirst())) {
+            return isSection(candidate.getChildren(), section);
+         }
+      }
+      return false;
+   }
+   
+   /**
+    * Indicates whether the given sections only contain segments of a run of
+    * the given size.
+    */
+   private static boolean fits(List<Section> sections, int count) {
+      return sections.isEmpty() 
+              || sections.get(sections.size() - 1).getLast() < count;
+   }
+   
+   /**
+    * Throws an exception if a split time is not coherent for its segment,
+    * given the last defined split time before it.
+    */
+   private void checkSplit(int segmentId, long split, long previous) {
+      if (split == UNDEFINED && segmentId == getSegmentCount() - 1) {
+         LOG.error("Last segment of the run cannot be set to null");
+         throw new IllegalArgumentException("null last segment split time");
+      }
+      if (split != UNDEFINED && split <= previous) {
+         LOG.error("Split time too low for segment {}: {}", segmentId, split);
+         throw new IllegalArgumentException("split time too low for segment");
+      }
+   }
+   
+   /**
+    * Returns the split time preceding a segment, zero for the first one.
+    */
+   private long previousSplit(int segmentId) {
+      return segmentId == 0 ? 0L : splits.get(segmentId - 1);
+   }
+   
+   /**
+    * Returns the last defined split time before a segment, or zero.
+    */
+   private long lastSplitBefore(int segmentId) {
+      for (int i = segmentId - 1; i >= 0; i--) {
+         if (splits.isDefined(i)) {
+            return splits.get(i);
+         }
+      }
+      return 0L;
+   }
+   
+   /**
+    * Returns the difference between two times, undefined if either is.
+    */
+   private static long difference(long time, long previous) {
+      if (time == UNDEFINED || previous == UNDEFINED) {
+         return UNDEFINED;
+      }
+      return time - previous;
+   }
+   
+   /**
+    * Creates the game time columns if this run does not have them yet.
+    */
+   private void createGameTimeColumns() {
+      if (gameSplits == null) {
+         gameSplits = new TimeColumn(getSegmentCount());
+         gameBests  = new TimeColumn(getSegmentCount());
+      }
+   }
+   
    /**
     * Creates the different transient objects used by this class.
     */
    private void buildTransientObjects() {
       listeners = new EventListenerList();
+      if (sections == null || !fits(sections, segments.size())) {
+         sections = new ArrayList<>();
+      }
+      buildBestSums();
+      buildSections();
+   }
+   
+   /**
+    * Records the innermost section of every segment.
+    */
+   private void buildSections() {
+      innermost = new Section[segments.size()];
+      Section.index(sections, innermost);
+   }
+   
+   /**
+    * Builds the prefix sums of the best segment times from scratch.
+    */
+   private void buildBestSums() {
+      bestSums = new FenwickTree(bests.size());
+      bestGaps = new FenwickTree(bests.size());
+      for (int i = 0; i < bests.size(); i++) {
+         updateBestSums(i);
+      }
+   }
+   
+   /**
+    * Reflects the best time of a specific segment in the prefix sums.
+    * Undefined best times count as zero and are tallied separately.
+    */
+   private void updateBestSums(int segmentId) {
+      boolean defined = bests.isDefined(segmentId);
+      bestSums.set(segmentId, defined ? bests.get(segmentId) : 0L);
+      bestGaps.set(segmentId, defined ? 0L : 1L);
+   }
+   
+   /**
+    * Opens a batch of changes, possibly nested within another one.
+    */
+   private void begin() {
+      if (depth++ == 0) {
+         changedFields = EnumSet.noneOf(RunChangeEvent.Field.class);
+         changedSegments = new BitSet();
+      }
+   }
+   
+   /**
+    * Closes a batch of changes, firing a single event describing them all
+    * if this batch is the outermost one.
+    */
+   private void end() {
+      if (--depth == 0 && !changedFields.isEmpty()) {
+         fireChangeEvent(new RunChangeEvent(
+                 this, changedFields, changedSegments));
+      }
+   }
+   
+   /**
+    * Records a change of a field, and of a segment if the index is positive,
+    * in the current batch of changes or in a batch of its own.
+    */
+   private void changed(RunChangeEvent.Field field, int segmentId) {
+      revision++;
+      begin();
+      changedFields.add(field);
+      if (segmentId >= 0) {
+         changedSegments.set(segmentId);
+      }
+      end();
    }
    
    /**
     * Fires an event to every listening change listeners.
     */
-   private void fireChangeEvent() {
+   private void fireChangeEvent(RunChangeEvent event) {
       ChangeListener[] array = listeners.getListeners(ChangeListener.class);
       for (ChangeListener listener : array) {
-         listener.stateChanged(new ChangeEvent(this));
+         listener.stateChanged(event);
+      }
+   }
+   
+   /**
+    * State of a run before an edit, restored if the edit fails.
+    */
+   private final class Backup {
+      
+      private final String game = Run.this.game;
+      private final String category = Run.this.category;
+      private final String platform = Run.this.platform;
+      private final String region = Run.this.region;
+      private final boolean emulated = Run.this.emulated;
+      private final TimeColumn splits = Run.this.splits.copy();
+      private final TimeColumn bests = Run.this.bests.copy();
+      private final TimeColumn gameSplits 
+              = Run.this.gameSplits == null ? null : Run.this.gameSplits.copy();
+      private final TimeColumn gameBests 
+              = Run.this.gameBests == null ? null : Run.this.gameBests.copy();
+      private final List<Section> sections = Run.this.sections;
+      
+      /**
+       * Restores the run to the state it had when this backup was made.
+       */
+      void restore() {
+         Run.this.game = game;
+         Run.this.category = category;
+         Run.this.platform = platform;
+         Run.this.region = region;
+         Run.this.emulated = emulated;
+         Run.this.splits = splits;
+         Run.this.bests = bests;
+         Run.this.gameSplits = gameSplits;
+         Run.this.gameBests = gameBests;
+         Run.this.sections = sections;
+         Run.this.revision++;
+         buildBestSums();
+         buildSections();
       }
+      
    }
    
 }
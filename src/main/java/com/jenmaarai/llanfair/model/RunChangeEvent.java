@@ -0,0 +1,122 @@
+package com.jenmaarai.llanfair.model;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import javax.swing.event.ChangeEvent;
+
+/**
+ * Describes every change made to a {@link Run} by a single edit, so that
+ * listeners can update only what has changed. A batch of changes made
+ * through {@link Run#edit(java.util.function.Consumer)} is described by a
+ * single event.
+ */
+public class RunChangeEvent extends ChangeEvent {
+   
+   private final Set<Field> fields;
+   private final BitSet segments;
+   
+   RunChangeEvent(Run source, Set<Field> fields, BitSet segments) {
+      super(source);
+      this.fields = Collections.unmodifiableSet(EnumSet.copyOf(fields));
+      this.segments = (BitSet) segments.clone();
+   }
+   
+   /**
+    * Returns the run that has changed.
+    */
+   public Run getRun() {
+      return (Run) getSource();
+   }
+   
+   /**
+    * Returns the fields of the run that have changed.
+    */
+   public Set<Field> getFields() {
+      return fields;
+   }
+   
+   /**
+    * Indicates whether the given field of the run has changed.
+    */
+   public boolean hasChanged(Field field) {
+      return fields.contains(field);
+   }
+   
+   /**
+    * Indicates whether any time of the given segment has changed.
+    */
+   public boolean hasChanged(int segmentId) {
+      return segments.get(segmentId);
+   }
+   
+   /**
+    * Returns the index of the first segment whose times have changed at or
+    * after the given index, or -1 if there is none.
+    */
+   public int nextChangedSegment(int segmentId) {
+      return segments.nextSetBit(segmentId);
+   }
+   
+   /**
+    * Returns the number of segments whose times have changed.
+    */
+   public int getChangedSegmentCount() {
+      return segments.cardinality();
+   }
+   
+   @Override public String toString() {
+      return "RunChangeEvent" + fields + segments;
+   }
+   
+   public enum Field {
+      
+      /**
+       * Name of the game.
+       */
+      GAME,
+      
+      /**
+       * Category of the run.
+       */
+      CATEGORY,
+      
+      /**
+       * Platform of the run.
+       */
+      PLATFORM,
+      
+      /**
+       * Region of the game.
+       */
+      REGION,
+      
+      /**
+       * Whether the run takes place on an emulator.
+       */
+      EMULATED,
+      
+      /**
+       * Split times of the personal best.
+       */
+      SPLIT_TIMES,
+      
+      /**
+       * Best segment times.
+       */
+      SEGMENT_BESTS,
+      
+      /**
+       * Game time splits and bests.
+       */
+      GAME_TIMES,
+      
+      /**
+       * Sections grouping the segments.
+       */
+      SECTIONS;
+   
+   }
+   
+}
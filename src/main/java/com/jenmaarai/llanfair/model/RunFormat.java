@@ -0,0 +1,358 @@
+package com.jenmaarai.llanfair.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.Icon;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads and writes runs in a compact binary format.
+ *
+ * <p>The file starts with a 8 bytes header (magic number, version, flags)
+ * followed by the metadata of the run, its number of segments, the name and
+ * icon reference of each segment, then the time columns and finally the icon
+ * table, all big-endian. A time column is made of the definedness flags of
+ * its times followed by their values in milliseconds. Icons are stored once
+ * as PNG images, with their dimensions, and referenced by index from the
+ * segments; they are only decoded when first painted. Runs grouping their
+ * segments in sections end with the sections in preorder, each made of its
+ * name, its range of segments and its number of children.
+ */
+final class RunFormat {
+   
+   private static final Logger LOG = LoggerFactory.getLogger(RunFormat.class);
+   
+   private static final int MAGIC = 0x4C4C5246;
+   private static final short VERSION = 1;
+   private static final short GAME_TIME = 0x1;
+   private static final short SECTIONS = 0x2;
+   
+   /**
+    * Upper bound of the number of segments, guarding against corrupt files.
+    */
+   private static final int MAX_SEGMENTS = 1 << 16;
+   
+   /**
+    * Upper bound of the nesting of sections.
+    */
+   private static final int MAX_DEPTH = 64;
+   
+   private RunFormat() {}
+   
+   /**
+    * Writes a run to the given file, replacing it atomically.
+    *
+    * @throws IOException if the file cannot be written
+    */
+   static void write(Run run, Path path) throws IOException {
+      AtomicFile.write(path, (out) -> {
+         DataOutputStream data = new DataOutputStream(out);
+         write(run, data);
+         data.flush();
+      });
+   }
+   
+   /**
+    * Returns a run encoded in this format.
+    *
+    * @throws IOException if an icon of the run cannot be encoded
+    */
+   static byte[] encode(Run run) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(bytes)) {
+         write(run, out);
+      }
+      return bytes.toByteArray();
+   }
+   
+   /**
+    * Reads a run from the given file.
+    *
+    * @throws IOException if the file cannot be read or is not a run
+    */
+   static Run read(Path path) throws IOException {
+      ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+      try {
+         return read(in);
+      } catch (BufferUnderflowException | IllegalArgumentException x) {
+         LOG.error("Corrupt run file '{}'", path);
+         throw new IOException("corrupt run file", x);
+      }
+   }
+   
+   /**
+    * Writes a run to the given stream.
+    */
+   private static void write(Run run, DataOutputStream out)
+           throws IOException {
+      int count = run.getSegmentCount();
+      out.writeInt(MAGIC);
+      out.writeShort(VERSION);
+      boolean sections = !run.getSections().isEmpty();
+      out.writeShort((run.hasGameTime() ? GAME_TIME : 0)
+              | (sections ? SECTIONS : 0));
+      
+      writeString(out, run.getGame());
+      writeString(out, run.getAbbreviation());
+      writeString(out, run.getCategory());
+      writeString(out, run.getPlatform());
+      writeString(out, run.getRegion());
+      out.writeBoolean(run.isEmulated());
+      
+      IconTable icons = new IconTable();
+      out.writeInt(count);
+      for (int i = 0; i < count; i++) {
+         Segment segment = run.getSegment(i);
+         writeString(out, segment.getName());
+         out.writeInt(icons.add(segment.getIcon()));
+      }
+      
+      writeColumn(out, run.getSplitColumn());
+      writeColumn(out, run.getBestColumn());
+      if (run.hasGameTime()) {
+         writeColumn(out, run.getGameSplitColumn());
+         writeColumn(out, run.getGameBestColumn());
+      }
+      
+      out.writeInt(icons.icons.size());
+      for (LazyIcon icon : icons.icons) {
+         out.writeInt(icon.getIconWidth());
+         out.writeInt(icon.getIconHeight());
+         out.writeInt(icon.getData().length);
+         out.write(icon.getData());
+      }
+      
+      if (sections) {
+         writeSections(out, run.getSections());
+      }
+   }
+   
+   /**
+    * Reads a run from the given buffer.
+    */
+   private static Run read(ByteBuffer in) throws IOException {
+      if (in.getInt() != MAGIC) {
+         LOG.error("Not a run file");
+         throw new IOException("not a run file");
+      }
+      short version = in.getShort();
+      if (version != VERSION) {
+         LOG.error("Unsupported run file version {}", version);
+         throw new IOException("unsupported run file version");
+      }
+      short flags = in.getShort();
+      
+      Run run = new Run();
+      run.setGame(readString(in));
+      run.setAbbreviation(readString(in));
+      run.setCategory(readString(in));
+      run.setPlatform(readString(in));
+      run.setRegion(readString(in));
+      run.setEmulated(in.get() != 0);
+      
+      int count = in.getInt();
+      if (count < 1 || count > MAX_SEGMENTS) {
+         LOG.error("Invalid segment count {}", count);
+         throw new IOException("invalid segment count");
+      }
+      List<Segment> segments = new ArrayList<>(count);
+      int[] iconIds = new int[count];
+      for (int i = 0; i < count; i++) {
+         Segment segment = new Segment();
+         segment.setName(readString(in));
+         iconIds[i] = in.getInt();
+         segments.add(segment);
+      }
+      
+      TimeColumn splits = readColumn(in, count);
+      TimeColumn bests  = readColumn(in, count);
+      TimeColumn gameSplits = null;
+      TimeColumn gameBests  = null;
+      if ((flags & GAME_TIME) != 0) {
+         gameSplits = readColumn(in, count);
+         gameBests  = readColumn(in, count);
+      }
+      
+      int iconCount = in.getInt();
+      if (iconCount < 0 || iconCount > in.remaining() / 12) {
+         LOG.error("Invalid icon count {}", iconCount);
+         throw new IOException("invalid icon count");
+      }
+      LazyIcon[] icons = new LazyIcon[iconCount];
+      for (int i = 0; i < icons.length; i++) {
+         int width  = in.getInt();
+         int height = in.getInt();
+         int length = in.getInt();
+         if (length < 0 || length > in.remaining()) {
+            LOG.error("Invalid icon length {}", length);
+            throw new IOException("invalid icon length");
+         }
+         byte[] data = new byte[length];
+         in.get(data);
+         icons[i] = IconStore.intern(data, width, height);
+      }
+      for (int i = 0; i < count; i++) {
+         if (iconIds[i] >= icons.length) {
+            LOG.error("Invalid icon reference {}", iconIds[i]);
+            throw new IOException("invalid icon reference");
+         }
+         if (iconIds[i] >= 0) {
+            segments.get(i).setIcon(icons[iconIds[i]]);
+         }
+      }
+      run.setContent(segments, splits, bests, gameSplits, gameBests);
+      if ((flags & SECTIONS) != 0) {
+         run.setSections(readSections(in, count, 0));
+      }
+      return run;
+   }
+   
+   /**
+    * Writes sections in preorder, each followed by its children.
+    */
+   private static void writeSections(
+           DataOutputStream out, List<Section> sections) throws IOException {
+      out.writeInt(sections.size());
+      for (Section section : sections) {
+         writeString(out, section.getName());
+         out.writeInt(section.getFirst());
+         out.writeInt(section.getLast() + 1);
+         writeSections(out, section.getChildren());
+      }
+   }
+   
+   /**
+    * Reads sections written by {@link #writeSections}, for a run of given
+    * number of segments, at given depth.
+    */
+   private static List<Section> readSections(
+           ByteBuffer in, int segmentCount, int depth) throws IOException {
+      int count = in.getInt();
+      if (depth > MAX_DEPTH || count < 0 || count > segmentCount) {
+         LOG.error("Invalid section count {}", count);
+         throw new IOException("invalid section count");
+      }
+      List<Section> sections = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+         String name = readString(in);
+         int first = in.getInt();
+         int end = in.getInt();
+         sections.add(new Section(
+                 name == null ? "" : name, first, end,
+                 readSections(in, segmentCount, depth + 1)));
+      }
+      return sections;
+   }
+   
+   /**
+    * Writes a string as its length in bytes followed by its UTF-8 encoding,
+    * with a length of -1 for null.
+    */
+   private static void writeString(DataOutputStream out, String value)
+           throws IOException {
+      if (value == null) {
+         out.writeInt(-1);
+         return;
+      }
+      byte[] data = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(data.length);
+      out.write(data);
+   }
+   
+   /**
+    * Reads a string written by {@link #writeString}.
+    */
+   private static String readString(ByteBuffer in) throws IOException {
+      int length = in.getInt();
+      if (length == -1) {
+         return null;
+      }
+      if (length < 0 || length > in.remaining()) {
+         LOG.error("Invalid string length {}", length);
+         throw new IOException("invalid string length");
+      }
+      byte[] data = new byte[length];
+      in.get(data);
+      return new String(data, StandardCharsets.UTF_8);
+   }
+   
+   /**
+    * Writes the definedness flags of a column, one byte per time, followed
+    * by its values.
+    */
+   private static void writeColumn(DataOutputStream out, TimeColumn column)
+           throws IOException {
+      for (int i = 0; i < column.size(); i++) {
+         out.writeBoolean(column.isDefined(i));
+      }
+      for (int i = 0; i < column.size(); i++) {
+         out.writeLong(column.isDefined(i) ? column.get(i) : 0L);
+      }
+   }
+   
+   /**
+    * Reads a column of given size written by {@link #writeColumn}.
+    */
+   private static TimeColumn readColumn(ByteBuffer in, int size) {
+      TimeColumn column = new TimeColumn(size);
+      int definitions = in.position();
+      in.position(definitions + size);
+      for (int i = 0; i < size; i++) {
+         long value = in.getLong();
+         if (in.get(definitions + i) != 0) {
+            column.set(i, value);
+         }
+      }
+      return column;
+   }
+   
+   /**
+    * The icons of a run being written, each stored once.
+    */
+   private static final class IconTable {
+      
+      private final List<LazyIcon> icons = new ArrayList<>();
+      private final Map<Icon, Integer> byIdentity = new IdentityHashMap<>();
+      private final Map<ByteBuffer, Integer> byContent = new HashMap<>();
+      
+      /**
+       * Returns the index of the given icon in this table, adding it if
+       * needed, or -1 if the icon is null or cannot be encoded.
+       */
+      int add(Icon icon) throws IOException {
+         if (icon == null) {
+            return -1;
+         }
+         Integer index = byIdentity.get(icon);
+         if (index == null) {
+            LazyIcon encoded = LazyIcon.encode(icon);
+            if (encoded == null) {
+               return -1;
+            }
+            ByteBuffer key = ByteBuffer.wrap(encoded.getData());
+            index = byContent.get(key);
+            if (index == null) {
+               index = icons.size();
+               icons.add(encoded);
+               byContent.put(key, index);
+            }
+            byIdentity.put(icon, index);
+         }
+         return index;
+      }
+      
+   }
+   
+}
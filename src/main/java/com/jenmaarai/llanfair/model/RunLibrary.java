@@ -0,0 +1,893 @@
+package com.jenmaarai.llanfair.model;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.EventListenerList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A catalog of the run files found in a directory tree. The game, category,
+ * platform, region, number of segments, personal best and number of attempts
+ * of every run are kept in a small index file at the root of the directory,
+ * so that the library is available as soon as it is opened, without reading
+ * any run. Once started, the library checks the directory in the background,
+ * only reading the runs added or modified since they were indexed, then
+ * watches it to keep the index up to date.
+ *
+ * <p>Binary runs ({@code .run}), XML runs ({@code .xml}) and LiveSplit runs
+ * ({@code .lss}) are indexed. The attempts of a run are counted in the
+ * history next to it, with the same name and the {@code .history}
+ * extension, or in the run itself for LiveSplit runs without history.
+ *
+ * <p>Entries are searched by prefix of the words of their game, category,
+ * platform, region and file name, or by fuzzy matching of the whole query if
+ * no entry matches every word. Searches only read an immutable snapshot of
+ * the entries and never wait on the indexing.
+ */
+public class RunLibrary implements AutoCloseable {
+   
+   private static final Logger LOG = LoggerFactory.getLogger(RunLibrary.class);
+   
+   /**
+    * Name of the index file at the root of a library.
+    */
+   public static final String INDEX = "library.index";
+   
+   /**
+    * Extension of the history of a run.
+    */
+   public static final String HISTORY = "history";
+   
+   private static final int MAGIC = 0x4C4C4158;
+   private static final short VERSION = 1;
+   private static final int MAX_ENTRIES = 1 << 20;
+   private static final int MAX_TEXT = 256;
+   
+   /**
+    * Delay during which changes are gathered before updating the index.
+    */
+   private static final long BATCH_MILLIS = 200L;
+   
+   private static final Comparator<Entry> ORDER = Comparator
+           .comparing((Entry entry) -> lower(entry.game))
+           .thenComparing((entry) -> lower(entry.category))
+           .thenComparing((entry) -> entry.path);
+   
+   private final Path directory;
+   private final Path index;
+   private final EventListenerList listeners = new EventListenerList();
+   private final Map<WatchKey, Path> watched = new HashMap<>();
+   private volatile Catalog catalog;
+   private WatchService watcher = null;
+   private Thread thread = null;
+   private boolean closed = false;
+   
+   private RunLibrary(Path directory, Map<Path, Entry> entries) {
+      this.directory = directory;
+      this.index = directory.resolve(INDEX);
+      this.catalog = new Catalog(entries);
+   }
+   
+   /**
+    * Opens the library of the given directory, creating it if needed, with
+    * the entries of its index. The entries are only checked against the
+    * files once the library is started.
+    *
+    * @throws IOException if the directory cannot be created
+    */
+   public static RunLibrary open(Path directory) throws IOException {
+      if (directory == null) {
+         LOG.error("Null library directory");
+         throw new IllegalArgumentException("null directory");
+      }
+      Path root = directory.toAbsolutePath().normalize();
+      Files.createDirectories(root);
+      return new RunLibrary(root, readIndex(root));
+   }
+   
+   /**
+    * Returns the file next to the given run with the same name and the
+    * given extension, such as its history.
+    */
+   public static Path sibling(Path run, String extension) {
+      String name = run.getFileName().toString();
+      int dot = name.lastIndexOf('.');
+      return run.resolveSibling(
+              (dot > 0 ? name.substring(0, dot) : name) + "." + extension);
+   }
+   
+   /**
+    * Returns the root directory of this library.
+    */
+   public Path getDirectory() {
+      return directory;
+   }
+   
+   /**
+    * Returns the entries of this library, sorted by game and category.
+    */
+   public List<Entry> getEntries() {
+      return catalog.sorted;
+   }
+   
+   /**
+    * Returns the entry of the given run file, or null if it is not indexed.
+    */
+   public Entry getEntry(Path path) {
+      if (path == null) {
+         LOG.error("Null run path");
+         throw new IllegalArgumentException("null path");
+      }
+      Entry entry = catalog.entries.get(path.toAbsolutePath().normalize());
+      return entry == null || !entry.isValid() ? null : entry;
+   }
+   
+   /**
+    * Returns at most {@code limit} entries matching the given query, best
+    * matches first. Every word of the query must start a word of the game,
+    * category, platform, region or file name of an entry. If no entry
+    * matches, entries are matched if they contain the letters of the query
+    * in order. An empty query matches every entry.
+    */
+   public List<Entry> search(String query, int limit) {
+      if (query == null || limit < 0) {
+         LOG.error("Invalid search '{}', limit {}", query, limit);
+         throw new IllegalArgumentException("invalid search");
+      }
+      Catalog current = catalog;
+      List<String> words = words(query);
+      if (words.isEmpty()) {
+         return current.sorted.subList(
+                 0, Math.min(limit, current.sorted.size()));
+      }
+      Map<Entry, Integer> scores = null;
+      for (String word : words) {
+         Map<Entry, Integer> found = new HashMap<>();
+         for (Map.Entry<String, List<Entry>> match : current.words.subMap(
+                 word, true, word + Character.MAX_VALUE, false).entrySet()) {
+            int score = match.getKey().length() == word.length() ? 2 : 1;
+            for (Entry entry : match.getValue()) {
+               found.merge(entry, score, Math::max);
+            }
+         }
+         if (scores == null) {
+            scores = found;
+         } else {
+            scores.keySet().retainAll(found.keySet());
+            scores.replaceAll((entry, score) -> score + found.get(entry));
+         }
+         if (scores.isEmpty()) {
+            break;
+         }
+      }
+      if (scores.isEmpty()) {
+         String pattern = String.join("", words);
+         for (Entry entry : current.sorted) {
+            int score = fuzzy(pattern, entry.text);
+            if (score > 0) {
+               scores.put(entry, score);
+            }
+         }
+      }
+      List<Entry> results = new ArrayList<>();
+      for (Entry entry : current.sorted) {
+         if (scores.containsKey(entry)) {
+            results.add(entry);
+         }
+      }
+      Map<Entry, Integer> ranked = scores;
+      results.sort((a, b) -> ranked.get(b) - ranked.get(a));
+      return results.subList(0, Math.min(limit, results.size()));
+   }
+   
+   /**
+    * Loads the run of an entry of this library. If its file has changed
+    * since it was indexed, its entry is updated from the run loaded, so that
+    * the change is not read again by the library. Returns null if the run
+    * cannot be read.
+    */
+   public Run load(Entry entry) {
+      if (entry == null) {
+         LOG.error("Null library entry");
+         throw new IllegalArgumentException("null entry");
+      }
+      try {
+         BasicFileAttributes attributes = Files.readAttributes(
+                 entry.path, BasicFileAttributes.class);
+         int[] attempts = {0};
+         Run run = read(entry.path, entry.format, attempts);
+         Entry current = catalog.entries.get(entry.path);
+         if (current == null || !current.isCurrent(attributes)) {
+            Path history = sibling(entry.path, HISTORY);
+            long historyModified = lastModified(history);
+            if (historyModified != 0L) {
+               attempts[0] = countAttempts(history);
+            }
+            commit(Collections.singletonMap(entry.path, new Entry(
+                    entry.path, entry.format, attributes, historyModified,
+                    run, attempts[0])), Collections.<Path>emptySet());
+         }
+         return run;
+      } catch (IOException x) {
+         LOG.error("Error reading file '{}', {}:{}",
+                  entry.path, x.getClass().getSimpleName(), x.getMessage());
+      }
+      return null;
+   }
+   
+   /**
+    * Starts checking and watching the directory of this library on a
+    * background thread.
+    */
+   public synchronized void start() {
+      if (thread != null || closed) {
+         LOG.error("Library already started or closed");
+         throw new IllegalStateException("library started or closed");
+      }
+      thread = new Thread(this::watch, "llanfair-library");
+      thread.setDaemon(true);
+      thread.start();
+   }
+   
+   /**
+    * Registers a listener notified, on any thread, whenever the entries of
+    * this library change.
+    */
+   public void addChangeListener(ChangeListener listener) {
+      listeners.add(ChangeListener.class, listener);
+   }
+   
+   /**
+    * Unregisters a listener of the entries of this library.
+    */
+   public void removeChangeListener(ChangeListener listener) {
+      listeners.remove(ChangeListener.class, listener);
+   }
+   
+   /**
+    * Stops watching the directory of this library.
+    */
+   @Override public synchronized void close() throws IOException {
+      closed = true;
+      if (watcher != null) {
+         watcher.close();
+      }
+   }
+   
+   /**
+    * Checks the whole directory, then updates the index whenever files
+    * change until the library is closed. Invoked on the library thread.
+    */
+   private void watch() {
+      try (WatchService service = directory.getFileSystem().newWatchService()) {
+         synchronized (this) {
+            if (closed) {
+               return;
+            }
+            watcher = service;
+         }
+         scan();
+         while (true) {
+            WatchKey key = service.take();
+            Set<Path> changed = new LinkedHashSet<>();
+            boolean overflow = false;
+            while (key != null) {
+               overflow |= drain(key, changed);
+               key = service.poll(BATCH_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            if (overflow) {
+               scan();
+            } else {
+               update(changed);
+            }
+         }
+      } catch (ClosedWatchServiceException | InterruptedException x) {
+         LOG.info("Stopped watching run library '{}'", directory);
+      } catch (IOException x) {
+         LOG.error(
+                 "Cannot watch run library '{}' ({})", directory,
+                 x.getMessage());
+      }
+   }
+   
+   /**
+    * Registers every directory of the library and indexes every run found,
+    * reusing the entries of the files that have not changed.
+    */
+   private void scan() throws IOException {
+      Map<Path, Entry> previous = catalog.entries;
+      Map<Path, Entry> found = new HashMap<>();
+      Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+         @Override public FileVisitResult preVisitDirectory(
+                 Path dir, BasicFileAttributes attributes) throws IOException {
+            register(dir);
+            return FileVisitResult.CONTINUE;
+         }
+         
+         @Override public FileVisitResult visitFile(
+                 Path file, BasicFileAttributes attributes) {
+            Format format = Format.of(file);
+            if (format != null && attributes.isRegularFile()) {
+               found.put(file, index(file, format, previous.get(file)));
+            }
+            return FileVisitResult.CONTINUE;
+         }
+         
+         @Override public FileVisitResult visitFileFailed(
+                 Path file, IOException x) {
+            LOG.warn("Cannot visit '{}' ({})", file, x.getMessage());
+            return FileVisitResult.CONTINUE;
+         }
+      });
+      Set<Path> removed = new HashSet<>(previous.keySet());
+      removed.removeAll(found.keySet());
+      commit(found, removed);
+      saveIndex();
+      LOG.info(
+              "Indexed {} runs in '{}'", catalog.sorted.size(), directory);
+   }
+   
+   /**
+    * Indexes the files that have changed. Directories that have been created
+    * trigger a scan of the whole library.
+    */
+   private void update(Set<Path> changed) throws IOException {
+      Map<Path, Entry> previous = catalog.entries;
+      Map<Path, Entry> updated = new HashMap<>();
+      Set<Path> removed = new HashSet<>();
+      for (Path path : changed) {
+         if (Files.isDirectory(path)) {
+            scan();
+            return;
+         }
+         Format format = Format.of(path);
+         if (format == null && path.toString().endsWith("." + HISTORY)) {
+            for (Format run : Format.VALUES) {
+               Path sibling = sibling(path, run.extension);
+               if (previous.containsKey(sibling)
+                       && !updated.containsKey(sibling)) {
+                  updated.put(
+                          sibling, index(sibling, run, previous.get(sibling)));
+               }
+            }
+         } else if (format != null && !Files.isRegularFile(path)) {
+            removed.add(path);
+         } else if (format != null) {
+            updated.put(path, index(path, format, previous.get(path)));
+         }
+      }
+      if (!updated.isEmpty() || !removed.isEmpty()) {
+         commit(updated, removed);
+         saveIndex();
+      }
+   }
+   
+   /**
+    * Gathers the files changed in a directory. Returns true if some events
+    * were lost, in which case the library must be scanned again.
+    */
+   private boolean drain(WatchKey key, Set<Path> changed) {
+      Path dir = watched.get(key);
+      boolean overflow = dir == null;
+      for (WatchEvent<?> event : key.pollEvents()) {
+         if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            overflow = true;
+         } else if (dir != null) {
+            changed.add(dir.resolve((Path) event.context()));
+         }
+      }
+      if (!key.reset()) {
+         watched.remove(key);
+      }
+      return overflow;
+   }
+   
+   /**
+    * Watches a directory of the library.
+    */
+   private void register(Path dir) throws IOException {
+      watched.put(dir.register(
+              watcher, StandardWatchEventKinds.ENTRY_CREATE,
+              StandardWatchEventKinds.ENTRY_DELETE,
+              StandardWatchEventKinds.ENTRY_MODIFY), dir);
+   }
+   
+   /**
+    * Returns the entry of a run file, reusing the given previous entry if
+    * the file has not changed. A file that cannot be read gets an invalid
+    * entry, so that it is not read again until it changes.
+    */
+   private Entry index(Path file, Format format, Entry previous) {
+      BasicFileAttributes attributes;
+      try {
+         attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      } catch (IOException x) {
+         return previous;
+      }
+      Path history = sibling(file, HISTORY);
+      long historyModified = lastModified(history);
+      if (previous != null && previous.isCurrent(attributes)) {
+         if (previous.historyModified == historyModified) {
+            return previous;
+         }
+         if (historyModified != 0L) {
+            return previous.withAttempts(
+                    historyModified, countAttempts(history));
+         }
+      }
+      int[] attempts = {0};
+      Run run = null;
+      try {
+         run = read(file, format, attempts);
+      } catch (IOException | RuntimeException x) {
+         LOG.warn("Cannot index '{}' ({})", file, x.getMessage());
+      }
+      if (historyModified != 0L) {
+         attempts[0] = countAttempts(history);
+      }
+      return new Entry(
+              file, format, attributes, historyModified, run, attempts[0]);
+   }
+   
+   /**
+    * Replaces the entries of the given files and removes the given files,
+    * then notifies the listeners.
+    */
+   private synchronized void commit(
+           Map<Path, Entry> updated, Set<Path> removed) {
+      Map<Path, Entry> entries = new HashMap<>(catalog.entries);
+      entries.keySet().removeAll(removed);
+      for (Map.Entry<Path, Entry> entry : updated.entrySet()) {
+         if (entry.getValue() != null) {
+            entries.put(entry.getKey(), entry.getValue());
+         }
+      }
+      catalog = new Catalog(entries);
+      ChangeEvent event = new ChangeEvent(this);
+      for (ChangeListener listener
+              : listeners.getListeners(ChangeListener.class)) {
+         listener.stateChanged(event);
+      }
+   }
+   
+   /**
+    * Writes the index of this library.
+    */
+   private void saveIndex() {
+      Collection<Entry> entries = catalog.entries.values();
+      try {
+         AtomicFile.write(index, (out) -> {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(MAGIC);
+            data.writeShort(VERSION);
+            data.writeInt(entries.size());
+            for (Entry entry : entries) {
+               entry.write(data, directory);
+            }
+            data.flush();
+         });
+      } catch (IOException x) {
+         LOG.error(
+                 "Cannot save library index '{}' ({})", index, x.getMessage());
+      }
+   }
+   
+   /**
+    * Reads the index of the library rooted in the given directory. Returns
+    * no entry if there is no index or it cannot be read.
+    */
+   private static Map<Path, Entry> readIndex(Path directory) {
+      Map<Path, Entry> entries = new HashMap<>();
+      Path path = directory.resolve(INDEX);
+      if (!Files.exists(path)) {
+         return entries;
+      }
+      try (DataInputStream in = new DataInputStream(
+              new BufferedInputStream(Files.newInputStream(path)))) {
+         if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+            throw new IOException("not a library index");
+         }
+         int count = in.readInt();
+         if (count < 0 || count > MAX_ENTRIES) {
+            throw new IOException("invalid entry count");
+         }
+         for (int i = 0; i < count; i++) {
+            Entry entry = Entry.read(in, directory);
+            entries.put(entry.path, entry);
+         }
+      } catch (IOException | RuntimeException x) {
+         LOG.warn("Rebuilding library index '{}' ({})", path, x.getMessage());
+         entries.clear();
+      }
+      return entries;
+   }
+   
+   /**
+    * Reads a run file of given format. The number of attempts of LiveSplit
+    * runs is stored in the given array.
+    */
+   private static Run read(Path file, Format format, int[] attempts)
+           throws IOException {
+      switch (format) {
+         case BINARY:
+            return RunFormat.read(file);
+         case XML:
+            return RunXml.read(file);
+         default:
+            return LiveSplitFormat.read(file, (count) -> attempts[0] = count);
+      }
+   }
+   
+   /**
+    * Returns the number of attempts in the given history, or zero if it
+    * cannot be read.
+    */
+   private static int countAttempts(Path history) {
+      try {
+         return AttemptHistory.count(history);
+      } catch (IOException x) {
+         LOG.warn(
+                 "Cannot count attempts of '{}' ({})", history, x.getMessage());
+         return 0;
+      }
+   }
+   
+   /**
+    * Returns the last modification time of a file, or zero if it does not
+    * exist.
+    */
+   private static long lastModified(Path file) {
+      try {
+         return Files.getLastModifiedTime(file).toMillis();
+      } catch (NoSuchFileException x) {
+         return 0L;
+      } catch (IOException x) {
+         LOG.warn("Cannot check '{}' ({})", file, x.getMessage());
+         return 0L;
+      }
+   }
+   
+   /**
+    * Returns the words of the given text, in lower case.
+    */
+   private static List<String> words(String text) {
+      List<String> words = new ArrayList<>();
+      for (String word : lower(text).split("[^\\p{L}\\p{N}]+")) {
+         if (!word.isEmpty()) {
+            words.add(word);
+         }
+      }
+      return words;
+   }
+   
+   /**
+    * Returns the given text in lower case, or an empty text if it is null.
+    */
+   private static String lower(String text) {
+      return text == null ? "" : text.toLowerCase(Locale.ROOT);
+   }
+   
+   /**
+    * Returns how well the given text contains the characters of the given
+    * pattern in order, or zero if it does not. Consecutive characters and
+    * characters starting a word score higher.
+    */
+   private static int fuzzy(String pattern, String text) {
+      int score = 0;
+      int streak = 0;
+      int from = 0;
+      for (int i = 0; i < pattern.length(); i++) {
+         int found = text.indexOf(pattern.charAt(i), from);
+         if (found < 0) {
+            return 0;
+         }
+         streak = i > 0 && found == from ? streak + 1 : 0;
+         boolean start = found == 0
+                 || !Character.isLetterOrDigit(text.charAt(found - 1));
+         score += 1 + streak + (start ? 2 : 0);
+         from = found + 1;
+      }
+      return score;
+   }
+   
+   /**
+    * Returns the given text truncated to the length kept by the index.
+    */
+   private static String truncate(String text) {
+      return text == null || text.length() <= MAX_TEXT
+           ? text : text.substring(0, MAX_TEXT);
+   }
+   
+   /**
+    * The formats of the run files indexed.
+    */
+   private enum Format {
+      
+      BINARY("run"),
+      XML("xml"),
+      LIVESPLIT("lss");
+      
+      private static final Format[] VALUES = values();
+      
+      private final String extension;
+      
+      private Format(String extension) {
+         this.extension = extension;
+      }
+      
+      /**
+       * Returns the format of the given file, or null if it is not a run.
+       */
+      static Format of(Path file) {
+         String name = lower(file.getFileName().toString());
+         for (Format format : VALUES) {
+            if (name.endsWith("." + format.extension)) {
+               return format;
+            }
+         }
+         return null;
+      }
+   
+   }
+   
+   /**
+    * The entries of a library at a given instant, with the words that they
+    * can be searched by.
+    */
+   private static final class Catalog {
+      
+      private final Map<Path, Entry> entries;
+      private final List<Entry> sorted;
+      private final NavigableMap<String, List<Entry>> words = new TreeMap<>();
+      
+      Catalog(Map<Path, Entry> entries) {
+         this.entries = entries;
+         List<Entry> valid = new ArrayList<>();
+         for (Entry entry : entries.values()) {
+            if (entry.isValid()) {
+               valid.add(entry);
+            }
+         }
+         valid.sort(ORDER);
+         this.sorted = Collections.unmodifiableList(valid);
+         for (Entry entry : valid) {
+            for (String word : new HashSet<>(words(entry.text))) {
+               words.computeIfAbsent(word, (k) -> new ArrayList<>())
+                    .add(entry);
+            }
+         }
+      }
+   
+   }
+   
+   /**
+    * The indexed metadata of a run file.
+    */
+   public static final class Entry {
+      
+      private final Path path;
+      private final Format format;
+      private final long modified;
+      private final long size;
+      private final long historyModified;
+      private final String game;
+      private final String category;
+      private final String platform;
+      private final String region;
+      private final int segments;
+      private final long personalBest;
+      private final int attempts;
+      private final String text;
+      
+      private Entry(
+              Path path, Format format, long modified, long size,
+              long historyModified, String game, String category,
+              String platform, String region, int segments,
+              long personalBest, int attempts) {
+         this.path = path;
+         this.format = format;
+         this.modified = modified;
+         this.size = size;
+         this.historyModified = historyModified;
+         this.game = game;
+         this.category = category;
+         this.platform = platform;
+         this.region = region;
+         this.segments = segments;
+         this.personalBest = personalBest;
+         this.attempts = attempts;
+         this.text = String.join(
+                 " ", lower(game), lower(category), lower(platform),
+                 lower(region), lower(path.getFileName().toString()));
+      }
+      
+      /**
+       * Creates the entry of a run file, invalid if the run is null.
+       */
+      private Entry(
+              Path path, Format format, BasicFileAttributes attributes,
+              long historyModified, Run run, int attempts) {
+         this(path, format, attributes.lastModifiedTime().toMillis(),
+              attributes.size(), historyModified,
+              run == null ? null : truncate(run.getGame()),
+              run == null ? null : truncate(run.getCategory()),
+              run == null ? null : truncate(run.getPlatform()),
+              run == null ? null : truncate(run.getRegion()),
+              run == null ? 0 : run.getSegmentCount(),
+              run == null ? Run.UNDEFINED
+                          : run.getSplitMillis(run.getSegmentCount() - 1),
+              attempts);
+      }
+      
+      /**
+       * Returns the run file of this entry.
+       */
+      public Path getPath() {
+         return path;
+      }
+      
+      /**
+       * Returns the name of the game of the run, can be null.
+       */
+      public String getGame() {
+         return game;
+      }
+      
+      /**
+       * Returns the name of the category of the run, can be null.
+       */
+      public String getCategory() {
+         return category;
+      }
+      
+      /**
+       * Returns the platform of the run, can be null.
+       */
+      public String getPlatform() {
+         return platform;
+      }
+      
+      /**
+       * Returns the region of the run, can be null.
+       */
+      public String getRegion() {
+         return region;
+      }
+      
+      /**
+       * Returns the number of segments of the run.
+       */
+      public int getSegmentCount() {
+         return segments;
+      }
+      
+      /**
+       * Returns the personal best of the run in milliseconds, or
+       * {@link Run#UNDEFINED}.
+       */
+      public long getPersonalBest() {
+         return personalBest;
+      }
+      
+      /**
+       * Returns the number of attempts made on the run.
+       */
+      public int getAttemptCount() {
+         return attempts;
+      }
+      
+      /**
+       * Returns the title of the run, as shown in a list of runs.
+       */
+      @Override public String toString() {
+         if (game == null || game.isEmpty()) {
+            return path.getFileName().toString();
+         }
+         return category == null ? game : game + " - " + category;
+      }
+      
+      /**
+       * Returns whether the run of this entry could be read.
+       */
+      private boolean isValid() {
+         return segments > 0;
+      }
+      
+      /**
+       * Returns whether this entry describes a file with the given
+       * attributes.
+       */
+      private boolean isCurrent(BasicFileAttributes attributes) {
+         return modified == attributes.lastModifiedTime().toMillis()
+                 && size == attributes.size();
+      }
+      
+      /**
+       * Returns a copy of this entry with another number of attempts.
+       */
+      private Entry withAttempts(long historyModified, int attempts) {
+         return new Entry(
+                 path, format, modified, size, historyModified, game,
+                 category, platform, region, segments, personalBest,
+                 attempts);
+      }
+      
+      /**
+       * Writes this entry to an index, its path being relative to the given
+       * directory.
+       */
+      private void write(DataOutputStream out, Path directory)
+              throws IOException {
+         out.writeUTF(directory.relativize(path).toString());
+         out.writeByte(format.ordinal());
+         out.writeLong(modified);
+         out.writeLong(size);
+         out.writeLong(historyModified);
+         writeString(out, game);
+         writeString(out, category);
+         writeString(out, platform);
+         writeString(out, region);
+         out.writeInt(segments);
+         out.writeLong(personalBest);
+         out.writeInt(attempts);
+      }
+      
+      /**
+       * Reads an entry from an index, its path being relative to the given
+       * directory.
+       */
+      private static Entry read(DataInputStream in, Path directory)
+              throws IOException {
+         Path path = directory.resolve(in.readUTF()).normalize();
+         return new Entry(
+                 path, Format.VALUES[in.readByte()], in.readLong(),
+                 in.readLong(), in.readLong(), readString(in),
+                 readString(in), readString(in), readString(in),
+                 in.readInt(), in.readLong(), in.readInt());
+      }
+      
+      private static void writeString(DataOutputStream out, String value)
+              throws IOException {
+         out.writeBoolean(value != null);
+         if (value != null) {
+            out.writeUTF(value);
+         }
+      }
+      
+      private static String readString(DataInputStream in) throws IOException {
+         return in.readBoolean() ? in.readUTF() : null;
+      }
+   
+   }
+   
+}
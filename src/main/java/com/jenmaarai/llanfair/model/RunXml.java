@@ -0,0 +1,652 @@
+package com.jenmaarai.llanfair.model;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.swing.Icon;
+import javax.swing.ImageIcon;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streams runs from and to XML, following the schema historically written
+ * by XStream so that existing files remain readable.
+ *
+ * <p>Segments are read one at a time and every element is bounded: the
+ * number of segments, the length of texts and the size of icons. Unknown
+ * elements are skipped without being buffered, DTDs and external entities
+ * are refused, and any malformed input fails immediately. As with
+ * deserialized runs, runs whose times are stored within each segment are
+ * migrated, while runs of any other version are replaced by a new run.
+ */
+final class RunXml {
+   
+   private static final Logger LOG = LoggerFactory.getLogger(RunXml.class);
+   
+   private static final int MAX_SEGMENTS = 1 << 16;
+   private static final int MAX_TEXT = 1 << 16;
+   private static final int MAX_ICON_DATA = 1 << 22;
+   private static final int MAX_ICON_PIXELS = 1 << 18;
+   
+   private static final String IMAGE_ICON = "javax.swing.ImageIcon";
+   private static final String LAZY_ICON = LazyIcon.class.getName();
+   
+   /**
+    * Reference to the icon of a previous segment, as written by XStream.
+    */
+   private static final Pattern ICON_REFERENCE
+           = Pattern.compile("\\.\\./\\.\\./segment(?:\\[(\\d+)\\])?/icon");
+   
+   static final XMLInputFactory INPUT = XMLInputFactory.newFactory();
+   static final XMLOutputFactory OUTPUT
+           = XMLOutputFactory.newFactory();
+   static {
+      INPUT.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+      INPUT.setProperty(
+              XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+      INPUT.setProperty(XMLInputFactory.IS_COALESCING, false);
+   }
+   
+   private RunXml() {}
+   
+   /**
+    * Reads a run from the given XML file.
+    *
+    * @throws IOException if the file cannot be read or is not a valid run
+    */
+   static Run read(Path path) throws IOException {
+      try (InputStream in 
+              = new BufferedInputStream(Files.newInputStream(path))) {
+         XMLStreamReader xml = INPUT.createXMLStreamReader(in);
+         try {
+            return new Reader(xml).readRun();
+         } finally {
+            xml.close();
+         }
+      } catch (XMLStreamException | IllegalArgumentException x) {
+         LOG.error("Malformed run xml '{}' ({})", path, x.getMessage());
+         throw new IOException("malformed run xml", x);
+      }
+   }
+   
+   /**
+    * Writes a run to the given XML file, replacing it atomically.
+    *
+    * @throws IOException if the file cannot be written
+    */
+   static void write(Run run, Path path) throws IOException {
+      AtomicFile.write(path, (out) -> {
+         try {
+            XMLStreamWriter xml = OUTPUT.createXMLStreamWriter(out, "UTF-8");
+            try {
+               new Writer(xml).writeRun(run);
+            } finally {
+               xml.close();
+            }
+         } catch (XMLStreamException x) {
+            LOG.error("Cannot write run xml '{}' ({})", path, x.getMessage());
+            throw new IOException("cannot write run xml", x);
+         }
+      });
+   }
+   
+   /**
+    * Reads the text of the current element, which must not have any
+    * child element nor exceed the given length.
+    */
+   static String text(XMLStreamReader xml, int max)
+           throws XMLStreamException {
+      StringBuilder text = new StringBuilder();
+      while (xml.next() != XMLStreamConstants.END_ELEMENT) {
+         switch (xml.getEventType()) {
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+               if (text.length() + xml.getTextLength() > max) {
+                  throw new XMLStreamException("text too long");
+               }
+               text.append(
+                       xml.getTextCharacters(), xml.getTextStart(),
+                       xml.getTextLength());
+               break;
+            case XMLStreamConstants.START_ELEMENT:
+               throw new XMLStreamException("unexpected element");
+            case XMLStreamConstants.END_DOCUMENT:
+               throw new XMLStreamException("unexpected end");
+            default:
+               break;
+         }
+      }
+      return text.toString();
+   }
+   
+   /**
+    * Skips the current element and all of its content.
+    */
+   static void skip(XMLStreamReader xml) throws XMLStreamException {
+      int depth = 1;
+      while (depth > 0) {
+         switch (xml.next()) {
+            case XMLStreamConstants.START_ELEMENT: depth++; break;
+            case XMLStreamConstants.END_ELEMENT:   depth--; break;
+            case XMLStreamConstants.END_DOCUMENT:
+               throw new XMLStreamException("unexpected end");
+            default: break;
+         }
+      }
+   }
+   
+   /**
+    * Reads a single run from a stream positioned at its start.
+    */
+   private static final class Reader {
+      
+      private final XMLStreamReader xml;
+      private final List<Segment> segments = new ArrayList<>();
+      private final TimeColumn legacySplits = new TimeColumn(16);
+      private final TimeColumn legacyBests = new TimeColumn(16);
+      private final Run run = new Run();
+      private TimeColumn splits = null;
+      private TimeColumn bests = null;
+      private TimeColumn gameSplits = null;
+      private TimeColumn gameBests = null;
+      private long version = 0L;
+      
+      Reader(XMLStreamReader xml) {
+         this.xml = xml;
+      }
+      
+      /**
+       * Reads the run and checks its version.
+       */
+      Run readRun() throws XMLStreamException {
+         xml.nextTag();
+         xml.require(XMLStreamConstants.START_ELEMENT, null, "run");
+         while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (xml.getLocalName()) {
+               case "game":       run.setGame(text(MAX_TEXT)); break;
+               case "category":   run.setCategory(text(MAX_TEXT)); break;
+               case "platform":   run.setPlatform(text(MAX_TEXT)); break;
+               case "region":     run.setRegion(text(MAX_TEXT)); break;
+               case "segments":   readSegments(); break;
+               case "splits":     splits = readColumn(); break;
+               case "bests":      bests = readColumn(); break;
+               case "gameSplits": gameSplits = readColumn(); break;
+               case "gameBests":  gameBests = readColumn(); break;
+               case "version":    version = number(); break;
+               case "abbreviation":
+                  run.setAbbreviation(text(MAX_TEXT));
+                  break;
+               case "emulated":
+                  run.setEmulated(Boolean.parseBoolean(text(MAX_TEXT)));
+                  break;
+               default:
+                  skip();
+                  break;
+            }
+         }
+         int count = segments.size();
+         if (version == Run.SEGMENT_TIMES_VERSION) {
+            LOG.info("Migrating run from version {}", version);
+            legacySplits.resize(count);
+            legacyBests.resize(count);
+            splits = legacySplits;
+            bests  = legacyBests;
+         } else if (version != Run.CURRENT_VERSION) {
+            LOG.error("Run version obsolete {}", version);
+            return new Run();
+         }
+         if (count == 0 || !fits(splits, count) || !fits(bests, count)
+                 || (gameSplits != null && !fits(gameSplits, count))
+                 || (gameBests != null && !fits(gameBests, count))
+                 || (gameSplits == null) != (gameBests == null)) {
+            LOG.error("Run time columns do not match its segments");
+            return new Run();
+         }
+         run.setContent(segments, splits, bests, gameSplits, gameBests);
+         return run;
+      }
+      
+      /**
+       * Reads every segment of the run, one at a time.
+       */
+      private void readSegments() throws XMLStreamException {
+         while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if (!xml.getLocalName().equals("segment")) {
+               skip();
+               continue;
+            }
+            if (segments.size() == MAX_SEGMENTS) {
+               throw new XMLStreamException("too many segments");
+            }
+            segments.add(readSegment(segments.size()));
+         }
+      }
+      
+      /**
+       * Reads a segment, keeping aside the times of legacy runs.
+       */
+      private Segment readSegment(int index) throws XMLStreamException {
+         if (index == legacySplits.size()) {
+            legacySplits.resize(index * 2);
+            legacyBests.resize(index * 2);
+         }
+         Segment segment = new Segment();
+         while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (xml.getLocalName()) {
+               case "name": segment.setName(text(MAX_TEXT)); break;
+               case "icon": segment.setIcon(readIcon()); break;
+               case "time": legacySplits.set(index, readLegacyTime()); break;
+               case "best": legacyBests.set(index, readLegacyTime()); break;
+               default:     skip(); break;
+            }
+         }
+         return segment;
+      }
+      
+      /**
+       * Reads a time as serialized by XStream, that is an element holding
+       * the milliseconds of the time in its first child.
+       */
+      private long readLegacyTime() throws XMLStreamException {
+         long time = Run.UNDEFINED;
+         if (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            time = number();
+            while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+               skip();
+            }
+         }
+         return time;
+      }
+      
+      /**
+       * Reads an icon, returning null if its type is not supported or if it
+       * references anything but the icon of a previous segment.
+       */
+      private Icon readIcon() throws XMLStreamException {
+         String reference = xml.getAttributeValue(null, "reference");
+         String type = xml.getAttributeValue(null, "class");
+         if (reference != null) {
+            skip();
+            return resolve(reference);
+         }
+         if (IMAGE_ICON.equals(type)) {
+            return readImageIcon();
+         }
+         if (LAZY_ICON.equals(type)) {
+            return readLazyIcon();
+         }
+         LOG.warn("Skipping icon of unsupported type {}", type);
+         skip();
+         return null;
+      }
+      
+      /**
+       * Returns the icon of a previous segment referenced by XStream.
+       */
+      private Icon resolve(String reference) {
+         Matcher matcher = ICON_REFERENCE.matcher(reference);
+         if (matcher.matches()) {
+            int index = matcher.group(1) == null
+                      ? 0 : Integer.parseInt(matcher.group(1)) - 1;
+            if (index >= 0 && index < segments.size()) {
+               return segments.get(index).getIcon();
+            }
+         }
+         LOG.warn("Skipping icon with unsupported reference {}", reference);
+         return null;
+      }
+      
+      /**
+       * Reads an icon serialized by {@code ImageIcon.writeObject}, whose data
+       * is held by a child element named after its class.
+       */
+      private Icon readImageIcon() throws XMLStreamException {
+         Icon icon = null;
+         while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if (xml.getLocalName().equals(IMAGE_ICON)) {
+               icon = readImageIconData();
+            } else {
+               skip();
+            }
+         }
+         return icon;
+      }
+      
+      /**
+       * Reads the data written by {@code ImageIcon.writeObject}: the width
+       * of the icon, its height and then its pixels.
+       */
+      private Icon readImageIconData() throws XMLStreamException {
+         int width = -1;
+         int height = -1;
+         int[] pixels = null;
+         while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String name = xml.getLocalName();
+            if (name.equals("int") && width < 0) {
+               width = (int) number();
+            } else if (name.equals("int") && height < 0) {
+               height = (int) number();
+            } else if (name.equals("int-array") && width > 0 && height > 0
+                    && (long) width * height <= MAX_ICON_PIXELS) {
+               pixels = readPixels(width * height);
+            } else {
+               skip();
+            }
+         }
+         if (pixels == null) {
+            LOG.warn("Skipping icon without valid pixels");
+            return null;
+         }
+         BufferedImage image = new BufferedImage(
+                 width, height, BufferedImage.TYPE_INT_ARGB);
+         image.setRGB(0, 0, width, height, pixels, 0, width);
+         return new ImageIcon(image);
+      }
+      
+      /**
+       * Reads the given number of pixels, returning null if there are more
+       * or less of them.
+       */
+      private int[] readPixels(int count) throws XMLStreamException {
+         int[] pixels = new int[count];
+         int read = 0;
+         while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if (read == count) {
+               skip();
+               read++;
+            } else {
+               pixels[read++] = (int) number();
+            }
+         }
+         return read == count ? pixels : null;
+      }
+      
+      /**
+       * Reads an icon stored as an encoded image.
+       */
+      private Icon readLazyIcon() throws XMLStreamException {
+         byte[] data = null;
+         int width = 0;
+         int height = 0;
+         while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (xml.getLocalName()) {
+               case "data":
+                  data = Base64.getMimeDecoder().decode(text(MAX_ICON_DATA));
+                  break;
+               case "width":  width = (int) number(); break;
+               case "height": height = (int) number(); break;
+               default:       skip(); break;
+            }
+         }
+         if (data == null || width <= 0 || height <= 0) {
+            LOG.warn("Skipping icon without valid data");
+            return null;
+         }
+         return IconStore.intern(data, width, height);
+      }
+      
+      /**
+       * Reads a time column made of its values and its definedness bitmap.
+       */
+      private TimeColumn readColumn() throws XMLStreamException {
+         long[] values = new long[0];
+         long[] defined = new long[0];
+         while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (xml.getLocalName()) {
+               case "values":  values = readLongs(MAX_SEGMENTS); break;
+               case "defined": defined = readLongs(MAX_SEGMENTS >>> 6); break;
+               default:        skip(); break;
+            }
+         }
+         if (defined.length != (values.length + 63) >>> 6) {
+            throw new XMLStreamException("invalid time column");
+         }
+         TimeColumn column = new TimeColumn(values.length);
+         for (int i = 0; i < values.length; i++) {
+            if ((defined[i >>> 6] & (1L << i)) != 0L) {
+               column.set(i, values[i]);
+            }
+         }
+         return column;
+      }
+      
+      /**
+       * Reads a bounded sequence of numbers, one per child element.
+       */
+      private long[] readLongs(int max) throws XMLStreamException {
+         long[] values = new long[16];
+         int count = 0;
+         while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if (count == max) {
+               throw new XMLStreamException("too many values");
+            }
+            if (count == values.length) {
+               values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = number();
+         }
+         return Arrays.copyOf(values, count);
+      }
+      
+      /**
+       * Reads the text of the current element as a number.
+       */
+      private long number() throws XMLStreamException {
+         String text = text(32);
+         try {
+            return Long.parseLong(text.trim());
+         } catch (NumberFormatException x) {
+            throw new XMLStreamException("invalid number " + text);
+         }
+      }
+      
+      /**
+       * Reads the text of the current element.
+       *
+       * @see RunXml#text(XMLStreamReader, int)
+       */
+      private String text(int max) throws XMLStreamException {
+         return RunXml.text(xml, max);
+      }
+      
+      /**
+       * Skips the current element and all of its content.
+       */
+      private void skip() throws XMLStreamException {
+         RunXml.skip(xml);
+      }
+      
+      /**
+       * Indicates whether a column holds the times of given number of
+       * segments.
+       */
+      private static boolean fits(TimeColumn column, int count) {
+         return column != null && column.size() == count;
+      }
+   
+   }
+   
+   /**
+    * Writes a run with the indentation used by XStream.
+    */
+   private static final class Writer {
+      
+      private final XMLStreamWriter xml;
+      private final Map<Icon, Integer> icons = new IdentityHashMap<>();
+      private int segmentCount = 0;
+      private boolean started = false;
+      private int depth = 0;
+      
+      Writer(XMLStreamWriter xml) {
+         this.xml = xml;
+      }
+      
+      /**
+       * Writes the whole run.
+       */
+      void writeRun(Run run) throws XMLStreamException {
+         open("run");
+         element("game", run.getGame());
+         element("abbreviation", run.getAbbreviation());
+         element("category", run.getCategory());
+         element("platform", run.getPlatform());
+         element("region", run.getRegion());
+         element("emulated", String.valueOf(run.isEmulated()));
+         open("segments");
+         for (int i = 0; i < run.getSegmentCount(); i++) {
+            writeSegment(run.getSegment(i));
+         }
+         close();
+         writeColumn("splits", run.getSplitColumn());
+         writeColumn("bests", run.getBestColumn());
+         writeColumn("gameSplits", run.getGameSplitColumn());
+         writeColumn("gameBests", run.getGameBestColumn());
+         element("version", String.valueOf(Run.CURRENT_VERSION));
+         close();
+         xml.writeCharacters("\n");
+         xml.writeEndDocument();
+         xml.flush();
+      }
+      
+      /**
+       * Writes a segment, with its icon encoded as an image if it has any.
+       * Icons shared with a previous segment are written as a reference to
+       * the icon of that segment, as XStream does.
+       */
+      private void writeSegment(Segment segment) throws XMLStreamException {
+         Icon icon = segment.getIcon();
+         open("segment");
+         if (icon != null && icons.containsKey(icon)) {
+            indent();
+            xml.writeEmptyElement("icon");
+            xml.writeAttribute("class", LAZY_ICON);
+            int index = icons.get(icon);
+            xml.writeAttribute("reference", index == 0 
+                    ? "../../segment/icon" 
+                    : "../../segment[" + (index + 1) + "]/icon");
+         } else if (icon != null) {
+            writeIcon(icon);
+         }
+         element("name", segment.getName());
+         close();
+         segmentCount++;
+      }
+      
+      /**
+       * Writes an icon encoded as an image, remembering it for the segments
+       * sharing it.
+       */
+      private void writeIcon(Icon icon) throws XMLStreamException {
+         LazyIcon encoded;
+         try {
+            encoded = LazyIcon.encode(icon);
+         } catch (IOException x) {
+            LOG.warn("Cannot encode icon ({})", x.getMessage());
+            return;
+         }
+         if (encoded == null) {
+            return;
+         }
+         open("icon");
+         xml.writeAttribute("class", LAZY_ICON);
+         element("data", Base64.getEncoder().encodeToString(encoded.getData()));
+         element("width", String.valueOf(encoded.getIconWidth()));
+         element("height", String.valueOf(encoded.getIconHeight()));
+         close();
+         icons.put(icon, segmentCount);
+      }
+      
+      /**
+       * Writes a time column, if it is defined.
+       */
+      private void writeColumn(String name, TimeColumn column)
+              throws XMLStreamException {
+         if (column == null) {
+            return;
+         }
+         long[] defined = new long[(column.size() + 63) >>> 6];
+         open(name);
+         open("values");
+         for (int i = 0; i < column.size(); i++) {
+            long value = 0L;
+            if (column.isDefined(i)) {
+               value = column.get(i);
+               defined[i >>> 6] |= 1L << i;
+            }
+            element("long", String.valueOf(value));
+         }
+         close();
+         open("defined");
+         for (long word : defined) {
+            element("long", String.valueOf(word));
+         }
+         close();
+         close();
+      }
+      
+      /**
+       * Writes an element containing only the given text, if not null.
+       */
+      private void element(String name, String text)
+              throws XMLStreamException {
+         if (text == null) {
+            return;
+         }
+         indent();
+         xml.writeStartElement(name);
+         xml.writeCharacters(text);
+         xml.writeEndElement();
+      }
+      
+      /**
+       * Starts an element that will contain other elements.
+       */
+      private void open(String name) throws XMLStreamException {
+         indent();
+         xml.writeStartElement(name);
+         depth++;
+      }
+      
+      /**
+       * Ends the last element started with {@link #open}.
+       */
+      private void close() throws XMLStreamException {
+         depth--;
+         indent();
+         xml.writeEndElement();
+      }
+      
+      /**
+       * Starts a new line indented by the current depth.
+       */
+      private void indent() throws XMLStreamException {
+         if (started) {
+            xml.writeCharacters("\n");
+         }
+         started = true;
+         for (int i = 0; i < depth; i++) {
+            xml.writeCharacters("  ");
+         }
+      }
+   
+   }
+   
+}
@@ -0,0 +1,136 @@
+package com.jenmaarai.llanfair.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A named group of consecutive segments of a run, possibly divided into
+ * smaller sections. Sections only describe the structure of a run: attempts
+ * are still split segment by segment, and the times of a section are
+ * derived from the times of its segments by the run, without going through
+ * them.
+ *
+ * <p>Sections are immutable. The sections of a section must be sorted, must
+ * not overlap and must lie within it.
+ *
+ * @see Run#setSections(List)
+ */
+public final class Section implements Serializable {
+   
+   private static final Logger LOG = LoggerFactory.getLogger(Section.class);
+   
+   private final String name;
+   private final int first;
+   private final int end;
+   private final List<Section> children;
+   
+   /**
+    * Creates a section named {@code name} grouping the segments from
+    * {@code first} included to {@code end} excluded, divided into the given
+    * sections.
+    */
+   public Section(String name, int first, int end, List<Section> children) {
+      if (name == null || children == null) {
+         LOG.error("Null section name or children");
+         throw new IllegalArgumentException("null name or children");
+      }
+      if (first < 0 || end <= first) {
+         LOG.error("Invalid section range [{}, {}[", first, end);
+         throw new IllegalArgumentException("invalid section range");
+      }
+      check(children, first, end);
+      this.name = name;
+      this.first = first;
+      this.end = end;
+      this.children = Collections.unmodifiableList(new ArrayList<>(children));
+   }
+   
+   /**
+    * Creates a section grouping the segments from {@code first} included to
+    * {@code end} excluded, without any smaller section.
+    */
+   public Section(String name, int first, int end) {
+      this(name, first, end, Collections.<Section>emptyList());
+   }
+   
+   /**
+    * Returns the name of this section, cannot be null but can be empty.
+    */
+   public String getName() {
+      return name;
+   }
+   
+   /**
+    * Returns the index of the first segment of this section.
+    */
+   public int getFirst() {
+      return first;
+   }
+   
+   /**
+    * Returns the index of the last segment of this section, whose split
+    * ends the section.
+    */
+   public int getLast() {
+      return end - 1;
+   }
+   
+   /**
+    * Returns the number of segments in this section.
+    */
+   public int getSegmentCount() {
+      return end - first;
+   }
+   
+   /**
+    * Indicates whether the given segment belongs to this section.
+    */
+   public boolean contains(int segmentId) {
+      return segmentId >= first && segmentId < end;
+   }
+   
+   /**
+    * Returns the sections this section is divided into, can be empty.
+    */
+   public List<Section> getChildren() {
+      return children;
+   }
+   
+   @Override public String toString() {
+      return name + "[" + first + ", " + end + "[";
+   }
+   
+   /**
+    * Throws an exception if the given sections are not sorted, overlap or
+    * do not lie within the segments from {@code first} to {@code end}.
+    */
+   static void check(List<Section> sections, int first, int end) {
+      int previous = first;
+      for (Section section : sections) {
+         if (section == null || section.first < previous
+                 || section.end > end) {
+            LOG.error("Section {} out of [{}, {}[", section, previous, end);
+            throw new IllegalArgumentException("invalid nested section");
+         }
+         previous = section.end;
+      }
+   }
+   
+   /**
+    * Records, for every segment of the given sections, the innermost section
+    * it belongs to.
+    */
+   static void index(List<Section> sections, Section[] innermost) {
+      for (Section section : sections) {
+         for (int i = section.first; i < section.end; i++) {
+            innermost[i] = section;
+         }
+         index(section.children, innermost);
+      }
+   }
+   
+}
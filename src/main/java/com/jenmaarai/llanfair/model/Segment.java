@@ -8,6 +8,11 @@ public class Segment implements Serializable {
    
    private Icon icon = null;
    private String name = null;
+   
+   /**
+    * Times of the segment in runs older than version 20261018, which are now
+    * stored by the run itself. Only read when migrating such runs.
+    */
    private Time time = null;
    private Time best = null;
 
@@ -19,24 +24,22 @@ public class Segment implements Serializable {
    }
 
    /**
-    * Returns the name of this segment, cannot be null but can be empty.
+    * Returns the icon associated to this segment scaled to fit in a square of
+    * given size, such as the height of a row, can be null. The scaled image
+    * of an icon loaded from a run file is computed once and shared.
     */
-   public String getName() {
-      return name;
+   public Icon getIcon(int size) {
+      if (icon instanceof LazyIcon) {
+         return ((LazyIcon) icon).scaled(size);
+      }
+      return icon;
    }
 
    /**
-    * Returns the split time of this segment.
-    */
-   public Time getTime() {
-      return time;
-   }
-   
-   /**
-    * Returns the best saved segment time of this segment.
+    * Returns the name of this segment, cannot be null but can be empty.
     */
-   public Time getBest() {
-      return best;
+   public String getName() {
+      return name;
    }
 
    /**
@@ -52,19 +55,27 @@ public class Segment implements Serializable {
    public void setName(String name) {
       this.name = name;
    }
-
+   
    /**
-    * Sets the split time of this segment.
+    * Returns the split time read from a legacy run file, if any.
     */
-   public void setTime(Time time) {
-      this.time = time;
+   Time getLegacyTime() {
+      return time;
+   }
+   
+   /**
+    * Returns the best segment time read from a legacy run file, if any.
+    */
+   Time getLegacyBest() {
+      return best;
    }
    
    /**
-    * Sets the best saved segment time of this segment.
+    * Forgets the times read from a legacy run file once migrated.
     */
-   public void setBest(Time best) {
-      this.best = best;
+   void clearLegacyTimes() {
+      time = null;
+      best = null;
    }
    
 }
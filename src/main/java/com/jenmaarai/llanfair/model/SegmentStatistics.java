@@ -0,0 +1,115 @@
+package com.jenmaarai.llanfair.model;
+
+/**
+ * Accumulates the statistics of a single segment over many attempts.
+ * Mean and variance are maintained with Welford's algorithm so that each
+ * new segment time is ingested in constant time, and two accumulators can be
+ * merged exactly, which is what parallel rebuilds rely on. Accumulators are
+ * not thread-safe.
+ */
+final class SegmentStatistics {
+   
+   private final QuantileSketch sketch = new QuantileSketch();
+   private long samples = 0L;
+   private double mean = 0.0;
+   private double m2 = 0.0;
+   private long reached = 0L;
+   private long resets = 0L;
+   private long golds = 0L;
+   
+   /**
+    * Counts a new time, in nanoseconds, for this segment.
+    */
+   void addTime(long nanos) {
+      samples++;
+      double delta = nanos - mean;
+      mean += delta / samples;
+      m2 += delta * (nanos - mean);
+      sketch.add(nanos);
+   }
+   
+   /**
+    * Counts an attempt reaching this segment.
+    */
+   void addReached() {
+      reached++;
+   }
+   
+   /**
+    * Counts an attempt reset during this segment.
+    */
+   void addReset() {
+      resets++;
+   }
+   
+   /**
+    * Counts a time of this segment better than every previous one.
+    */
+   void addGold() {
+      golds++;
+   }
+   
+   /**
+    * Counts every attempt of the given accumulator in this one.
+    */
+   void merge(SegmentStatistics other) {
+      if (other.samples > 0L) {
+         long total = samples + other.samples;
+         double delta = other.mean - mean;
+         mean += delta * other.samples / total;
+         m2 += other.m2 + delta * delta * samples * other.samples / total;
+         samples = total;
+         sketch.merge(other.sketch);
+      }
+      reached += other.reached;
+      resets += other.resets;
+      golds += other.golds;
+   }
+   
+   /**
+    * Returns the number of times counted for this segment.
+    */
+   long getSamples() {
+      return samples;
+   }
+   
+   /**
+    * Returns the mean time of this segment, or {@link Run#UNDEFINED}.
+    */
+   long getMean() {
+      return samples == 0L ? Run.UNDEFINED : Math.round(mean);
+   }
+   
+   /**
+    * Returns the standard deviation of the times, or {@link Run#UNDEFINED}.
+    */
+   long getStandardDeviation() {
+      if (samples == 0L) {
+         return Run.UNDEFINED;
+      }
+      return Math.round(Math.sqrt(m2 / samples));
+   }
+   
+   /**
+    * Returns an estimate of the given quantile of the times.
+    */
+   long getQuantile(double quantile) {
+      return sketch.getQuantile(quantile);
+   }
+   
+   /**
+    * Returns the fraction of the times that were golds.
+    */
+   double getGoldRate() {
+      return samples == 0L ? 0.0 : (double) golds / samples;
+   }
+   
+   /**
+    * Returns the fraction of the attempts reaching this segment that were
+    * reset during it.
+    */
+   double getResetRate() {
+      return reached == 0L ? 0.0 : (double) resets / reached;
+   }
+   
+}
@@ -0,0 +1,383 @@
+package com.jenmaarai.llanfair.model;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Per-segment statistics computed over the attempts of an
+ * {@link AttemptHistory}: mean and standard deviation of the segment times,
+ * their quantiles, the rate at which each segment is golded and the rate at
+ * which attempts are reset during it. All times are in nanoseconds.
+ *
+ * <p>New attempts are ingested incrementally as they end, in constant time
+ * per segment, so the history never has to be scanned again during a run.
+ * The whole history is only scanned when rebuilding the statistics on
+ * startup, in parallel over chunks of attempts. A segment time is a gold if
+ * it is strictly lower than every previous time of that segment, so golds
+ * depend on the order of the attempts: rebuilds count them in a second pass
+ * once the minimum preceding each chunk is known.
+ *
+ * <p>Statistics are thread-safe; ingestion and rebuilds are meant to run on
+ * the same thread, usually the one writing the history.
+ */
+public class Statistics {
+   
+   private static final Logger LOG = LoggerFactory.getLogger(Statistics.class);
+   
+   /**
+    * Number of attempts scanned by each task of a rebuild.
+    */
+   private static final int CHUNK_SIZE = 4096;
+   
+   private Accumulator accumulator = new Accumulator();
+   private volatile long version = 0L;
+   
+   /**
+    * Returns a counter incremented whenever these statistics change, so that
+    * values derived from them can be cached.
+    */
+   public long getVersion() {
+      return version;
+   }
+   
+   /**
+    * Ingests a new attempt. Only the first {@code splitCount} split times,
+    * in nanoseconds since the start of the attempt, are considered, with
+    * {@link AttemptHistory#SKIPPED} for skipped segments.
+    */
+   public synchronized void ingest(
+           AttemptHistory.Outcome outcome, int segmentCount, long[] splits,
+           int splitCount) {
+      if (outcome == null || splits == null) {
+         LOG.error("Null attempt outcome or splits");
+         throw new IllegalArgumentException("null outcome or splits");
+      }
+      if (splitCount < 0 || splitCount > splits.length) {
+         LOG.error("Invalid split count {}", splitCount);
+         throw new IllegalArgumentException("invalid split count");
+      }
+      accumulator.add(outcome, segmentCount, splits, splitCount, true);
+      accumulator.latest = Arrays.copyOf(splits, splitCount);
+      version++;
+   }
+   
+   /**
+    * Replaces these statistics by those of every attempt in the history.
+    */
+   public void rebuild(AttemptHistory history) {
+      if (history == null) {
+         LOG.error("Null history");
+         throw new IllegalArgumentException("null history");
+      }
+      long started = System.nanoTime();
+      AttemptHistory.Snapshot snapshot = history.snapshot();
+      int chunks = (snapshot.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+      
+      Accumulator[] partials = IntStream.range(0, chunks).parallel()
+              .mapToObj((chunk) -> Accumulator.scan(snapshot, chunk))
+              .toArray(Accumulator[]::new);
+      long[][] preceding = new long[chunks][];
+      long[] records = new long[0];
+      for (int chunk = 0; chunk < chunks; chunk++) {
+         preceding[chunk] = records;
+         records = Accumulator.min(records, partials[chunk].records);
+      }
+      IntStream.range(0, chunks).parallel().forEach((chunk) ->
+              partials[chunk].countGolds(snapshot, chunk, preceding[chunk]));
+      
+      Accumulator result = new Accumulator();
+      for (Accumulator partial : partials) {
+         result.merge(partial);
+      }
+      synchronized (this) {
+         accumulator = result;
+         version++;
+      }
+      LOG.info(
+              "Statistics of {} attempts rebuilt in {}ms", snapshot.size(),
+              (System.nanoTime() - started) / 1000000L);
+   }
+   
+   /**
+    * Returns the number of attempts ingested.
+    */
+   public synchronized long getAttemptCount() {
+      return accumulator.attempts;
+   }
+   
+   /**
+    * Returns the number of attempts that reached the end of the run.
+    */
+   public synchronized long getCompletedCount() {
+      return accumulator.completed;
+   }
+   
+   /**
+    * Returns the number of segments for which statistics are available.
+    */
+   public synchronized int getSegmentCount() {
+      return accumulator.size;
+   }
+   
+   /**
+    * Returns the number of times recorded for a segment.
+    */
+   public synchronized long getSampleCount(int segmentId) {
+      SegmentStatistics segment = accumulator.get(segmentId);
+      return segment == null ? 0L : segment.getSamples();
+   }
+   
+   /**
+    * Returns the mean time of a segment, or {@link Run#UNDEFINED}.
+    */
+   public synchronized long getMean(int segmentId) {
+      SegmentStatistics segment = accumulator.get(segmentId);
+      return segment == null ? Run.UNDEFINED : segment.getMean();
+   }
+   
+   /**
+    * Returns the standard deviation of the times of a segment, or
+    * {@link Run#UNDEFINED}.
+    */
+   public synchronized long getStandardDeviation(int segmentId) {
+      SegmentStatistics segment = accumulator.get(segmentId);
+      return segment == null ? Run.UNDEFINED : segment.getStandardDeviation();
+   }
+   
+   /**
+    * Returns an estimate of the median time of a segment, or
+    * {@link Run#UNDEFINED}.
+    */
+   public long getMedian(int segmentId) {
+      return getQuantile(segmentId, 0.5);
+   }
+   
+   /**
+    * Returns an estimate of a quantile, between 0 and 1, of the times of a
+    * segment, or {@link Run#UNDEFINED}.
+    */
+   public synchronized long getQuantile(int segmentId, double quantile) {
+      if (quantile < 0.0 || quantile > 1.0) {
+         LOG.error("Invalid quantile {}", quantile);
+         throw new IllegalArgumentException("invalid quantile");
+      }
+      SegmentStatistics segment = accumulator.get(segmentId);
+      return segment == null ? Run.UNDEFINED : segment.getQuantile(quantile);
+   }
+   
+   /**
+    * Returns the fraction of the times of a segment that were golds.
+    */
+   public synchronized double getGoldRate(int segmentId) {
+      SegmentStatistics segment = accumulator.get(segmentId);
+      return segment == null ? 0.0 : segment.getGoldRate();
+   }
+   
+   /**
+    * Returns the fraction of the attempts reaching a segment that were reset
+    * during this segment.
+    */
+   public synchronized double getResetRate(int segmentId) {
+      SegmentStatistics segment = accumulator.get(segmentId);
+      return segment == null ? 0.0 : segment.getResetRate();
+   }
+   
+   /**
+    * Returns the split time of a segment during the latest attempt, or 
+    * {@link Run#UNDEFINED} if it was skipped or not reached.
+    */
+   public synchronized long getLatestSplit(int segmentId) {
+      long[] latest = accumulator.latest;
+      if (segmentId < 0 || segmentId >= latest.length 
+              || latest[segmentId] == AttemptHistory.SKIPPED) {
+         return Run.UNDEFINED;
+      }
+      return latest[segmentId];
+   }
+   
+   /**
+    * Statistics of a sequence of attempts, mergeable with the statistics of
+    * the following attempts.
+    */
+   private static final class Accumulator {
+      
+      private SegmentStatistics[] segments = new SegmentStatistics[0];
+      private long[] records = new long[0];
+      private long[] latest = new long[0];
+      private int size = 0;
+      private long attempts = 0L;
+      private long completed = 0L;
+      
+      /**
+       * Returns the statistics of the attempts of a chunk, without golds.
+       */
+      static Accumulator scan(AttemptHistory.Snapshot snapshot, int chunk) {
+         Accumulator accumulator = new Accumulator();
+         long[] splits = new long[16];
+         int end = Math.min(snapshot.size(), (chunk + 1) * CHUNK_SIZE);
+         for (int attempt = chunk * CHUNK_SIZE; attempt < end; attempt++) {
+            splits = read(snapshot, attempt, splits);
+            accumulator.add(
+                    snapshot.getOutcome(attempt),
+                    snapshot.getSegmentCount(attempt), splits,
+                    snapshot.getSplitCount(attempt), false);
+            if (attempt == end - 1) {
+               accumulator.latest = Arrays.copyOf(
+                       splits, snapshot.getSplitCount(attempt));
+            }
+         }
+         return accumulator;
+      }
+      
+      /**
+       * Returns the element-wise minimum of two arrays of records, an
+       * absent record being higher than any other.
+       */
+      static long[] min(long[] left, long[] right) {
+         long[] min = Arrays.copyOf(left, Math.max(left.length, right.length));
+         Arrays.fill(min, left.length, min.length, Long.MAX_VALUE);
+         for (int i = 0; i < right.length; i++) {
+            min[i] = Math.min(min[i], right[i]);
+         }
+         return min;
+      }
+      
+      /**
+       * Returns the statistics of a segment, or null if none is available.
+       */
+      SegmentStatistics get(int segmentId) {
+         if (segmentId < 0) {
+            LOG.error("Invalid segment id '{}'", segmentId);
+            throw new IllegalArgumentException("invalid segment id");
+         }
+         return segmentId < size ? segments[segmentId] : null;
+      }
+      
+      /**
+       * Counts an attempt, and its golds if asked to.
+       */
+      void add(
+              AttemptHistory.Outcome outcome, int segmentCount, long[] splits,
+              int splitCount, boolean countGolds) {
+         ensureSize(Math.max(segmentCount, splitCount));
+         attempts++;
+         if (outcome == AttemptHistory.Outcome.COMPLETED) {
+            completed++;
+         }
+         int last = Math.min(splitCount, segmentCount - 1);
+         for (int i = 0; i <= last; i++) {
+            segments[i].addReached();
+         }
+         if (outcome == AttemptHistory.Outcome.RESET
+                 && splitCount < segmentCount) {
+            segments[splitCount].addReset();
+         }
+         for (int i = 0; i < splitCount; i++) {
+            long time = segmentTime(splits, i);
+            if (time == Run.UNDEFINED) {
+               continue;
+            }
+            segments[i].addTime(time);
+            if (time < records[i]) {
+               if (countGolds && records[i] != Long.MAX_VALUE) {
+                  segments[i].addGold();
+               }
+               records[i] = time;
+            }
+         }
+      }
+      
+      /**
+       * Counts the golds of the attempts of a chunk, given the best times
+       * of each segment before the chunk.
+       */
+      void countGolds(
+              AttemptHistory.Snapshot snapshot, int chunk, long[] preceding) {
+         long[] best = new long[Math.max(preceding.length, size)];
+         Arrays.fill(best, Long.MAX_VALUE);
+         System.arraycopy(preceding, 0, best, 0, preceding.length);
+         long[] splits = new long[16];
+         int end = Math.min(snapshot.size(), (chunk + 1) * CHUNK_SIZE);
+         for (int attempt = chunk * CHUNK_SIZE; attempt < end; attempt++) {
+            splits = read(snapshot, attempt, splits);
+            for (int i = 0; i < snapshot.getSplitCount(attempt); i++) {
+               long time = segmentTime(splits, i);
+               if (time != Run.UNDEFINED && time < best[i]) {
+                  if (best[i] != Long.MAX_VALUE) {
+                     segments[i].addGold();
+                  }
+                  best[i] = time;
+               }
+            }
+         }
+      }
+      
+      /**
+       * Counts every attempt of the given accumulator, which must follow
+       * the attempts of this one, in this accumulator.
+       */
+      void merge(Accumulator other) {
+         ensureSize(other.size);
+         for (int i = 0; i < other.size; i++) {
+            segments[i].merge(other.segments[i]);
+         }
+         records = min(records, other.records);
+         if (other.attempts > 0L) {
+            latest = other.latest;
+         }
+         attempts += other.attempts;
+         completed += other.completed;
+      }
+      
+      /**
+       * Makes sure that this accumulator has statistics for given number of
+       * segments.
+       */
+      private void ensureSize(int segmentCount) {
+         if (segmentCount <= size) {
+            return;
+         }
+         segments = Arrays.copyOf(segments, segmentCount);
+         records = Arrays.copyOf(records, segmentCount);
+         Arrays.fill(records, size, segmentCount, Long.MAX_VALUE);
+         for (int i = size; i < segmentCount; i++) {
+            segments[i] = new SegmentStatistics();
+         }
+         size = segmentCount;
+      }
+      
+      /**
+       * Reads the splits of an attempt in the given buffer, or in a larger
+       * one if it cannot hold them, and returns the buffer used.
+       */
+      private static long[] read(
+              AttemptHistory.Snapshot snapshot, int attempt, long[] buffer) {
+         int splitCount = snapshot.getSplitCount(attempt);
+         long[] splits = buffer;
+         if (splitCount > splits.length) {
+            splits = new long[Math.max(splitCount, splits.length * 2)];
+         }
+         for (int i = 0; i < splitCount; i++) {
+            splits[i] = snapshot.getSplit(attempt, i);
+         }
+         return splits;
+      }
+      
+      /**
+       * Returns the time of a segment given the splits of an attempt, or
+       * {@link Run#UNDEFINED} if it or the previous segment was skipped.
+       */
+      private static long segmentTime(long[] splits, int segmentId) {
+         long previous = segmentId == 0 ? 0L : splits[segmentId - 1];
+         if (splits[segmentId] == AttemptHistory.SKIPPED
+                 || previous == AttemptHistory.SKIPPED) {
+            return Run.UNDEFINED;
+         }
+         return splits[segmentId] - previous;
+      }
+   
+   }
+   
+}
@@ -0,0 +1,95 @@
+package com.jenmaarai.llanfair.model;
+
+import com.jenmaarai.sidekick.time.Time;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A column of times in milliseconds, one per segment of a run, stored in a
+ * primitive array. Undefined times are tracked in a separate bitmap so that
+ * every value of the array remains usable as is.
+ */
+final class TimeColumn implements Serializable {
+   
+   private long[] values;
+   private long[] defined;
+   
+   /**
+    * Creates a column of undefined times.
+    */
+   TimeColumn(int size) {
+      values  = new long[size];
+      defined = new long[(size + 63) >>> 6];
+   }
+   
+   /**
+    * Returns the number of times in this column.
+    */
+   int size() {
+      return values.length;
+   }
+   
+   /**
+    * Indicates whether the time at the given index is defined.
+    */
+   boolean isDefined(int index) {
+      return (defined[index >>> 6] & (1L << index)) != 0L;
+   }
+   
+   /**
+    * Returns the time at the given index, or {@link Run#UNDEFINED}.
+    */
+   long get(int index) {
+      return isDefined(index) ? values[index] : Run.UNDEFINED;
+   }
+   
+   /**
+    * Returns the time at the given index, or null if undefined.
+    */
+   Time getTime(int index) {
+      return isDefined(index) ? new Time(values[index]) : null;
+   }
+   
+   /**
+    * Sets the time at the given index, {@link Run#UNDEFINED} to undefine it.
+    */
+   void set(int index, long value) {
+      if (value == Run.UNDEFINED) {
+         defined[index >>> 6] &= ~(1L << index);
+         values[index] = 0L;
+      } else {
+         defined[index >>> 6] |= 1L << index;
+         values[index] = value;
+      }
+   }
+   
+   /**
+    * Sets the time at the given index, null to undefine it.
+    */
+   void setTime(int index, Time time) {
+      set(index, time == null ? Run.UNDEFINED : time.getMilliseconds());
+   }
+   
+   /**
+    * Returns a copy of this column.
+    */
+   TimeColumn copy() {
+      TimeColumn copy = new TimeColumn(0);
+      copy.values  = values.clone();
+      copy.defined = defined.clone();
+      return copy;
+   }
+   
+   /**
+    * Changes the number of times in this column. New times are undefined.
+    */
+   void resize(int size) {
+      int previous = values.length;
+      values  = Arrays.copyOf(values, size);
+      defined = Arrays.copyOf(defined, (size + 63) >>> 6);
+      for (int i = size; i < Math.min(previous, defined.length << 6); i++) {
+         defined[i >>> 6] &= ~(1L << i);
+      }
+   }
+   
+}
@@ -1,5 +1,6 @@
 package com.jenmaarai.llanfair.view;
 
+import com.jenmaarai.llanfair.conf.Property;
 import com.jenmaarai.llanfair.conf.PropertyListener;
 import com.jenmaarai.llanfair.control.Splitter;
 import javax.swing.JPanel;
@@ -13,6 +14,12 @@ public abstract class Block extends    JPanel
    private static final Logger LOG = LoggerFactory.getLogger(Block.class);
    
    protected Splitter splitter = null;
+   
+   private final PropertyListener subscriber = (property) -> {
+      propertyUpdated(property);
+      revalidate();
+      repaint();
+   };
 
    public Block(Splitter splitter) {
       super();
@@ -23,4 +30,36 @@ public abstract class Block extends    JPanel
       this.splitter = splitter;
    }
    
+   /**
+    * Callback invoked on the event dispatch thread at every frame while this
+    * block is registered with the {@link RenderScheduler}.
+    */
+   public void render() {}
+   
+   /**
+    * Subscribes this block to the given properties. The block is only 
+    * notified of changes to these properties, and is revalidated and 
+    * repainted once it has handled them.
+    */
+   protected final void subscribe(Property... properties) {
+      Property.addPropertyListener(subscriber, properties);
+   }
+   
+   /**
+    * Subscribes this block to every property of the given group.
+    * 
+    * @see Property#getGroup()
+    */
+   protected final void subscribe(String group) {
+      Property.addPropertyListener(subscriber, group);
+   }
+   
+   /**
+    * Unsubscribes this block from every property, for instance before it is
+    * discarded.
+    */
+   protected final void unsubscribe() {
+      Property.removePropertyListener(subscriber);
+   }
+   
 }
@@ -1,9 +1,10 @@
 package com.jenmaarai.llanfair.view;
 
 import com.jenmaarai.llanfair.conf.Property;
-import com.jenmaarai.llanfair.conf.PropertyListener;
+import com.jenmaarai.llanfair.control.SplitEvent;
 import com.jenmaarai.llanfair.control.SplitListener;
 import com.jenmaarai.llanfair.control.Splitter;
+import com.jenmaarai.llanfair.model.RunChangeEvent;
 import com.jenmaarai.sidekick.swing.GBC;
 import java.awt.Container;
 import java.awt.GridBagLayout;
@@ -16,8 +17,7 @@ import javax.swing.JPanel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class BlockView extends    JPanel 
-                       implements SplitListener, PropertyListener {
+public class BlockView extends JPanel implements SplitListener {
    
    private static final Logger LOG = LoggerFactory.getLogger(BlockView.class);
    
@@ -79,6 +79,10 @@ public class BlockView extends    JPanel
       }
    }
 
+   @Override public void onEvent(SplitEvent event) {
+      instances.stream().forEach((block) -> block.onEvent(event));
+   }
+   
    @Override public void onStart() {
       instances.stream().forEach((block) -> block.onStart());
    }
@@ -87,6 +91,22 @@ public class BlockView extends    JPanel
       instances.stream().forEach((block) -> block.onSplit());
    }
    
+   @Override public void onSkip() {
+      instances.stream().forEach((block) -> block.onSkip());
+   }
+   
+   @Override public void onUndo() {
+      instances.stream().forEach((block) -> block.onUndo());
+   }
+   
+   @Override public void onPause() {
+      instances.stream().forEach((block) -> block.onPause());
+   }
+   
+   @Override public void onResume() {
+      instances.stream().forEach((block) -> block.onResume());
+   }
+   
    @Override public void onDone() {
       instances.stream().forEach((block) -> block.onDone());
    }
@@ -95,12 +115,8 @@ public class BlockView extends    JPanel
       instances.stream().forEach((block) -> block.onReset());
    }
    
-   @Override public void onRunUpdate() {
-      instances.stream().forEach((block) -> block.onRunUpdate());
-   }
-
-   @Override public void propertyUpdated(Property property) {
-      instances.stream().forEach((block) -> block.propertyUpdated(property));
+   @Override public void onRunUpdate(RunChangeEvent change) {
+      instances.stream().forEach((block) -> block.onRunUpdate(change));
    }
 
 }
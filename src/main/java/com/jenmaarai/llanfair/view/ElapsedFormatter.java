@@ -0,0 +1,164 @@
+package com.jenmaarai.llanfair.view;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Formats durations given in nanoseconds into a reusable character buffer.
+ * Unlike {@code Time.toString()}, formatting does not allocate anything once
+ * the formatter is created, which makes it suitable to be invoked every frame.
+ * The buffer is overwritten by each call and must be consumed before the next
+ * one, typically through {@link TimeLabel#setText(char[], int)}.
+ * 
+ * <p>Durations are written as {@code H:MM:SS.fff}, with {@code precision}
+ * decimal digits which are truncated, not rounded. In compact mode, the hours
+ * and minutes are omitted when they are zero, as are the leading zeros of the
+ * first field written.
+ */
+public class ElapsedFormatter {
+   
+   private static final Logger LOG 
+           = LoggerFactory.getLogger(ElapsedFormatter.class);
+   
+   /**
+    * Maximum number of decimal digits that can be displayed.
+    */
+   public static final int MAX_PRECISION = 3;
+   
+   private static final long[] NANOS_PER_DIGIT = {
+      1_000_000_000L, 100_000_000L, 10_000_000L, 1_000_000L
+   };
+   
+   private static final long NANOS_PER_SECOND = 1_000_000_000L;
+   
+   // Long.MIN_VALUE with 3 digits fits in "-2562047:47:16.854"
+   private final char[] buffer = new char[24];
+   private int precision;
+   private boolean compact;
+   
+   /**
+    * Creates a compact formatter displaying hundredths of seconds.
+    */
+   public ElapsedFormatter() {
+      this(2, true);
+   }
+   
+   /**
+    * Creates a formatter with the given number of decimal digits.
+    */
+   public ElapsedFormatter(int precision, boolean compact) {
+      setPrecision(precision);
+      setCompact(compact);
+   }
+
+   /**
+    * Returns the number of decimal digits displayed by this formatter.
+    */
+   public int getPrecision() {
+      return precision;
+   }
+
+   /**
+    * Sets the number of decimal digits, between 0 and {@link #MAX_PRECISION}.
+    */
+   public final void setPrecision(int precision) {
+      if (precision < 0 || precision > MAX_PRECISION) {
+         LOG.error("Invalid precision {}", precision);
+         throw new IllegalArgumentException("invalid precision");
+      }
+      this.precision = precision;
+   }
+
+   /**
+    * Indicates whether zero hours and minutes are omitted.
+    */
+   public boolean isCompact() {
+      return compact;
+   }
+
+   /**
+    * Defines whether zero hours and minutes are omitted.
+    */
+   public final void setCompact(boolean compact) {
+      this.compact = compact;
+   }
+   
+   /**
+    * Returns the buffer written by this formatter.
+    * Only the characters before the length returned by the last call to 
+    * {@link #format(long)} are meaningful.
+    */
+   public char[] getBuffer() {
+      return buffer;
+   }
+   
+   /**
+    * Formats a duration in the buffer and returns the number of characters
+    * written. Negative durations are prefixed by a minus sign.
+    */
+   public int format(long nanos) {
+      boolean negative = nanos < 0L;
+      // Working on negative values avoids overflowing on Long.MIN_VALUE
+      long value = negative ? nanos : -nanos;
+      long seconds = -(value / NANOS_PER_SECOND);
+      long decimal = -(value % NANOS_PER_SECOND) / NANOS_PER_DIGIT[precision];
+      
+      long hours   = seconds / 3600L;
+      int  minutes = (int) (seconds / 60L % 60L);
+      int  secs    = (int) (seconds % 60L);
+      
+      int length = 0;
+      if (negative) {
+         buffer[length++] = '-';
+      }
+      if (!compact || hours > 0L) {
+         length = writeLong(hours, length);
+         buffer[length++] = ':';
+         length = writeTwoDigits(minutes, length);
+         buffer[length++] = ':';
+         length = writeTwoDigits(secs, length);
+      } else if (minutes > 0) {
+         length = writeLong(minutes, length);
+         buffer[length++] = ':';
+         length = writeTwoDigits(secs, length);
+      } else {
+         length = writeLong(secs, length);
+      }
+      if (precision > 0) {
+         buffer[length++] = '.';
+         for (int i = precision - 1; i >= 0; i--) {
+            buffer[length + i] = (char) ('0' + decimal % 10L);
+            decimal /= 10L;
+         }
+         length += precision;
+      }
+      return length;
+   }
+   
+   /**
+    * Writes a positive number at the given offset without leading zeros and
+    * returns the offset following the last digit.
+    */
+   private int writeLong(long number, int offset) {
+      int digits = 1;
+      for (long n = number; n >= 10L; n /= 10L) {
+         digits++;
+      }
+      for (int i = offset + digits - 1; i >= offset; i--) {
+         buffer[i] = (char) ('0' + number % 10L);
+         number /= 10L;
+      }
+      return offset + digits;
+   }
+   
+   /**
+    * Writes a number between 0 and 99 on two digits at the given offset and
+    * returns the offset following the last digit.
+    */
+   private int writeTwoDigits(int number, int offset) {
+      buffer[offset]     = (char) ('0' + number / 10);
+      buffer[offset + 1] = (char) ('0' + number % 10);
+      return offset + 2;
+   }
+   
+}
@@ -0,0 +1,152 @@
+package com.jenmaarai.llanfair.view;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pre-rendered glyphs of the characters used to display times. 
+ * Each glyph is rasterized once in a shared image, so that displaying a time
+ * only requires copying small image regions instead of laying out and 
+ * antialiasing text every frame. Digits all share the width of the widest
+ * digit so that the position of each character does not move as time goes.
+ * 
+ * <p>An atlas is immutable and only valid for the font, color and graphics
+ * configuration it has been built with.
+ */
+public class GlyphAtlas {
+   
+   private static final Logger LOG = LoggerFactory.getLogger(GlyphAtlas.class);
+   
+   /**
+    * Characters supported by the atlas.
+    */
+   public static final String GLYPHS = "0123456789:.-";
+   
+   private final Font font;
+   private final Color color;
+   private final BufferedImage image;
+   private final int[] index = new int[128];
+   private final int[] offsets = new int[GLYPHS.length()];
+   private final int[] widths  = new int[GLYPHS.length()];
+   private final int height;
+   private final int ascent;
+   
+   /**
+    * Rasterizes the supported glyphs in the given font and color.
+    * If the configuration is not null, the atlas image will be compatible
+    * with it to speed up the drawing.
+    */
+   public GlyphAtlas(Font font, Color color, GraphicsConfiguration config) {
+      if (font == null || color == null) {
+         LOG.error("Null font or color");
+         throw new IllegalArgumentException("null font or color");
+      }
+      this.font  = font;
+      this.color = color;
+      
+      BufferedImage scratch 
+            = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+      Graphics2D sg = scratch.createGraphics();
+      FontMetrics metrics = sg.getFontMetrics(font);
+      sg.dispose();
+      
+      int digitWidth = 0;
+      for (char c = '0'; c <= '9'; c++) {
+         digitWidth = Math.max(digitWidth, metrics.charWidth(c));
+      }
+      Arrays.fill(index, -1);
+      int total = 0;
+      for (int i = 0; i < GLYPHS.length(); i++) {
+         char c = GLYPHS.charAt(i);
+         index[c]   = i;
+         offsets[i] = total;
+         widths[i]  = Character.isDigit(c) ? digitWidth : metrics.charWidth(c);
+         total += widths[i];
+      }
+      ascent = metrics.getAscent();
+      height = metrics.getHeight();
+      
+      image = (config == null)
+            ? new BufferedImage(total, height, BufferedImage.TYPE_INT_ARGB)
+            : config.createCompatibleImage(
+                    total, height, Transparency.TRANSLUCENT);
+      Graphics2D g2 = image.createGraphics();
+      g2.setRenderingHint(
+              RenderingHints.KEY_TEXT_ANTIALIASING, 
+              Boolean.getBoolean("sidekick.aatext") 
+                    ? RenderingHints.VALUE_TEXT_ANTIALIAS_ON
+                    : RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+      g2.setFont(font);
+      g2.setColor(color);
+      for (int i = 0; i < GLYPHS.length(); i++) {
+         char c = GLYPHS.charAt(i);
+         int x = offsets[i] + (widths[i] - metrics.charWidth(c)) / 2;
+         g2.setClip(offsets[i], 0, widths[i], height);
+         g2.drawString(String.valueOf(c), x, ascent);
+      }
+      g2.dispose();
+   }
+
+   /**
+    * Returns the font of the glyphs.
+    */
+   public Font getFont() {
+      return font;
+   }
+
+   /**
+    * Returns the color of the glyphs.
+    */
+   public Color getColor() {
+      return color;
+   }
+
+   /**
+    * Returns the height of a glyph cell.
+    */
+   public int getHeight() {
+      return height;
+   }
+   
+   /**
+    * Returns true if every character of the buffer has a glyph.
+    */
+   public boolean supports(char[] chars, int length) {
+      for (int i = 0; i < length; i++) {
+         char c = chars[i];
+         if (c >= index.length || index[c] < 0) {
+            return false;
+         }
+      }
+      return true;
+   }
+   
+   /**
+    * Returns the width of the cell of a supported character.
+    */
+   public int getWidth(char c) {
+      return widths[index[c]];
+   }
+   
+   /**
+    * Draws the cell of a supported character with its top-left corner at
+    * the given coordinates.
+    */
+   public void draw(Graphics g, char c, int x, int y) {
+      int i = index[c];
+      int sx = offsets[i];
+      int w  = widths[i];
+      g.drawImage(image, x, y, x + w, y + height, sx, 0, sx + w, height, null);
+   }
+   
+}
@@ -0,0 +1,191 @@
+package com.jenmaarai.llanfair.view;
+
+import com.jenmaarai.llanfair.conf.Property;
+import java.awt.Frame;
+import java.awt.GraphicsEnvironment;
+import java.awt.HeadlessException;
+import java.awt.Toolkit;
+import java.awt.Window;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.SwingUtilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Application-wide scheduler driving the animation of blocks. Blocks that need
+ * to be refreshed continuously, like the timer, register themselves with the
+ * scheduler which will then invoke {@link Block#render()} once per frame.
+ * 
+ * <p>Every frame is rendered in a single pass on the event dispatch thread and
+ * a new pass is never queued while the previous one is still pending, so a
+ * busy EDT results in dropped frames instead of a growing backlog. The frame
+ * rate follows the {@code renderFps} property or the refresh rate of the
+ * display, and drops to {@link #HIDDEN_FPS} while no registered block is
+ * visible on screen. A single daemon thread is used for the whole application
+ * and is idle while nothing is registered.
+ */
+public class RenderScheduler {
+   
+   private static final Logger LOG 
+           = LoggerFactory.getLogger(RenderScheduler.class);
+   
+   /**
+    * Frame rate used when the display refresh rate cannot be determined.
+    */
+   public static final int DEFAULT_FPS = 60;
+   
+   /**
+    * Frame rate used while no registered block is visible.
+    */
+   public static final int HIDDEN_FPS = 4;
+   
+   private static final RenderScheduler INSTANCE = new RenderScheduler();
+   
+   private final ScheduledExecutorService executor;
+   private final AtomicBoolean pending = new AtomicBoolean(false);
+   private final Runnable frameTask = this::frame;
+   
+   private volatile Block[] blocks = new Block[0];
+   private ScheduledFuture<?> ticker = null;
+   private long generation = 0L;
+   private volatile long period;
+   private volatile boolean hidden = false;
+   
+   private RenderScheduler() {
+      executor = Executors.newSingleThreadScheduledExecutor((task) -> {
+         Thread thread = new Thread(task, "llanfair-render");
+         thread.setDaemon(true);
+         return thread;
+      });
+   }
+   
+   /**
+    * Returns the render scheduler of the application.
+    */
+   public static RenderScheduler get() {
+      return INSTANCE;
+   }
+   
+   /**
+    * Registers a block to be rendered at every frame. 
+    * Registering a block twice has no effect.
+    */
+   public synchronized void register(Block block) {
+      if (block == null) {
+         LOG.error("Null block");
+         throw new IllegalArgumentException("null block");
+      }
+      if (Arrays.asList(blocks).contains(block)) {
+         return;
+      }
+      Block[] array = Arrays.copyOf(blocks, blocks.length + 1);
+      array[blocks.length] = block;
+      blocks = array;
+      if (ticker == null) {
+         period = TimeUnit.SECONDS.toNanos(1L) / getTargetFps();
+         schedule(++generation, 0L);
+      }
+   }
+   
+   /**
+    * Unregisters a block, which will not be rendered anymore.
+    * The scheduler goes idle when no blocks remain registered.
+    */
+   public synchronized void unregister(Block block) {
+      blocks = Arrays.stream(blocks)
+                     .filter((b) -> b != block).toArray(Block[]::new);
+      if (blocks.length == 0 && ticker != null) {
+         ticker.cancel(false);
+         ticker = null;
+         generation++;
+      }
+   }
+   
+   /**
+    * Returns the frame rate to aim for while blocks are visible.
+    * Uses the {@code renderFps} property if it is positive, or the refresh
+    * rate of the default screen otherwise.
+    */
+   private int getTargetFps() {
+      int fps = Property.renderFps.get();
+      if (fps > 0) {
+         return fps;
+      }
+      try {
+         int refresh = GraphicsEnvironment.getLocalGraphicsEnvironment()
+               .getDefaultScreenDevice().getDisplayMode().getRefreshRate();
+         return refresh > 0 ? refresh : DEFAULT_FPS;
+      } catch (HeadlessException x) {
+         return DEFAULT_FPS;
+      }
+   }
+   
+   /**
+    * Queues a frame on the event dispatch thread unless the previous one is
+    * still pending, then schedules the next tick. A tick already running
+    * when the scheduler went idle belongs to an older generation and stops
+    * there, so that registering again never leaves two chains of ticks.
+    */
+   private void tick(long generation) {
+      synchronized (this) {
+         if (generation != this.generation) {
+            return;
+         }
+         long delay = hidden 
+                    ? TimeUnit.SECONDS.toNanos(1L) / HIDDEN_FPS : period;
+         schedule(generation, delay);
+      }
+      if (pending.compareAndSet(false, true)) {
+         SwingUtilities.invokeLater(frameTask);
+      }
+   }
+   
+   /**
+    * Schedules a tick of the given generation after the given delay, in
+    * nanoseconds. Must be invoked while holding the lock of the scheduler.
+    */
+   private void schedule(long generation, long delay) {
+      ticker = executor.schedule(
+              () -> tick(generation), delay, TimeUnit.NANOSECONDS);
+   }
+   
+   /**
+    * Renders every registered block in a single pass.
+    * Must be invoked on the event dispatch thread.
+    */
+   private void frame() {
+      pending.set(false);
+      boolean visible = false;
+      for (Block block : blocks) {
+         if (isVisible(block)) {
+            block.render();
+            visible = true;
+         }
+      }
+      if (visible) {
+         Toolkit.getDefaultToolkit().sync();
+      }
+      hidden = !visible;
+   }
+   
+   /**
+    * Returns true if the block is currently showing on screen, that is if
+    * it is displayed and its frame is not minimized.
+    */
+   private static boolean isVisible(Block block) {
+      if (!block.isShowing()) {
+         return false;
+      }
+      Window window = SwingUtilities.getWindowAncestor(block);
+      if (window instanceof Frame) {
+         return (((Frame) window).getExtendedState() & Frame.ICONIFIED) == 0;
+      }
+      return true;
+   }
+   
+}
@@ -0,0 +1,252 @@
+package com.jenmaarai.llanfair.view;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Insets;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import javax.swing.JComponent;
+import javax.swing.SwingConstants;
+
+/**
+ * A lightweight label displaying text from a character buffer.
+ * This label is meant to display text changing every frame, such as the
+ * output of an {@link ElapsedFormatter}, without creating any {@code String}.
+ * The characters are copied so the source buffer can be reused immediately.
+ * 
+ * <p>Text made only of characters supported by a {@link GlyphAtlas} is drawn
+ * from pre-rendered glyphs and only the cells that changed since the previous
+ * text are repainted. Other text is drawn normally. The atlas is rebuilt
+ * whenever the font or foreground color of the label changes. 
+ * 
+ * <p>The preferred width of the label only grows, so that the layout does not
+ * jitter as the displayed text changes.
+ */
+public class TimeLabel extends JComponent {
+   
+   private char[] chars = new char[32];
+   private int length = 0;
+   private char[] previous = new char[32];
+   private int previousLength = 0;
+   
+   private final int alignment;
+   private final Rectangle clip = new Rectangle();
+   private int preferredWidth = 0;
+   
+   private GlyphAtlas atlas = null;
+   private GraphicsConfiguration atlasConfig = null;
+   
+   /**
+    * Creates an empty label with the given horizontal alignment, one of
+    * {@code SwingConstants.LEFT}, {@code CENTER} or {@code RIGHT}.
+    */
+   public TimeLabel(int alignment) {
+      this.alignment = alignment;
+   }
+   
+   /**
+    * Displays the given text.
+    * Prefer {@link #setText(char[], int)} for text updated every frame.
+    */
+   public void setText(String text) {
+      int size = text == null ? 0 : text.length();
+      swapBuffers(size);
+      if (size > 0) {
+         text.getChars(0, size, chars, 0);
+      }
+      length = size;
+      textChanged();
+   }
+   
+   /**
+    * Displays the first {@code count} characters of the given buffer.
+    * Does nothing if they are already displayed.
+    */
+   public void setText(char[] buffer, int count) {
+      if (count == length && equals(buffer, count)) {
+         return;
+      }
+      swapBuffers(count);
+      System.arraycopy(buffer, 0, chars, 0, count);
+      length = count;
+      textChanged();
+   }
+   
+   @Override public void setFont(Font font) {
+      atlas = null;
+      super.setFont(font);
+   }
+   
+   @Override public void setForeground(Color color) {
+      atlas = null;
+      super.setForeground(color);
+   }
+   
+   @Override public Dimension getPreferredSize() {
+      if (isPreferredSizeSet() || getFont() == null) {
+         return super.getPreferredSize();
+      }
+      FontMetrics metrics = getFontMetrics(getFont());
+      Insets insets = getInsets();
+      preferredWidth = Math.max(preferredWidth, textWidth(chars, length));
+      return new Dimension(
+              preferredWidth + insets.left + insets.right, 
+              metrics.getHeight() + insets.top + insets.bottom);
+   }
+   
+   @Override protected void paintComponent(Graphics g) {
+      g.getClipBounds(clip);
+      if (isOpaque()) {
+         g.setColor(getBackground());
+         g.fillRect(clip.x, clip.y, clip.width, clip.height);
+      }
+      Insets insets = getInsets();
+      GlyphAtlas glyphs = getAtlas();
+      if (glyphs != null && glyphs.supports(chars, length)) {
+         int x = originX(textWidth(chars, length));
+         for (int i = 0; i < length; i++) {
+            int width = glyphs.getWidth(chars[i]);
+            if (x + width > clip.x && x < clip.x + clip.width) {
+               glyphs.draw(g, chars[i], x, insets.top);
+            }
+            x += width;
+         }
+         return;
+      }
+      Graphics2D g2 = (Graphics2D) g;
+      if (Boolean.getBoolean("sidekick.aatext")) {
+         g2.setRenderingHint(
+                 RenderingHints.KEY_TEXT_ANTIALIASING, 
+                 RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+      }
+      g2.setFont(getFont());
+      g2.setColor(getForeground());
+      FontMetrics metrics = g2.getFontMetrics();
+      int x = originX(metrics.charsWidth(chars, 0, length));
+      g2.drawChars(chars, 0, length, x, insets.top + metrics.getAscent());
+   }
+   
+   /**
+    * Returns the glyph atlas for the current font and color, building it if
+    * needed. Returns null if the label has no font yet.
+    */
+   private GlyphAtlas getAtlas() {
+      Font font = getFont();
+      if (font == null || getForeground() == null) {
+         return null;
+      }
+      GraphicsConfiguration config = getGraphicsConfiguration();
+      if (atlas == null || atlasConfig != config) {
+         atlas = new GlyphAtlas(font, getForeground(), config);
+         atlasConfig = config;
+      }
+      return atlas;
+   }
+   
+   /**
+    * Returns the width of the text when drawn by this label.
+    */
+   private int textWidth(char[] text, int count) {
+      GlyphAtlas glyphs = getAtlas();
+      if (glyphs != null && glyphs.supports(text, count)) {
+         int width = 0;
+         for (int i = 0; i < count; i++) {
+            width += glyphs.getWidth(text[i]);
+         }
+         return width;
+      }
+      return getFontMetrics(getFont()).charsWidth(text, 0, count);
+   }
+   
+   /**
+    * Returns the abscissa of the first character of a text of given width.
+    */
+   private int originX(int width) {
+      Insets insets = getInsets();
+      if (alignment == SwingConstants.RIGHT) {
+         return getWidth() - insets.right - width;
+      } else if (alignment == SwingConstants.CENTER) {
+         return (getWidth() - width) / 2;
+      }
+      return insets.left;
+   }
+   
+   /**
+    * Returns true if the displayed characters equal those of the buffer.
+    */
+   private boolean equals(char[] buffer, int count) {
+      for (int i = 0; i < count; i++) {
+         if (chars[i] != buffer[i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+   
+   /**
+    * Keeps the displayed text as the previous one and makes sure that the
+    * buffer for the new text can hold the given number of characters.
+    */
+   private void swapBuffers(int size) {
+      char[] swap = previous;
+      previous = chars;
+      previousLength = length;
+      chars = swap;
+      if (size > chars.length) {
+         chars = new char[Math.max(size, chars.length * 2)];
+      }
+   }
+   
+   /**
+    * Schedules the repaint of the cells that changed, and a layout if the
+    * text no longer fits. Repaints the whole label if the text is not drawn
+    * from the glyph atlas.
+    */
+   private void textChanged() {
+      if (getFont() == null) {
+         repaint();
+         return;
+      }
+      int width = textWidth(chars, length);
+      if (width > preferredWidth) {
+         revalidate();
+      }
+      GlyphAtlas glyphs = getAtlas();
+      if (glyphs == null 
+              || !glyphs.supports(chars, length) 
+              || !glyphs.supports(previous, previousLength)) {
+         repaint();
+         return;
+      }
+      int x = originX(width);
+      int p = originX(textWidth(previous, previousLength));
+      int min = Integer.MAX_VALUE;
+      int max = Integer.MIN_VALUE;
+      for (int i = 0; i < Math.max(length, previousLength); i++) {
+         int w = i < length ? glyphs.getWidth(chars[i]) : 0;
+         int v = i < previousLength ? glyphs.getWidth(previous[i]) : 0;
+         if (i >= length || i >= previousLength 
+                 || x != p || chars[i] != previous[i]) {
+            if (w > 0) {
+               min = Math.min(min, x);
+               max = Math.max(max, x + w);
+            }
+            if (v > 0) {
+               min = Math.min(min, p);
+               max = Math.max(max, p + v);
+            }
+         }
+         x += w;
+         p += v;
+      }
+      if (min < max) {
+         repaint(min, getInsets().top, max - min, glyphs.getHeight());
+      }
+   }
+   
+}
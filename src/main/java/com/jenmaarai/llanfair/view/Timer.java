@@ -1,64 +1,156 @@
 package com.jenmaarai.llanfair.view;
 
 import com.jenmaarai.llanfair.conf.Property;
+import com.jenmaarai.llanfair.control.Metrics;
+import com.jenmaarai.llanfair.control.SplitEvent;
 import com.jenmaarai.llanfair.control.Splitter;
-import com.jenmaarai.sidekick.swing.RichLabel;
+import com.jenmaarai.llanfair.model.RunChangeEvent;
 import java.awt.Color;
 import java.awt.Font;
-import java.awt.Toolkit;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import javax.swing.JLabel;
+import java.awt.Graphics;
+import java.awt.event.MouseEvent;
+import javax.swing.SwingConstants;
 import net.miginfocom.swing.MigLayout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class Timer extends Block {
 
-   private ScheduledExecutorService callback;
-   private RichLabel mainTimer;
+   private static final Logger LOG = LoggerFactory.getLogger(Timer.class);
+   
+   private final ElapsedFormatter formatter = new ElapsedFormatter();
+   private TimeLabel mainTimer;
+   private long pendingEvent = -1L;
+   private SplitEvent event = null;
    
    public Timer(Splitter splitter) {
       super(splitter);
       build();
       propertyUpdated(null);
+      subscribe("timer");
    }
    
    private void build() {
-      mainTimer = new RichLabel("--", JLabel.RIGHT);
+      mainTimer = new TimeLabel(SwingConstants.RIGHT);
+      mainTimer.setText("--");
       
       setLayout(new MigLayout());
       add(mainTimer, "right, pushx");
+      setToolTipText("");
+   }
+   
+   /**
+    * Displays the latencies of the input pipeline.
+    */
+   @Override public String getToolTipText(MouseEvent event) {
+      return "<html>" + Metrics.HOOK_TO_SPLIT 
+           + "<br>" + Metrics.SPLIT_TO_PIXELS + "</html>";
+   }
+   
+   /**
+    * Paints the block and measures the latency of the last splitter event if
+    * it has not been displayed yet.
+    */
+   @Override public void paint(Graphics g) {
+      super.paint(g);
+      if (pendingEvent >= 0L) {
+         long now = splitter.getClock().nanos();
+         Metrics.SPLIT_TO_PIXELS.record(now - pendingEvent);
+         pendingEvent = -1L;
+      }
+   }
+   
+   /**
+    * Requests a repaint to reflect the event being handled. If several
+    * events are handled before the next paint, the latency is measured from
+    * the oldest one.
+    */
+   private void eventOccured() {
+      if (pendingEvent < 0L) {
+         pendingEvent = event.getTimestamp();
+      }
+      repaint();
+   }
+   
+   /**
+    * Displays the elapsed time of the attempt in the given state at the
+    * given timestamp of the splitter clock.
+    */
+   private void display(Splitter.Snapshot snapshot, long now) {
+      if (snapshot.getState() != Splitter.State.READY) {
+         int length = formatter.format(snapshot.getElapsedNanos(now));
+         mainTimer.setText(formatter.getBuffer(), length);
+      }
+   }
+   
+   /**
+    * Keeps the event so that its timestamp and state are used rather than
+    * those of the splitter, which may have changed since.
+    */
+   @Override public void onEvent(SplitEvent event) {
+      this.event = event;
+      event.getType().dispatch(this, event);
    }
 
    @Override public void onStart() {
       mainTimer.setForeground(Color.BLUE);
-      callback = Executors.newSingleThreadScheduledExecutor();
-      Runnable task = () -> {
-         mainTimer.setText("" + splitter.getElapsed());
-         Toolkit.getDefaultToolkit().sync();
-      };
-      callback.scheduleAtFixedRate(task, 0L, 10L, TimeUnit.MILLISECONDS);
+      RenderScheduler.get().register(this);
+      eventOccured();
+   }
+   
+   @Override public void render() {
+      display(splitter.getSnapshot(), splitter.getClock().nanos());
    }
 
    @Override public void onSplit() {
+      eventOccured();
+   }
+
+   @Override public void onSkip() {
+      eventOccured();
+   }
+
+   @Override public void onUndo() {
+      mainTimer.setForeground(Color.BLUE);
+      RenderScheduler.get().register(this);
+      eventOccured();
+   }
+
+   @Override public void onPause() {
+      display(event.getSnapshot(), event.getTimestamp());
+      RenderScheduler.get().unregister(this);
+      mainTimer.setForeground(Color.GRAY);
+      eventOccured();
+   }
+
+   @Override public void onResume() {
+      mainTimer.setForeground(Color.BLUE);
+      RenderScheduler.get().register(this);
+      eventOccured();
    }
 
    @Override public void onDone() {
+      display(event.getSnapshot(), event.getTimestamp());
+      RenderScheduler.get().unregister(this);
       mainTimer.setForeground(Color.BLACK);
-      callback.shutdownNow();
+      eventOccured();
    }
 
    @Override public void onReset() {
+      RenderScheduler.get().unregister(this);
       mainTimer.setForeground(Color.BLACK);
       mainTimer.setText("Ready");
-      callback.shutdownNow();
+      eventOccured();
    }
 
-   @Override public void onRunUpdate() {
+   @Override public void onRunUpdate(RunChangeEvent change) {
    }
    
+   /**
+    * Applies the timer properties, only the given one if not null.
+    */
    @Override public final void propertyUpdated(Property property) {
-      if (property == null || property.name().startsWith("timer")) {
+      if (property == null || property == Property.timerColorBackground) {
          Color background = Property.timerColorBackground.get();
          if (background == null) {
             setOpaque(false);
@@ -66,9 +158,19 @@ public class Timer extends Block {
             setOpaque(true);
             setBackground(background);
          }
+      }
+      if (property == null || property == Property.timerMainFont) {
          Font font = Property.timerMainFont.get();
          mainTimer.setFont(font);
       }
+      int precision = Property.timerPrecision.get();
+      if (precision < 0 || precision > ElapsedFormatter.MAX_PRECISION) {
+         LOG.warn("Invalid timer precision {}, clamped", precision);
+         precision = Math.max(
+                 0, Math.min(precision, ElapsedFormatter.MAX_PRECISION));
+      }
+      formatter.setPrecision(precision);
+      formatter.setCompact(Property.timerCompact.get());
    }
    
 }
@@ -3,6 +3,7 @@ package com.jenmaarai.llanfair.view;
 import com.jenmaarai.llanfair.conf.Property;
 import com.jenmaarai.llanfair.control.Splitter;
 import com.jenmaarai.llanfair.model.Run;
+import com.jenmaarai.llanfair.model.RunChangeEvent;
 import com.jenmaarai.sidekick.swing.RichLabel;
 import java.awt.Font;
 import net.miginfocom.swing.MigLayout;
@@ -17,6 +18,7 @@ public class Title extends Block {
       super(splitter);
       build();
       propertyUpdated(null);
+      subscribe("title");
    }
    
    private void build() {
@@ -34,11 +36,28 @@ public class Title extends Block {
 
    @Override public void onSplit() {}
 
+   @Override public void onSkip() {}
+
+   @Override public void onUndo() {}
+
+   @Override public void onPause() {}
+
+   @Override public void onResume() {}
+
    @Override public void onDone() {}
 
    @Override public void onReset() {}
 
-   @Override public void onRunUpdate() {
+   /**
+    * Updates the labels unless only the times of the run have changed.
+    */
+   @Override public void onRunUpdate(RunChangeEvent change) {
+      if (change != null && !change.hasChanged(RunChangeEvent.Field.GAME)
+              && !change.hasChanged(RunChangeEvent.Field.CATEGORY)
+              && !change.hasChanged(RunChangeEvent.Field.PLATFORM)
+              && !change.hasChanged(RunChangeEvent.Field.REGION)) {
+         return;
+      }
       Run run = splitter.getRun();
       game.setText(run.getGame());
       category.setText(run.getCategory());
@@ -56,12 +75,10 @@ public class Title extends Block {
    }
    
    @Override public final void propertyUpdated(Property property) {
-      if (property == null || property.name().startsWith("title")) {
-         Font font = Property.titleFont.get();
-         game.setFont(font);
-         category.setFont(font);
-         details.setFont(font);
-      }
+      Font font = Property.titleFont.get();
+      game.setFont(font);
+      category.setFont(font);
+      details.setFont(font);
    }
    
 }
@@ -0,0 +1,219 @@
+package com.jenmaarai.llanfair.control;
+
+import com.jenmaarai.llanfair.model.Runs;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import javax.swing.SwingUtilities;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+
+public class AttemptJournalTest {
+   
+   private static final long SECOND = 1_000_000_000L;
+   private static final int HEADER_SIZE = 8;
+   private static final int RECORD_SIZE = 25;
+   
+   @Rule public TemporaryFolder folder = new TemporaryFolder();
+   
+   private Path path;
+   private Splitter splitter;
+   
+   @Before public void setUp() {
+      path = folder.getRoot().toPath().resolve("run.journal");
+      splitter = new Splitter(new ManualClock());
+      splitter.setRun(Runs.create(3));
+   }
+   
+   @Test public void replaysCompletedAndSavedAttempts() throws IOException {
+      AttemptJournal journal = open();
+      try {
+         // A personal best, then a reset keeping a best segment
+         run(SECOND, 2);
+         splitter.split(4 * SECOND);
+         reset(5 * SECOND);
+         splitter.start(10 * SECOND);
+         splitter.split(10 * SECOND + SECOND / 5);
+         reset(11 * SECOND);
+         // An attempt interrupted by a crash
+         run(20 * SECOND, 1);
+      } finally {
+         journal.close();
+      }
+      
+      Splitter recovered = new Splitter(new ManualClock());
+      recovered.setRun(Runs.create(3));
+      try (AttemptJournal reopened = reopen()) {
+         assertEquals(2, reopened.replay(recovered));
+      }
+      assertEquals(1000L, recovered.getRun().getSplitMillis(0));
+      assertEquals(2000L, recovered.getRun().getSplitMillis(1));
+      assertEquals(3000L, recovered.getRun().getSplitMillis(2));
+      assertEquals(200L, recovered.getRun().getSegmentBestMillis(0));
+   }
+   
+   @Test public void replaysAttemptOverButNotReset() throws IOException {
+      AttemptJournal journal = open();
+      try {
+         run(SECOND, 2);
+         splitter.split(4 * SECOND);
+      } finally {
+         journal.close();
+      }
+      try (AttemptJournal reopened = reopen()) {
+         assertEquals(1, reopened.replay(splitter));
+      }
+      assertEquals(3000L, splitter.getRun().getSplitMillis(2));
+   }
+   
+   @Test public void discardsTornRecords() throws IOException {
+      AttemptJournal journal = open();
+      try {
+         run(SECOND, 2);
+         splitter.split(4 * SECOND);
+         reset(5 * SECOND);
+      } finally {
+         journal.close();
+      }
+      long complete = Files.size(path);
+      // Half a record, as left by a crash while appending
+      try (FileChannel channel = FileChannel.open(
+              path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+         channel.write(ByteBuffer.allocate(RECORD_SIZE / 2));
+      }
+      try (AttemptJournal reopened = reopen()) {
+         assertEquals(1, reopened.replay(new Splitter(new ManualClock())));
+      }
+      assertEquals(complete, Files.size(path));
+   }
+   
+   @Test public void discardsRecordsAfterCorruption() throws IOException {
+      AttemptJournal journal = open();
+      try {
+         run(SECOND, 2);
+         splitter.split(4 * SECOND);
+         reset(5 * SECOND);
+      } finally {
+         journal.close();
+      }
+      // Corrupts the last split, dropping it along with the reset
+      long done = HEADER_SIZE + 3 * RECORD_SIZE;
+      try (FileChannel channel = FileChannel.open(
+              path, StandardOpenOption.WRITE)) {
+         channel.write(ByteBuffer.wrap(new byte[] {0x7F}), done + 12);
+      }
+      
+      Splitter recovered = new Splitter(new ManualClock());
+      recovered.setRun(Runs.create(3));
+      try (AttemptJournal reopened = reopen()) {
+         assertEquals(0, reopened.replay(recovered));
+      }
+      assertEquals(done, Files.size(path));
+      assertEquals(6000L, recovered.getRun().getSplitMillis(2));
+   }
+   
+   @Test public void checkpointKeepsAttemptInProgress() throws IOException {
+      try (AttemptJournal journal = open()) {
+         run(SECOND, 2);
+         splitter.split(4 * SECOND);
+         reset(5 * SECOND);
+         run(10 * SECOND, 1);
+         
+         journal.checkpoint(Long.MAX_VALUE);
+         assertEquals(HEADER_SIZE + 2 * RECORD_SIZE, Files.size(path));
+         splitter.split(12 * SECOND);
+         splitter.split(13 * SECOND);
+      }
+      
+      Splitter recovered = new Splitter(new ManualClock());
+      recovered.setRun(Runs.create(3));
+      try (AttemptJournal reopened = reopen()) {
+         assertEquals(1, reopened.replay(recovered));
+      }
+      assertEquals(HEADER_SIZE + 4 * RECORD_SIZE, Files.size(path));
+      assertEquals(3000L, recovered.getRun().getSplitMillis(2));
+   }
+   
+   @Test public void keepsJournalingWhenCheckpointFails() throws IOException {
+      // A directory in the way of the temporary file of the compaction
+      Path blocker = path.resolveSibling(path.getFileName() + ".tmp");
+      Files.createDirectory(blocker);
+      Files.createFile(blocker.resolve("file"));
+      try (AttemptJournal journal = open()) {
+         run(SECOND, 2);
+         splitter.split(4 * SECOND);
+         reset(5 * SECOND);
+         
+         journal.checkpoint(Long.MAX_VALUE);
+         run(10 * SECOND, 2);
+         splitter.split(12 * SECOND + SECOND / 2);
+      }
+      
+      Splitter recovered = new Splitter(new ManualClock());
+      recovered.setRun(Runs.create(3));
+      try (AttemptJournal reopened = reopen()) {
+         assertEquals(2, reopened.replay(recovered));
+      }
+      assertEquals(HEADER_SIZE + 9 * RECORD_SIZE, Files.size(path));
+      assertEquals(2500L, recovered.getRun().getSplitMillis(2));
+   }
+   
+   @Test(expected = IOException.class)
+   public void rejectsOtherFiles() throws IOException {
+      Files.write(path, "not a journal".getBytes("UTF-8"));
+      open().close();
+   }
+   
+   /**
+    * Opens the journal and subscribes it to the splitter, writing as soon
+    * as events are published.
+    */
+   private AttemptJournal open() throws IOException {
+      AttemptJournal journal = AttemptJournal.open(path, Runnable::run);
+      splitter.getEventBus().subscribe(
+              "journal", journal, Runnable::run, 16,
+              SplitEventBus.Overflow.GROW);
+      return journal;
+   }
+   
+   /**
+    * Opens the journal again, as done on startup, without subscribing it.
+    */
+   private AttemptJournal reopen() throws IOException {
+      return AttemptJournal.open(path, Runnable::run);
+   }
+   
+   /**
+    * Resets the splitter at the given timestamp, saving the attempt, and
+    * waits for the attempt to be saved in the run. The run update is then
+    * published from the event dispatch thread, and so are the events held
+    * until then.
+    */
+   private void reset(long timestamp) {
+      splitter.reset(true, timestamp);
+      try {
+         SwingUtilities.invokeAndWait(() -> {});
+      } catch (InterruptedException | InvocationTargetException x) {
+         throw new AssertionError(x);
+      }
+   }
+   
+   /**
+    * Starts an attempt at the given timestamp and splits the given number
+    * of times, a second apart.
+    */
+   private void run(long start, int splits) {
+      splitter.start(start);
+      for (int i = 1; i <= splits; i++) {
+         splitter.split(start + i * SECOND);
+      }
+   }
+   
+}
@@ -0,0 +1,59 @@
+package com.jenmaarai.llanfair.control;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ClockTest {
+   
+   private static final long ORIGIN = 1500000000000L;
+   
+   @Test public void followsMonotonicCounter() {
+      ManualClock source = new ManualClock(ORIGIN);
+      Clock clock = new Clock(source);
+      source.advance(2L, TimeUnit.SECONDS);
+      assertEquals(ORIGIN + 2000L, clock.now());
+      assertEquals(0L, clock.checkDrift());
+      
+      // Small adjustments are tolerated without moving the anchor
+      source.jump(Clock.JUMP_THRESHOLD);
+      assertEquals(Clock.JUMP_THRESHOLD, clock.checkDrift());
+      assertEquals(ORIGIN + 2000L, clock.now());
+      assertEquals(Clock.JUMP_THRESHOLD, clock.checkDrift());
+   }
+   
+   @Test public void anchorsAgainAfterJump() {
+      ManualClock source = new ManualClock(ORIGIN);
+      Clock clock = new Clock(source);
+      source.advance(1L, TimeUnit.SECONDS);
+      long before = source.nanos();
+      
+      source.jump(-3600000L);
+      assertEquals(ORIGIN + 1000L, clock.now());
+      assertEquals(-3600000L, clock.checkDrift());
+      assertEquals(ORIGIN + 1000L - 3600000L, clock.now());
+      assertEquals(0L, clock.checkDrift());
+      
+      // Elapsed times only follow the counter
+      source.advance(500L, TimeUnit.MILLISECONDS);
+      assertEquals(
+              TimeUnit.MILLISECONDS.toNanos(500L), clock.nanos() - before);
+      assertEquals(ORIGIN + 1500L - 3600000L, clock.now());
+      assertEquals(
+              ORIGIN + 1000L - 3600000L, clock.toEpochMillis(before));
+   }
+   
+   @Test public void recordsDrift() {
+      ManualClock source = new ManualClock(ORIGIN);
+      Clock clock = new Clock(source);
+      long count = Metrics.CLOCK_DRIFT.getCount();
+      source.jump(5000L);
+      clock.checkDrift();
+      assertTrue(Metrics.CLOCK_DRIFT.getCount() > count);
+      assertTrue(
+              Metrics.CLOCK_DRIFT.getMax()
+              >= TimeUnit.MILLISECONDS.toNanos(5000L));
+   }
+   
+}
@@ -0,0 +1,74 @@
+package com.jenmaarai.llanfair.control;
+
+import com.jenmaarai.llanfair.conf.Property;
+import java.lang.reflect.InvocationTargetException;
+import javax.swing.SwingUtilities;
+import org.jnativehook.NativeInputEvent;
+import org.jnativehook.keyboard.NativeKeyEvent;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class HotkeyTableTest {
+   
+   private static final int CTRL = NativeInputEvent.CTRL_L_MASK;
+   private static final int SHIFT = NativeInputEvent.SHIFT_L_MASK;
+   
+   private HotkeyTable table;
+   
+   @Before public void setUp() throws Exception {
+      Property.initialize();
+      table = new HotkeyTable();
+      dispatch();
+   }
+   
+   @Test public void matchesModifierMask() throws Exception {
+      Property.keySplit.set(new Input(NativeKeyEvent.VC_S, CTRL));
+      Property.keyReset.set(new Input(NativeKeyEvent.VC_S, CTRL, SHIFT));
+      dispatch();
+      assertEquals(Action.SPLIT, table.lookup(NativeKeyEvent.VC_S, CTRL));
+      assertEquals(
+              Action.RESET, table.lookup(NativeKeyEvent.VC_S, CTRL | SHIFT));
+      assertNull(table.lookup(NativeKeyEvent.VC_S, 0));
+      assertNull(table.lookup(NativeKeyEvent.VC_S, SHIFT));
+   }
+   
+   @Test public void followsRebinding() throws Exception {
+      assertEquals(Action.SPLIT, table.lookup(NativeKeyEvent.VC_SPACE, 0));
+      assertNull(table.lookup(NativeKeyEvent.VC_P, 0));
+      
+      Property.keySplit.set(new Input(NativeKeyEvent.VC_S));
+      Property.keyPause.set(new Input(NativeKeyEvent.VC_P));
+      dispatch();
+      assertNull(table.lookup(NativeKeyEvent.VC_SPACE, 0));
+      assertEquals(Action.SPLIT, table.lookup(NativeKeyEvent.VC_S, 0));
+      assertEquals(Action.PAUSE, table.lookup(NativeKeyEvent.VC_P, 0));
+      
+      // Undefined inputs are never bound
+      Property.keyPause.set(new Input(0));
+      dispatch();
+      assertNull(table.lookup(NativeKeyEvent.VC_P, 0));
+      assertNull(table.lookup(0, 0));
+   }
+   
+   @Test public void keepsFirstActionOfSharedInput() throws Exception {
+      Property.keySkip.set(new Input(NativeKeyEvent.VC_SPACE));
+      Property.keyUndo.set(new Input(NativeKeyEvent.VC_SPACE));
+      dispatch();
+      assertEquals(Action.SPLIT, table.lookup(NativeKeyEvent.VC_SPACE, 0));
+      Property.keySplit.set(new Input(NativeKeyEvent.VC_S));
+      dispatch();
+      assertEquals(
+              Action.UNDO_SPLIT, table.lookup(NativeKeyEvent.VC_SPACE, 0));
+   }
+   
+   /**
+    * Waits for the changes of the properties to be dispatched.
+    */
+   private static void dispatch()
+           throws InterruptedException, InvocationTargetException {
+      SwingUtilities.invokeAndWait(() -> {});
+   }
+   
+}
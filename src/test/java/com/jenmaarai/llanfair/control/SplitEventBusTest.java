@@ -0,0 +1,95 @@
+package com.jenmaarai.llanfair.control;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+public class SplitEventBusTest {
+   
+   /**
+    * An executor running its tasks only when asked to.
+    */
+   private static final class ManualExecutor implements Executor {
+      
+      private final List<Runnable> tasks = new ArrayList<>();
+      
+      @Override public void execute(Runnable task) {
+         tasks.add(task);
+      }
+      
+      void runAll() {
+         while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+         }
+      }
+   
+   }
+   
+   @Test public void deliversEventsInSequenceOrder() {
+      Splitter splitter = new Splitter(new ManualClock());
+      List<SplitEvent> published = new ArrayList<>();
+      splitter.getEventBus().subscribe(
+              "capture", published::add, Runnable::run, 16,
+              SplitEventBus.Overflow.GROW);
+      splitter.start(0L);
+      splitter.pause(10L);
+      splitter.resume(20L);
+      assertEquals(3, published.size());
+      
+      SplitEventBus bus = new SplitEventBus(splitter.getClock(), 2L);
+      List<SplitEvent> delivered = new ArrayList<>();
+      bus.subscribe(
+              "ordered", delivered::add, Runnable::run, 16,
+              SplitEventBus.Overflow.GROW);
+      bus.publish(published.get(2));
+      bus.publish(published.get(1));
+      assertEquals(0, delivered.size());
+      bus.publish(published.get(0));
+      assertEquals(published, delivered);
+   }
+   
+   @Test public void growsInsteadOfDropping() {
+      Splitter splitter = new Splitter(new ManualClock());
+      ManualExecutor executor = new ManualExecutor();
+      List<SplitEvent> delivered = new ArrayList<>();
+      SplitEventBus.Subscription subscription
+              = splitter.getEventBus().subscribe(
+                      "slow", delivered::add, executor, 2,
+                      SplitEventBus.Overflow.GROW);
+      splitter.start(0L);
+      for (int i = 1; i <= 100; i++) {
+         splitter.pause(i * 10L);
+         splitter.resume(i * 10L + 5L);
+      }
+      executor.runAll();
+      
+      assertEquals(201, delivered.size());
+      assertEquals(0L, subscription.getDropped());
+      for (int i = 1; i < delivered.size(); i++) {
+         assertEquals(
+                 delivered.get(i - 1).getSequence() + 1L,
+                 delivered.get(i).getSequence());
+      }
+   }
+   
+   @Test public void dropsOldestWhenBounded() {
+      Splitter splitter = new Splitter(new ManualClock());
+      ManualExecutor executor = new ManualExecutor();
+      List<SplitEvent> delivered = new ArrayList<>();
+      SplitEventBus.Subscription subscription
+              = splitter.getEventBus().subscribe(
+                      "hints", delivered::add, executor, 2,
+                      SplitEventBus.Overflow.DROP_OLDEST);
+      splitter.start(0L);
+      splitter.pause(10L);
+      splitter.resume(20L);
+      executor.runAll();
+      
+      assertEquals(2, delivered.size());
+      assertEquals(1L, subscription.getDropped());
+      assertEquals(SplitEvent.Type.PAUSE, delivered.get(0).getType());
+   }
+   
+}
@@ -0,0 +1,144 @@
+package com.jenmaarai.llanfair.control;
+
+import com.jenmaarai.llanfair.model.Runs;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SplitterTest {
+   
+   @Test public void keepsRealStartAcrossPauses() {
+      Splitter splitter = new Splitter(new ManualClock());
+      splitter.start(100L);
+      splitter.pause(200L);
+      splitter.resume(500L);
+      
+      Splitter.Snapshot snapshot = splitter.getSnapshot();
+      assertEquals(100L, snapshot.getStarted());
+      assertEquals(400L, snapshot.getStart());
+      assertEquals(200L, snapshot.getElapsedNanos(600L));
+      
+      splitter.reset(false, 700L);
+      splitter.start(1000L);
+      assertEquals(1000L, splitter.getSnapshot().getStarted());
+   }
+   
+   @Test public void losesNoSplitUnderContention() throws InterruptedException {
+      int segments = 2000;
+      ManualClock clock = new ManualClock();
+      Splitter splitter = new Splitter(clock);
+      splitter.setRun(Runs.create(segments));
+      List<SplitEvent> delivered = new ArrayList<>();
+      splitter.getEventBus().subscribe(
+              "capture", delivered::add, Runnable::run, 16,
+              SplitEventBus.Overflow.GROW);
+      splitter.start(0L);
+      
+      Map<SplitEvent.Type, AtomicInteger> done
+              = new EnumMap<>(SplitEvent.Type.class);
+      for (SplitEvent.Type type : SplitEvent.Type.values()) {
+         done.put(type, new AtomicInteger());
+      }
+      CountDownLatch ready = new CountDownLatch(1);
+      Thread[] threads = new Thread[4];
+      for (int t = 0; t < threads.length; t++) {
+         Random random = new Random(t);
+         threads[t] = new Thread(() -> {
+            try {
+               ready.await();
+            } catch (InterruptedException x) {
+               return;
+            }
+            while (splitter.getState() != Splitter.State.OVER) {
+               clock.advance(1L);
+               hammer(splitter, clock.nanos(), random.nextInt(8), done);
+            }
+         });
+         threads[t].start();
+      }
+      ready.countDown();
+      for (Thread thread : threads) {
+         thread.join();
+      }
+      
+      // Every split or skip that returned normally is in the attempt
+      Splitter.Snapshot snapshot = splitter.getSnapshot();
+      int splits = done.get(SplitEvent.Type.SPLIT).get();
+      int skips = done.get(SplitEvent.Type.SKIP).get();
+      assertEquals(segments, splits + skips);
+      assertEquals(segments, snapshot.getCurrentSegment());
+      int skipped = 0;
+      long previous = 0L;
+      for (int i = 0; i < segments; i++) {
+         long split = snapshot.getSplitNanos(i);
+         if (split == Splitter.SKIPPED) {
+            skipped++;
+         } else {
+            assertTrue(split >= previous);
+            previous = split;
+         }
+      }
+      assertEquals(skips, skipped);
+      
+      // The bus delivered one event per transition, in commit order
+      Map<SplitEvent.Type, Integer> counts
+              = new EnumMap<>(SplitEvent.Type.class);
+      long sequence = delivered.get(0).getSequence();
+      assertEquals(SplitEvent.Type.START, delivered.get(0).getType());
+      for (SplitEvent event : delivered) {
+         assertEquals(sequence++, event.getSequence());
+         assertEquals(
+                 event.getPrevious().getSequence() + 1L, event.getSequence());
+         counts.merge(event.getType(), 1, Integer::sum);
+      }
+      assertEquals(snapshot.getSequence() + 1L, sequence);
+      assertEquals(1, (int) counts.get(SplitEvent.Type.DONE));
+      assertEquals(splits - 1, (int) counts.get(SplitEvent.Type.SPLIT));
+      assertEquals(skips, (int) counts.getOrDefault(SplitEvent.Type.SKIP, 0));
+      assertEquals(
+              done.get(SplitEvent.Type.PAUSE).get(),
+              (int) counts.getOrDefault(SplitEvent.Type.PAUSE, 0));
+      assertEquals(
+              done.get(SplitEvent.Type.RESUME).get(),
+              (int) counts.getOrDefault(SplitEvent.Type.RESUME, 0));
+   }
+   
+   /**
+    * Attempts a split, a skip, a pause or a resume at the given timestamp,
+    * counting the ones that succeed. Actions refused because another thread
+    * changed the state or the timestamp got stale are ignored.
+    */
+   private static void hammer(
+           Splitter splitter, long timestamp, int action,
+           Map<SplitEvent.Type, AtomicInteger> done) {
+      // Only races with other threads should be refused
+      if ((splitter.getState() == Splitter.State.PAUSED) != (action == 7)) {
+         return;
+      }
+      try {
+         if (action < 4) {
+            splitter.split(timestamp);
+            done.get(SplitEvent.Type.SPLIT).incrementAndGet();
+         } else if (action < 6) {
+            splitter.skipSplit(timestamp);
+            done.get(SplitEvent.Type.SKIP).incrementAndGet();
+         } else if (action < 7) {
+            splitter.pause(timestamp);
+            done.get(SplitEvent.Type.PAUSE).incrementAndGet();
+         } else {
+            splitter.resume(timestamp);
+            done.get(SplitEvent.Type.RESUME).incrementAndGet();
+         }
+      } catch (IllegalStateException | IllegalArgumentException x) {
+         // Lost the race to another thread
+      }
+   }
+   
+}
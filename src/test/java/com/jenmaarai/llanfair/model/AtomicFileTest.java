@@ -0,0 +1,48 @@
+package com.jenmaarai.llanfair.model;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class AtomicFileTest {
+   
+   @Rule public TemporaryFolder folder = new TemporaryFolder();
+   
+   @Test public void replacesContent() throws IOException {
+      Path path = folder.getRoot().toPath().resolve("run.run");
+      AtomicFile.write(path, (out) -> out.write(bytes("first")));
+      AtomicFile.write(path, (out) -> out.write(bytes("second")));
+      
+      assertArrayEquals(bytes("second"), Files.readAllBytes(path));
+      assertEquals(1, folder.getRoot().list().length);
+   }
+   
+   @Test public void keepsContentOnFailure() throws IOException {
+      Path path = folder.getRoot().toPath().resolve("run.run");
+      AtomicFile.write(path, (out) -> out.write(bytes("first")));
+      try {
+         AtomicFile.write(path, (out) -> {
+            out.write(bytes("sec"));
+            throw new IOException("disk full");
+         });
+         fail("wrote a failing content");
+      } catch (IOException x) {
+         assertEquals("disk full", x.getMessage());
+      }
+      
+      assertArrayEquals(bytes("first"), Files.readAllBytes(path));
+      assertEquals(1, folder.getRoot().list().length);
+   }
+   
+   private static byte[] bytes(String text) {
+      return text.getBytes(StandardCharsets.UTF_8);
+   }
+   
+}
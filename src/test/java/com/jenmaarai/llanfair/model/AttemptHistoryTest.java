@@ -0,0 +1,108 @@
+package com.jenmaarai.llanfair.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+
+public class AttemptHistoryTest {
+   
+   @Rule public TemporaryFolder folder = new TemporaryFolder();
+   
+   @Test public void readsAppendedAttempts() throws IOException {
+      Path path = folder.getRoot().toPath().resolve("run.history");
+      try (AttemptHistory history = AttemptHistory.open(path)) {
+         append(history, 1000L, AttemptHistory.Outcome.RESET, 10L);
+         assertEquals(10L, history.getSplit(0, 0));
+         append(history, 2000L, AttemptHistory.Outcome.COMPLETED,
+                10L, AttemptHistory.SKIPPED, 30L);
+         
+         assertEquals(2, history.size());
+         assertEquals(2000L, history.getStarted(1));
+         assertEquals(3, history.getSplitCount(1));
+         assertEquals(AttemptHistory.SKIPPED, history.getSplit(1, 1));
+         assertEquals(30L, history.getSplit(1, 2));
+         assertEquals(
+                 AttemptHistory.Outcome.COMPLETED, history.getOutcome(1));
+         
+         AttemptHistory.Snapshot snapshot = history.snapshot();
+         append(history, 3000L, AttemptHistory.Outcome.RESET);
+         assertEquals(2, snapshot.size());
+         assertEquals(30L, snapshot.getSplit(1, 2));
+         assertEquals(0, history.getSplitCount(2));
+      }
+      try (AttemptHistory history = AttemptHistory.open(path)) {
+         assertEquals(3, history.size());
+         assertEquals(1000L, history.getStarted(0));
+         assertEquals(3, AttemptHistory.count(path));
+      }
+   }
+   
+   @Test public void discardsTornTail() throws IOException {
+      Path path = folder.getRoot().toPath().resolve("run.history");
+      try (AttemptHistory history = AttemptHistory.open(path)) {
+         append(history, 1000L, AttemptHistory.Outcome.RESET, 10L);
+         append(history, 2000L, AttemptHistory.Outcome.RESET, 20L);
+      }
+      long complete = Files.size(path);
+      // A record announcing more bytes than were written before a crash
+      try (FileChannel channel = FileChannel.open(
+              path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+         ByteBuffer torn = ByteBuffer.allocate(12);
+         torn.putInt(100).putLong(3000L).flip();
+         channel.write(torn);
+      }
+      assertEquals(2, AttemptHistory.count(path));
+      
+      try (AttemptHistory history = AttemptHistory.open(path)) {
+         assertEquals(2, history.size());
+         assertEquals(complete, Files.size(path));
+         append(history, 4000L, AttemptHistory.Outcome.COMPLETED, 40L);
+         assertEquals(40L, history.getSplit(2, 0));
+      }
+      try (AttemptHistory history = AttemptHistory.open(path)) {
+         assertEquals(3, history.size());
+         assertEquals(4000L, history.getStarted(2));
+      }
+   }
+   
+   @Test public void scansLargeHistories() throws IOException {
+      Path path = folder.getRoot().toPath().resolve("run.history");
+      long[] splits = new long[64];
+      try (AttemptHistory history = AttemptHistory.open(path)) {
+         for (int i = 0; i < 2000; i++) {
+            splits[i % 64] = i;
+            history.append(
+                    i, i, 64, AttemptHistory.Outcome.RESET, splits, 
+                    i % 64 + 1);
+         }
+      }
+      try (AttemptHistory history = AttemptHistory.open(path)) {
+         assertEquals(2000, history.size());
+         assertEquals(1999L, history.getStarted(1999));
+         assertEquals(1999L, history.getSplit(1999, 15));
+         assertEquals(1998L, history.getSplit(1998, 14));
+      }
+   }
+   
+   @Test(expected = IOException.class)
+   public void rejectsOtherFiles() throws IOException {
+      Path path = folder.getRoot().toPath().resolve("run.history");
+      Files.write(path, "not a history".getBytes("UTF-8"));
+      AttemptHistory.open(path).close();
+   }
+   
+   private static void append(
+           AttemptHistory history, long started,
+           AttemptHistory.Outcome outcome, long... splits)
+           throws IOException {
+      history.append(started, 1L, 3, outcome, splits, splits.length);
+   }
+   
+}
@@ -0,0 +1,110 @@
+package com.jenmaarai.llanfair.model;
+
+import com.jenmaarai.sidekick.time.Time;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+public class ComparisonEngineTest {
+   
+   private static final long SECOND = 1000000000L;
+   private static final long MILLISECOND = 1000000L;
+   
+   private Statistics statistics;
+   private ComparisonEngine engine;
+   private Run run;
+   
+   /**
+    * Three segments and three attempts: two completed ones, with segment
+    * times of 10s, 20s and 30s then 12s, 18s and 36s, and one reset during
+    * the second segment after a first segment of 8s.
+    */
+   @Before public void setUp() {
+      statistics = new Statistics();
+      engine = new ComparisonEngine(statistics);
+      run = Runs.create(3);
+      ingest(AttemptHistory.Outcome.COMPLETED, 10L, 30L, 60L);
+      ingest(AttemptHistory.Outcome.COMPLETED, 12L, 30L, 66L);
+      ingest(AttemptHistory.Outcome.RESET, 8L);
+   }
+   
+   @Test public void averagesSegmentTimes() {
+      assertColumn(Comparison.AVERAGE, 10L * SECOND, 29L * SECOND,
+                   62L * SECOND);
+   }
+   
+   @Test public void sumsMedianSegmentTimes() {
+      long[] medians = {10L * SECOND, 28L * SECOND, 58L * SECOND};
+      for (int i = 0; i < medians.length; i++) {
+         // Medians are estimated by a sketch within 2%
+         assertEquals(
+                 medians[i], engine.getSplit(run, Comparison.MEDIAN, i),
+                 0.02 * medians[i]);
+      }
+   }
+   
+   @Test public void balancesPersonalBestOverMedians() {
+      long total = 6000L * MILLISECOND;
+      long median = engine.getSplit(run, Comparison.MEDIAN, 2);
+      for (int i = 0; i < 3; i++) {
+         double ratio = (double) engine.getSplit(run, Comparison.MEDIAN, i)
+                      / median;
+         assertEquals(
+                 Math.round(total * ratio),
+                 engine.getSplit(run, Comparison.BALANCED_PB, i));
+      }
+      assertEquals(total, engine.getSplit(run, Comparison.BALANCED_PB, 2));
+   }
+   
+   @Test public void balancesPersonalBestOverBestsWithoutHistory() {
+      // Bests of 0.9s, 1.8s and 2.7s scaled to the 6s of the personal best
+      assertColumn(
+              new ComparisonEngine(new Statistics()), Comparison.BALANCED_PB,
+              1000L * MILLISECOND, 3000L * MILLISECOND, 6000L * MILLISECOND);
+   }
+   
+   @Test public void comparesToLatestAttempt() {
+      assertColumn(Comparison.LATEST_RUN, 8L * SECOND, Run.UNDEFINED,
+                   Run.UNDEFINED);
+      ingest(AttemptHistory.Outcome.COMPLETED, 9L, 25L, 50L);
+      assertColumn(Comparison.LATEST_RUN, 9L * SECOND, 25L * SECOND,
+                   50L * SECOND);
+   }
+   
+   @Test public void followsTimesOfTheRun() {
+      assertColumn(Comparison.PERSONAL_BEST, 1000L * MILLISECOND,
+                   3000L * MILLISECOND, 6000L * MILLISECOND);
+      run.setGame("Super Metroid");
+      run.setSplitTimes(Arrays.asList(
+              new Time(900L), new Time(2800L), new Time(5500L)));
+      assertColumn(Comparison.PERSONAL_BEST, 900L * MILLISECOND,
+                   2800L * MILLISECOND, 5500L * MILLISECOND);
+      run.setSegmentBest(0, new Time(800L));
+      assertEquals(
+              2600L * MILLISECOND,
+              engine.getSplit(run, Comparison.BEST_SEGMENTS, 1));
+   }
+   
+   private void ingest(AttemptHistory.Outcome outcome, long... seconds) {
+      long[] splits = new long[seconds.length];
+      for (int i = 0; i < seconds.length; i++) {
+         splits[i] = seconds[i] * SECOND;
+      }
+      statistics.ingest(outcome, 3, splits, splits.length);
+   }
+   
+   private void assertColumn(Comparison comparison, long... expected) {
+      assertColumn(engine, comparison, expected);
+   }
+   
+   private void assertColumn(
+           ComparisonEngine engine, Comparison comparison, long... expected) {
+      for (int i = 0; i < expected.length; i++) {
+         assertEquals(
+                 comparison + " " + i, expected[i],
+                 engine.getSplit(run, comparison, i));
+      }
+   }
+   
+}
@@ -0,0 +1,59 @@
+package com.jenmaarai.llanfair.model;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+public class FenwickTreeTest {
+   
+   @Test public void startsEmpty() {
+      FenwickTree tree = new FenwickTree(5);
+      assertEquals(5, tree.size());
+      assertEquals(0L, tree.total());
+      assertEquals(0L, tree.range(1, 4));
+   }
+   
+   @Test public void sumsRanges() {
+      FenwickTree tree = new FenwickTree(4);
+      tree.set(0, 10L);
+      tree.set(1, 20L);
+      tree.set(2, 30L);
+      tree.set(3, 40L);
+      tree.set(1, 5L);
+      
+      assertEquals(5L, tree.get(1));
+      assertEquals(0L, tree.prefix(0));
+      assertEquals(15L, tree.prefix(2));
+      assertEquals(35L, tree.range(1, 3));
+      assertEquals(0L, tree.range(2, 2));
+      assertEquals(85L, tree.total());
+   }
+   
+   @Test public void matchesNaiveSums() {
+      Random random = new Random(42L);
+      for (int size : new int[] {1, 2, 7, 64, 100, 1000}) {
+         FenwickTree tree = new FenwickTree(size);
+         long[] values = new long[size];
+         for (int n = 0; n < 5000; n++) {
+            int index = random.nextInt(size);
+            long value = random.nextInt(2_000_001) - 1_000_000L;
+            tree.set(index, value);
+            values[index] = value;
+            
+            int from = random.nextInt(size + 1);
+            int to = from + random.nextInt(size + 1 - from);
+            long sum = 0L;
+            for (int i = from; i < to; i++) {
+               sum += values[i];
+            }
+            assertEquals(sum, tree.range(from, to));
+         }
+         long total = 0L;
+         for (long value : values) {
+            total += value;
+         }
+         assertEquals(total, tree.total());
+      }
+   }
+   
+}
@@ -0,0 +1,106 @@
+package com.jenmaarai.llanfair.model;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import javax.swing.Icon;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IconStoreTest {
+   
+   @Test public void cachesScaledVariants() throws IOException {
+      LazyIcon icon = LazyIcon.encode(Runs.icon(40, new Color(0x3C5A78)));
+      assertSame(icon, LazyIcon.encode(Runs.icon(40, new Color(0x3C5A78))));
+      
+      BufferedImage full = IconStore.image(icon, 40, 40);
+      assertEquals(40, full.getWidth());
+      assertSame(full, IconStore.image(icon, 40, 40));
+      BufferedImage half = IconStore.image(icon, 20, 20);
+      assertEquals(20, half.getWidth());
+      assertEquals(20, half.getHeight());
+      assertEquals(0x3C5A78, half.getRGB(10, 10) & 0xFFFFFF);
+      assertSame(half, IconStore.image(icon, 20, 20));
+      assertSame(full, IconStore.image(icon, 40, 40));
+      
+      // Painting a scaled icon goes through the same cached variants
+      assertSame(icon, icon.scaled(40));
+      Icon scaled = icon.scaled(20);
+      assertEquals(20, scaled.getIconWidth());
+      assertEquals(0x3C5A78, paint(scaled).getRGB(10, 10) & 0xFFFFFF);
+      assertSame(half, IconStore.image(icon, 20, 20));
+      assertTrue(IconStore.getDecodedPixels() <= IconStore.MAX_PIXELS);
+   }
+   
+   @Test public void evictsLeastRecentlyPainted() throws IOException {
+      // Four of these images fill the cache exactly
+      int size = 1024;
+      LazyIcon[] icons = new LazyIcon[5];
+      for (int i = 0; i < icons.length; i++) {
+         icons[i] = LazyIcon.encode(
+                 Runs.icon(size, new Color(0x20 * (i + 1), 0x21, 0x22)));
+      }
+      BufferedImage first = IconStore.image(icons[0], size, size);
+      BufferedImage second = IconStore.image(icons[1], size, size);
+      IconStore.image(icons[2], size, size);
+      IconStore.image(icons[3], size, size);
+      assertEquals(IconStore.MAX_PIXELS, IconStore.getDecodedPixels());
+      
+      // Painting the first icon again makes the second one the eldest
+      assertSame(first, IconStore.image(icons[0], size, size));
+      IconStore.image(icons[4], size, size);
+      assertEquals(IconStore.MAX_PIXELS, IconStore.getDecodedPixels());
+      assertSame(first, IconStore.image(icons[0], size, size));
+      
+      BufferedImage decoded = IconStore.image(icons[1], size, size);
+      assertNotSame(second, decoded);
+      assertEquals(second.getRGB(0, 0), decoded.getRGB(0, 0));
+      assertTrue(IconStore.getDecodedPixels() <= IconStore.MAX_PIXELS);
+      assertEquals(5, icons.length);
+   }
+   
+   @Test public void dropsImagesOfUnusedIcons() throws Exception {
+      LazyIcon icon = LazyIcon.encode(Runs.icon(48, new Color(0x0A0B0C)));
+      IconStore.image(icon, 48, 48);
+      IconStore.image(icon, 24, 24);
+      long cached = IconStore.getDecodedPixels();
+      WeakReference<LazyIcon> reference = new WeakReference<>(icon);
+      icon = null;
+      
+      // Cached images must not keep the icon reachable
+      long expected = cached - 48 * 48 - 24 * 24;
+      for (int i = 0; i < 100; i++) {
+         if (reference.get() == null
+                 && IconStore.getDecodedPixels() <= expected) {
+            break;
+         }
+         System.gc();
+         Thread.sleep(10L);
+      }
+      assertNull(reference.get());
+      assertTrue(IconStore.getDecodedPixels() <= expected);
+   }
+   
+   /**
+    * Returns an image of the given icon painted at its natural size.
+    */
+   private static BufferedImage paint(Icon icon) {
+      BufferedImage canvas = new BufferedImage(
+              icon.getIconWidth(), icon.getIconHeight(),
+              BufferedImage.TYPE_INT_ARGB);
+      Graphics2D g = canvas.createGraphics();
+      try {
+         icon.paintIcon(null, g, 0, 0);
+      } finally {
+         g.dispose();
+      }
+      return canvas;
+   }
+   
+}
@@ -0,0 +1,190 @@
+package com.jenmaarai.llanfair.model;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import javax.swing.Icon;
+import javax.xml.stream.XMLStreamException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LiveSplitFormatTest {
+   
+   private static final long SECOND = 1_000_000_000L;
+   private static final long STARTED = 1_600_000_000_000L;
+   
+   @Rule public TemporaryFolder folder = new TemporaryFolder();
+   
+   @Test public void roundTripsRun() throws IOException {
+      Icon red = Runs.icon(16, Color.RED);
+      Run run = Runs.create(7, red, Runs.icon(24, Color.BLUE));
+      run.setPlatform("SNES");
+      run.setRegion("NTSC");
+      run.setEmulated(true);
+      run.setGameSplitMillis(1, 2500L);
+      run.setGameSegmentBestMillis(1, 1200L);
+      run.setSections(Arrays.asList(
+              new Section("Light World", 0, 3),
+              new Section("Dark World", 4, 7)));
+      
+      Path path = folder.getRoot().toPath().resolve("run.lss");
+      assertTrue(run.exportLiveSplit(path, null));
+      Run read = Run.importLiveSplit(path, null);
+      assertNotNull(read);
+      Runs.assertSameRun(run, read);
+      assertEquals("Segment 2", read.getSegment(2).getName());
+      assertSame(read.getSegment(0).getIcon(), read.getSegment(2).getIcon());
+      assertEquals(Run.UNDEFINED, read.getGameSplitMillis(0));
+   }
+   
+   @Test public void roundTripsAttemptHistory() throws IOException {
+      Run run = Runs.create(3);
+      Path path = folder.getRoot().toPath().resolve("run.lss");
+      try (AttemptHistory history = history("exported.history")) {
+         history.append(
+                 STARTED, 6 * SECOND, 3, AttemptHistory.Outcome.COMPLETED,
+                 new long[] {SECOND, 3 * SECOND, 6 * SECOND}, 3);
+         history.append(
+                 STARTED + 100_000L, 4 * SECOND, 3, 
+                 AttemptHistory.Outcome.RESET,
+                 new long[] {AttemptHistory.SKIPPED, 2 * SECOND + SECOND / 2},
+                 2);
+         history.append(
+                 STARTED + 200_000L, SECOND, 3, AttemptHistory.Outcome.RESET,
+                 new long[0], 0);
+         assertTrue(run.exportLiveSplit(path, history));
+      }
+      
+      int[] count = new int[1];
+      LiveSplitFormat.read(path, (attempts) -> count[0] = attempts);
+      assertEquals(3, count[0]);
+      
+      try (AttemptHistory history = history("imported.history")) {
+         assertNotNull(Run.importLiveSplit(path, history));
+         assertEquals(3, history.size());
+         
+         assertEquals(STARTED, history.getStarted(0));
+         assertEquals(6 * SECOND, history.getDuration(0));
+         assertEquals(
+                 AttemptHistory.Outcome.COMPLETED, history.getOutcome(0));
+         assertEquals(3, history.getSplitCount(0));
+         assertEquals(3 * SECOND, history.getSplit(0, 1));
+         assertEquals(6 * SECOND, history.getSplit(0, 2));
+         
+         assertEquals(STARTED + 100_000L, history.getStarted(1));
+         assertEquals(4 * SECOND, history.getDuration(1));
+         assertEquals(AttemptHistory.Outcome.RESET, history.getOutcome(1));
+         assertEquals(2, history.getSplitCount(1));
+         assertEquals(AttemptHistory.SKIPPED, history.getSplit(1, 0));
+         assertEquals(2 * SECOND + SECOND / 2, history.getSplit(1, 1));
+         
+         assertEquals(SECOND, history.getDuration(2));
+         assertEquals(0, history.getSplitCount(2));
+         assertEquals(3, history.getSegmentCount(2));
+      }
+   }
+   
+   @Test public void readsLiveSplitSubsplits() throws IOException {
+      Run run = read(
+              "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<Run version=\"1.7.0\">\n"
+            + "  <GameName>ALttP</GameName>\n"
+            + "  <Unknown><Nested/></Unknown>\n"
+            + "  <Segments>\n"
+            + segment("-Hyrule Castle", "00:01:00.5")
+            + segment("{Escape}Sanctuary", "00:02:00")
+            + segment("Eastern Palace", "1.00:00:00.1234567")
+            + "  </Segments>\n"
+            + "</Run>\n");
+      
+      assertEquals("ALttP", run.getGame());
+      assertEquals(3, run.getSegmentCount());
+      assertEquals("Hyrule Castle", run.getSegment(0).getName());
+      assertEquals("Sanctuary", run.getSegment(1).getName());
+      assertEquals(1, run.getSections().size());
+      assertEquals("Escape", run.getSections().get(0).getName());
+      assertEquals(1, run.getSections().get(0).getLast());
+      assertEquals(60_500L, run.getSplitMillis(0));
+      assertEquals(86_400_123L, run.getSplitMillis(2));
+   }
+   
+   @Test public void rejectsMalformedRuns() throws IOException {
+      String[] documents = {
+         "",
+         "<Run><GameName>Truncated",
+         "<Run><GameName>No segment</GameName></Run>",
+         "<Run><Segments>" + segment("Bad time", "1:2") + "</Segments></Run>",
+         "<Run><AttemptHistory><Attempt id=\"one\"/></AttemptHistory></Run>",
+      };
+      for (String document : documents) {
+         try {
+            read(document);
+            fail("read malformed run " + document);
+         } catch (IOException x) {
+            // Expected
+         }
+      }
+   }
+   
+   @Test public void formatsAndParsesTicks() throws XMLStreamException {
+      long[] ticks = {
+         0L, 1L, 10_000_000L, 36_000_000_000L, 864_000_000_000L + 5L, -15L
+      };
+      for (long tick : ticks) {
+         assertEquals(tick, LiveSplitFormat.parseTicks(
+                 LiveSplitFormat.formatTicks(tick)));
+      }
+      assertEquals("1.02:03:04.0000005",
+              LiveSplitFormat.formatTicks(937_840_000_005L));
+      assertEquals(Run.UNDEFINED, LiveSplitFormat.parseTicks(" "));
+   }
+   
+   @Test public void decodesWrappedAndPlainIcons() throws IOException {
+      LazyIcon icon = LazyIcon.encode(Runs.icon(12, Color.GREEN));
+      Base64.Encoder base64 = Base64.getEncoder();
+      
+      assertSame(icon, LiveSplitFormat.decodeIcon(base64.encodeToString(
+              LiveSplitFormat.wrap(icon.getData()))));
+      assertSame(icon, LiveSplitFormat.decodeIcon(
+              base64.encodeToString(icon.getData())));
+      assertNull(LiveSplitFormat.decodeIcon("not base64!"));
+      assertNull(LiveSplitFormat.decodeIcon(
+              base64.encodeToString(new byte[] {1, 2, 3})));
+   }
+   
+   private AttemptHistory history(String name) throws IOException {
+      return AttemptHistory.open(folder.getRoot().toPath().resolve(name));
+   }
+   
+   private Run read(String document) throws IOException {
+      Path path = folder.getRoot().toPath().resolve("run.lss");
+      Files.write(path, document.getBytes(StandardCharsets.UTF_8));
+      return LiveSplitFormat.read(path, (AttemptHistory) null);
+   }
+   
+   private static String segment(String name, String split) {
+      return "    <Segment>\n"
+           + "      <Name>" + name + "</Name>\n"
+           + "      <Icon />\n"
+           + "      <SplitTimes>\n"
+           + "        <SplitTime name=\"Personal Best\">\n"
+           + "          <RealTime>" + split + "</RealTime>\n"
+           + "        </SplitTime>\n"
+           + "      </SplitTimes>\n"
+           + "      <BestSegmentTime />\n"
+           + "      <SegmentHistory />\n"
+           + "    </Segment>\n";
+   }
+   
+}
@@ -0,0 +1,69 @@
+package com.jenmaarai.llanfair.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QuantileSketchTest {
+   
+   private static final long MILLISECOND = 1000000L;
+   
+   @Test public void estimatesWithinTwoPercent() {
+      // Every millisecond from 10ms to 100s, in random order
+      List<Long> values = new ArrayList<>();
+      for (long i = 10L; i <= 100000L; i++) {
+         values.add(i * MILLISECOND);
+      }
+      Collections.shuffle(values, new Random(7L));
+      QuantileSketch sketch = new QuantileSketch();
+      for (long value : values) {
+         sketch.add(value);
+      }
+      assertEquals(values.size(), sketch.getCount());
+      for (int percent = 0; percent <= 100; percent++) {
+         double quantile = percent / 100.0;
+         long rank = Math.max(1L, (long) Math.ceil(quantile * values.size()));
+         long exact = (rank + 9L) * MILLISECOND;
+         assertEquals(
+                 "quantile " + quantile, exact, sketch.getQuantile(quantile),
+                 0.02 * exact);
+      }
+   }
+   
+   @Test public void mergesLikeOneSketch() {
+      Random random = new Random(3L);
+      QuantileSketch whole = new QuantileSketch();
+      QuantileSketch left = new QuantileSketch();
+      QuantileSketch right = new QuantileSketch();
+      for (int i = 0; i < 5000; i++) {
+         long value = (long) (Math.exp(random.nextGaussian()) * 1000L)
+                    * MILLISECOND;
+         whole.add(value);
+         (i % 3 == 0 ? left : right).add(value);
+      }
+      left.merge(right);
+      assertEquals(whole.getCount(), left.getCount());
+      for (double quantile = 0.0; quantile <= 1.0; quantile += 0.05) {
+         assertEquals(
+                 whole.getQuantile(quantile), left.getQuantile(quantile));
+      }
+   }
+   
+   @Test public void clampsToCountedValues() {
+      QuantileSketch sketch = new QuantileSketch();
+      assertEquals(Run.UNDEFINED, sketch.getQuantile(0.5));
+      // Both values fall below the lowest bucket
+      sketch.add(-5L);
+      sketch.add(300L);
+      long median = sketch.getQuantile(0.5);
+      assertTrue(median >= 0L && median <= 300L);
+      assertEquals(300L, sketch.getQuantile(1.0));
+      sketch.add(Long.MAX_VALUE);
+      assertEquals(Long.MAX_VALUE, sketch.getQuantile(1.0));
+   }
+   
+}
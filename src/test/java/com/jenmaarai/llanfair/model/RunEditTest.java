@@ -0,0 +1,97 @@
+package com.jenmaarai.llanfair.model;
+
+import com.jenmaarai.sidekick.time.Time;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RunEditTest {
+   
+   @Test public void coalescesSplitTimesInOneEvent() {
+      Run run = Runs.create(300);
+      List<RunChangeEvent> events = listen(run);
+      List<Time> times = new ArrayList<>();
+      long split = 0L;
+      for (int i = 0; i < 300; i++) {
+         split += (i + 1) * 1000L - 100L;
+         times.add(new Time(split));
+      }
+      run.setSplitTimes(times);
+      
+      assertEquals(1, events.size());
+      RunChangeEvent event = events.get(0);
+      assertTrue(event.hasChanged(RunChangeEvent.Field.SPLIT_TIMES));
+      // Only the undefined bests of every fifth segment are improved
+      assertTrue(event.hasChanged(RunChangeEvent.Field.SEGMENT_BESTS));
+      assertEquals(2, event.getFields().size());
+      assertEquals(300, event.getChangedSegmentCount());
+      assertEquals(split, run.getSplitMillis(299));
+      assertEquals(4900L, run.getSegmentBestMillis(4));
+   }
+   
+   @Test public void coalescesNestedEdits() {
+      Run run = Runs.create(3);
+      List<RunChangeEvent> events = listen(run);
+      run.edit((edit) -> {
+         edit.setGame("Super Metroid");
+         edit.edit((inner) -> inner.setSegmentBest(1, new Time(1500L)));
+         edit.setSplitTime(0, new Time(800L));
+         assertTrue(events.isEmpty());
+      });
+      
+      assertEquals(1, events.size());
+      RunChangeEvent event = events.get(0);
+      assertTrue(event.hasChanged(RunChangeEvent.Field.GAME));
+      assertTrue(event.hasChanged(RunChangeEvent.Field.SPLIT_TIMES));
+      assertTrue(event.hasChanged(RunChangeEvent.Field.SEGMENT_BESTS));
+      assertEquals(0, event.nextChangedSegment(0));
+      assertEquals(1, event.nextChangedSegment(1));
+      assertEquals(-1, event.nextChangedSegment(2));
+   }
+   
+   @Test public void restoresRunWhenEditThrows() {
+      Run run = Runs.create(3);
+      Run original = Runs.create(3);
+      List<RunChangeEvent> events = listen(run);
+      long revision = run.getRevision();
+      try {
+         run.edit((edit) -> {
+            edit.setGame("Super Metroid");
+            edit.setSegmentBest(0, new Time(100L));
+            edit.setSplitTime(1, new Time(2000L));
+            edit.setSections(Collections.singletonList(
+                    new Section("Start", 0, 2)));
+            // Lower than the split just set for the second segment
+            edit.setSplitTime(2, new Time(500L));
+         });
+         fail("incoherent split accepted");
+      } catch (IllegalArgumentException x) {
+         // Expected, the run must be left untouched
+      }
+      
+      assertTrue(events.isEmpty());
+      assertTrue(run.getRevision() > revision);
+      Runs.assertSameRun(original, run);
+      
+      // The run can still be edited afterwards
+      run.edit((edit) -> edit.setGame("Super Metroid"));
+      assertEquals(1, events.size());
+      assertEquals("Super Metroid", run.getGame());
+      assertFalse(events.get(0).hasChanged(0));
+   }
+   
+   /**
+    * Returns the list receiving every change event of the given run.
+    */
+   private static List<RunChangeEvent> listen(Run run) {
+      List<RunChangeEvent> events = new ArrayList<>();
+      run.addChangeListener((event) -> events.add((RunChangeEvent) event));
+      return events;
+   }
+   
+}
@@ -0,0 +1,93 @@
+package com.jenmaarai.llanfair.model;
+
+import com.thoughtworks.xstream.XStream;
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.swing.Icon;
+
+/**
+ * Compares the size and load time of a large run in the binary run format
+ * and in the XML format, the latter being loaded both by the streaming reader
+ * of {@link RunXml} and by XStream, which used to load runs.
+ *
+ * <p>Run its main method from the test classpath, optionally giving the
+ * number of segments and of distinct icons: {@code java -cp ...
+ * com.jenmaarai.llanfair.model.RunFormatBenchmark 300 20}. On Java 9 and
+ * later, XStream also needs {@code --add-opens java.base/java.util=ALL-UNNAMED}
+ * and the same for {@code java.lang}, {@code java.lang.reflect},
+ * {@code java.text} and {@code java.desktop/java.awt.font}.
+ */
+public final class RunFormatBenchmark {
+   
+   private static final int WARMUP = 50;
+   private static final int ITERATIONS = 200;
+   
+   /**
+    * XStream configured as runs were read before the streaming reader.
+    */
+   private static final XStream XSTREAM = new XStream();
+   static {
+      XSTREAM.alias("run", Run.class);
+      XSTREAM.alias("segment", Segment.class);
+   }
+   
+   private RunFormatBenchmark() {}
+   
+   public static void main(String[] args) throws IOException {
+      int segments = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+      int iconCount = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+      Icon[] icons = new Icon[iconCount];
+      for (int i = 0; i < icons.length; i++) {
+         icons[i] = Runs.icon(32, new Color(i * 0x0F0F0F & 0xFFFFFF));
+      }
+      Run run = Runs.create(segments, icons);
+      
+      Path directory = Files.createTempDirectory("llanfair");
+      Path binary = directory.resolve("run.run");
+      Path xml = directory.resolve("run.xml");
+      try {
+         RunFormat.write(run, binary);
+         RunXml.write(run, xml);
+         System.out.printf("%d segments, %d icons%n", segments, iconCount);
+         System.out.printf("binary %8d bytes %8.3f ms%n",
+                 Files.size(binary), measure(() -> RunFormat.read(binary)));
+         System.out.printf("xml    %8d bytes %8.3f ms%n",
+                 Files.size(xml), measure(() -> RunXml.read(xml)));
+         System.out.printf("xstream%8d bytes %8.3f ms%n",
+                 Files.size(xml),
+                 measure(() -> (Run) XSTREAM.fromXML(xml.toFile())));
+      } finally {
+         Files.deleteIfExists(binary);
+         Files.deleteIfExists(xml);
+         Files.delete(directory);
+      }
+   }
+   
+   /**
+    * Returns the mean time in milliseconds taken to load a run once warm.
+    */
+   private static double measure(Loader loader) throws IOException {
+      int segments = 0;
+      for (int i = 0; i < WARMUP; i++) {
+         segments += loader.load().getSegmentCount();
+      }
+      long start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+         segments += loader.load().getSegmentCount();
+      }
+      long elapsed = System.nanoTime() - start;
+      if (segments == 0) {
+         throw new IllegalStateException("no segment loaded");
+      }
+      return elapsed / 1e6 / ITERATIONS;
+   }
+   
+   private interface Loader {
+      
+      Run load() throws IOException;
+   
+   }
+   
+}
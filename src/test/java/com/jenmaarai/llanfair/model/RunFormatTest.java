@@ -0,0 +1,153 @@
+package com.jenmaarai.llanfair.model;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import javax.swing.Icon;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class RunFormatTest {
+   
+   @Rule public TemporaryFolder folder = new TemporaryFolder();
+   
+   @Test public void roundTripsEmptyRun() throws IOException {
+      Run run = new Run();
+      Run read = roundTrip(run);
+      Runs.assertSameRun(run, read);
+      assertNull(read.getGame());
+      assertNull(read.getSegment(0).getName());
+      assertEquals(Run.UNDEFINED, read.getSplitMillis(0));
+      assertFalse(read.hasGameTime());
+   }
+   
+   @Test public void roundTripsUndefinedTimes() throws IOException {
+      Run run = Runs.create(70);
+      run.setPlatform("SNES");
+      run.setRegion("NTSC-J \u65e5\u672c");
+      run.setEmulated(true);
+      run.setGameSplitMillis(0, 500L);
+      run.setGameSegmentBestMillis(69, 400L);
+      run.setSplitTime(0, null);
+      
+      Run read = roundTrip(run);
+      Runs.assertSameRun(run, read);
+      assertEquals(Run.UNDEFINED, read.getSplitMillis(0));
+      assertEquals(Run.UNDEFINED, read.getSplitMillis(68));
+      assertEquals(Run.UNDEFINED, read.getSegmentBestMillis(64));
+      assertEquals(Run.UNDEFINED, read.getGameSplitMillis(1));
+      assertEquals(500L, read.getGameSplitMillis(0));
+   }
+   
+   @Test public void roundTripsSections() throws IOException {
+      Run run = Runs.create(10);
+      run.setSections(Arrays.asList(
+              new Section("Light World", 0, 4, Arrays.asList(
+                      new Section("Eastern Palace", 1, 3))),
+              new Section("Dark World", 5, 10)));
+      Runs.assertSameRun(run, roundTrip(run));
+   }
+   
+   @Test public void storesIconsOnce() throws IOException {
+      Icon red  = Runs.icon(16, Color.RED);
+      Icon blue = Runs.icon(24, Color.BLUE);
+      Run run = Runs.create(12, red, blue, null, Runs.icon(16, Color.RED));
+      Run read = roundTrip(run);
+      
+      Runs.assertSameRun(run, read);
+      assertNull(read.getSegment(2).getIcon());
+      assertNotNull(read.getSegment(0).getIcon());
+      assertSame(read.getSegment(0).getIcon(), read.getSegment(3).getIcon());
+      assertSame(read.getSegment(1).getIcon(), read.getSegment(5).getIcon());
+      assertEquals(24, read.getSegment(1).getIcon().getIconWidth());
+      
+      byte[] icon = ((LazyIcon) read.getSegment(0).getIcon()).getData();
+      assertEquals(1, occurrences(RunFormat.encode(run), icon));
+   }
+   
+   @Test public void rejectsTruncatedFiles() throws IOException {
+      Run run = Runs.create(5, Runs.icon(8, Color.GREEN));
+      run.setSections(Collections.singletonList(new Section("All", 0, 5)));
+      byte[] data = RunFormat.encode(run);
+      for (int length = 0; length < data.length; length++) {
+         Path path = write(Arrays.copyOf(data, length));
+         try {
+            RunFormat.read(path);
+            fail("read a run truncated to " + length + " bytes");
+         } catch (IOException x) {
+            // Expected
+         }
+      }
+   }
+   
+   @Test public void rejectsOtherFiles() throws IOException {
+      Path path = write("not a run file".getBytes("UTF-8"));
+      try {
+         RunFormat.read(path);
+         fail("read a text file");
+      } catch (IOException x) {
+         assertEquals("not a run file", x.getMessage());
+      }
+      assertNull(Run.load(path));
+   }
+   
+   /**
+    * Flips random bytes of a valid file and checks that reading it either
+    * succeeds or fails with an {@code IOException}.
+    */
+   @Test public void survivesCorruptFiles() throws IOException {
+      Run run = Runs.create(20, Runs.icon(8, Color.GREEN));
+      run.setSections(Collections.singletonList(new Section("All", 2, 9)));
+      byte[] data = RunFormat.encode(run);
+      Random random = new Random(7L);
+      for (int n = 0; n < 2000; n++) {
+         byte[] corrupt = data.clone();
+         for (int i = random.nextInt(4); i >= 0; i--) {
+            corrupt[8 + random.nextInt(data.length - 8)] 
+                    = (byte) random.nextInt(256);
+         }
+         try {
+            RunFormat.read(write(corrupt));
+         } catch (IOException x) {
+            // Expected
+         }
+      }
+   }
+   
+   private Run roundTrip(Run run) throws IOException {
+      Path path = folder.getRoot().toPath().resolve("run.run");
+      assertEquals(true, run.save(path));
+      Run read = Run.load(path);
+      assertNotNull(read);
+      return read;
+   }
+   
+   private Path write(byte[] data) throws IOException {
+      Path path = folder.getRoot().toPath().resolve("corrupt.run");
+      Files.write(path, data);
+      return path;
+   }
+   
+   private static int occurrences(byte[] data, byte[] part) {
+      int count = 0;
+      for (int i = 0; i + part.length <= data.length; i++) {
+         if (Arrays.equals(Arrays.copyOfRange(data, i, i + part.length), 
+                 part)) {
+            count++;
+         }
+      }
+      return count;
+   }
+   
+}
@@ -0,0 +1,196 @@
+package com.jenmaarai.llanfair.model;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RunLibraryTest {
+   
+   private static final long TIMEOUT = 10L;
+   
+   @Rule public TemporaryFolder folder = new TemporaryFolder();
+   
+   @Test public void roundTripsIndex() throws IOException {
+      Path dir = folder.getRoot().toPath();
+      Path sm = save(dir.resolve("sm.run"), "Super Metroid", "Any%", 3);
+      try (RunLibrary library = scanned(dir)) {
+         assertEquals(1, library.getEntries().size());
+      }
+      try (RunLibrary library = RunLibrary.open(dir)) {
+         RunLibrary.Entry entry = library.getEntry(sm);
+         assertEquals("Super Metroid", entry.getGame());
+         assertEquals("Any%", entry.getCategory());
+         assertEquals("SNES", entry.getPlatform());
+         assertEquals("NTSC", entry.getRegion());
+         assertEquals(3, entry.getSegmentCount());
+         assertEquals(6000L, entry.getPersonalBest());
+         assertEquals(0, entry.getAttemptCount());
+         assertEquals("Super Metroid - Any%", entry.toString());
+      }
+   }
+   
+   @Test public void rescansChangedFilesOnly() throws IOException {
+      Path dir = folder.getRoot().toPath();
+      Path sm = save(dir.resolve("sm.run"), "Super Metroid", "Any%", 3);
+      Path smw = save(dir.resolve("smw.run"), "Super Mario World", "11", 4);
+      try (RunLibrary library = scanned(dir)) {
+         assertEquals(2, library.getEntries().size());
+      }
+      modify(save(smw, "Super Mario World", "96 Exit", 5));
+      try (RunLibrary library = RunLibrary.open(dir)) {
+         RunLibrary.Entry unchanged = library.getEntry(sm);
+         RunLibrary.Entry changed = library.getEntry(smw);
+         assertEquals("11", changed.getCategory());
+         scan(library);
+         assertSame(unchanged, library.getEntry(sm));
+         assertNotSame(changed, library.getEntry(smw));
+         assertEquals("96 Exit", library.getEntry(smw).getCategory());
+         assertEquals(5, library.getEntry(smw).getSegmentCount());
+      }
+   }
+   
+   @Test public void ranksExactWordsFirst() throws IOException {
+      Path dir = folder.getRoot().toPath();
+      save(dir.resolve("sm.run"), "Super Metroid", "Any%", 3);
+      save(dir.resolve("smw.run"), "Super Mario World", "96 Exit", 3);
+      save(dir.resolve("mk.run"), "Mariokart", "150cc", 3);
+      try (RunLibrary library = scanned(dir)) {
+         assertEquals(
+                 titles(library.getEntries()),
+                 titles(library.search("", 10)));
+         assertEquals(
+                 "[Mariokart - 150cc, Super Mario World - 96 Exit]",
+                 titles(library.getEntries().subList(0, 2)));
+         assertEquals(
+                 "[Super Mario World - 96 Exit, Mariokart - 150cc]",
+                 titles(library.search("mario", 10)));
+         assertEquals(
+                 "[Super Mario World - 96 Exit]",
+                 titles(library.search("mario", 1)));
+         assertEquals(
+                 "[Super Metroid - Any%]",
+                 titles(library.search("Super Metro", 10)));
+         assertEquals("[]", titles(library.search("zelda", 10)));
+      }
+   }
+   
+   @Test public void fallsBackToFuzzySearch() throws IOException {
+      Path dir = folder.getRoot().toPath();
+      save(dir.resolve("metroid.run"), "Super Metroid", "Any%", 3);
+      save(dir.resolve("mario.run"), "Super Mario World", "96 Exit", 3);
+      try (RunLibrary library = scanned(dir)) {
+         assertEquals(
+                 "[Super Metroid - Any%]",
+                 titles(library.search("smtrd", 10)));
+         // Consecutive letters in "metroid" outrank scattered ones
+         assertEquals(
+                 "[Super Metroid - Any%, Super Mario World - 96 Exit]",
+                 titles(library.search("etro", 10)));
+      }
+   }
+   
+   @Test public void refreshesStaleEntryOnLoad() throws IOException {
+      Path dir = folder.getRoot().toPath();
+      Path sm = save(dir.resolve("sm.run"), "Super Metroid", "Any%", 3);
+      try (RunLibrary library = scanned(dir)) {
+         assertEquals(1, library.getEntries().size());
+      }
+      modify(save(sm, "Super Metroid", "100%", 4));
+      try (RunLibrary library = RunLibrary.open(dir)) {
+         RunLibrary.Entry stale = library.getEntry(sm);
+         assertEquals("Any%", stale.getCategory());
+         CountDownLatch changed = new CountDownLatch(1);
+         library.addChangeListener((event) -> changed.countDown());
+         
+         Run run = library.load(stale);
+         assertEquals("100%", run.getCategory());
+         assertEquals(0L, changed.getCount());
+         assertEquals("100%", library.getEntry(sm).getCategory());
+         assertEquals(4, library.getEntry(sm).getSegmentCount());
+         
+         // An entry that is up to date is not committed again
+         RunLibrary.Entry current = library.getEntry(sm);
+         library.load(current);
+         assertSame(current, library.getEntry(sm));
+      }
+   }
+   
+   /**
+    * Saves a run of the given number of segments to the given file.
+    */
+   private static Path save(
+           Path path, String game, String category, int segments) {
+      Run run = Runs.create(segments);
+      run.setGame(game);
+      run.setCategory(category);
+      run.setPlatform("SNES");
+      run.setRegion("NTSC");
+      assertTrue(run.save(path));
+      return path;
+   }
+   
+   /**
+    * Moves the modification time of a file away from the one indexed, in
+    * case both writes happened within the precision of the file system.
+    */
+   private static void modify(Path path) throws IOException {
+      FileTime time = Files.getLastModifiedTime(path);
+      Files.setLastModifiedTime(
+              path, FileTime.fromMillis(time.toMillis() + 60000L));
+   }
+   
+   /**
+    * Opens and starts the library of a directory, returning once it has
+    * been scanned and its index saved.
+    */
+   private static RunLibrary scanned(Path dir) throws IOException {
+      RunLibrary library = RunLibrary.open(dir);
+      scan(library);
+      return library;
+   }
+   
+   /**
+    * Starts a library and waits for its first scan and its index.
+    */
+   private static void scan(RunLibrary library) throws IOException {
+      Path index = library.getDirectory().resolve(RunLibrary.INDEX);
+      FileTime before = Files.exists(index)
+                      ? Files.getLastModifiedTime(index) : null;
+      CountDownLatch scanned = new CountDownLatch(1);
+      library.addChangeListener((event) -> scanned.countDown());
+      library.start();
+      try {
+         assertTrue(scanned.await(TIMEOUT, TimeUnit.SECONDS));
+         long deadline = System.nanoTime()
+                       + TimeUnit.SECONDS.toNanos(TIMEOUT);
+         while (!Files.exists(index)
+                 || Files.getLastModifiedTime(index).equals(before)) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(10L);
+         }
+      } catch (InterruptedException x) {
+         throw new AssertionError(x);
+      }
+   }
+   
+   private static String titles(List<RunLibrary.Entry> entries) {
+      List<String> titles = new ArrayList<>();
+      for (RunLibrary.Entry entry : entries) {
+         titles.add(entry.toString());
+      }
+      return titles.toString();
+   }
+   
+}
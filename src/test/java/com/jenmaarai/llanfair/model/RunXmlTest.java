@@ -0,0 +1,148 @@
+package com.jenmaarai.llanfair.model;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import javax.swing.Icon;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RunXmlTest {
+   
+   @Rule public TemporaryFolder folder = new TemporaryFolder();
+   
+   @Test public void roundTripsEmptyRun() throws IOException {
+      Run run = new Run();
+      Runs.assertSameRun(run, roundTrip(run));
+   }
+   
+   @Test public void roundTripsTimesAndIcons() throws IOException {
+      Icon red = Runs.icon(16, Color.RED);
+      Run run = Runs.create(70, red, null, Runs.icon(24, Color.BLUE), red);
+      run.setRegion("PAL & <NTSC>");
+      run.setEmulated(true);
+      run.setGameSplitMillis(3, 4000L);
+      run.setGameSegmentBestMillis(69, 400L);
+      
+      Run read = roundTrip(run);
+      Runs.assertSameRun(run, read);
+      assertEquals(Run.UNDEFINED, read.getSplitMillis(2));
+      assertEquals(4000L, read.getGameSplitMillis(3));
+      assertNull(read.getSegment(1).getIcon());
+      assertSame(read.getSegment(0).getIcon(), read.getSegment(3).getIcon());
+      assertSame(read.getSegment(0).getIcon(), read.getSegment(4).getIcon());
+   }
+   
+   @Test public void migratesLegacyRuns() throws IOException {
+      Run run = read(
+              "<run>\n"
+            + "  <game>ALttP</game>\n"
+            + "  <segments>\n"
+            + "    <segment>\n"
+            + "      <icon class=\"javax.swing.ImageIcon\""
+            + " serialization=\"custom\">\n"
+            + "        <javax.swing.ImageIcon>\n"
+            + "          <default><description>x</description></default>\n"
+            + "          <int>2</int>\n"
+            + "          <int>1</int>\n"
+            + "          <int-array><int>-65536</int><int>-1</int>"
+            + "</int-array>\n"
+            + "        </javax.swing.ImageIcon>\n"
+            + "      </icon>\n"
+            + "      <name>Eastern</name>\n"
+            + "      <time><milliseconds>1000</milliseconds></time>\n"
+            + "      <best><milliseconds>900</milliseconds></best>\n"
+            + "    </segment>\n"
+            + "    <segment>\n"
+            + "      <icon reference=\"../../segment/icon\"/>\n"
+            + "      <name>Desert</name>\n"
+            + "      <time><milliseconds>2500</milliseconds></time>\n"
+            + "      <unknown><nested/></unknown>\n"
+            + "    </segment>\n"
+            + "  </segments>\n"
+            + "  <version>" + Run.SEGMENT_TIMES_VERSION + "</version>\n"
+            + "</run>\n");
+      
+      assertEquals("ALttP", run.getGame());
+      assertEquals(2, run.getSegmentCount());
+      assertEquals("Desert", run.getSegment(1).getName());
+      assertEquals(1000L, run.getSplitMillis(0));
+      assertEquals(2500L, run.getSplitMillis(1));
+      assertEquals(900L, run.getSegmentBestMillis(0));
+      assertEquals(Run.UNDEFINED, run.getSegmentBestMillis(1));
+      assertEquals(2, run.getSegment(0).getIcon().getIconWidth());
+      assertSame(run.getSegment(0).getIcon(), run.getSegment(1).getIcon());
+   }
+   
+   @Test public void replacesObsoleteRuns() throws IOException {
+      Run run = read("<run><game>Old</game><segments><segment/></segments>"
+              + "<version>1</version></run>");
+      assertNull(run.getGame());
+      assertEquals(1, run.getSegmentCount());
+   }
+   
+   @Test public void rejectsMalformedRuns() throws IOException {
+      char[] text = new char[(1 << 16) + 1];
+      Arrays.fill(text, 'a');
+      String[] documents = {
+         "",
+         "<run><game>Truncated",
+         "<segments/>",
+         "<run><version>twelve</version></run>",
+         "<run><game>" + new String(text) + "</game></run>",
+         "<run><game><b>bold</b></game></run>",
+         "<run><splits><values><long>1</long></values>"
+                 + "<defined/></splits></run>",
+         "<!DOCTYPE run [<!ENTITY e SYSTEM \"file:///etc/passwd\">]>"
+                 + "<run><game>&e;</game></run>",
+      };
+      for (String document : documents) {
+         try {
+            read(document);
+            fail("read malformed run " + document.substring(
+                    0, Math.min(document.length(), 40)));
+         } catch (IOException x) {
+            // Expected
+         }
+      }
+   }
+   
+   @Test public void boundsSegmentCount() throws IOException {
+      StringBuilder document = new StringBuilder("<run><segments>");
+      for (int i = 0; i <= 1 << 16; i++) {
+         document.append("<segment/>");
+      }
+      document.append("</segments></run>");
+      try {
+         read(document.toString());
+         fail("read too many segments");
+      } catch (IOException x) {
+         assertTrue(x.getCause().getMessage().contains("too many segments"));
+      }
+   }
+   
+   private Run roundTrip(Run run) throws IOException {
+      Path path = folder.getRoot().toPath().resolve("run.xml");
+      assertTrue(run.writeFile(path));
+      Run read = Run.readFile(path);
+      assertNotNull(read);
+      return read;
+   }
+   
+   private Run read(String document) throws IOException {
+      Path path = folder.getRoot().toPath().resolve("run.xml");
+      Files.write(path, document.getBytes(StandardCharsets.UTF_8));
+      return RunXml.read(path);
+   }
+   
+}
@@ -0,0 +1,127 @@
+package com.jenmaarai.llanfair.model;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.Icon;
+import javax.swing.ImageIcon;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Runs shared by the tests of the run formats and of the splitter.
+ */
+public final class Runs {
+   
+   private Runs() {}
+   
+   /**
+    * Returns a run of given number of segments, each lasting a second more
+    * than the previous one. Every third segment but the last has no split
+    * time and every fifth no best time. Segments cycle through the given
+    * icons, if any.
+    */
+   public static Run create(int count, Icon... icons) {
+      List<Segment> segments = new ArrayList<>(count);
+      TimeColumn splits = new TimeColumn(count);
+      TimeColumn bests  = new TimeColumn(count);
+      long split = 0L;
+      for (int i = 0; i < count; i++) {
+         Segment segment = new Segment();
+         segment.setName("Segment " + i);
+         if (icons.length > 0) {
+            segment.setIcon(icons[i % icons.length]);
+         }
+         segments.add(segment);
+         split += (i + 1) * 1000L;
+         if (i % 3 != 2 || i == count - 1) {
+            splits.set(i, split);
+         }
+         if (i % 5 != 4) {
+            bests.set(i, (i + 1) * 900L);
+         }
+      }
+      Run run = new Run();
+      run.setGame("The Legend of Zelda: A Link to the Past");
+      run.setCategory("No Major Glitches");
+      run.setContent(segments, splits, bests, null, null);
+      return run;
+   }
+   
+   /**
+    * Returns a plain square icon of given size and color.
+    */
+   public static Icon icon(int size, Color color) {
+      BufferedImage image 
+              = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+      Graphics2D g = image.createGraphics();
+      g.setColor(color);
+      g.fillRect(0, 0, size, size);
+      g.dispose();
+      return new ImageIcon(image);
+   }
+   
+   /**
+    * Checks that two runs hold the same metadata, segments, times and
+    * sections. Icons are compared by dimensions only, unless both are
+    * interned in which case they must be the same.
+    */
+   static void assertSameRun(Run expected, Run actual) {
+      assertEquals(expected.getGame(), actual.getGame());
+      assertEquals(expected.getCategory(), actual.getCategory());
+      assertEquals(expected.getPlatform(), actual.getPlatform());
+      assertEquals(expected.getRegion(), actual.getRegion());
+      assertEquals(expected.isEmulated(), actual.isEmulated());
+      assertEquals(expected.getSegmentCount(), actual.getSegmentCount());
+      for (int i = 0; i < expected.getSegmentCount(); i++) {
+         Segment segment = actual.getSegment(i);
+         assertEquals(expected.getSegment(i).getName(), segment.getName());
+         assertSameIcon(expected.getSegment(i).getIcon(), segment.getIcon());
+         assertEquals(
+                 expected.getSplitMillis(i), actual.getSplitMillis(i));
+         assertEquals(expected.getSegmentBestMillis(i),
+                 actual.getSegmentBestMillis(i));
+      }
+      assertEquals(expected.hasGameTime(), actual.hasGameTime());
+      if (expected.hasGameTime()) {
+         for (int i = 0; i < expected.getSegmentCount(); i++) {
+            assertEquals(expected.getGameSplitMillis(i),
+                    actual.getGameSplitMillis(i));
+            assertEquals(expected.getGameSegmentBestMillis(i),
+                    actual.getGameSegmentBestMillis(i));
+         }
+      }
+      assertSameSections(expected.getSections(), actual.getSections());
+      assertEquals(
+              expected.getSumOfBestMillis(), actual.getSumOfBestMillis());
+   }
+   
+   private static void assertSameIcon(Icon expected, Icon actual) {
+      if (expected == null) {
+         assertNull(actual);
+         return;
+      }
+      assertEquals(expected.getIconWidth(), actual.getIconWidth());
+      assertEquals(expected.getIconHeight(), actual.getIconHeight());
+      if (expected instanceof LazyIcon && actual instanceof LazyIcon) {
+         assertSame(expected, actual);
+      }
+   }
+   
+   private static void assertSameSections(
+           List<Section> expected, List<Section> actual) {
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++) {
+         Section section = actual.get(i);
+         assertEquals(expected.get(i).getName(), section.getName());
+         assertEquals(expected.get(i).getFirst(), section.getFirst());
+         assertEquals(expected.get(i).getLast(), section.getLast());
+         assertSameSections(
+                 expected.get(i).getChildren(), section.getChildren());
+      }
+   }
+   
+}
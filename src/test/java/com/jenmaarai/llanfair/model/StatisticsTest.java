@@ -0,0 +1,88 @@
+package com.jenmaarai.llanfair.model;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StatisticsTest {
+   
+   private static final int SEGMENTS = 6;
+   private static final long SECOND = 1000000000L;
+   
+   @Rule public TemporaryFolder folder = new TemporaryFolder();
+   
+   @Test public void rebuildsLikeIngestion() throws IOException {
+      Path path = folder.getRoot().toPath().resolve("run.history");
+      Statistics ingested = new Statistics();
+      Random random = new Random(42L);
+      // Spans three chunks of a rebuild, the last one partial
+      int attempts = 10000;
+      try (AttemptHistory history = AttemptHistory.open(path)) {
+         long[] splits = new long[SEGMENTS];
+         for (int attempt = 0; attempt < attempts; attempt++) {
+            int count = random.nextInt(3) == 0
+                      ? random.nextInt(SEGMENTS) : SEGMENTS;
+            long split = 0L;
+            for (int i = 0; i < count; i++) {
+               // Slowly improving times, so that golds keep happening in
+               // every chunk
+               split += 60L * SECOND - attempt * SECOND / 1000L
+                      + (long) (random.nextGaussian() * 5L * SECOND);
+               boolean skip = i < SEGMENTS - 1 && random.nextInt(20) == 0;
+               splits[i] = skip ? AttemptHistory.SKIPPED : split;
+            }
+            AttemptHistory.Outcome outcome = count == SEGMENTS
+                    ? AttemptHistory.Outcome.COMPLETED
+                    : AttemptHistory.Outcome.RESET;
+            history.append(attempt, split, SEGMENTS, outcome, splits, count);
+            ingested.ingest(outcome, SEGMENTS, splits, count);
+         }
+         
+         Statistics rebuilt = new Statistics();
+         long version = rebuilt.getVersion();
+         rebuilt.rebuild(history);
+         assertTrue(rebuilt.getVersion() > version);
+         assertEquals(attempts, rebuilt.getAttemptCount());
+         assertEquals(ingested.getAttemptCount(), rebuilt.getAttemptCount());
+         assertEquals(
+                 ingested.getCompletedCount(), rebuilt.getCompletedCount());
+         assertEquals(SEGMENTS, rebuilt.getSegmentCount());
+         for (int i = 0; i < SEGMENTS; i++) {
+            assertEquals(
+                    ingested.getSampleCount(i), rebuilt.getSampleCount(i));
+            // Merged moments may round differently than sequential ones
+            assertEquals(ingested.getMean(i), rebuilt.getMean(i), 1.0);
+            assertEquals(
+                    ingested.getStandardDeviation(i),
+                    rebuilt.getStandardDeviation(i), 1.0);
+            assertEquals(ingested.getMedian(i), rebuilt.getMedian(i));
+            assertEquals(
+                    ingested.getQuantile(i, 0.9), rebuilt.getQuantile(i, 0.9));
+            assertEquals(
+                    ingested.getGoldRate(i), rebuilt.getGoldRate(i), 0.0);
+            assertEquals(
+                    ingested.getResetRate(i), rebuilt.getResetRate(i), 0.0);
+            assertEquals(
+                    ingested.getLatestSplit(i), rebuilt.getLatestSplit(i));
+         }
+         assertTrue(rebuilt.getGoldRate(0) > 0.0);
+         assertTrue(rebuilt.getResetRate(0) > 0.0);
+      }
+   }
+   
+   @Test public void startsEmpty() {
+      Statistics statistics = new Statistics();
+      assertEquals(0L, statistics.getAttemptCount());
+      assertEquals(0, statistics.getSegmentCount());
+      assertEquals(Run.UNDEFINED, statistics.getMean(0));
+      assertEquals(Run.UNDEFINED, statistics.getMedian(0));
+      assertEquals(Run.UNDEFINED, statistics.getLatestSplit(0));
+      assertEquals(0.0, statistics.getGoldRate(0), 0.0);
+   }
+   
+}
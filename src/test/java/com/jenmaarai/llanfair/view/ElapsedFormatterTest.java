@@ -0,0 +1,89 @@
+package com.jenmaarai.llanfair.view;
+
+import java.lang.management.ManagementFactory;
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class ElapsedFormatterTest {
+   
+   private static final long NANOS_PER_SECOND = 1_000_000_000L;
+   
+   @Test public void formatsCompactDurations() {
+      ElapsedFormatter formatter = new ElapsedFormatter(2, true);
+      assertEquals("0.00", format(formatter, 0L));
+      assertEquals("9.99", format(formatter, 9_999_999_999L));
+      assertEquals("1:05.50", format(formatter, 65_500_000_000L));
+      assertEquals("1:00:00.00", format(formatter, 3600L * NANOS_PER_SECOND));
+      assertEquals("-1.25", format(formatter, -1_250_000_000L));
+   }
+   
+   @Test public void formatsFullDurations() {
+      ElapsedFormatter formatter = new ElapsedFormatter(3, false);
+      assertEquals("0:00:00.000", format(formatter, 0L));
+      assertEquals("0:01:05.123", format(formatter, 65_123_999_999L));
+      formatter.setPrecision(0);
+      assertEquals("0:01:05", format(formatter, 65_123_999_999L));
+   }
+   
+   @Test public void formatsExtremeDurations() {
+      ElapsedFormatter formatter = new ElapsedFormatter(3, true);
+      assertEquals(
+              "-2562047:47:16.854", format(formatter, Long.MIN_VALUE));
+      assertEquals(
+              "2562047:47:16.854", format(formatter, Long.MAX_VALUE));
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsInvalidPrecision() {
+      new ElapsedFormatter(ElapsedFormatter.MAX_PRECISION + 1, true);
+   }
+   
+   /**
+    * Formats a million durations, as many as several hours of frames, and
+    * checks that the thread has not allocated anything meanwhile.
+    */
+   @Test public void formatsWithoutAllocating() {
+      java.lang.management.ThreadMXBean bean
+              = ManagementFactory.getThreadMXBean();
+      Assume.assumeTrue(
+              bean instanceof com.sun.management.ThreadMXBean);
+      com.sun.management.ThreadMXBean threads
+              = (com.sun.management.ThreadMXBean) bean;
+      Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+      threads.setThreadAllocatedMemoryEnabled(true);
+      
+      ElapsedFormatter formatter = new ElapsedFormatter(2, true);
+      long thread = Thread.currentThread().getId();
+      long checksum = run(formatter, 0L);
+      // Measures the cost of the measure itself, then the formatting
+      long before = threads.getThreadAllocatedBytes(thread);
+      long overhead = threads.getThreadAllocatedBytes(thread) - before;
+      before = threads.getThreadAllocatedBytes(thread);
+      checksum += run(formatter, 7L);
+      long allocated
+              = threads.getThreadAllocatedBytes(thread) - before - overhead;
+      
+      assertEquals(0L, allocated);
+      assertNotEquals(0L, checksum);
+   }
+   
+   /**
+    * Formats a million durations and returns a sum of the characters written
+    * so that the formatting cannot be optimized away.
+    */
+   private static long run(ElapsedFormatter formatter, long seed) {
+      long checksum = 0L;
+      for (long i = 0L; i < 1_000_000L; i++) {
+         int length = formatter.format(seed + i * 16_666_667L);
+         checksum += formatter.getBuffer()[length - 1];
+      }
+      return checksum;
+   }
+   
+   private static String format(ElapsedFormatter formatter, long nanos) {
+      return new String(formatter.getBuffer(), 0, formatter.format(nanos));
+   }
+   
+}